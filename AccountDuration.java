@@ -1,129 +1,277 @@
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HBaseConfiguration;
-import org.apache.hadoop.hbase.client.HTable;
-import org.apache.hadoop.hbase.client.Result;
-import org.apache.hadoop.hbase.client.ResultScanner;
-import org.apache.hadoop.hbase.client.Scan;
-import org.apache.hadoop.hbase.util.Bytes;
 import java.time.LocalDate;
-import java.time.ZoneId;
-import java.time.temporal.ChronoUnit;
 
 public class AccountDuration {
 
     public static String Table_Name = "CovidData";
 
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
     public static void main(String[] args) throws IOException {
         Configuration conf = HBaseConfiguration.create();
-        HTable hTable = new HTable(conf, Table_Name);
+
+        // Scan all rows in the table, only the two columns that are used, one region per thread
+        MetricsReporter.run(conf, "AccountDuration",
+                () -> ParallelScanner.run(conf, Table_Name, new ScanExecutor().register(new AgeBuckets())));
+    }
+
+    // Account age categories, overall and split by verification status
+    static class AgeBuckets implements Checkpointed {
+        private final TweetQuery query = accountAgeQuery();
 
         // Initialize counts for categories and account durations
-        int lessThan1Year = 0, oneToThreeYears = 0, greaterThan3Years = 0;
-        int verifiedLessThan1Year = 0, verifiedOneToThreeYears = 0, verifiedGreaterThan3Years = 0;
-        int nonVerifiedLessThan1Year = 0, nonVerifiedOneToThreeYears = 0, nonVerifiedGreaterThan3Years = 0;
+        private int lessThan1Year = 0, oneToThreeYears = 0, greaterThan3Years = 0;
+        private int verifiedLessThan1Year = 0, verifiedOneToThreeYears = 0, verifiedGreaterThan3Years = 0;
+        private int nonVerifiedLessThan1Year = 0, nonVerifiedOneToThreeYears = 0, nonVerifiedGreaterThan3Years = 0;
 
-        long totalVerifiedYears = 0, totalNonVerifiedYears = 0;
-        int verifiedCount = 0, nonVerifiedCount = 0;
+        private long totalVerifiedYears = 0, totalNonVerifiedYears = 0;
+        private int verifiedCount = 0, nonVerifiedCount = 0;
 
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-        Date currentDate = new Date();  // Current date to compare
+        // Accounts per creation day (UTC) and verification status. Ages change every day, so this
+        // is what is saved, and rows are only aged per distinct day when the report is written.
+        private final DayCounts verifiedByCreationDay = new DayCounts();
+        private final DayCounts nonVerifiedByCreationDay = new DayCounts();
 
-        // Scan all rows in the table
-        Scan scan = new Scan();
-        scan.addFamily(Bytes.toBytes("Users")); // Only retrieve "Users" column family (to reduce data transfer)
-        ResultScanner scanner = hTable.getScanner(scan);
+        private final long currentTime;  // Current time to compare
 
-        try {
-            for (Result result : scanner) {
-                // Extract the user_created and user_verified fields from the table
-                String user_created = Bytes.toString(result.getValue(Bytes.toBytes("Users"), Bytes.toBytes("user_created")));
-                String user_verified = Bytes.toString(result.getValue(Bytes.toBytes("Users"), Bytes.toBytes("user_verified")));
+        AgeBuckets() {
+            this(System.currentTimeMillis());
+        }
 
-                if (user_created == null || user_verified == null) {
-                    continue;  // Skip if either field is missing
-                }
+        AgeBuckets(long currentTime) {
+            this.currentTime = currentTime;
+        }
+
+        long getCurrentTime() {
+            return currentTime;
+        }
+
+        @Override
+        public TweetQuery query() {
+            return query;
+        }
+
+        @Override
+        public void add(RowAccessor row) {
+            // Extract the user_created and user_verified fields from the table
+            long user_created = row.getTimestamp(TweetColumn.USER_CREATED, Long.MIN_VALUE);
+            Boolean user_verified = row.getBoolean(TweetColumn.USER_VERIFIED);
+
+            if (user_created == Long.MIN_VALUE || user_verified == null) {
+                return;  // Skip if either field is missing or the creation date is unparseable
+            }
+
+            days(user_verified).add(Math.floorDiv(user_created, MILLIS_PER_DAY), 1);
+        }
+
+        private DayCounts days(boolean user_verified) {
+            return user_verified ? verifiedByCreationDay : nonVerifiedByCreationDay;
+        }
+
+        @Override
+        public Aggregator newPartial() {
+            return new AgeBuckets(currentTime);
+        }
+
+        @Override
+        public void merge(Aggregator partial) {
+            AgeBuckets other = (AgeBuckets) partial;
+            lessThan1Year += other.lessThan1Year;
+            oneToThreeYears += other.oneToThreeYears;
+            greaterThan3Years += other.greaterThan3Years;
+            verifiedLessThan1Year += other.verifiedLessThan1Year;
+            verifiedOneToThreeYears += other.verifiedOneToThreeYears;
+            verifiedGreaterThan3Years += other.verifiedGreaterThan3Years;
+            nonVerifiedLessThan1Year += other.nonVerifiedLessThan1Year;
+            nonVerifiedOneToThreeYears += other.nonVerifiedOneToThreeYears;
+            nonVerifiedGreaterThan3Years += other.nonVerifiedGreaterThan3Years;
+            totalVerifiedYears += other.totalVerifiedYears;
+            totalNonVerifiedYears += other.totalNonVerifiedYears;
+            verifiedCount += other.verifiedCount;
+            nonVerifiedCount += other.nonVerifiedCount;
+            verifiedByCreationDay.addAll(other.verifiedByCreationDay);
+            nonVerifiedByCreationDay.addAll(other.nonVerifiedByCreationDay);
+        }
 
-                try {
-                    // Parse the account creation date
-                    Date createdDate = dateFormat.parse(user_created);
-                    // Calculate the duration in years
-                    long accountDurationYears = calculateYearsBetween(createdDate, currentDate);
-
-                    // Categorize based on account age
-                    if (accountDurationYears < 1) {
-                        lessThan1Year++;
-                        if (user_verified.equalsIgnoreCase("TRUE")) {
-                            verifiedLessThan1Year++;
-                        } else {
-                            nonVerifiedLessThan1Year++;
-                        }
-                    } else if (accountDurationYears >= 1 && accountDurationYears <= 3) {
-                        oneToThreeYears++;
-                        if (user_verified.equalsIgnoreCase("TRUE")) {
-                            verifiedOneToThreeYears++;
-                        } else {
-                            nonVerifiedOneToThreeYears++;
-                        }
-                    } else {
-                        greaterThan3Years++;
-                        if (user_verified.equalsIgnoreCase("TRUE")) {
-                            verifiedGreaterThan3Years++;
-                        } else {
-                            nonVerifiedGreaterThan3Years++;
-                        }
-                    }
-
-                    // Calculate the total number of years for verified and non-verified users
-                    if (user_verified.equalsIgnoreCase("TRUE")) {
-                        totalVerifiedYears += accountDurationYears;
-                        verifiedCount++;
-                    } else {
-                        totalNonVerifiedYears += accountDurationYears;
-                        nonVerifiedCount++;
-                    }
-
-                } catch (ParseException e) {
-                    e.printStackTrace();
+        // Add accounts created on the given day (UTC), aged as of currentTime when the report is written
+        void addCreated(boolean user_verified, LocalDate createdDay, int count) {
+            days(user_verified).add(createdDay.toEpochDay(), count);
+        }
+
+        @Override
+        public String stateName() {
+            return "AccountDuration";
+        }
+
+        @Override
+        public void writeState(DataOutput out) throws IOException {
+            Map<Long, Integer> verified = verifiedByCreationDay.toMap();
+            Map<Long, Integer> nonVerified = nonVerifiedByCreationDay.toMap();
+            out.writeInt(verified.size() + nonVerified.size());
+            writeDays(out, true, verified);
+            writeDays(out, false, nonVerified);
+        }
+
+        // One "<verified> <creation day>" key and count per day
+        private void writeDays(DataOutput out, boolean user_verified, Map<Long, Integer> days) throws IOException {
+            for (Map.Entry<Long, Integer> entry : days.entrySet()) {
+                out.writeUTF(user_verified + " " + LocalDate.ofEpochDay(entry.getKey()));
+                out.writeInt(entry.getValue());
+            }
+        }
+
+        // The stored accounts are aged again as of this run's currentTime
+        @Override
+        public void readState(DataInput in) throws IOException {
+            for (int i = in.readInt(); i > 0; i--) {
+                String key = in.readUTF();
+                int space = key.indexOf(' ');
+                addCreated(Boolean.parseBoolean(key.substring(0, space)), LocalDate.parse(key.substring(space + 1)),
+                        in.readInt());
+            }
+        }
+
+        // Add accounts of the given verification status and age, e.g. counted by the GroupByEndpoint.
+        // These are not part of the saved state, which needs the creation day (see addCreated).
+        void addAccounts(boolean user_verified, long accountDurationYears, int count) {
+            // Categorize based on account age
+            if (accountDurationYears < 1) {
+                lessThan1Year += count;
+                if (user_verified) {
+                    verifiedLessThan1Year += count;
+                } else {
+                    nonVerifiedLessThan1Year += count;
+                }
+            } else if (accountDurationYears >= 1 && accountDurationYears <= 3) {
+                oneToThreeYears += count;
+                if (user_verified) {
+                    verifiedOneToThreeYears += count;
+                } else {
+                    nonVerifiedOneToThreeYears += count;
+                }
+            } else {
+                greaterThan3Years += count;
+                if (user_verified) {
+                    verifiedGreaterThan3Years += count;
+                } else {
+                    nonVerifiedGreaterThan3Years += count;
                 }
             }
 
-        } finally {
-            scanner.close();  // Ensure scanner is closed after usage
+            // Calculate the total number of years for verified and non-verified users
+            if (user_verified) {
+                totalVerifiedYears += accountDurationYears * count;
+                verifiedCount += count;
+            } else {
+                totalNonVerifiedYears += accountDurationYears * count;
+                nonVerifiedCount += count;
+            }
         }
 
-        // Output the categorization
-        System.out.println("Account Age Categories:");
-        System.out.println("Less than 1 year: " + lessThan1Year);
-        System.out.println("1-3 years: " + oneToThreeYears);
-        System.out.println("Greater than 3 years: " + greaterThan3Years);
+        // Age the accounts counted per creation day as of currentTime
+        private void ageAccounts(boolean user_verified) {
+            for (Map.Entry<Long, Integer> entry : days(user_verified).toMap().entrySet()) {
+                // Calculate the duration in years
+                long accountDurationYears = calculateYearsBetween(entry.getKey() * MILLIS_PER_DAY, currentTime);
+                addAccounts(user_verified, accountDurationYears, entry.getValue());
+            }
+        }
+
+        @Override
+        public void finish() {
+            ageAccounts(true);
+            ageAccounts(false);
+
+            // Output the categorization
+            System.out.println("Account Age Categories:");
+            System.out.println("Less than 1 year: " + lessThan1Year);
+            System.out.println("1-3 years: " + oneToThreeYears);
+            System.out.println("Greater than 3 years: " + greaterThan3Years);
+
+            // Compare verified vs non-verified account durations
+            System.out.println("\nVerified Users:");
+            System.out.println("Less than 1 year: " + verifiedLessThan1Year);
+            System.out.println("1-3 years: " + verifiedOneToThreeYears);
+            System.out.println("Greater than 3 years: " + verifiedGreaterThan3Years);
 
-        // Compare verified vs non-verified account durations
-        System.out.println("\nVerified Users:");
-        System.out.println("Less than 1 year: " + verifiedLessThan1Year);
-        System.out.println("1-3 years: " + verifiedOneToThreeYears);
-        System.out.println("Greater than 3 years: " + verifiedGreaterThan3Years);
+            System.out.println("\nNon-Verified Users:");
+            System.out.println("Less than 1 year: " + nonVerifiedLessThan1Year);
+            System.out.println("1-3 years: " + nonVerifiedOneToThreeYears);
+            System.out.println("Greater than 3 years: " + nonVerifiedGreaterThan3Years);
 
-        System.out.println("\nNon-Verified Users:");
-        System.out.println("Less than 1 year: " + nonVerifiedLessThan1Year);
-        System.out.println("1-3 years: " + nonVerifiedOneToThreeYears);
-        System.out.println("Greater than 3 years: " + nonVerifiedGreaterThan3Years);
+            // Calculate average duration for verified and non-verified users
+            double avgVerifiedYears = verifiedCount > 0 ? (double) totalVerifiedYears / verifiedCount : 0;
+            double avgNonVerifiedYears = nonVerifiedCount > 0 ? (double) totalNonVerifiedYears / nonVerifiedCount : 0;
+
+            System.out.println("\nAverage account age for verified users: " + avgVerifiedYears + " years");
+            System.out.println("Average account age for non-verified users: " + avgNonVerifiedYears + " years");
+        }
+    }
 
-        // Calculate average duration for verified and non-verified users
-        double avgVerifiedYears = verifiedCount > 0 ? (double) totalVerifiedYears / verifiedCount : 0;
-        double avgNonVerifiedYears = nonVerifiedCount > 0 ? (double) totalNonVerifiedYears / nonVerifiedCount : 0;
+    // Counters per epoch day, in an array over the range of days seen. Days further than MAX_SPAN
+    // from the first one, which only bad timestamps produce, are kept in a map instead.
+    private static class DayCounts {
+        private static final int MAX_SPAN = 1 << 16;
+
+        private long firstDay;
+        private int[] counts = new int[0];
+        private final Map<Long, Integer> outliers = new HashMap<>();
+
+        void add(long day, int count) {
+            if (counts.length == 0) {
+                firstDay = day - 32;
+                counts = new int[64];
+            }
+            if (day < firstDay || day >= firstDay + counts.length) {
+                long first = Math.min(firstDay, day);
+                long end = Math.max(firstDay + counts.length, day + 1);
+                if (end - first > MAX_SPAN) {
+                    outliers.merge(day, count, Integer::sum);
+                    return;
+                }
+                // Grow at least twofold, so a scan moving through the days reallocates rarely
+                int length = (int) Math.min(MAX_SPAN, Math.max(end - first, 2L * counts.length));
+                first = day < firstDay ? end - length : first;
+                int[] grown = new int[length];
+                System.arraycopy(counts, 0, grown, (int) (firstDay - first), counts.length);
+                firstDay = first;
+                counts = grown;
+            }
+            counts[(int) (day - firstDay)] += count;
+        }
+
+        void addAll(DayCounts other) {
+            for (Map.Entry<Long, Integer> entry : other.toMap().entrySet()) {
+                add(entry.getKey(), entry.getValue());
+            }
+        }
+
+        // Count per epoch day, for the days with accounts
+        Map<Long, Integer> toMap() {
+            Map<Long, Integer> days = new HashMap<>(outliers);
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] != 0) {
+                    days.merge(firstDay + i, counts[i], Integer::sum);
+                }
+            }
+            return days;
+        }
+    }
 
-        System.out.println("\nAverage account age for verified users: " + avgVerifiedYears + " years");
-        System.out.println("Average account age for non-verified users: " + avgNonVerifiedYears + " years");
+    // Account creation date and verification flag of every row
+    static TweetQuery accountAgeQuery() {
+        return new TweetQuery().select(TweetColumn.USER_CREATED, TweetColumn.USER_VERIFIED);
     }
 
-    // Helper method to calculate the number of years between two dates
-    private static long calculateYearsBetween(Date startDate, Date endDate) {
-        LocalDate startLocalDate = startDate.toInstant().atZone(ZoneId.systemDefault()).toLocalDate();
-        LocalDate endLocalDate = endDate.toInstant().atZone(ZoneId.systemDefault()).toLocalDate();
-        return ChronoUnit.YEARS.between(startLocalDate, endLocalDate);
+    // Helper method to calculate the number of years between two epoch-millis timestamps (UTC, as
+    // stored), the same way the server-side group-by does
+    static long calculateYearsBetween(long startMillis, long endMillis) {
+        return GroupByProtocol.yearsBetween(startMillis, endMillis);
     }
 }
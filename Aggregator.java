@@ -0,0 +1,24 @@
+import java.io.IOException;
+
+// One report computed from a pass over CovidData. The query names the columns the report reads
+// and the predicates a row has to satisfy; the ScanExecutor calls add() for every matching row
+// and finish() once the scan is complete, which is where the report gets written. Rows come as
+// a RowAccessor that is reused for the next row, so add() must not keep it.
+//
+// For parallel scans every task fills its own partial from newPartial(), and the partials are
+// merged into the original in key order before finish(), so the report comes out the same as
+// with a single scan.
+public interface Aggregator {
+
+    TweetQuery query();
+
+    void add(RowAccessor row);
+
+    // Empty aggregator with the same settings, to be filled by another thread
+    Aggregator newPartial();
+
+    // Add the rows counted by a partial from newPartial()
+    void merge(Aggregator partial);
+
+    void finish() throws IOException;
+}
@@ -0,0 +1,29 @@
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+
+// Produces every analytics report (Member1, Member2, Member3 and AccountDuration) from a single
+// scan of CovidData instead of one scan per report, with the regions scanned in parallel
+public class AnalyticsRun {
+
+    public static String Table_Name = "CovidData";
+
+    public static void main(String[] args) throws IOException {
+        Configuration conf = HBaseConfiguration.create();
+        Sketches.parseArgs(conf, args);
+        ScanExecutor executor = executor(conf);
+
+        MetricsReporter.run(conf, "AnalyticsRun", () -> ParallelScanner.run(conf, Table_Name, executor));
+    }
+
+    // Every report registered on one executor; SchemaProfile groups the columns they read
+    static ScanExecutor executor(Configuration conf) {
+        ScanExecutor executor = new ScanExecutor();
+        Member1.register(executor, conf);
+        Member2.register(executor, conf);
+        Member3.register(executor, conf);
+        executor.register(new AccountDuration.AgeBuckets());
+        return executor;
+    }
+}
@@ -0,0 +1,296 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Increment;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Row;
+import org.apache.hadoop.hbase.client.Table;
+
+// Non-blocking front of a shared Connection: gets, puts and increments return CompletableFutures
+// right away, and any number of them can be outstanding at once.
+//
+// The 1.x client has no asynchronous connection, and this build targets Java 8, so there are no
+// virtual threads to park blocking calls on either. Instead requests are queued per table and a
+// few pool threads (async.threads) drain the queues: each takes up to async.batch.size requests
+// and sends them with one Table.batch, which the client splits into one multi request per region
+// server. Thousands of concurrent callers are served by a handful of threads and RPCs, and
+// under load the batches grow rather than the queue of threads waiting for a connection.
+//
+// async.max.inflight bounds the requests submitted and not yet completed; a caller submitting
+// past it waits for a slot, which keeps a fast producer from queueing without bound. Scans and
+// other long calls go through call(), which runs them on the pool under the same limit; each
+// holds a pool thread while it runs. Futures complete on the pool threads, so callbacks should be
+// short and must not submit more requests, which could wait for a slot only they can free.
+//
+// Metrics: async.request{table} latency from submission to completion; async.requests{table}
+// and async.batches{table} count the requests and the Table.batch calls that carried them.
+public class AsyncClient implements Closeable {
+
+    // Configuration keys, settable with -D on the command line
+    public static final String THREADS_KEY = "async.threads";
+    public static final String MAX_IN_FLIGHT_KEY = "async.max.inflight";
+    public static final String BATCH_SIZE_KEY = "async.batch.size";
+
+    // A blocking call on a Table from the shared connection
+    public interface TableCall<T> {
+        T call(Table table) throws IOException;
+    }
+
+    // A queued request and the future it completes
+    private static class Request {
+        final Row row;
+        final CompletableFuture<Object> future = new CompletableFuture<>();
+        final long submitted = Metrics.isEnabled() ? System.nanoTime() : -1;
+
+        Request(Row row) {
+            this.row = row;
+        }
+    }
+
+    // Requests waiting for one table, and the number of pool threads draining them
+    private class TableQueue {
+        final TableName name;
+        final Queue<Request> requests = new ConcurrentLinkedQueue<>();
+        final AtomicInteger drainers = new AtomicInteger();
+        final Histogram latencies;
+        final Metrics.Counter requestCount;
+        final Metrics.Counter batchCount;
+
+        TableQueue(TableName name) {
+            this.name = name;
+            this.latencies = Metrics.histogram("async.request", "table", name.getNameAsString());
+            this.requestCount = Metrics.counter("async.requests", "table", name.getNameAsString());
+            this.batchCount = Metrics.counter("async.batches", "table", name.getNameAsString());
+        }
+    }
+
+    private final Connection connection;
+    private final boolean ownsConnection;
+    private final ExecutorService pool;
+    private final int threads;
+    private final int batchSize;
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+    private final ConcurrentMap<TableName, TableQueue> queues = new ConcurrentHashMap<>();
+
+    public AsyncClient(Connection connection, Configuration conf) {
+        this(connection, false, conf.getInt(THREADS_KEY, 8), conf.getInt(MAX_IN_FLIGHT_KEY, 10000),
+                conf.getInt(BATCH_SIZE_KEY, 500));
+    }
+
+    public AsyncClient(Connection connection, int threads, int maxInFlight, int batchSize) {
+        this(connection, false, threads, maxInFlight, batchSize);
+    }
+
+    private AsyncClient(Connection connection, boolean ownsConnection, int threads, int maxInFlight, int batchSize) {
+        this.connection = connection;
+        this.ownsConnection = ownsConnection;
+        this.threads = Math.max(1, threads);
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.batchSize = Math.max(1, batchSize);
+        this.inFlight = new Semaphore(this.maxInFlight);
+        this.pool = Executors.newFixedThreadPool(this.threads);
+    }
+
+    // A client over a connection of its own, closed with the client
+    public static AsyncClient create(Configuration conf) throws IOException {
+        return new AsyncClient(ConnectionFactory.createConnection(conf), true, conf.getInt(THREADS_KEY, 8),
+                conf.getInt(MAX_IN_FLIGHT_KEY, 10000), conf.getInt(BATCH_SIZE_KEY, 500));
+    }
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    public CompletableFuture<Result> get(TableName table, Get get) {
+        return submit(table, get).thenApply(result -> (Result) result);
+    }
+
+    public CompletableFuture<Void> put(TableName table, Put put) {
+        return submit(table, put).thenApply(result -> (Void) null);
+    }
+
+    // All rows of a list in one go; the future completes when every one has been written
+    public CompletableFuture<Void> putAll(TableName table, List<Put> puts) {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[puts.size()];
+        for (int i = 0; i < futures.length; i++) {
+            futures[i] = submit(table, puts.get(i));
+        }
+        return CompletableFuture.allOf(futures);
+    }
+
+    public CompletableFuture<Result> increment(TableName table, Increment increment) {
+        return submit(table, increment).thenApply(result -> (Result) result);
+    }
+
+    // Run a blocking call, such as a scan, on the pool with a Table of its own
+    public <T> CompletableFuture<T> call(TableName table, TableCall<T> call) {
+        acquire();
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            pool.execute(() -> {
+                try (Table t = connection.getTable(table)) {
+                    future.complete(call.call(t));
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                } finally {
+                    inFlight.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.release();
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    // Requests submitted and not completed yet
+    public int getInFlight() {
+        return maxInFlight - inFlight.availablePermits();
+    }
+
+    private CompletableFuture<Object> submit(TableName table, Row row) {
+        acquire();
+        Request request = new Request(row);
+        TableQueue queue = queues.computeIfAbsent(table, TableQueue::new);
+        queue.requests.add(request);
+        startDrainer(queue);
+        return request.future;
+    }
+
+    private void acquire() {
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for a request slot", e);
+        }
+    }
+
+    // Put another pool thread on the queue unless every thread is on it already
+    private void startDrainer(TableQueue queue) {
+        while (true) {
+            int drainers = queue.drainers.get();
+            if (drainers >= threads) {
+                return;
+            }
+            if (queue.drainers.compareAndSet(drainers, drainers + 1)) {
+                try {
+                    pool.execute(() -> drain(queue));
+                } catch (RuntimeException e) {
+                    queue.drainers.decrementAndGet();
+                    failAll(queue, e);
+                }
+                return;
+            }
+        }
+    }
+
+    // Send the queued requests in batches until the queue is empty
+    private void drain(TableQueue queue) {
+        List<Request> batch = new ArrayList<>(batchSize);
+        while (true) {
+            Request request;
+            while (batch.size() < batchSize && (request = queue.requests.poll()) != null) {
+                batch.add(request);
+            }
+            if (!batch.isEmpty()) {
+                send(queue, batch);
+                batch.clear();
+                continue;
+            }
+            queue.drainers.decrementAndGet();
+            // A request queued after the poll above and before the decrement would have seen this
+            // drainer still running; take it up again if nobody else has
+            if (queue.requests.isEmpty() || !rejoin(queue)) {
+                return;
+            }
+        }
+    }
+
+    private boolean rejoin(TableQueue queue) {
+        int drainers = queue.drainers.get();
+        return drainers < threads && queue.drainers.compareAndSet(drainers, drainers + 1);
+    }
+
+    private void send(TableQueue queue, List<Request> batch) {
+        List<Row> rows = new ArrayList<>(batch.size());
+        for (Request request : batch) {
+            rows.add(request.row);
+        }
+        Object[] results = new Object[rows.size()];
+        Throwable failure = null;
+        try (Table table = connection.getTable(queue.name)) {
+            table.batch(rows, results);
+        } catch (IOException e) {
+            failure = e;  // The results hold what did succeed and the per-row errors
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure = e;
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+        queue.requestCount.add(rows.size());
+        queue.batchCount.inc();
+
+        long now = Metrics.isEnabled() ? System.nanoTime() : -1;
+        for (int i = 0; i < batch.size(); i++) {
+            Request request = batch.get(i);
+            Object result = results[i];
+            inFlight.release();
+            if (result instanceof Throwable) {
+                request.future.completeExceptionally((Throwable) result);
+            } else if (result == null) {
+                request.future.completeExceptionally(failure != null ? failure
+                        : new IOException("No result for " + request.row + " on " + queue.name));
+            } else {
+                request.future.complete(result);
+            }
+            if (request.submitted >= 0 && now >= 0) {
+                queue.latencies.record(now - request.submitted);
+            }
+        }
+    }
+
+    private void failAll(TableQueue queue, Throwable e) {
+        Request request;
+        while ((request = queue.requests.poll()) != null) {
+            inFlight.release();
+            request.future.completeExceptionally(e);
+        }
+    }
+
+    // Let the queued requests finish, then release the threads and the connection if it is ours
+    @Override
+    public void close() throws IOException {
+        pool.shutdown();
+        try {
+            while (!pool.awaitTermination(1, TimeUnit.SECONDS)) {
+                // Draining; requests complete as their batches come back
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (ownsConnection) {
+            connection.close();
+        }
+    }
+}
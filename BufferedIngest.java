@@ -0,0 +1,194 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.BufferedMutator;
+import org.apache.hadoop.hbase.client.BufferedMutatorParams;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.RetriesExhaustedWithDetailsException;
+import org.apache.hadoop.hbase.util.Bytes;
+
+// Buffered write path used by InsertData: one shared connection, one BufferedMutator,
+// puts handed over in batches and flushed either when the buffer fills or on a timer
+public class BufferedIngest implements Closeable {
+
+    // Configuration keys, settable with -D on the InsertData command line
+    public static final String BATCH_SIZE_KEY = "insert.batch.size";
+    public static final String WRITE_BUFFER_KEY = "insert.write.buffer.bytes";
+    public static final String FLUSH_INTERVAL_KEY = "insert.flush.interval.ms";
+
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    public static final long DEFAULT_WRITE_BUFFER = 8L * 1024 * 1024;
+    public static final long DEFAULT_FLUSH_INTERVAL = 1000;
+
+    private final BufferedMutator mutator;
+    private final int batchSize;
+    private final List<Put> batch;
+    private final ScheduledExecutorService flusher;
+
+    private final AtomicLong rowsSubmitted = new AtomicLong();
+    private final AtomicLong rowsFailed = new AtomicLong();
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong flushNanos = new AtomicLong();
+    private final AtomicLong maxFlushNanos = new AtomicLong();
+    private final long startNanos = System.nanoTime();
+
+    // Time spent in mutate() per batch, which blocks while the write buffer is full, and per flush
+    private final Histogram mutateLatencies;
+    private final Histogram flushLatencies;
+    private final Metrics.Counter failedRows;
+    private final Metrics.Activity activity;
+
+    public BufferedIngest(Connection connection, String tableName, Configuration conf) throws IOException {
+        this(connection, tableName,
+                conf.getInt(BATCH_SIZE_KEY, DEFAULT_BATCH_SIZE),
+                conf.getLong(WRITE_BUFFER_KEY, DEFAULT_WRITE_BUFFER),
+                conf.getLong(FLUSH_INTERVAL_KEY, DEFAULT_FLUSH_INTERVAL));
+    }
+
+    public BufferedIngest(Connection connection, String tableName, int batchSize, long writeBufferBytes,
+                          long flushIntervalMs) throws IOException {
+        this.batchSize = Math.max(1, batchSize);
+        this.batch = new ArrayList<>(this.batchSize);
+        this.mutateLatencies = Metrics.histogram("put", "table", tableName);
+        this.flushLatencies = Metrics.histogram("flush", "table", tableName);
+        this.failedRows = Metrics.counter("rows.failed", "table", tableName);
+
+        // Failed mutations are reported through the listener instead of aborting the whole load
+        BufferedMutatorParams params = new BufferedMutatorParams(TableName.valueOf(tableName))
+                .writeBufferSize(writeBufferBytes)
+                .listener(new BufferedMutator.ExceptionListener() {
+                    @Override
+                    public void onException(RetriesExhaustedWithDetailsException e, BufferedMutator mutator) {
+                        for (int i = 0; i < e.getNumExceptions(); i++) {
+                            rowsFailed.incrementAndGet();
+                            failedRows.inc();
+                            System.err.println("Failed to write row " + Bytes.toString(e.getRow(i).getRow())
+                                    + " on " + e.getHostnamePort(i) + ": " + e.getCause(i));
+                        }
+                    }
+                });
+        this.mutator = connection.getBufferedMutator(params);
+        this.activity = Metrics.begin("load " + tableName, "", Metrics.counter("rows.written", "table", tableName));
+
+        // Periodic flush so a slow trickle of rows does not sit in the buffer indefinitely
+        if (flushIntervalMs > 0) {
+            flusher = Executors.newSingleThreadScheduledExecutor();
+            flusher.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        flush();
+                    } catch (IOException e) {
+                        System.err.println("Timed flush of " + activity.getDescription() + " failed: " + e);
+                    }
+                }
+            }, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+        } else {
+            flusher = null;
+        }
+    }
+
+    // Queue a single row; the batch is handed to the mutator once it reaches batchSize
+    public void add(Put put) throws IOException {
+        List<Put> toSubmit = null;
+        synchronized (batch) {
+            batch.add(put);
+            if (batch.size() >= batchSize) {
+                toSubmit = new ArrayList<>(batch);
+                batch.clear();
+            }
+        }
+        if (toSubmit != null) {
+            submit(toSubmit);
+        }
+    }
+
+    // Hand a list of rows straight to the mutator, bypassing the local batch
+    public void addAll(List<Put> puts) throws IOException {
+        submit(puts);
+    }
+
+    private void submit(List<Put> puts) throws IOException {
+        long start = Metrics.isEnabled() ? System.nanoTime() : -1;
+        mutator.mutate(puts);
+        if (start >= 0) {
+            mutateLatencies.record(System.nanoTime() - start);
+        }
+        rowsSubmitted.addAndGet(puts.size());
+        activity.add(puts.size());
+    }
+
+    // Push the pending batch and everything buffered in the mutator to the region servers
+    public void flush() throws IOException {
+        List<Put> pending;
+        synchronized (batch) {
+            pending = new ArrayList<>(batch);
+            batch.clear();
+        }
+        if (!pending.isEmpty()) {
+            submit(pending);
+        }
+
+        long start = System.nanoTime();
+        mutator.flush();
+        long elapsed = System.nanoTime() - start;
+        if (Metrics.isEnabled()) {
+            flushLatencies.record(elapsed);
+        }
+
+        flushCount.incrementAndGet();
+        flushNanos.addAndGet(elapsed);
+        long max;
+        while (elapsed > (max = maxFlushNanos.get()) && !maxFlushNanos.compareAndSet(max, elapsed)) {
+            // retry until the max is updated
+        }
+    }
+
+    public long getRowsWritten() {
+        return rowsSubmitted.get() - rowsFailed.get();
+    }
+
+    public long getRowsFailed() {
+        return rowsFailed.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (flusher != null) {
+            flusher.shutdown();
+            try {
+                flusher.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            flush();
+        } finally {
+            mutator.close();
+            activity.close();
+        }
+    }
+
+    // Print throughput and flush latency for the whole run
+    public void printReport() {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        long flushes = flushCount.get();
+        double avgFlushMs = flushes > 0 ? flushNanos.get() / 1e6 / flushes : 0;
+
+        System.out.println("Rows written: " + getRowsWritten() + ", failed: " + getRowsFailed());
+        System.out.println(String.format("Elapsed: %.2f s, throughput: %.0f rows/sec",
+                seconds, seconds > 0 ? getRowsWritten() / seconds : 0));
+        System.out.println(String.format("Flushes: %d, avg flush latency: %.2f ms, max flush latency: %.2f ms",
+                flushes, avgFlushMs, maxFlushNanos.get() / 1e6));
+    }
+}
@@ -0,0 +1,240 @@
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Admin;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.RegionLocator;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.io.hfile.CacheConfig;
+import org.apache.hadoop.hbase.io.hfile.HFileContext;
+import org.apache.hadoop.hbase.io.hfile.HFileContextBuilder;
+import org.apache.hadoop.hbase.mapreduce.LoadIncrementalHFiles;
+import org.apache.hadoop.hbase.regionserver.StoreFile;
+import org.apache.hadoop.hbase.util.Bytes;
+
+// Offline import: turns the CSV into sorted HFiles cut at the table's region boundaries and
+// hands them to LoadIncrementalHFiles, so no row goes through the WAL or the memstore.
+// Every region receives its files for all families in one bulk-load call, which the region
+// server applies atomically, and the resulting store files are large instead of the many
+// small flushes a put-based load produces.
+//
+// The HFiles go to bulkload.output.dir, which must not exist yet or be empty, and are deleted
+// once they are loaded. If the load fails they are kept for a retry with LoadIncrementalHFiles,
+// and their path is printed.
+public class BulkLoad {
+
+    // Configuration keys, settable with -D on the InsertData command line
+    public static final String OUTPUT_DIR_KEY = "bulkload.output.dir";
+    public static final String MAX_CELLS_IN_MEMORY_KEY = "bulkload.max.cells.in.memory";
+
+    private final Configuration conf;
+    private final String tableName;
+    private final RowKeys rowKeys;
+    private final TweetLayout layout;
+    private final long maxCellsInMemory;
+    private final long timestamp = System.currentTimeMillis();
+
+    private long cellsBuffered = 0;
+    private long filesWritten = 0;
+
+    public BulkLoad(Configuration conf, String tableName, RowKeys rowKeys, TweetLayout layout) {
+        this.conf = conf;
+        this.tableName = tableName;
+        this.rowKeys = rowKeys;
+        this.layout = layout;
+        this.maxCellsInMemory = conf.getLong(MAX_CELLS_IN_MEMORY_KEY, 5000000);
+    }
+
+    // Convert the CSV into HFiles and bulk-load them; returns the number of rows loaded.
+    // Takes the Configuration explicitly so it can be pointed at a local mini-cluster.
+    public long run(String csvFilePath) throws IOException {
+        Path outputDir = new Path(conf.get(OUTPUT_DIR_KEY, "/tmp/covid-bulkload-" + UUID.randomUUID()));
+        FileSystem fs = outputDir.getFileSystem(conf);
+        boolean created = !fs.exists(outputDir);
+        if (!created && fs.listStatus(outputDir).length > 0) {
+            throw new IOException(outputDir + " already exists and is not empty; set " + OUTPUT_DIR_KEY
+                    + " to a new directory");
+        }
+        boolean keepFiles = false;
+        long rows = 0;
+        long start = System.nanoTime();
+
+        try (Connection connection = ConnectionFactory.createConnection(conf);
+             Admin admin = connection.getAdmin();
+             Table table = connection.getTable(TableName.valueOf(tableName));
+             RegionLocator locator = connection.getRegionLocator(TableName.valueOf(tableName))) {
+
+            byte[][] startKeys = locator.getStartKeys();
+            Map<String, HColumnDescriptor> families = new HashMap<>();
+            for (HColumnDescriptor family : table.getTableDescriptor().getColumnFamilies()) {
+                families.put(family.getNameAsString(), family);
+            }
+
+            // One bucket of cells per (region, family); buckets are sorted when they are written out
+            List<Map<String, List<Cell>>> buckets = new ArrayList<>();
+            for (int i = 0; i < startKeys.length; i++) {
+                buckets.add(new HashMap<String, List<Cell>>());
+            }
+
+            try (FileReader reader = new FileReader(csvFilePath);
+                 CSVParser csvParser = new CSVParser(reader, CSVFormat.DEFAULT.withFirstRecordAsHeader().withTrim())) {
+
+                for (CSVRecord csvRecord : csvParser) {
+                    Put put = InsertData.buildPut(csvRecord, rowKeys, layout);
+                    if (put == null) {
+                        continue;
+                    }
+                    Map<String, List<Cell>> bucket = buckets.get(regionIndex(startKeys, put.getRow()));
+                    for (List<Cell> cells : put.getFamilyCellMap().values()) {
+                        for (Cell cell : cells) {
+                            String family = Bytes.toString(CellUtil.cloneFamily(cell));
+                            List<Cell> familyCells = bucket.get(family);
+                            if (familyCells == null) {
+                                familyCells = new ArrayList<>();
+                                bucket.put(family, familyCells);
+                            }
+                            // Puts built client-side carry LATEST_TIMESTAMP; HFiles need a real one
+                            familyCells.add(new KeyValue(CellUtil.cloneRow(cell), CellUtil.cloneFamily(cell),
+                                    CellUtil.cloneQualifier(cell), timestamp, KeyValue.Type.Put,
+                                    CellUtil.cloneValue(cell)));
+                            cellsBuffered++;
+                        }
+                    }
+                    rows++;
+
+                    // Bound memory: write what we have as one more sorted file per region and family
+                    if (cellsBuffered >= maxCellsInMemory) {
+                        writeBuckets(fs, outputDir, buckets, families);
+                    }
+                }
+            }
+            writeBuckets(fs, outputDir, buckets, families);
+            System.out.println("Wrote " + filesWritten + " HFiles for " + rows + " rows across "
+                    + startKeys.length + " regions to " + outputDir);
+
+            long loadStart = System.nanoTime();
+            LoadIncrementalHFiles loader;
+            try {
+                loader = new LoadIncrementalHFiles(conf);
+            } catch (Exception e) {
+                throw new IOException("Could not set up bulk load into " + tableName, e);
+            }
+            try {
+                loader.doBulkLoad(outputDir, admin, table, locator);
+            } catch (IOException | RuntimeException e) {
+                // Whatever was not loaded is still there, ready for another attempt
+                keepFiles = true;
+                System.err.println("Bulk load into " + tableName + " failed, HFiles kept in " + outputDir
+                        + "; retry with LoadIncrementalHFiles " + outputDir + " " + tableName);
+                throw e;
+            }
+            Metrics.counter("rows.written", "table", tableName).add(rows);
+            System.out.println(String.format("Bulk load took %.2f s, total %.2f s (%.0f rows/sec)",
+                    (System.nanoTime() - loadStart) / 1e9, (System.nanoTime() - start) / 1e9,
+                    rows / Math.max(1e-9, (System.nanoTime() - start) / 1e9)));
+        } finally {
+            if (!keepFiles) {
+                deleteOutput(fs, outputDir, created);
+            }
+        }
+        return rows;
+    }
+
+    // Remove what this run wrote: the whole directory if it created it, else the family
+    // directories it wrote into the empty one it was given
+    private void deleteOutput(FileSystem fs, Path outputDir, boolean created) throws IOException {
+        if (created) {
+            fs.delete(outputDir, true);
+            return;
+        }
+        for (byte[] family : layout.getFamilies()) {
+            fs.delete(new Path(outputDir, Bytes.toString(family)), true);
+        }
+    }
+
+    // Index of the region whose [startKey, nextStartKey) range holds the row
+    static int regionIndex(byte[][] startKeys, byte[] row) {
+        int low = 0;
+        int high = startKeys.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (Bytes.compareTo(startKeys[mid], row) <= 0) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    // Sort every non-empty bucket and write it as one HFile under <outputDir>/<family>/
+    private void writeBuckets(FileSystem fs, Path outputDir, List<Map<String, List<Cell>>> buckets,
+                              Map<String, HColumnDescriptor> families) throws IOException {
+        for (Map<String, List<Cell>> bucket : buckets) {
+            for (Map.Entry<String, List<Cell>> entry : bucket.entrySet()) {
+                List<Cell> cells = entry.getValue();
+                if (cells.isEmpty()) {
+                    continue;
+                }
+                // Stable sort keeps CSV order for duplicate keys, and the last one wins like it would for puts
+                cells.sort(KeyValue.COMPARATOR);
+                writeHFile(fs, new Path(outputDir, entry.getKey()), families.get(entry.getKey()), cells);
+                cells.clear();
+            }
+        }
+        cellsBuffered = 0;
+    }
+
+    private void writeHFile(FileSystem fs, Path familyDir, HColumnDescriptor family, List<Cell> cells)
+            throws IOException {
+        // Use the family's own settings so the loaded files match what flushes would produce
+        HFileContext context = new HFileContextBuilder()
+                .withCompression(family.getCompressionType())
+                .withDataBlockEncoding(family.getDataBlockEncoding())
+                .withBlockSize(family.getBlocksize())
+                .withIncludesTags(false)
+                .build();
+
+        StoreFile.Writer writer = new StoreFile.WriterBuilder(conf, new CacheConfig(conf), fs)
+                .withOutputDir(familyDir)
+                .withBloomType(family.getBloomFilterType())
+                .withComparator(KeyValue.COMPARATOR)
+                .withFileContext(context)
+                .build();
+        try {
+            for (int i = 0; i < cells.size(); i++) {
+                // Drop all but the last of a run of identical keys
+                if (i + 1 < cells.size() && KeyValue.COMPARATOR.compare(cells.get(i), cells.get(i + 1)) == 0) {
+                    continue;
+                }
+                writer.append(cells.get(i));
+            }
+            writer.appendFileInfo(StoreFile.BULKLOAD_TIME_KEY, Bytes.toBytes(System.currentTimeMillis()));
+            writer.appendFileInfo(StoreFile.BULKLOAD_TASK_KEY, Bytes.toBytes("InsertData-bulkload"));
+            writer.appendFileInfo(StoreFile.MAJOR_COMPACTION_KEY, Bytes.toBytes(false));
+            writer.appendFileInfo(StoreFile.EXCLUDE_FROM_MINOR_COMPACTION_KEY, Bytes.toBytes(false));
+            writer.appendTrackedTimestampsToMetadata();
+        } finally {
+            writer.close();
+        }
+        filesWritten++;
+    }
+}
@@ -0,0 +1,18 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+// An Aggregator whose state can be saved after a run and loaded into the next one, so that
+// IncrementalRun only has to scan the rows written in between. The state has to merge like
+// partials do: loading it and then adding the new rows gives the same report as one pass over
+// all rows.
+public interface Checkpointed extends Aggregator {
+
+    // Key of the state in the checkpoint, unique among the reports of a run
+    String stateName();
+
+    void writeState(DataOutput out) throws IOException;
+
+    // Add a state written by writeState() to this aggregator
+    void readState(DataInput in) throws IOException;
+}
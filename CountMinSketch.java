@@ -0,0 +1,106 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.hbase.util.Bytes;
+
+// Frequency estimates in depth x width counters. Every key adds to one counter per row and its
+// estimate is the smallest of them, so it is never below the true count and, with probability
+// 1 - delta, at most epsilon * total above it (width = ceil(e / epsilon), depth = ceil(ln(1 / delta))).
+public class CountMinSketch {
+
+    private final int width;
+    private final int depth;
+    private final long[][] counts;
+    private long total = 0;
+
+    public CountMinSketch(double epsilon, double delta) {
+        this((int) Math.ceil(Math.E / epsilon), (int) Math.ceil(Math.log(1 / delta)));
+    }
+
+    CountMinSketch(int width, int depth) {
+        if (width < 1 || depth < 1) {
+            throw new IllegalArgumentException("Count-Min sketch needs a positive width and depth: " + width + "x" + depth);
+        }
+        this.width = width;
+        this.depth = depth;
+        this.counts = new long[depth][width];
+    }
+
+    // Empty sketch with the same dimensions, for a partial
+    public CountMinSketch emptyCopy() {
+        return new CountMinSketch(width, depth);
+    }
+
+    // Add to the key's count and return its new estimate
+    public long add(String key, long count) {
+        long hash = Sketches.hash64(Bytes.toBytes(key));
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            int column = column(hash, row);
+            counts[row][column] += count;
+            estimate = Math.min(estimate, counts[row][column]);
+        }
+        total += count;
+        return estimate;
+    }
+
+    public long estimate(String key) {
+        long hash = Sketches.hash64(Bytes.toBytes(key));
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, counts[row][column(hash, row)]);
+        }
+        return estimate;
+    }
+
+    // Row hashes derived from the two halves of one 64-bit hash (Kirsch and Mitzenmacher)
+    private int column(long hash, int row) {
+        int combined = (int) hash + row * (int) (hash >>> 32);
+        return (combined & Integer.MAX_VALUE) % width;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    // Most an estimate can exceed the true count, except with probability delta
+    public long errorBound() {
+        return (long) Math.ceil(Math.E / width * total);
+    }
+
+    public void merge(CountMinSketch other) {
+        if (other.width != width || other.depth != depth) {
+            throw new IllegalArgumentException("Cannot merge a " + other.width + "x" + other.depth
+                    + " Count-Min sketch into " + width + "x" + depth);
+        }
+        for (int row = 0; row < depth; row++) {
+            for (int column = 0; column < width; column++) {
+                counts[row][column] += other.counts[row][column];
+            }
+        }
+        total += other.total;
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(width);
+        out.writeInt(depth);
+        out.writeLong(total);
+        for (long[] row : counts) {
+            for (long count : row) {
+                out.writeLong(count);
+            }
+        }
+    }
+
+    public static CountMinSketch read(DataInput in) throws IOException {
+        CountMinSketch sketch = new CountMinSketch(in.readInt(), in.readInt());
+        sketch.total = in.readLong();
+        for (long[] row : sketch.counts) {
+            for (int column = 0; column < row.length; column++) {
+                row[column] = in.readLong();
+            }
+        }
+        return sketch;
+    }
+}
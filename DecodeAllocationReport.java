@@ -0,0 +1,171 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+
+// Compares the heap the analytics reports allocate per row on the client, once with the old
+// decoding (Result.getValue for every predicate and column, then Bytes.toString or a boxed
+// decode) and once through a RowAccessor into the real aggregators. The rows are read into
+// memory first, so only the decoding is measured, from the allocation counter of the thread.
+//
+// Usage: DecodeAllocationReport [rows] [passes]   (defaults 10000 rows, 20 passes)
+public class DecodeAllocationReport {
+
+    public static String Table_Name = "CovidData";
+
+    public static void main(String[] args) throws IOException {
+        Configuration conf = HBaseConfiguration.create();
+        int maxRows = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int passes = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        run(conf, Table_Name, maxRows, passes);
+    }
+
+    public static void run(Configuration conf, String tableName, int maxRows, int passes) throws IOException {
+        ScanExecutor executor = new ScanExecutor();
+        Member1.register(executor, conf);
+        Member2.register(executor, conf);
+        executor.register(new AccountDuration.AgeBuckets());
+
+        List<Result> rows = new ArrayList<>();
+        TweetLayout layout;
+        try (Connection connection = ConnectionFactory.createConnection(conf);
+             Table hTable = connection.getTable(TableName.valueOf(tableName))) {
+            layout = TweetLayout.forTable(hTable.getTableDescriptor());
+            Scan scan = ScanTuning.fromConf(conf).apply(executor.unionQuery().plan(true, layout).getScan());
+            try (ResultScanner scanner = hTable.getScanner(scan)) {
+                for (Result result : scanner) {
+                    rows.add(result);
+                    if (rows.size() >= maxRows) {
+                        break;
+                    }
+                }
+            }
+        }
+        if (rows.isEmpty()) {
+            System.out.println("No rows in " + tableName);
+            return;
+        }
+
+        System.out.println(String.format("%d rows, %d passes, bytes allocated per row:", rows.size(), passes));
+        System.out.println(String.format("%-40s %14s %14s", "report", "Result.getValue", "RowAccessor"));
+        for (Aggregator aggregator : executor.getAggregators()) {
+            List<Aggregator> one = new ArrayList<>();
+            one.add(aggregator.newPartial());
+            printRow(aggregator.getClass().getSimpleName() + " " + columnsOf(aggregator.query()),
+                    rows, passes, one, layout);
+        }
+        List<Aggregator> all = new ArrayList<>();
+        for (Aggregator aggregator : executor.getAggregators()) {
+            all.add(aggregator.newPartial());
+        }
+        printRow("All reports in one scan", rows, passes, all, layout);
+    }
+
+    private static String columnsOf(TweetQuery query) {
+        List<String> names = new ArrayList<>();
+        for (TweetColumn column : query.allColumns()) {
+            names.add(column.name().toLowerCase());
+        }
+        return names.toString();
+    }
+
+    private static void printRow(String name, List<Result> rows, int passes, List<Aggregator> targets,
+                                 TweetLayout layout) {
+        // The first passes warm up the JIT and fill the aggregators' maps, like a long scan would
+        double before = measure(rows, passes, targets, layout, false);
+        double after = measure(rows, passes, targets, layout, true);
+        System.out.println(String.format("%-40s %14.1f %14.1f", name, before, after));
+    }
+
+    // Bytes allocated per row over the measured passes
+    private static double measure(List<Result> rows, int passes, List<Aggregator> targets, TweetLayout layout,
+                                  boolean accessor) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long sink = 0;
+        long start = 0;
+        for (int pass = -passes; pass < passes; pass++) {
+            if (pass == 0) {
+                start = threads.getThreadAllocatedBytes(thread);
+            }
+            sink += accessor ? feed(rows, targets) : decode(rows, targets, layout);
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - start;
+        if (sink == 42) {
+            System.out.print("");  // Keeps the decoded values alive for the JIT
+        }
+        return (double) allocated / ((long) rows.size() * passes);
+    }
+
+    // The scan loop of the ScanExecutor
+    private static long feed(List<Result> rows, List<Aggregator> targets) {
+        RowAccessor row = new RowAccessor();
+        long matched = 0;
+        for (Result result : rows) {
+            row.reset(result);
+            for (int i = 0; i < targets.size(); i++) {
+                Aggregator target = targets.get(i);
+                if (target.query().matches(row)) {
+                    target.add(row);
+                    matched++;
+                }
+            }
+        }
+        return matched;
+    }
+
+    // What the scan loops did before the RowAccessor: a copied value per predicate, then every
+    // selected column decoded from another copy
+    private static long decode(List<Result> rows, List<Aggregator> targets, TweetLayout layout) {
+        long decoded = 0;
+        for (Result result : rows) {
+            for (Aggregator target : targets) {
+                if (!matchesByValue(target.query(), result, layout)) {
+                    continue;
+                }
+                for (TweetColumn column : target.query().getColumns()) {
+                    Object value = decodeColumn(result, layout.family(column), column);
+                    decoded += value == null ? 0 : 1;
+                }
+            }
+        }
+        return decoded;
+    }
+
+    private static boolean matchesByValue(TweetQuery query, Result result, TweetLayout layout) {
+        for (TweetQuery.Predicate predicate : query.getPredicates()) {
+            TweetColumn column = predicate.getColumn();
+            if (!predicate.matches(result.getValue(layout.family(column), column.qualifier()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Object decodeColumn(Result result, byte[] family, TweetColumn column) {
+        switch (column) {
+            case USER_VERIFIED:
+            case IS_RETWEET:
+                return TweetSchema.getBoolean(result, family, column.qualifier());
+            case USER_FOLLOWERS:
+            case USER_FRIENDS:
+            case USER_FAVOURITES:
+                return TweetSchema.getLong(result, family, column.qualifier());
+            case USER_CREATED:
+            case DATE:
+                return TweetSchema.getTimestamp(result, family, column.qualifier());
+            default:
+                return TweetSchema.getString(result, family, column.qualifier());
+        }
+    }
+}
@@ -0,0 +1,308 @@
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Admin;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.protobuf.generated.AdminProtos.GetRegionInfoResponse.CompactionState;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.FSUtils;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+// Moves a CovidData table to another family layout while it stays online, and applies the
+// settings of a schema profile to its families (see SchemaProfile and TweetLayout).
+//
+// migrate runs in three steps, and picks up where it stopped when run again:
+//   1. The families of the new layout are added and the layout is recorded as the next one.
+//      Writers started from then on write every value to both families.
+//   2. Every version of every column that changes family is copied to its new family with its
+//      original timestamp, so the copy neither duplicates versions nor overwrites newer ones.
+//   3. The table switches to the new layout, and readers started from then on read it.
+// Clients read the layout when they start, so writers that were running before step 1 only write
+// the old families: restart them and run migrate again, which copies again, before the switch is
+// trusted. The old families stay until drop removes them, once every client started before the
+// switch has restarted; they would fail writing to a family that is gone.
+//
+// Usage: FamilyMigration [-D<key>=<value>...] status   layout, family settings and store files
+//        FamilyMigration [-D<key>=<value>...] migrate  move to the schema.layout of SchemaProfile
+//        FamilyMigration drop                          remove the families the layout no longer uses
+//        FamilyMigration [-D<key>=<value>...] apply    set the schema.profile on the current families
+//        FamilyMigration compact                       major-compact, so every file has the settings
+public class FamilyMigration extends Configured implements Tool {
+
+    public static String Table_Name = "CovidData";
+
+    private static final long POLL_MS = 1000;
+    private static final long ARCHIVE_WAIT_MS = 180000;
+
+    @Override
+    public int run(String[] args) throws IOException {
+        Configuration conf = HBaseConfiguration.create(getConf());
+        String command = args.length > 0 ? args[0] : "status";
+        TableName tableName = TableName.valueOf(Table_Name);
+
+        return MetricsReporter.call(conf, "FamilyMigration", () -> run(conf, command, tableName));
+    }
+
+    private static int run(Configuration conf, String command, TableName tableName) throws IOException {
+        try (Connection connection = ConnectionFactory.createConnection(conf);
+             Admin admin = connection.getAdmin()) {
+            if ("status".equals(command)) {
+                printStatus(conf, admin, tableName);
+            } else if ("migrate".equals(command)) {
+                migrate(conf, connection, admin, tableName);
+            } else if ("drop".equals(command)) {
+                drop(conf, admin, tableName);
+            } else if ("apply".equals(command)) {
+                apply(conf, admin, tableName);
+            } else if ("compact".equals(command)) {
+                compact(conf, admin, tableName);
+            } else {
+                System.err.println("Unknown command: " + command + " (expected status, migrate, drop, apply or compact)");
+                return 1;
+            }
+        }
+        return 0;
+    }
+
+    public static void migrate(Configuration conf, Connection connection, Admin admin, TableName tableName)
+            throws IOException {
+        TweetLayout layout = TweetLayout.forTable(admin.getTableDescriptor(tableName));
+        TweetLayout target = layout.isMigrating() ? layout.getNext() : SchemaProfile.newLayout(conf);
+        if (!layout.isMigrating() && layout.sameFamilies(target)) {
+            System.out.println("Table " + tableName + " already has families " + layout);
+            return;
+        }
+
+        // Step 1: add the new families and start the dual writes
+        if (!layout.isMigrating()) {
+            SchemaProfile profile = SchemaProfile.fromConf(conf);
+            profile.checkCodecs();
+            HTableDescriptor descriptor = admin.getTableDescriptor(tableName);
+            for (byte[] family : target.getFamilies()) {
+                if (!descriptor.hasFamily(family)) {
+                    descriptor.addFamily(profile.describe(family, target));
+                }
+            }
+            descriptor.setValue(TweetLayout.NEXT_FAMILIES_KEY, target.encode());
+            admin.modifyTable(tableName, descriptor);
+            waitForAlter(admin, tableName);
+            layout = layout.migratingTo(target);
+            System.out.println("Added families for " + target.encode() + ", " + profile
+                    + "; writers started from now on write both layouts.");
+        } else {
+            System.out.println("Resuming the migration to " + target.encode());
+        }
+
+        // Step 2: copy the columns that change family, every version with its timestamp
+        long rows = 0, cells = 0;
+        long start = System.currentTimeMillis();
+        Scan scan = new Scan();
+        for (TweetColumn column : TweetColumn.values()) {
+            if (!Bytes.equals(layout.family(column), target.family(column))) {
+                scan.addColumn(layout.family(column), column.qualifier());
+            }
+        }
+        scan.setMaxVersions();
+        ScanTuning tuning = ScanTuning.fromConf(conf);
+        tuning.apply(scan);
+
+        try (Table table = connection.getTable(tableName);
+             BufferedIngest ingest = new BufferedIngest(connection, tableName.getNameAsString(), conf)) {
+            try (ResultScanner scanner = tuning.open(table, scan)) {
+                for (Result result : scanner) {
+                    Put put = new Put(result.getRow());
+                    for (Cell cell : result.rawCells()) {
+                        TweetColumn column = TweetColumn.forQualifier(Bytes.toString(CellUtil.cloneQualifier(cell)));
+                        put.addColumn(target.family(column), column.qualifier(), cell.getTimestamp(),
+                                CellUtil.cloneValue(cell));
+                        cells++;
+                    }
+                    ingest.add(put);
+                    rows++;
+                }
+            }
+            ingest.flush();
+
+            if (ingest.getRowsFailed() > 0) {
+                System.out.println(ingest.getRowsFailed() + " rows failed to copy; run the migration again.");
+                return;
+            }
+        }
+        System.out.println("Copied " + cells + " cells of " + rows + " rows in "
+                + (System.currentTimeMillis() - start) + " ms");
+
+        // Step 3: switch readers over
+        HTableDescriptor descriptor = admin.getTableDescriptor(tableName);
+        descriptor.setValue(TweetLayout.FAMILIES_KEY, target.encode());
+        descriptor.remove(TweetLayout.NEXT_FAMILIES_KEY);
+        admin.modifyTable(tableName, descriptor);
+        waitForAlter(admin, tableName);
+        System.out.println("Table " + tableName + " now has families " + TweetLayout.forTable(descriptor)
+                + ". Run drop once every client started before now has restarted.");
+    }
+
+    // Remove the families the layout does not use
+    public static void drop(Configuration conf, Admin admin, TableName tableName) throws IOException {
+        HTableDescriptor descriptor = admin.getTableDescriptor(tableName);
+        TweetLayout layout = TweetLayout.forTable(descriptor);
+        if (layout.isMigrating()) {
+            System.out.println("Table " + tableName + " is being migrated; run migrate to finish first.");
+            return;
+        }
+        Map<String, long[]> before = storeFiles(conf, tableName);
+        for (HColumnDescriptor family : descriptor.getColumnFamilies()) {
+            if (layout.columnsOf(family.getName()).isEmpty()) {
+                admin.deleteColumn(tableName, family.getName());
+                long[] files = before.get(family.getNameAsString());
+                System.out.println("Dropped family " + family.getNameAsString()
+                        + (files == null ? "" : String.format(" (%,d store files, %,.0f KB)", files[0], files[1] / 1024.0)));
+            }
+        }
+        waitForAlter(admin, tableName);
+    }
+
+    // Set the settings of the profile on every family of the current layout. Files written from
+    // then on by flushes and compactions get them; compact rewrites the others.
+    public static void apply(Configuration conf, Admin admin, TableName tableName) throws IOException {
+        SchemaProfile profile = SchemaProfile.fromConf(conf);
+        profile.checkCodecs();
+        HTableDescriptor descriptor = admin.getTableDescriptor(tableName);
+        TweetLayout layout = TweetLayout.forTable(descriptor);
+        for (byte[] family : layout.getFamilies()) {
+            HColumnDescriptor settings = descriptor.getFamily(family);
+            profile.applyTo(settings, layout);
+            admin.modifyColumn(tableName, settings);
+        }
+        waitForAlter(admin, tableName);
+        System.out.println("Applied " + profile + " to " + layout);
+        printStatus(conf, admin, tableName);
+    }
+
+    // Major-compact the table and wait, printing the store files before and after
+    public static void compact(Configuration conf, Admin admin, TableName tableName) throws IOException {
+        System.out.println("Before:");
+        printStoreFiles(storeFiles(conf, tableName));
+        long start = System.currentTimeMillis();
+        admin.majorCompact(tableName);
+        // The request is queued on the region servers, so wait for it to start before waiting for the end
+        while (admin.getCompactionState(tableName) == CompactionState.NONE
+                && System.currentTimeMillis() - start < 10 * POLL_MS) {
+            sleep(POLL_MS / 10);
+        }
+        while (admin.getCompactionState(tableName) != CompactionState.NONE) {
+            sleep(POLL_MS);
+        }
+        // The region servers keep the files they compacted until a chore archives them, every two
+        // minutes by default; a major compaction leaves one file per store
+        long compacted = System.currentTimeMillis();
+        Map<String, long[]> after = storeFiles(conf, tableName);
+        while (!compactedAway(after) && System.currentTimeMillis() - compacted < ARCHIVE_WAIT_MS) {
+            sleep(POLL_MS);
+            after = storeFiles(conf, tableName);
+        }
+        System.out.println("After " + (compacted - start) + " ms:");
+        printStoreFiles(after);
+    }
+
+    public static void printStatus(Configuration conf, Admin admin, TableName tableName) throws IOException {
+        HTableDescriptor descriptor = admin.getTableDescriptor(tableName);
+        System.out.println("Table " + tableName + " families " + TweetLayout.forTable(descriptor));
+        for (HColumnDescriptor family : descriptor.getColumnFamilies()) {
+            System.out.println(String.format("  %-8s %s, %s, %d KB blocks, %s bloom, %d versions",
+                    family.getNameAsString(), family.getCompressionType().getName(), family.getDataBlockEncoding(),
+                    family.getBlocksize() >> 10, family.getBloomFilterType(), family.getMaxVersions()));
+        }
+        printStoreFiles(storeFiles(conf, tableName));
+    }
+
+    private static boolean compactedAway(Map<String, long[]> families) {
+        for (long[] totals : families.values()) {
+            if (totals[0] > totals[2]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Store files of every family as {files, bytes, stores}, from the table directory under
+    // hbase.rootdir. Files a compaction replaced count until they are archived.
+    static Map<String, long[]> storeFiles(Configuration conf, TableName tableName) throws IOException {
+        Path tableDir = FSUtils.getTableDir(FSUtils.getRootDir(conf), tableName);
+        FileSystem fs = tableDir.getFileSystem(conf);
+        Map<String, long[]> families = new LinkedHashMap<>();
+        for (FileStatus region : fs.listStatus(tableDir)) {
+            if (!region.isDirectory() || region.getPath().getName().startsWith(".")) {
+                continue;
+            }
+            for (FileStatus family : fs.listStatus(region.getPath())) {
+                String name = family.getPath().getName();
+                if (!family.isDirectory() || name.startsWith(".") || name.equals("recovered.edits")) {
+                    continue;
+                }
+                long[] totals = families.get(name);
+                if (totals == null) {
+                    totals = new long[3];
+                    families.put(name, totals);
+                }
+                totals[2]++;
+                for (FileStatus file : fs.listStatus(family.getPath())) {
+                    if (file.isFile()) {
+                        totals[0]++;
+                        totals[1] += file.getLen();
+                    }
+                }
+            }
+        }
+        return families;
+    }
+
+    static void printStoreFiles(Map<String, long[]> families) {
+        long files = 0, bytes = 0;
+        for (Map.Entry<String, long[]> family : families.entrySet()) {
+            System.out.println(String.format("  %-8s %,6d store files %,12.0f KB", family.getKey(),
+                    family.getValue()[0], family.getValue()[1] / 1024.0));
+            files += family.getValue()[0];
+            bytes += family.getValue()[1];
+        }
+        System.out.println(String.format("  %-8s %,6d store files %,12.0f KB", "total", files, bytes / 1024.0));
+    }
+
+    // Wait until every region has reopened with the new descriptor
+    private static void waitForAlter(Admin admin, TableName tableName) throws IOException {
+        while (admin.getAlterStatus(tableName).getFirst() > 0) {
+            sleep(POLL_MS);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static void main(String[] argv) throws Exception {
+        int ret = ToolRunner.run(new FamilyMigration(), argv);
+        System.exit(ret);
+    }
+}
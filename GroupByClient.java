@@ -0,0 +1,152 @@
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.Coprocessor;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Admin;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.Table;
+
+import com.google.protobuf.Message;
+
+// Client side of the GroupByEndpoint: sends a group-by request to every region of the table and
+// merges the per-region counts. Produces the Member1 location counts, the Member2 verified vs
+// non-verified counts and the AccountDuration report with only the counts crossing the network.
+//
+// Usage: GroupByClient                 run the reports on the region servers
+//        GroupByClient install [jar]   load the endpoint on CovidData, from the given jar on
+//                                      HDFS or from the region server classpath
+public class GroupByClient {
+
+    public static String Table_Name = "CovidData";
+
+    public static void main(String[] args) throws IOException {
+        Configuration conf = HBaseConfiguration.create();
+
+        try (Connection connection = ConnectionFactory.createConnection(conf);
+             Table table = connection.getTable(TableName.valueOf(Table_Name))) {
+
+            if (args.length > 0 && args[0].equals("install")) {
+                try (Admin admin = connection.getAdmin()) {
+                    install(admin, TableName.valueOf(Table_Name), args.length > 1 ? new Path(args[1]) : null);
+                }
+                return;
+            }
+
+            TweetLayout layout = TweetLayout.forTable(table.getTableDescriptor());
+            locationCounts(table, layout, new Member1.LocationCounts(Member1.tweetsByLocationQuery(), "TweetsByLocation.txt"));
+            locationCounts(table, layout, new Member1.LocationCounts(Member1.verifiedTweetsByLocationQuery(), "VerifiedTweetsByLocation.txt"));
+            verificationCounts(table, layout, new Member2.VerificationCounts("Task a", "compareVerifiedNonVerifiedTweets.txt"));
+            accountAges(table, layout, new AccountDuration.AgeBuckets());
+        }
+    }
+
+    // Add the endpoint to the table descriptor unless it is already there
+    public static void install(Admin admin, TableName tableName, Path jar) throws IOException {
+        HTableDescriptor descriptor = admin.getTableDescriptor(tableName);
+        if (descriptor.hasCoprocessor(GroupByEndpoint.class.getName())) {
+            System.out.println("GroupByEndpoint is already loaded on " + tableName);
+            return;
+        }
+        if (jar == null) {
+            descriptor.addCoprocessor(GroupByEndpoint.class.getName());
+        } else {
+            descriptor.addCoprocessor(GroupByEndpoint.class.getName(), jar, Coprocessor.PRIORITY_USER, null);
+        }
+        admin.modifyTable(tableName, descriptor);
+        System.out.println("GroupByEndpoint loaded on " + tableName);
+    }
+
+    // Tweets per location, counted on the region servers
+    static void locationCounts(Table table, TweetLayout layout, Member1.LocationCounts report) throws IOException {
+        TweetQuery.Plan plan = report.query().plan(true, layout);
+        if (!plan.isFullyPushedDown()) {
+            runOnClient(table, report);
+            return;
+        }
+        Map<List<String>, Long> counts = groupBy(table, new GroupByProtocol.Request(plan.getScan())
+                .groupBy(TweetColumn.USER_LOCATION, GroupByProtocol.RAW));
+        for (Map.Entry<List<String>, Long> entry : counts.entrySet()) {
+            report.addCount(entry.getKey().get(0), entry.getValue().intValue());
+        }
+        report.finish();
+    }
+
+    // Tweets by verified and non-verified users, counted on the region servers
+    static void verificationCounts(Table table, TweetLayout layout, Member2.VerificationCounts report) throws IOException {
+        TweetQuery.Plan plan = report.query().plan(true, layout);
+        if (!plan.isFullyPushedDown()) {
+            runOnClient(table, report);
+            return;
+        }
+        Map<List<String>, Long> counts = groupBy(table, new GroupByProtocol.Request(plan.getScan())
+                .groupBy(TweetColumn.USER_VERIFIED, GroupByProtocol.FLAG));
+        for (Map.Entry<List<String>, Long> entry : counts.entrySet()) {
+            report.addCount(Boolean.TRUE.toString().equals(entry.getKey().get(0)), entry.getValue().intValue());
+        }
+        report.finish();
+    }
+
+    // Accounts per verification status and age in years; the categories and averages are
+    // computed from these exact counts on the client
+    static void accountAges(Table table, TweetLayout layout, AccountDuration.AgeBuckets report) throws IOException {
+        TweetQuery.Plan plan = report.query().plan(true, layout);
+        if (!plan.isFullyPushedDown()) {
+            runOnClient(table, report);
+            return;
+        }
+        Map<List<String>, Long> counts = groupBy(table, new GroupByProtocol.Request(plan.getScan())
+                .groupBy(TweetColumn.USER_VERIFIED, GroupByProtocol.FLAG)
+                .groupBy(TweetColumn.USER_CREATED, GroupByProtocol.AGE_YEARS)
+                .asOf(report.getCurrentTime()));
+        for (Map.Entry<List<String>, Long> entry : counts.entrySet()) {
+            String verified = entry.getKey().get(0);
+            String years = entry.getKey().get(1);
+            if (verified.equals(GroupByProtocol.MISSING) || years.equals(GroupByProtocol.MISSING)) {
+                continue;  // Skip if either field is missing or the creation date is unparseable
+            }
+            report.addAccounts(Boolean.parseBoolean(verified), Long.parseLong(years), entry.getValue().intValue());
+        }
+        report.finish();
+    }
+
+    // Run the request on every region and merge the partial counts
+    public static Map<List<String>, Long> groupBy(Table table, GroupByProtocol.Request request) throws IOException {
+        // The region servers scan with the profile's block caching; caching does not apply there
+        ScanTuning.fromConf(table.getConfiguration()).apply(request.scan);
+        Map<byte[], Message> partials;
+        try {
+            partials = table.batchCoprocessorService(GroupByProtocol.GROUP_BY,
+                    GroupByProtocol.wrap(request.toBytes()), null, null, GroupByProtocol.wrap(new byte[0]));
+        } catch (IOException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IOException("Group-by on " + table.getName() + " failed", e);
+        }
+
+        Map<List<String>, Long> merged = new HashMap<>();
+        long bytes = 0;
+        for (Message partial : partials.values()) {
+            byte[] data = GroupByProtocol.unwrap(partial);
+            bytes += data.length;
+            GroupByProtocol.mergeCounts(data, merged);
+        }
+        System.out.println(String.format("groupBy %s: %d regions, %d bytes of partial results, %d groups",
+                request.columns, partials.size(), bytes, merged.size()));
+        return merged;
+    }
+
+    // Predicates the servers cannot evaluate on this table (e.g. flags before the typed layout)
+    private static void runOnClient(Table table, Aggregator report) throws IOException {
+        System.out.println("Predicates of " + report.getClass().getSimpleName()
+                + " cannot all run on the region servers, falling back to a client scan");
+        new ScanExecutor().register(report).run(table);
+    }
+}
@@ -0,0 +1,98 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.Coprocessor;
+import org.apache.hadoop.hbase.CoprocessorEnvironment;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.coprocessor.CoprocessorException;
+import org.apache.hadoop.hbase.coprocessor.CoprocessorService;
+import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
+import org.apache.hadoop.hbase.protobuf.ResponseConverter;
+import org.apache.hadoop.hbase.regionserver.RegionScanner;
+
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.Message;
+import com.google.protobuf.RpcCallback;
+import com.google.protobuf.RpcController;
+import com.google.protobuf.Service;
+
+// Region endpoint that runs group-by counts next to the data (see GroupByProtocol). Each call
+// scans the rows of its region with the request's Scan, so projection and pushed-down filters
+// apply as for a client scan, and returns one count per group key instead of the rows.
+//
+// Load it on the table with GroupByClient install, or for every table through
+// hbase.coprocessor.region.classes.
+public class GroupByEndpoint implements Coprocessor, CoprocessorService {
+
+    private RegionCoprocessorEnvironment env;
+
+    @Override
+    public void start(CoprocessorEnvironment environment) throws IOException {
+        if (!(environment instanceof RegionCoprocessorEnvironment)) {
+            throw new CoprocessorException("GroupByEndpoint must be loaded on a table region");
+        }
+        env = (RegionCoprocessorEnvironment) environment;
+    }
+
+    @Override
+    public void stop(CoprocessorEnvironment environment) {
+    }
+
+    @Override
+    public Service getService() {
+        return new Service() {
+            @Override
+            public Descriptors.ServiceDescriptor getDescriptorForType() {
+                return GroupByProtocol.SERVICE;
+            }
+
+            @Override
+            public void callMethod(Descriptors.MethodDescriptor method, RpcController controller,
+                                   Message request, RpcCallback<Message> done) {
+                Message response = null;
+                try {
+                    byte[] counts = groupBy(GroupByProtocol.Request.fromBytes(GroupByProtocol.unwrap(request)));
+                    response = GroupByProtocol.wrap(counts);
+                } catch (IOException e) {
+                    ResponseConverter.setControllerException(controller, e);
+                }
+                done.run(response);
+            }
+
+            @Override
+            public Message getRequestPrototype(Descriptors.MethodDescriptor method) {
+                return GroupByProtocol.wrap(new byte[0]);
+            }
+
+            @Override
+            public Message getResponsePrototype(Descriptors.MethodDescriptor method) {
+                return GroupByProtocol.wrap(new byte[0]);
+            }
+        };
+    }
+
+    // Count the rows of this region per group key
+    private byte[] groupBy(GroupByProtocol.Request request) throws IOException {
+        Map<List<String>, Long> counts = new HashMap<>();
+        List<Cell> cells = new ArrayList<>();
+        RowAccessor row = new RowAccessor();
+        RegionScanner scanner = env.getRegion().getScanner(request.scan);
+        try {
+            boolean more;
+            do {
+                more = scanner.next(cells);
+                if (!cells.isEmpty()) {
+                    counts.merge(request.keyOf(row.reset(Result.create(cells))), 1L, Long::sum);
+                    cells.clear();
+                }
+            } while (more);
+        } finally {
+            scanner.close();
+        }
+        return GroupByProtocol.countsToBytes(counts);
+    }
+}
@@ -0,0 +1,207 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.protobuf.ProtobufUtil;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.DescriptorProtos.DescriptorProto;
+import com.google.protobuf.DescriptorProtos.FieldDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.DescriptorProtos.MethodDescriptorProto;
+import com.google.protobuf.DescriptorProtos.ServiceDescriptorProto;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.Message;
+
+// Wire format shared by GroupByEndpoint (region server) and GroupByClient.
+//
+// The endpoint is an HBase protobuf service, but the build has no protoc step, so the service
+// descriptor is assembled at runtime: one method, groupBy, taking and returning a message with
+// a single bytes field. The bytes carry a request or a partial result in a small DataOutput
+// encoding defined here.
+//
+// A request is a planned Scan plus the group key: a list of columns, each with a transform
+// that turns the stored value into one key part. Each region scans its rows and returns the
+// number of rows per distinct key, so only as many entries as there are groups leave the
+// region server.
+public class GroupByProtocol {
+
+    // Key transforms
+    public static final int RAW = 0;        // The stored string as is
+    public static final int FLAG = 1;       // "true"/"false" from a flag in either layout
+    public static final int AGE_YEARS = 2;  // Whole years between a timestamp and the request time
+
+    // Key part of a missing or unparseable value
+    public static final String MISSING = "";
+
+    public static final Descriptors.ServiceDescriptor SERVICE;
+    public static final Descriptors.MethodDescriptor GROUP_BY;
+    public static final Descriptors.Descriptor PAYLOAD;
+
+    static {
+        FileDescriptorProto file = FileDescriptorProto.newBuilder()
+                .setName("CovidGroupBy.proto")
+                .setPackage("covid")
+                .addMessageType(DescriptorProto.newBuilder()
+                        .setName("Payload")
+                        .addField(FieldDescriptorProto.newBuilder()
+                                .setName("data")
+                                .setNumber(1)
+                                .setLabel(FieldDescriptorProto.Label.LABEL_OPTIONAL)
+                                .setType(FieldDescriptorProto.Type.TYPE_BYTES)))
+                .addService(ServiceDescriptorProto.newBuilder()
+                        .setName("GroupByService")
+                        .addMethod(MethodDescriptorProto.newBuilder()
+                                .setName("groupBy")
+                                .setInputType(".covid.Payload")
+                                .setOutputType(".covid.Payload")))
+                .build();
+        try {
+            Descriptors.FileDescriptor descriptor = Descriptors.FileDescriptor.buildFrom(file, new Descriptors.FileDescriptor[0]);
+            SERVICE = descriptor.findServiceByName("GroupByService");
+            GROUP_BY = SERVICE.findMethodByName("groupBy");
+            PAYLOAD = descriptor.findMessageTypeByName("Payload");
+        } catch (Descriptors.DescriptorValidationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Wrap bytes in a Payload message
+    public static Message wrap(byte[] data) {
+        return DynamicMessage.newBuilder(PAYLOAD)
+                .setField(PAYLOAD.findFieldByName("data"), ByteString.copyFrom(data))
+                .build();
+    }
+
+    // Bytes of a Payload message
+    public static byte[] unwrap(Message message) {
+        Object data = message.getField(PAYLOAD.findFieldByName("data"));
+        return ((ByteString) data).toByteArray();
+    }
+
+    // Whole years between two epoch-millis timestamps, by their UTC dates. AGE_YEARS keys use it
+    // on the region server, so it lives here rather than in a client tool.
+    public static long yearsBetween(long startMillis, long endMillis) {
+        LocalDate start = Instant.ofEpochMilli(startMillis).atZone(ZoneOffset.UTC).toLocalDate();
+        LocalDate end = Instant.ofEpochMilli(endMillis).atZone(ZoneOffset.UTC).toLocalDate();
+        return ChronoUnit.YEARS.between(start, end);
+    }
+
+    // What to group by: the columns making up the key, each with its transform
+    public static class Request {
+        final Scan scan;
+        final List<TweetColumn> columns = new ArrayList<>();
+        final List<Integer> transforms = new ArrayList<>();
+        long now = System.currentTimeMillis();
+
+        public Request(Scan scan) {
+            this.scan = scan;
+        }
+
+        public Request groupBy(TweetColumn column, int transform) {
+            columns.add(column);
+            transforms.add(transform);
+            return this;
+        }
+
+        // Reference time for AGE_YEARS, the time the request was created by default
+        public Request asOf(long time) {
+            now = time;
+            return this;
+        }
+
+        // Key of a row: one part per group-by column
+        List<String> keyOf(RowAccessor row) {
+            List<String> key = new ArrayList<>(columns.size());
+            for (int i = 0; i < columns.size(); i++) {
+                key.add(transform(transforms.get(i), row, columns.get(i)));
+            }
+            return key;
+        }
+
+        private String transform(int transform, RowAccessor row, TweetColumn column) {
+            if (!row.has(column)) {
+                return MISSING;
+            }
+            switch (transform) {
+                case FLAG:
+                    return String.valueOf(row.getBoolean(column));
+                case AGE_YEARS:
+                    long created = row.getTimestamp(column, Long.MIN_VALUE);
+                    return created == Long.MIN_VALUE ? MISSING
+                            : String.valueOf(yearsBetween(created, now));
+                default:
+                    return row.getString(column);
+            }
+        }
+
+        byte[] toBytes() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            Bytes.writeByteArray(out, ProtobufUtil.toScan(scan).toByteArray());
+            out.writeLong(now);
+            out.writeInt(columns.size());
+            for (int i = 0; i < columns.size(); i++) {
+                out.writeUTF(columns.get(i).name());
+                out.writeInt(transforms.get(i));
+            }
+            out.flush();
+            return bytes.toByteArray();
+        }
+
+        static Request fromBytes(byte[] data) throws IOException {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            Request request = new Request(ProtobufUtil.toScan(ClientProtos.Scan.parseFrom(Bytes.readByteArray(in))));
+            request.now = in.readLong();
+            int columns = in.readInt();
+            for (int i = 0; i < columns; i++) {
+                request.groupBy(TweetColumn.valueOf(in.readUTF()), in.readInt());
+            }
+            return request;
+        }
+    }
+
+    // Row counts per group key
+    static byte[] countsToBytes(Map<List<String>, Long> counts) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(counts.size());
+        for (Map.Entry<List<String>, Long> entry : counts.entrySet()) {
+            out.writeInt(entry.getKey().size());
+            for (String part : entry.getKey()) {
+                Bytes.writeByteArray(out, Bytes.toBytes(part));
+            }
+            out.writeLong(entry.getValue());
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    // Decode a partial result and add its counts into the merged map
+    static void mergeCounts(byte[] data, Map<List<String>, Long> merged) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        int groups = in.readInt();
+        for (int i = 0; i < groups; i++) {
+            String[] key = new String[in.readInt()];
+            for (int j = 0; j < key.length; j++) {
+                key[j] = Bytes.toString(Bytes.readByteArray(in));
+            }
+            Long count = in.readLong();
+            merged.merge(Arrays.asList(key), count, Long::sum);
+        }
+    }
+}
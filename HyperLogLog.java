@@ -0,0 +1,93 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.hbase.util.Bytes;
+
+// Distinct count estimate in 2^p bytes, whatever the number of values added. The top p bits of a
+// value's hash pick a register, which keeps the longest run of leading zeros seen in the rest.
+// Standard error 1.04 / sqrt(2^p); small counts use linear counting on the empty registers.
+public class HyperLogLog {
+
+    private final int p;
+    private final byte[] registers;
+
+    public HyperLogLog(int p) {
+        if (p < 4 || p > 18) {
+            throw new IllegalArgumentException("HyperLogLog precision must be between 4 and 18: " + p);
+        }
+        this.p = p;
+        this.registers = new byte[1 << p];
+    }
+
+    // Smallest precision whose standard error is at most the given relative error
+    static int precisionFor(double relativeError) {
+        double registers = Math.pow(1.04 / relativeError, 2);
+        int p = (int) Math.ceil(Math.log(registers) / Math.log(2));
+        return Math.min(18, Math.max(4, p));
+    }
+
+    // Empty sketch with the same precision, for a partial
+    public HyperLogLog emptyCopy() {
+        return new HyperLogLog(p);
+    }
+
+    public void add(String value) {
+        addHash(Sketches.hash64(Bytes.toBytes(value)));
+    }
+
+    void addHash(long hash) {
+        int index = (int) (hash >>> (64 - p));
+        // The sentinel bit caps the rank at 64 - p + 1 when the remaining bits are all zero
+        long rest = (hash << p) | (1L << (p - 1));
+        byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+        if (rank > registers[index]) {
+            registers[index] = rank;
+        }
+    }
+
+    public long estimate() {
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        double alpha = m == 16 ? 0.673 : m == 32 ? 0.697 : m == 64 ? 0.709 : 0.7213 / (1 + 1.079 / m);
+        double estimate = alpha * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            estimate = m * Math.log((double) m / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    public double standardError() {
+        return 1.04 / Math.sqrt(registers.length);
+    }
+
+    // Union with a sketch of the same precision
+    public void merge(HyperLogLog other) {
+        if (other.p != p) {
+            throw new IllegalArgumentException("Cannot merge HyperLogLog of precision " + other.p + " into " + p);
+        }
+        for (int i = 0; i < registers.length; i++) {
+            if (other.registers[i] > registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeByte(p);
+        out.write(registers);
+    }
+
+    public static HyperLogLog read(DataInput in) throws IOException {
+        HyperLogLog sketch = new HyperLogLog(in.readByte());
+        in.readFully(sketch.registers);
+        return sketch;
+    }
+}
@@ -0,0 +1,163 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.util.Bytes;
+
+// Produces the same reports as AnalyticsRun, but only scans the cells written since the previous
+// run. The checkpoint file holds the state of every report (see Checkpointed) and the time up to
+// which rows have been counted; a run loads the states, scans [mark, now - lag) with
+// Scan.setTimeRange, merges the new rows in, writes the reports and saves the states with the
+// new mark. The daily cost follows the number of rows written that day, not the size of the table.
+//
+// The lag keeps writes that are still in flight at the start of the run (with timestamps just
+// before it, but not yet visible) for the next run. The time range only returns the cells written
+// in it, so a run cannot tell a new row from an old one written again: a row rewritten in full
+// (a CSV loaded twice, a streaming batch replayed after a crash) is counted a second time, and
+// a row with only some of its columns rewritten is counted again by any report that matches on
+// those cells alone. Deleted rows stay counted. Run with --full after reloading, rewriting or
+// deleting rows, or when a report without saved state is added.
+//
+// Usage: IncrementalRun [--full] [--approximate]
+public class IncrementalRun {
+
+    public static String Table_Name = "CovidData";
+
+    // Configuration keys, settable with -D on the command line
+    public static final String STATE_FILE_KEY = "incremental.state.file";
+    public static final String LAG_KEY = "incremental.lag.ms";
+
+    private static final int FORMAT_VERSION = 1;
+
+    public static void main(String[] args) throws IOException {
+        Configuration conf = HBaseConfiguration.create();
+        Sketches.parseArgs(conf, args);
+        ScanExecutor executor = new ScanExecutor();
+        Member1.register(executor, conf);
+        Member2.register(executor, conf);
+        Member3.register(executor, conf);
+        executor.register(new AccountDuration.AgeBuckets());
+
+        boolean full = Arrays.asList(args).contains("--full");
+        Path stateFile = Paths.get(conf.get(STATE_FILE_KEY, "analytics.checkpoint"));
+        MetricsReporter.call(conf, "IncrementalRun", () -> run(conf, Table_Name, executor, stateFile, full));
+    }
+
+    // Run the executor's reports over the rows written since the checkpoint, then save the new one.
+    // Every registered aggregator has to be Checkpointed. Returns the rows read.
+    public static long run(Configuration conf, String tableName, ScanExecutor executor, Path stateFile,
+                           boolean full) throws IOException {
+        List<Checkpointed> reports = new ArrayList<>();
+        for (Aggregator aggregator : executor.getAggregators()) {
+            if (!(aggregator instanceof Checkpointed)) {
+                throw new IllegalArgumentException(aggregator.getClass().getName() + " has no saved state");
+            }
+            reports.add((Checkpointed) aggregator);
+        }
+        long until = System.currentTimeMillis() - conf.getLong(LAG_KEY, 60000);
+
+        // Start over unless there is a state for every report
+        long since = 0;
+        Map<String, byte[]> states = full ? null : load(stateFile);
+        if (states != null) {
+            for (Checkpointed report : reports) {
+                if (!states.containsKey(report.stateName())) {
+                    System.out.println("No saved state for " + report.stateName() + ", scanning all rows");
+                    states = null;
+                    break;
+                }
+            }
+        }
+        if (states != null) {
+            since = Bytes.toLong(states.get(""));
+            for (Checkpointed report : reports) {
+                report.readState(new DataInputStream(new ByteArrayInputStream(states.get(report.stateName()))));
+            }
+        }
+
+        long rows = 0;
+        if (since < until) {
+            executor.setTimeRange(since, until);
+            rows = ParallelScanner.run(conf, tableName, executor);
+        } else {
+            executor.finish();  // Nothing new yet, the reports come from the saved states alone
+            until = since;
+        }
+        save(stateFile, until, reports);
+
+        System.out.println("Incremental run: " + rows + " rows written between "
+                + (since == 0 ? "the beginning" : TweetSchema.formatTimestamp(since)) + " and "
+                + TweetSchema.formatTimestamp(until) + ", checkpoint saved to " + stateFile);
+        return rows;
+    }
+
+    // States by name, with the mark under "", or null without a checkpoint
+    private static Map<String, byte[]> load(Path stateFile) throws IOException {
+        if (!Files.exists(stateFile)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(stateFile.toFile()))) {
+            int version = in.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported checkpoint version " + version + " in " + stateFile);
+            }
+            Map<String, byte[]> states = new HashMap<>();
+            states.put("", Bytes.toBytes(in.readLong()));
+            for (int i = in.readInt(); i > 0; i--) {
+                String name = in.readUTF();
+                byte[] state = new byte[in.readInt()];
+                in.readFully(state);
+                states.put(name, state);
+            }
+            return states;
+        }
+    }
+
+    // Write the checkpoint next to the old one and move it over, so a crash never leaves half a file
+    private static void save(Path stateFile, long mark, List<Checkpointed> reports) throws IOException {
+        Path temp = stateFile.resolveSibling(stateFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(temp.toFile()))) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(mark);
+            out.writeInt(reports.size());
+            for (Checkpointed report : reports) {
+                ByteArrayOutputStream state = new ByteArrayOutputStream();
+                report.writeState(new DataOutputStream(state));
+                out.writeUTF(report.stateName());
+                out.writeInt(state.size());
+                state.writeTo(out);
+            }
+        }
+        Files.move(temp, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Strings in report states, which unlike writeUTF may be longer than 64KB
+    static void writeString(DataOutput out, String value) throws IOException {
+        byte[] bytes = Bytes.toBytes(value);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return Bytes.toString(bytes);
+    }
+}
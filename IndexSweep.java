@@ -0,0 +1,99 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.filter.KeyOnlyFilter;
+
+// The sweep shared by the SecondaryIndex and TermIndex rebuilds: every entry of an index table
+// is checked against its data row with batched multi-Gets, and the entries whose row no longer
+// holds their value are deleted. Entries are written apart from their rows and can land first,
+// so one whose row is missing or lacks the column is only deleted once it is older than the
+// grace period (index.repair.grace.ms), like on a lookup. Both tables key their entries as
+// <id> 0x00 <value> 0x00 <data row key> in SecondaryIndex.FAMILY.
+class IndexSweep {
+
+    // What an index makes of its entries
+    interface Check {
+        // The data column an entry was made from
+        TweetColumn columnOf(byte[] entryKey);
+
+        // Whether the stored value of that column (null if the row has none) still yields the entry
+        boolean holds(byte[] entryKey, byte[] value);
+    }
+
+    private IndexSweep() {
+    }
+
+    // Check every entry of the index table, batch at a time; returns {entries checked, entries removed}
+    static long[] run(Connection connection, TableName indexTable, TableName dataTable, TweetLayout layout,
+                      int batch, long graceMs, Check check) throws IOException {
+        long checked = 0, removed = 0;
+        long cutoff = System.currentTimeMillis() - graceMs;
+        Scan scan = new Scan();
+        scan.addFamily(SecondaryIndex.FAMILY);
+        scan.setFilter(new KeyOnlyFilter());
+        scan.setCaching(batch);
+        scan.setCacheBlocks(false);
+
+        try (Table index = connection.getTable(indexTable);
+             Table data = connection.getTable(dataTable);
+             ResultScanner scanner = index.getScanner(scan)) {
+            // KeyOnlyFilter drops the empty values, not the timestamps the grace period needs
+            List<Result> entries = new ArrayList<>();
+            for (Result entry : scanner) {
+                entries.add(entry);
+                if (entries.size() >= batch) {
+                    removed += sweep(index, data, layout, entries, cutoff, check);
+                    checked += entries.size();
+                    entries.clear();
+                }
+            }
+            removed += sweep(index, data, layout, entries, cutoff, check);
+            checked += entries.size();
+        }
+        return new long[] {checked, removed};
+    }
+
+    // Delete the entries that no longer hold for their rows; an entry whose row has no value in
+    // the column is kept while it was written after the cutoff
+    private static int sweep(Table index, Table data, TweetLayout layout, List<Result> entries, long cutoff,
+                             Check check) throws IOException {
+        if (entries.isEmpty()) {
+            return 0;
+        }
+        TweetColumn[] columns = new TweetColumn[entries.size()];
+        List<Get> gets = new ArrayList<>(entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            columns[i] = check.columnOf(entries.get(i).getRow());
+            Get get = new Get(SecondaryIndex.rowOf(entries.get(i).getRow()));
+            get.addColumn(layout.family(columns[i]), columns[i].qualifier());
+            gets.add(get);
+        }
+
+        Result[] results = data.get(gets);
+        List<Delete> stale = new ArrayList<>();
+        for (int i = 0; i < results.length; i++) {
+            byte[] key = entries.get(i).getRow();
+            byte[] value = layout.getValue(results[i], columns[i]);
+            if (value == null && entries.get(i).rawCells()[0].getTimestamp() >= cutoff) {
+                continue;  // Row deleted, or its Put not written yet
+            }
+            if (!check.holds(key, value)) {
+                stale.add(new Delete(key));
+            }
+        }
+        int removed = stale.size();  // Table.delete(List) drops the deletes it applied from the list
+        if (removed > 0) {
+            index.delete(stale);
+        }
+        return removed;
+    }
+}
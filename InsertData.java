@@ -4,64 +4,360 @@ import org.apache.commons.csv.CSVRecord;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.hbase.HBaseConfiguration;
-import org.apache.hadoop.hbase.HColumnDescriptor;
 import org.apache.hadoop.hbase.HTableDescriptor;
-import org.apache.hadoop.hbase.client.HBaseAdmin;
-import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Admin;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.Increment;
 import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Table;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
 
 public class InsertData extends Configured implements Tool {
 
     public static String Table_Name = "CovidData";
 
+    // Configuration keys for table creation, settable with -D on the command line
+    public static final String PRESPLIT_REGIONS_KEY = "insert.presplit.regions";
+    public static final String PRESPLIT_SAMPLE_KEY = "insert.presplit.sample";
+    public static final String REPORT_SKEW_KEY = "insert.report.skew";
+
+    // Records parsed by every ingest mode, and the ones left out
+    private static final Metrics.Counter CSV_ROWS = Metrics.counter("rows.read", "source", "csv");
+    static final Metrics.Counter SKIPPED_ROWS = Metrics.counter("rows.skipped");
+
     @Override
     public int run(String[] args) throws IOException {
-        Configuration conf = HBaseConfiguration.create();
-        @SuppressWarnings("resource")
-        HBaseAdmin admin = new HBaseAdmin(conf);
+        Configuration conf = HBaseConfiguration.create(getConf());
+        return MetricsReporter.call(conf, "InsertData", () -> run(conf, args));
+    }
+
+    private int run(Configuration conf, String[] args) throws IOException {
+        // One connection for the table setup and every write path
+        try (Connection connection = ConnectionFactory.createConnection(conf);
+             Admin admin = connection.getAdmin()) {
+            return run(conf, connection, admin, args);
+        }
+    }
+
+    private int run(Configuration conf, Connection connection, Admin admin, String[] args) throws IOException {
+        // Usage: InsertData [-D<key>=<value>...] [rowwise|buffered|async|pipelined|bulkload] [csv file]
+        //        InsertData [-D<key>=<value>...] stream <directory | csv file | ->
+        String mode = args.length > 0 ? args[0] : "buffered";
+        String csvFilePath = args.length > 1 ? args[1] : "covid19_tweets.csv";
 
         // Check if the table exists, if not, create it
-        if (!admin.tableExists(Table_Name)) {
+        if (!admin.tableExists(TableName.valueOf(Table_Name))) {
             HTableDescriptor hTableDescriptor = new HTableDescriptor(Table_Name);
-            HColumnDescriptor usersColumnFamily = new HColumnDescriptor("Users");
-            usersColumnFamily.setMaxVersions(4);  // Allow versioning with max 4 versions
-            hTableDescriptor.addFamily(usersColumnFamily);
-            hTableDescriptor.addFamily(new HColumnDescriptor("Tweets"));
-            hTableDescriptor.addFamily(new HColumnDescriptor("Extra"));
-            admin.createTable(hTableDescriptor);
-            System.out.println("Table created successfully.");
+
+            // Families grouped by what the analytics read, set up for how they are read; like the
+            // salt buckets, the layout is recorded on the table for every client
+            SchemaProfile profile = SchemaProfile.fromConf(conf);
+            profile.checkCodecs();
+            TweetLayout newLayout = SchemaProfile.newLayout(conf);
+            for (byte[] family : newLayout.getFamilies()) {
+                hTableDescriptor.addFamily(profile.describe(family, newLayout));
+            }
+            hTableDescriptor.setValue(TweetLayout.FAMILIES_KEY, newLayout.encode());
+
+            // Key format and salt buckets are recorded on the table so every client builds the same keys
+            RowKeys newKeys = RowKeys.fromConf(conf);
+            newKeys.describe(hTableDescriptor);
+            hTableDescriptor.setValue(TweetSchema.ENCODING_KEY, TweetSchema.TYPED_ENCODING);
+
+            // Pre-split from a sample of the input so the first rows already spread over the cluster
+            // There is nothing to sample from a directory or stdin in stream mode
+            int regions = new File(csvFilePath).isFile() ? conf.getInt(PRESPLIT_REGIONS_KEY, 1) : 1;
+            byte[][] splits = newKeys.computeSplits(csvFilePath, regions,
+                    conf.getInt(PRESPLIT_SAMPLE_KEY, 10000));
+            if (splits.length > 0) {
+                admin.createTable(hTableDescriptor, splits);
+            } else {
+                admin.createTable(hTableDescriptor);
+            }
+            System.out.println("Table created successfully with " + (splits.length + 1) + " regions, " + newKeys
+                    + ", families " + newLayout + ", " + profile + ".");
+        }
+        HTableDescriptor descriptor = admin.getTableDescriptor(TableName.valueOf(Table_Name));
+        RowKeys rowKeys = RowKeys.forTable(descriptor);
+        TweetLayout layout = TweetLayout.forTable(descriptor);
+
+        // Secondary index on location, verification and source, written next to the data rows
+        boolean indexed = conf.getBoolean(SecondaryIndex.ENABLED_KEY, true);
+        if (indexed) {
+            SecondaryIndex.createTable(admin, Table_Name);
+        }
+        // Inverted index on hashtags and tweet text
+        boolean termIndexed = conf.getBoolean(TermIndex.ENABLED_KEY, true);
+        if (termIndexed) {
+            TermIndex.createTable(admin, Table_Name);
         }
+        // Counters behind the count reports
+        boolean rolledUp = conf.getBoolean(Rollups.ENABLED_KEY, true);
+        if (rolledUp) {
+            Rollups.createTable(admin, Table_Name);
+        }
+
+        boolean reportSkew = conf.getBoolean(REPORT_SKEW_KEY, false);
+        Map<String, Long> before = reportSkew ? RegionSkew.snapshot(connection, Table_Name) : null;
 
+        if ("rowwise".equals(mode)) {
+            insertRowWise(csvFilePath, conf, connection, rowKeys, layout);
+        } else if ("buffered".equals(mode)) {
+            insertBuffered(csvFilePath, conf, connection, rowKeys, layout);
+        } else if ("async".equals(mode)) {
+            insertAsync(csvFilePath, conf, connection, rowKeys, layout);
+        } else if ("pipelined".equals(mode)) {
+            new PipelinedIngest(conf, Table_Name, rowKeys, layout).run(csvFilePath);
+        } else if ("stream".equals(mode)) {
+            final StreamingIngest stream = new StreamingIngest(conf, Table_Name, rowKeys, layout);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> stream.stop(30000)));
+            stream.run(csvFilePath);
+        } else if ("bulkload".equals(mode)) {
+            new BulkLoad(conf, Table_Name, rowKeys, layout).run(csvFilePath);
+            if (indexed) {
+                // HFiles bypass the write path, so the entries come from a pass over the loaded table
+                SecondaryIndex.rebuild(conf, Table_Name);
+            }
+            if (termIndexed) {
+                TermIndex.rebuild(conf, Table_Name);
+            }
+            if (rolledUp) {
+                Rollups.reconcile(conf, Table_Name);
+            }
+        } else {
+            System.err.println("Unknown mode: " + mode + " (expected rowwise, buffered, async, pipelined, bulkload or stream)");
+            return 1;
+        }
+
+        // Region server load reports lag behind by a heartbeat, so this is a close approximation
+        if (reportSkew) {
+            RegionSkew.printSkew(before, RegionSkew.snapshot(connection, Table_Name));
+        }
+
+        return 0;
+    }
+
+    // Original write path: one blocking RPC per CSV row
+    private static void insertRowWise(String csvFilePath, Configuration conf, Connection connection,
+                                      RowKeys rowKeys, TweetLayout layout) {
         int row_count = 0;
-        String csvFilePath = "covid19_tweets.csv";  
+        long start = System.nanoTime();
 
-        try (FileReader reader = new FileReader(csvFilePath);
+        try (Metrics.Activity activity = Metrics.begin("load " + Table_Name, "",
+                Metrics.counter("rows.written", "table", Table_Name));
+             FileReader reader = new FileReader(csvFilePath);
              CSVParser csvParser = new CSVParser(reader, CSVFormat.DEFAULT.withFirstRecordAsHeader().withTrim())) {
 
             for (CSVRecord csvRecord : csvParser) {
                 // Process each CSV record
-                processLine(csvRecord, conf);
+                processLine(csvRecord, conf, connection, rowKeys, layout, activity);
                 row_count++;
             }
 
         } catch (IOException e) {
-            e.printStackTrace();
+            System.err.println("Failed to read " + csvFilePath + ": " + e);
         }
 
         // Print the number of rows inserted
+        double seconds = (System.nanoTime() - start) / 1e9;
         System.out.println("Inserted " + row_count + " rows.");
+        System.out.println(String.format("Elapsed: %.2f s, throughput: %.0f rows/sec",
+                seconds, seconds > 0 ? row_count / seconds : 0));
+    }
 
-        return 0;
+    // Buffered write path: one shared connection and a BufferedMutator for the whole file
+    private static void insertBuffered(String csvFilePath, Configuration conf, Connection connection,
+                                       RowKeys rowKeys, TweetLayout layout) throws IOException {
+        int row_count = 0;
+
+        try (BufferedIngest ingest = new BufferedIngest(connection, Table_Name, conf);
+             SecondaryIndex.Writer index = SecondaryIndex.Writer.open(connection, Table_Name, conf);
+             Rollups.Writer rollups = Rollups.Writer.open(connection, Table_Name, conf);
+             FileReader reader = new FileReader(csvFilePath);
+             CSVParser csvParser = new CSVParser(reader, CSVFormat.DEFAULT.withFirstRecordAsHeader().withTrim())) {
+
+            try {
+                for (CSVRecord csvRecord : csvParser) {
+                    Put put = buildPut(csvRecord, rowKeys, layout);
+                    if (put != null) {
+                        ingest.add(put);
+                        index.add(put);
+                        rollups.add(put);
+                    }
+                    row_count++;
+                }
+            } finally {
+                // Flush before reporting so the numbers cover every row that was sent
+                ingest.flush();
+                index.flush();
+                rollups.flush();
+                System.out.println("Inserted " + row_count + " rows.");
+                ingest.printReport();
+                index.printReport();
+                rollups.printReport();
+            }
+        }
+    }
+
+    // Asynchronous write path: every row and its index and rollup entries go to the AsyncClient
+    // without waiting, which coalesces the requests of all tables into batches; the reader only
+    // blocks once async.max.inflight requests are outstanding
+    private static void insertAsync(String csvFilePath, Configuration conf, Connection connection,
+                                    RowKeys rowKeys, TweetLayout layout) throws IOException {
+        int row_count = 0;
+        long start = System.nanoTime();
+        boolean indexed = conf.getBoolean(SecondaryIndex.ENABLED_KEY, true);
+        boolean termIndexed = conf.getBoolean(TermIndex.ENABLED_KEY, true);
+        boolean rolledUp = conf.getBoolean(Rollups.ENABLED_KEY, true);
+        TableName dataTable = TableName.valueOf(Table_Name);
+        TableName indexTable = TableName.valueOf(SecondaryIndex.indexTableName(Table_Name));
+        TableName termTable = TableName.valueOf(TermIndex.termTableName(Table_Name));
+        TableName rollupTable = TableName.valueOf(Rollups.rollupTableName(Table_Name));
+
+        try (Metrics.Activity activity = Metrics.begin("load " + Table_Name, "",
+                Metrics.counter("rows.written", "table", Table_Name))) {
+            // Closed before the activity, so every outstanding write has completed and been counted
+            try (AsyncClient client = new AsyncClient(connection, conf);
+                 FileReader reader = new FileReader(csvFilePath);
+                 CSVParser csvParser = new CSVParser(reader, CSVFormat.DEFAULT.withFirstRecordAsHeader().withTrim())) {
+
+                for (CSVRecord csvRecord : csvParser) {
+                    Put put = buildPut(csvRecord, rowKeys, layout);
+                    row_count++;
+                    if (put == null) {
+                        continue;
+                    }
+                    client.put(dataTable, put).whenComplete((done, e) -> {
+                        if (e == null) {
+                            activity.add(1);
+                        } else {
+                            failed(Table_Name, put, 1, e);
+                        }
+                    });
+                    if (indexed) {
+                        writeAll(client, indexTable, put, SecondaryIndex.entriesFor(put));
+                    }
+                    if (termIndexed) {
+                        writeAll(client, termTable, put, TermIndex.entriesFor(put));
+                    }
+                    if (rolledUp) {
+                        for (Increment increment : Rollups.incrementsFor(put)) {
+                            client.increment(rollupTable, increment).whenComplete((done, e) -> {
+                                if (e == null) {
+                                    Metrics.counter("rows.written", "table", rollupTable.getNameAsString()).inc();
+                                } else {
+                                    failed(rollupTable.getNameAsString(), put, 1, e);
+                                }
+                            });
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Failed to read " + csvFilePath + ": " + e);
+            }
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println("Inserted " + row_count + " rows.");
+        System.out.println(String.format("Elapsed: %.2f s, throughput: %.0f rows/sec",
+                seconds, seconds > 0 ? row_count / seconds : 0));
     }
 
-    // Process each CSV record and insert data into HBase
-    private static void processLine(CSVRecord record, Configuration conf) throws IOException {
+    // Index entries of a data row, counted once they have all been written
+    private static void writeAll(AsyncClient client, TableName table, Put put, List<Put> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        client.putAll(table, entries).whenComplete((done, e) -> {
+            if (e == null) {
+                Metrics.counter("rows.written", "table", table.getNameAsString()).add(entries.size());
+            } else {
+                failed(table.getNameAsString(), put, entries.size(), e);
+            }
+        });
+    }
+
+    // Process each CSV record and insert data into HBase. A row a table does not take is counted
+    // and the load goes on.
+    private static void processLine(CSVRecord record, Configuration conf, Connection connection, RowKeys rowKeys,
+                                    TweetLayout layout, Metrics.Activity activity) throws IOException {
+        Put put = buildPut(record, rowKeys, layout);
+        if (put == null) {
+            return;  // Skip the row
+        }
+
+        // Insert data into HBase
+        try (Table hTable = connection.getTable(TableName.valueOf(Table_Name))) {
+            long start = Metrics.isEnabled() ? System.nanoTime() : -1;
+            hTable.put(put);
+            if (start >= 0) {
+                Metrics.histogram("put", "table", Table_Name).record(System.nanoTime() - start);
+            }
+            activity.add(1);
+        } catch (IOException e) {
+            failed(Table_Name, put, 1, e);
+        }
+
+        // And its index entries
+        if (conf.getBoolean(SecondaryIndex.ENABLED_KEY, true)) {
+            String indexName = SecondaryIndex.indexTableName(Table_Name);
+            List<Put> entries = SecondaryIndex.entriesFor(put);
+            try (Table indexTable = connection.getTable(TableName.valueOf(indexName))) {
+                indexTable.put(entries);
+                Metrics.counter("rows.written", "table", indexName).add(entries.size());
+            } catch (IOException e) {
+                failed(indexName, put, entries.size(), e);
+            }
+        }
+        if (conf.getBoolean(TermIndex.ENABLED_KEY, true)) {
+            String termName = TermIndex.termTableName(Table_Name);
+            List<Put> entries = TermIndex.entriesFor(put);
+            try (Table termTable = connection.getTable(TableName.valueOf(termName))) {
+                termTable.put(entries);
+                Metrics.counter("rows.written", "table", termName).add(entries.size());
+            } catch (IOException e) {
+                failed(termName, put, entries.size(), e);
+            }
+        }
+        if (conf.getBoolean(Rollups.ENABLED_KEY, true)) {
+            String rollupName = Rollups.rollupTableName(Table_Name);
+            List<Increment> increments = Rollups.incrementsFor(put);
+            try (Table rollupTable = connection.getTable(TableName.valueOf(rollupName))) {
+                rollupTable.batch(increments, new Object[increments.size()]);
+                Metrics.counter("rows.written", "table", rollupName).add(increments.size());
+            } catch (IOException e) {
+                failed(rollupName, put, increments.size(), e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // Count the rows a table did not take for a data row, and say why
+    private static void failed(String tableName, Put put, int rows, Throwable e) {
+        if (e instanceof CompletionException && e.getCause() != null) {
+            e = e.getCause();
+        }
+        Metrics.counter("rows.failed", "table", tableName).add(rows);
+        System.err.println("Failed to write " + rows + " rows for " + Bytes.toStringBinary(put.getRow())
+                + " to " + tableName + ": " + e);
+    }
+
+    // Build the Put for a CSV record in the table's layout, or return null if the row has to be skipped
+    static Put buildPut(CSVRecord record, RowKeys rowKeys, TweetLayout layout) {
+        CSV_ROWS.inc();
+
         // Extract data from the record
         String user_name = record.get("user_name");
         String user_location = record.get("user_location");
@@ -80,54 +376,35 @@ public class InsertData extends Configured implements Tool {
         // Skip row if username is missing and print a message
         if (user_name == null || user_name.isEmpty()) {
             System.out.println("Skipping row due to missing username.");
-            return;  // Skip the row
+            SKIPPED_ROWS.inc();
+            return null;
         }
 
 
 
         // Create a unique row key using user_name and the date (even if the date is empty)
-        String row_key = user_name + "_" + date;
-        row_key = row_key.replaceAll("\\s+", "_");  // Clean row key by replacing spaces with underscores
+        Put put = new Put(rowKeys.rowKey(user_name, date));
 
-        // Insert data into HBase
-        try (HTable hTable = new HTable(conf, Table_Name)) {
-            Put put = new Put(Bytes.toBytes(row_key));
-
-            // Insert into Users family
-            put.add(Bytes.toBytes("Users"), Bytes.toBytes("user_name"), Bytes.toBytes(user_name));
-            put.add(Bytes.toBytes("Users"), Bytes.toBytes("user_verified"), Bytes.toBytes(user_verified));
-            put.add(Bytes.toBytes("Users"), Bytes.toBytes("user_created"), Bytes.toBytes(user_created));
-            put.add(Bytes.toBytes("Users"), Bytes.toBytes("user_description"), Bytes.toBytes(user_description));
-
-            // Insert the integer values into Extra family
-            put.add(Bytes.toBytes("Extra"), Bytes.toBytes("user_followers"), Bytes.toBytes(user_followers));
-            put.add(Bytes.toBytes("Extra"), Bytes.toBytes("user_friends"), Bytes.toBytes(user_friends));
-            put.add(Bytes.toBytes("Extra"), Bytes.toBytes("user_favourites"), Bytes.toBytes(user_favourites));
-
-            // Insert into Tweets family
-            put.add(Bytes.toBytes("Tweets"), Bytes.toBytes("text"), Bytes.toBytes(tweet_text));
-            put.add(Bytes.toBytes("Tweets"), Bytes.toBytes("hashtags"), Bytes.toBytes(hashtags));
-            put.add(Bytes.toBytes("Tweets"), Bytes.toBytes("is_retweet"), Bytes.toBytes(is_retweet));
-
-            // Insert into Extra family
-            put.add(Bytes.toBytes("Extra"), Bytes.toBytes("source"), Bytes.toBytes(source));
-            put.add(Bytes.toBytes("Extra"), Bytes.toBytes("user_location"), Bytes.toBytes(user_location));
-            put.add(Bytes.toBytes("Extra"), Bytes.toBytes("date"), Bytes.toBytes(date));
+        // Every column goes to its family in the table's layout; typed values that did not
+        // parse are left out
+        layout.add(put, TweetColumn.USER_NAME, Bytes.toBytes(user_name));
+        layout.add(put, TweetColumn.USER_VERIFIED, TweetSchema.encodeBoolean(user_verified));
+        layout.add(put, TweetColumn.USER_CREATED, TweetSchema.encodeTimestamp(user_created));
+        layout.add(put, TweetColumn.USER_DESCRIPTION, Bytes.toBytes(user_description));
 
-            hTable.put(put);
-            
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
+        layout.add(put, TweetColumn.USER_FOLLOWERS, TweetSchema.encodeLong(user_followers));
+        layout.add(put, TweetColumn.USER_FRIENDS, TweetSchema.encodeLong(user_friends));
+        layout.add(put, TweetColumn.USER_FAVOURITES, TweetSchema.encodeLong(user_favourites));
 
-    // Helper method to convert strings to integers with default value of 0
-    private static int convertToInt(String value) {
-        try {
-            return Integer.parseInt(value);
-        } catch (NumberFormatException e) {
-            return 0;  // Return 0 if conversion fails (e.g., empty string or invalid number)
-        }
+        layout.add(put, TweetColumn.TEXT, Bytes.toBytes(tweet_text));
+        layout.add(put, TweetColumn.HASHTAGS, Bytes.toBytes(hashtags));
+        layout.add(put, TweetColumn.IS_RETWEET, TweetSchema.encodeBoolean(is_retweet));
+
+        layout.add(put, TweetColumn.SOURCE, Bytes.toBytes(source));
+        layout.add(put, TweetColumn.USER_LOCATION, Bytes.toBytes(user_location));
+        layout.add(put, TweetColumn.DATE, TweetSchema.encodeTimestamp(date));
+
+        return put;
     }
 
     public static void main(String[] argv) throws Exception {
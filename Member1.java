@@ -1,4 +1,6 @@
 import java.io.BufferedWriter;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -8,11 +10,6 @@ import java.util.List;
 import java.util.Map;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HBaseConfiguration;
-import org.apache.hadoop.hbase.client.HTable;
-import org.apache.hadoop.hbase.client.Result;
-import org.apache.hadoop.hbase.client.ResultScanner;
-import org.apache.hadoop.hbase.client.Scan;
-import org.apache.hadoop.hbase.util.Bytes;
 
 public class Member1 {
 
@@ -20,99 +17,263 @@ public class Member1 {
 
     public static void main(String[] args) throws IOException {
         Configuration conf = HBaseConfiguration.create();
-        HTable hTable = new HTable(conf, Table_Name);
+        Sketches.parseArgs(conf, args);
 
+        // All three reports come out of one scan of the table, with the regions scanned in parallel
+        ScanExecutor executor = new ScanExecutor();
+        register(executor, conf);
+        MetricsReporter.run(conf, "Member1", () -> ParallelScanner.run(conf, Table_Name, executor));
+    }
+
+    // Register the Member1 reports with an executor
+    static void register(ScanExecutor executor, Configuration conf) {
         // Query for all locations and count the number of tweets per location
-        queryTweetsByLocation(hTable);
+        executor.register(locationCounts(tweetsByLocationQuery(), "TweetsByLocation.txt", conf));
 
         // Query for verified users and count the number of tweets per location
-        queryVerifiedTweetsByLocation(hTable);
+        executor.register(locationCounts(verifiedTweetsByLocationQuery(), "VerifiedTweetsByLocation.txt", conf));
 
         // Query for tweets that contain the hashtag #COVID19 and are posted from an Android device
-        queryCovid19AndroidTweets(hTable);
+        executor.register(new Covid19AndroidTweets("Covid19AndroidTweets.txt"));
     }
 
-    // Query to count the number of tweets per location
-    private static void queryTweetsByLocation(HTable hTable) throws IOException {
-        Map<String, Integer> locationCountMap = new HashMap<>();
-        Scan scan = new Scan();
-        scan.addFamily(Bytes.toBytes("Extra")); // Retrieve "Extra" family for user_location
-        scan.addFamily(Bytes.toBytes("Tweets")); // Retrieve "Tweets" family for tweet text
-        ResultScanner scanner = hTable.getScanner(scan);
-
-        try {
-            for (Result result : scanner) {
-                String userLocation = Bytes.toString(result.getValue(Bytes.toBytes("Extra"), Bytes.toBytes("user_location")));
-                String tweetText = Bytes.toString(result.getValue(Bytes.toBytes("Tweets"), Bytes.toBytes("text")));
-                
-                // Skip if either userLocation or tweetText is null or empty
-                if (userLocation != null && !userLocation.isEmpty() && tweetText != null && !tweetText.isEmpty()) {
-                    locationCountMap.put(userLocation, locationCountMap.getOrDefault(userLocation, 0) + 1);
-                }
+    // Tweets with a location and non-empty text; only the location is returned
+    static TweetQuery tweetsByLocationQuery() {
+        return new TweetQuery()
+                .select(TweetColumn.USER_LOCATION)
+                .where(TweetQuery.notEmpty(TweetColumn.USER_LOCATION))
+                .where(TweetQuery.notEmpty(TweetColumn.TEXT));
+    }
+
+    // Tweets by verified users with a location and non-empty text; only the location is returned
+    static TweetQuery verifiedTweetsByLocationQuery() {
+        return new TweetQuery()
+                .select(TweetColumn.USER_LOCATION)
+                .where(TweetQuery.notEmpty(TweetColumn.USER_LOCATION))
+                .where(TweetQuery.notEmpty(TweetColumn.TEXT))
+                .where(TweetQuery.isTrue(TweetColumn.USER_VERIFIED));
+    }
+
+    // Non-empty tweets tagged #COVID19 (the whole tag, in any case) whose source mentions Android
+    static TweetQuery covid19AndroidTweetsQuery() {
+        return new TweetQuery()
+                .select(TweetColumn.TEXT)
+                // The source check runs on the raw bytes, so it goes before the hashtag parse
+                .where(TweetQuery.contains(TweetColumn.SOURCE, "Android"))
+                .where(TweetQuery.hasHashtag(TweetColumn.HASHTAGS, "COVID19"))
+                .where(TweetQuery.notEmpty(TweetColumn.TEXT));
+    }
+
+    // Exact location counts, or sketches of them in the approximate mode (see Sketches)
+    static Checkpointed locationCounts(TweetQuery query, String fileName, Configuration conf) {
+        if (Sketches.isApproximate(conf)) {
+            return new ApproxLocationCounts(query, fileName, Sketches.hyperLogLog(conf), Sketches.topKSketch(conf));
+        }
+        return new LocationCounts(query, fileName);
+    }
+
+    // Count the number of tweets per location for the rows of a query
+    static class LocationCounts implements Checkpointed {
+        private final TweetQuery query;
+        private final String fileName;
+        private final ValueCounts locationCounts = new ValueCounts();
+
+        LocationCounts(TweetQuery query, String fileName) {
+            this.query = query;
+            this.fileName = fileName;
+        }
+
+        @Override
+        public TweetQuery query() {
+            return query;
+        }
+
+        @Override
+        public void add(RowAccessor row) {
+            locationCounts.add(row, TweetColumn.USER_LOCATION, 1);
+        }
+
+        @Override
+        public Aggregator newPartial() {
+            return new LocationCounts(query, fileName);
+        }
+
+        @Override
+        public void merge(Aggregator partial) {
+            locationCounts.addAll(((LocationCounts) partial).locationCounts);
+        }
+
+        // Add tweets counted elsewhere, e.g. by the GroupByEndpoint
+        void addCount(String userLocation, int count) {
+            locationCounts.add(userLocation, count);
+        }
+
+        @Override
+        public String stateName() {
+            return fileName;
+        }
+
+        @Override
+        public void writeState(DataOutput out) throws IOException {
+            Map<String, Integer> counts = locationCounts.toMap();
+            out.writeInt(counts.size());
+            for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+                IncrementalRun.writeString(out, entry.getKey());
+                out.writeInt(entry.getValue());
+            }
+        }
+
+        @Override
+        public void readState(DataInput in) throws IOException {
+            for (int i = in.readInt(); i > 0; i--) {
+                addCount(IncrementalRun.readString(in), in.readInt());
             }
-        } finally {
-            scanner.close();
         }
 
-        // Write the results to a file
-        writeMapToFile("TweetsByLocation.txt", locationCountMap);
+        @Override
+        public void finish() throws IOException {
+            // Write the results to a file
+            writeMapToFile(fileName, locationCounts.toMap());
+        }
     }
 
-    // Query to count the number of tweets per location for verified users
-    private static void queryVerifiedTweetsByLocation(HTable hTable) throws IOException {
-        Map<String, Integer> locationCountMap = new HashMap<>();
-        Scan scan = new Scan();
-        scan.addFamily(Bytes.toBytes("Users"));  // Retrieve "Users" family for user_verified
-        scan.addFamily(Bytes.toBytes("Extra"));  // Retrieve "Extra" family for user_location
-        scan.addFamily(Bytes.toBytes("Tweets")); // Retrieve "Tweets" family for tweet text
-        ResultScanner scanner = hTable.getScanner(scan);
-
-        try {
-            for (Result result : scanner) {
-                String userLocation = Bytes.toString(result.getValue(Bytes.toBytes("Extra"), Bytes.toBytes("user_location")));
-                String userVerified = Bytes.toString(result.getValue(Bytes.toBytes("Users"), Bytes.toBytes("user_verified")));
-                String tweetText = Bytes.toString(result.getValue(Bytes.toBytes("Tweets"), Bytes.toBytes("text")));
-                
-                // Skip if userLocation, tweetText are empty, or if user is not verified
-                if (userLocation != null && !userLocation.isEmpty() && tweetText != null && !tweetText.isEmpty()
-                        && "TRUE".equalsIgnoreCase(userVerified)) {
-                    locationCountMap.put(userLocation, locationCountMap.getOrDefault(userLocation, 0) + 1);
-                }
+    // LocationCounts in fixed memory: the number of distinct locations from a HyperLogLog, and
+    // only the most frequent locations, with counts from a Count-Min sketch
+    static class ApproxLocationCounts implements Checkpointed {
+        private final TweetQuery query;
+        private final String fileName;
+        private final HyperLogLog distinctLocations;
+        private final TopK topLocations;
+
+        ApproxLocationCounts(TweetQuery query, String fileName, HyperLogLog distinctLocations, TopK topLocations) {
+            this.query = query;
+            this.fileName = fileName;
+            this.distinctLocations = distinctLocations;
+            this.topLocations = topLocations;
+        }
+
+        @Override
+        public TweetQuery query() {
+            return query;
+        }
+
+        @Override
+        public void add(RowAccessor row) {
+            // LocationCounts writes a missing location as "null"
+            String userLocation = String.valueOf(row.getString(TweetColumn.USER_LOCATION));
+            if (row.has(TweetColumn.USER_LOCATION)) {
+                distinctLocations.addHash(row.hash64(TweetColumn.USER_LOCATION));
+            } else {
+                distinctLocations.add(userLocation);
             }
-        } finally {
-            scanner.close();
+            topLocations.add(userLocation, 1);
+        }
+
+        @Override
+        public Aggregator newPartial() {
+            return new ApproxLocationCounts(query, fileName, distinctLocations.emptyCopy(), topLocations.emptyCopy());
+        }
+
+        @Override
+        public void merge(Aggregator partial) {
+            ApproxLocationCounts other = (ApproxLocationCounts) partial;
+            distinctLocations.merge(other.distinctLocations);
+            topLocations.merge(other.topLocations);
+        }
+
+        // Kept apart from the exact counts, so switching modes does not read the other's state
+        @Override
+        public String stateName() {
+            return fileName + ".approximate";
         }
 
-        // Write the results to a file
-        writeMapToFile("VerifiedTweetsByLocation.txt", locationCountMap);
+        @Override
+        public void writeState(DataOutput out) throws IOException {
+            distinctLocations.write(out);
+            topLocations.write(out);
+        }
+
+        @Override
+        public void readState(DataInput in) throws IOException {
+            distinctLocations.merge(HyperLogLog.read(in));
+            topLocations.merge(TopK.read(in));
+        }
+
+        @Override
+        public void finish() throws IOException {
+            Map<String, Integer> top = new HashMap<>();
+            for (Map.Entry<String, Long> entry : topLocations.top()) {
+                top.put(entry.getKey(), entry.getValue().intValue());
+            }
+            // Write the results to a file
+            writeMapToFile(fileName, top);
+
+            CountMinSketch sketch = topLocations.getSketch();
+            System.out.println(String.format("%s: about %d distinct locations (standard error %.1f%%), "
+                            + "top %d written, counts at most %d too high out of %d tweets",
+                    fileName, distinctLocations.estimate(), distinctLocations.standardError() * 100,
+                    top.size(), sketch.errorBound(), sketch.getTotal()));
+        }
     }
 
-    // Query to retrieve tweets containing hashtag #COVID19 and posted from an Android device
-    private static void queryCovid19AndroidTweets(HTable hTable) throws IOException {
-        List<String> covid19Tweets = new ArrayList<>();
-        Scan scan = new Scan();
-        scan.addFamily(Bytes.toBytes("Tweets")); // Retrieve "Tweets" family for hashtags and tweet text
-        scan.addFamily(Bytes.toBytes("Extra"));  // Retrieve "Extra" family for source
-        ResultScanner scanner = hTable.getScanner(scan);
-
-        try {
-            for (Result result : scanner) {
-                String hashtags = Bytes.toString(result.getValue(Bytes.toBytes("Tweets"), Bytes.toBytes("hashtags")));
-                String source = Bytes.toString(result.getValue(Bytes.toBytes("Extra"), Bytes.toBytes("source")));
-                String tweetText = Bytes.toString(result.getValue(Bytes.toBytes("Tweets"), Bytes.toBytes("text")));
-
-                // Skip if tweetText is null or empty
-                if (hashtags != null && hashtags.contains("COVID19") && source != null && source.contains("Android")
-                        && tweetText != null && !tweetText.isEmpty()) {
-                    covid19Tweets.add(tweetText);
-                }
+    // Collect tweets containing hashtag #COVID19 and posted from an Android device
+    static class Covid19AndroidTweets implements Checkpointed {
+        private final TweetQuery query = covid19AndroidTweetsQuery();
+        private final String fileName;
+        private final List<String> covid19Tweets = new ArrayList<>();
+
+        Covid19AndroidTweets(String fileName) {
+            this.fileName = fileName;
+        }
+
+        @Override
+        public TweetQuery query() {
+            return query;
+        }
+
+        @Override
+        public void add(RowAccessor row) {
+            covid19Tweets.add(row.getString(TweetColumn.TEXT));
+        }
+
+        @Override
+        public Aggregator newPartial() {
+            return new Covid19AndroidTweets(fileName);
+        }
+
+        @Override
+        public void merge(Aggregator partial) {
+            covid19Tweets.addAll(((Covid19AndroidTweets) partial).covid19Tweets);
+        }
+
+        @Override
+        public String stateName() {
+            return fileName;
+        }
+
+        @Override
+        public void writeState(DataOutput out) throws IOException {
+            out.writeInt(covid19Tweets.size());
+            for (String tweet : covid19Tweets) {
+                IncrementalRun.writeString(out, tweet);
             }
-        } finally {
-            scanner.close();
         }
 
-        // Write the results to a file
-        writeListToFile("Covid19AndroidTweets.txt", covid19Tweets);
+        // The stored tweets come first, like rows written before the new ones
+        @Override
+        public void readState(DataInput in) throws IOException {
+            List<String> stored = new ArrayList<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                stored.add(IncrementalRun.readString(in));
+            }
+            covid19Tweets.addAll(0, stored);
+        }
+
+        @Override
+        public void finish() throws IOException {
+            // Write the results to a file
+            writeListToFile(fileName, covid19Tweets);
+        }
     }
 
     // Helper method to sort and write map to file
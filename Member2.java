@@ -1,18 +1,17 @@
 import java.io.BufferedWriter;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HBaseConfiguration;
-import org.apache.hadoop.hbase.client.HTable;
-import org.apache.hadoop.hbase.client.Result;
-import org.apache.hadoop.hbase.client.ResultScanner;
-import org.apache.hadoop.hbase.client.Scan;
-import org.apache.hadoop.hbase.util.Bytes;
 
 public class Member2 {
 
@@ -20,110 +19,330 @@ public class Member2 {
 
     public static void main(String[] args) throws IOException {
         Configuration conf = HBaseConfiguration.create();
-        HTable hTable = new HTable(conf, Table_Name);
+        Sketches.parseArgs(conf, args);
 
+        // Both tasks come out of one scan of the table, with the regions scanned in parallel
+        ScanExecutor executor = new ScanExecutor();
+        register(executor, conf);
+        MetricsReporter.run(conf, "Member2", () -> ParallelScanner.run(conf, Table_Name, executor));
+    }
+
+    // Register the Member2 reports with an executor
+    static void register(ScanExecutor executor, Configuration conf) {
         // Task a: Compare the number of tweets posted by verified and non-verified users
-        compareVerifiedNonVerifiedTweets(hTable);
+        executor.register(new VerificationCounts("Task a", "compareVerifiedNonVerifiedTweets.txt"));
 
         // Task b: Select the influential users who have more than 10,000 followers and are verified
-        selectInfluentialUsers(hTable);
+        executor.register(influentialUsers("Task b", "selectInfluentialUsers.txt", conf));
+    }
+
+    // Tweets with non-empty text; only user_verified is returned
+    static TweetQuery compareVerifiedNonVerifiedTweetsQuery() {
+        return new TweetQuery()
+                .select(TweetColumn.USER_VERIFIED)
+                .where(TweetQuery.notEmpty(TweetColumn.TEXT));
+    }
+
+    // Rows of verified users with more than 10,000 followers; returns user name and followers
+    static TweetQuery selectInfluentialUsersQuery() {
+        return new TweetQuery()
+                .select(TweetColumn.USER_NAME, TweetColumn.USER_FOLLOWERS)
+                .where(TweetQuery.isTrue(TweetColumn.USER_VERIFIED))
+                .where(TweetQuery.greaterThan(TweetColumn.USER_FOLLOWERS, 10000));
+    }
+
+    // Exact influential users, or sketches of them in the approximate mode (see Sketches)
+    static Checkpointed influentialUsers(String task, String fileName, Configuration conf) {
+        if (Sketches.isApproximate(conf)) {
+            return new ApproxInfluentialUsers(task, fileName, Sketches.hyperLogLog(conf), Sketches.topK(conf));
+        }
+        return new InfluentialUsers(task, fileName);
+    }
+
+    // Compare the number of tweets posted by verified users vs non-verified users
+    static class VerificationCounts implements Checkpointed {
+        private final TweetQuery query = compareVerifiedNonVerifiedTweetsQuery();
+        private final String task;
+        private final String fileName;
+        private int verifiedTweetsCount = 0;
+        private int nonVerifiedTweetsCount = 0;
+
+        VerificationCounts(String task, String fileName) {
+            this.task = task;
+            this.fileName = fileName;
+        }
+
+        @Override
+        public TweetQuery query() {
+            return query;
+        }
+
+        @Override
+        public void add(RowAccessor row) {
+            Boolean userVerified = row.getBoolean(TweetColumn.USER_VERIFIED);
+
+            addCount(Boolean.TRUE.equals(userVerified), 1);
+        }
+
+        @Override
+        public Aggregator newPartial() {
+            return new VerificationCounts(task, fileName);
+        }
+
+        @Override
+        public void merge(Aggregator partial) {
+            VerificationCounts other = (VerificationCounts) partial;
+            verifiedTweetsCount += other.verifiedTweetsCount;
+            nonVerifiedTweetsCount += other.nonVerifiedTweetsCount;
+        }
+
+        // Count tweets by verified or non-verified users
+        void addCount(boolean verified, int count) {
+            if (verified) {
+                verifiedTweetsCount += count;
+            } else {
+                nonVerifiedTweetsCount += count;
+            }
+        }
+
+        @Override
+        public String stateName() {
+            return fileName;
+        }
+
+        @Override
+        public void writeState(DataOutput out) throws IOException {
+            out.writeInt(verifiedTweetsCount);
+            out.writeInt(nonVerifiedTweetsCount);
+        }
+
+        @Override
+        public void readState(DataInput in) throws IOException {
+            addCount(true, in.readInt());
+            addCount(false, in.readInt());
+        }
+
+        @Override
+        public void finish() throws IOException {
+            // Write the results to a file
+            try (BufferedWriter writer = new BufferedWriter(new FileWriter(fileName))) {
+                writer.write("Total Tweets by Verified Users: " + verifiedTweetsCount);
+                writer.newLine();
+                writer.write("Total Tweets by Non-Verified Users: " + nonVerifiedTweetsCount);
+                writer.newLine();
+            }
+
+            System.out.println(task + ": Comparison written to file '" + fileName + "'");
+        }
     }
 
-    // Task a: Compare the number of tweets posted by verified users vs non-verified users
-    private static void compareVerifiedNonVerifiedTweets(HTable hTable) throws IOException {
-        int verifiedTweetsCount = 0;
-        int nonVerifiedTweetsCount = 0;
+    // Select the influential users who have more than 10,000 followers and are verified
+    static class InfluentialUsers implements Checkpointed {
+        private final TweetQuery query = selectInfluentialUsersQuery();
+        private final String task;
+        private final String fileName;
+        private final Map<String, Long> influentialUsers = new HashMap<>();  // Use Map to store usernames and their followers count
+        private final Set<String> seenUsernames = new HashSet<>(); // Track already seen usernames to prevent duplicates
 
-        Scan scan = new Scan();
-        scan.addFamily(Bytes.toBytes("Users"));  // For user_verified
-        scan.addFamily(Bytes.toBytes("Tweets")); // For tweet text
-        ResultScanner scanner = hTable.getScanner(scan);
+        InfluentialUsers(String task, String fileName) {
+            this.task = task;
+            this.fileName = fileName;
+        }
+
+        @Override
+        public TweetQuery query() {
+            return query;
+        }
+
+        @Override
+        public void add(RowAccessor row) {
+            String userName = row.getString(TweetColumn.USER_NAME);
+            if (userName != null && !seenUsernames.contains(userName)) {
+                seenUsernames.add(userName);  // Ensure no duplicates
+                Long userFollowers = TweetSchema.decodeLong(row.getValue(TweetColumn.USER_FOLLOWERS));
+                influentialUsers.put(userName, userFollowers);  // Add to the map with followers count
+            }
+        }
 
-        try {
-            for (Result result : scanner) {
-                String userVerified = Bytes.toString(result.getValue(Bytes.toBytes("Users"), Bytes.toBytes("user_verified")));
-                String tweetText = Bytes.toString(result.getValue(Bytes.toBytes("Tweets"), Bytes.toBytes("text")));
+        @Override
+        public Aggregator newPartial() {
+            return new InfluentialUsers(task, fileName);
+        }
 
-                // Skip if tweet text is null or empty
-                if (tweetText == null || tweetText.isEmpty()) {
-                    continue;
+        @Override
+        public void merge(Aggregator partial) {
+            // Partials are merged in key order, so the first row seen for a user still wins
+            for (Map.Entry<String, Long> entry : ((InfluentialUsers) partial).influentialUsers.entrySet()) {
+                if (seenUsernames.add(entry.getKey())) {
+                    influentialUsers.put(entry.getKey(), entry.getValue());
                 }
+            }
+        }
+
+        @Override
+        public String stateName() {
+            return fileName;
+        }
 
-                // Count tweets by verified or non-verified users
-                if ("TRUE".equalsIgnoreCase(userVerified)) {
-                    verifiedTweetsCount++;
-                } else {
-                    nonVerifiedTweetsCount++;
+        // Every seen user is in the map, so the map is the whole state
+        @Override
+        public void writeState(DataOutput out) throws IOException {
+            out.writeInt(influentialUsers.size());
+            for (Map.Entry<String, Long> entry : influentialUsers.entrySet()) {
+                IncrementalRun.writeString(out, entry.getKey());
+                out.writeBoolean(entry.getValue() != null);
+                if (entry.getValue() != null) {
+                    out.writeLong(entry.getValue());
                 }
             }
-        } finally {
-            scanner.close();
         }
 
-        // Write the results to a file
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter("compareVerifiedNonVerifiedTweets.txt"))) {
-            writer.write("Total Tweets by Verified Users: " + verifiedTweetsCount);
-            writer.newLine();
-            writer.write("Total Tweets by Non-Verified Users: " + nonVerifiedTweetsCount);
-            writer.newLine();
+        // Users from earlier runs were seen first and keep their follower count
+        @Override
+        public void readState(DataInput in) throws IOException {
+            for (int i = in.readInt(); i > 0; i--) {
+                String userName = IncrementalRun.readString(in);
+                Long followers = in.readBoolean() ? in.readLong() : null;
+                seenUsernames.add(userName);
+                influentialUsers.put(userName, followers);
+            }
         }
 
-        System.out.println("Task a: Comparison written to file 'compareVerifiedNonVerifiedTweets.txt'");
-    }
+        @Override
+        public void finish() throws IOException {
+            // Write the influential users and their follower counts to a file
+            try (BufferedWriter writer = new BufferedWriter(new FileWriter(fileName))) {
+                writer.write("Influential Users with more than 10,000 followers and verified:");
+                writer.newLine();
 
-    // Task b: Select the influential users who have more than 10,000 followers and are verified
-    private static void selectInfluentialUsers(HTable hTable) throws IOException {
-        Map<String, Integer> influentialUsers = new HashMap<>();  // Use Map to store usernames and their followers count
-        Set<String> seenUsernames = new HashSet<>(); // Track already seen usernames to prevent duplicates
-        Scan scan = new Scan();
-        scan.addFamily(Bytes.toBytes("Users"));  // Add Users family
-        scan.addFamily(Bytes.toBytes("Extra"));  // Add Extra family
-
-        ResultScanner scanner = hTable.getScanner(scan);
-        try {
-            for (Result result : scanner) {
-                // Extract the user_verified and user_followers
-                String userVerified = Bytes.toString(result.getValue(Bytes.toBytes("Users"), Bytes.toBytes("user_verified")));
-                String userFollowersStr = Bytes.toString(result.getValue(Bytes.toBytes("Extra"), Bytes.toBytes("user_followers")));
-
-                // Skip if either user_verified or user_followers is missing
-                if (userVerified == null || userFollowersStr == null) {
-                    continue;  // Skip this row if required fields are missing
+                for (Map.Entry<String, Long> entry : influentialUsers.entrySet()) {
+                    writer.write("Username: " + entry.getKey() + ", Followers: " + entry.getValue());
+                    writer.newLine();
                 }
+            }
+
+            System.out.println(task + ": Influential users written to '" + fileName + "'");
+        }
+    }
+
+    // InfluentialUsers in fixed memory: the number of distinct influential users from a HyperLogLog,
+    // and only the k users with the most followers instead of a set and a map of every name
+    static class ApproxInfluentialUsers implements Checkpointed {
+        private final TweetQuery query = selectInfluentialUsersQuery();
+        private final String task;
+        private final String fileName;
+        private final HyperLogLog distinctUsers;
+        private final int k;
+        private final Map<String, Long> topUsers = new HashMap<>();
+
+        ApproxInfluentialUsers(String task, String fileName, HyperLogLog distinctUsers, int k) {
+            this.task = task;
+            this.fileName = fileName;
+            this.distinctUsers = distinctUsers;
+            this.k = k;
+        }
+
+        @Override
+        public TweetQuery query() {
+            return query;
+        }
+
+        @Override
+        public void add(RowAccessor row) {
+            if (row.has(TweetColumn.USER_NAME)) {
+                distinctUsers.addHash(row.hash64(TweetColumn.USER_NAME));
+                offer(row.getString(TweetColumn.USER_NAME), TweetSchema.decodeLong(row.getValue(TweetColumn.USER_FOLLOWERS)));
+            }
+        }
 
-                // Convert followers to integer
-                int userFollowers;
-                try {
-                    userFollowers = Integer.parseInt(userFollowersStr);  // Parse followers count
-                } catch (NumberFormatException e) {
-                    continue;  // Skip this row if followers count is not a valid number
+        // Keep the user if they are among the k with the most followers; like InfluentialUsers,
+        // the first follower count seen for a user stays
+        private void offer(String userName, Long userFollowers) {
+            if (topUsers.containsKey(userName)) {
+                return;
+            }
+            long followers = userFollowers == null ? -1 : userFollowers;
+            if (topUsers.size() < k) {
+                topUsers.put(userName, userFollowers);
+                return;
+            }
+            String weakest = null;
+            long weakestFollowers = Long.MAX_VALUE;
+            for (Map.Entry<String, Long> entry : topUsers.entrySet()) {
+                long value = entry.getValue() == null ? -1 : entry.getValue();
+                if (value < weakestFollowers) {
+                    weakest = entry.getKey();
+                    weakestFollowers = value;
                 }
+            }
+            if (followers > weakestFollowers) {
+                topUsers.remove(weakest);
+                topUsers.put(userName, userFollowers);
+            }
+        }
 
-                // Check if user is verified and has more than 10,000 followers
-                if ("TRUE".equalsIgnoreCase(userVerified) && userFollowers > 10000) {
-                    String userName = Bytes.toString(result.getValue(Bytes.toBytes("Users"), Bytes.toBytes("user_name")));
-                    if (userName != null && !seenUsernames.contains(userName)) {
-                        seenUsernames.add(userName);  // Ensure no duplicates
-                        influentialUsers.put(userName, userFollowers);  // Add to the map with followers count
-                    }
+        @Override
+        public Aggregator newPartial() {
+            return new ApproxInfluentialUsers(task, fileName, distinctUsers.emptyCopy(), k);
+        }
+
+        @Override
+        public void merge(Aggregator partial) {
+            ApproxInfluentialUsers other = (ApproxInfluentialUsers) partial;
+            distinctUsers.merge(other.distinctUsers);
+            for (Map.Entry<String, Long> entry : other.topUsers.entrySet()) {
+                offer(entry.getKey(), entry.getValue());
+            }
+        }
+
+        @Override
+        public String stateName() {
+            return fileName + ".approximate";
+        }
+
+        @Override
+        public void writeState(DataOutput out) throws IOException {
+            distinctUsers.write(out);
+            out.writeInt(topUsers.size());
+            for (Map.Entry<String, Long> entry : topUsers.entrySet()) {
+                IncrementalRun.writeString(out, entry.getKey());
+                out.writeBoolean(entry.getValue() != null);
+                if (entry.getValue() != null) {
+                    out.writeLong(entry.getValue());
                 }
             }
-        } finally {
-            scanner.close();
         }
 
-        // Write the influential users and their follower counts to a file
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter("selectInfluentialUsers.txt"))) {
-            writer.write("Influential Users with more than 10,000 followers and verified:");
-            writer.newLine();
+        @Override
+        public void readState(DataInput in) throws IOException {
+            distinctUsers.merge(HyperLogLog.read(in));
+            for (int i = in.readInt(); i > 0; i--) {
+                String userName = IncrementalRun.readString(in);
+                offer(userName, in.readBoolean() ? in.readLong() : null);
+            }
+        }
 
-            for (Map.Entry<String, Integer> entry : influentialUsers.entrySet()) {
-                writer.write("Username: " + entry.getKey() + ", Followers: " + entry.getValue());
+        @Override
+        public void finish() throws IOException {
+            List<Map.Entry<String, Long>> users = new ArrayList<>(topUsers.entrySet());
+            users.sort((e1, e2) -> Long.compare(e2.getValue() == null ? -1 : e2.getValue(),
+                    e1.getValue() == null ? -1 : e1.getValue()));
+
+            // Write the estimate and the users with the most followers to a file
+            try (BufferedWriter writer = new BufferedWriter(new FileWriter(fileName))) {
+                writer.write("Influential Users with more than 10,000 followers and verified:");
+                writer.newLine();
+                writer.write(String.format("About %d users (standard error %.1f%%), the %d with the most followers:",
+                        distinctUsers.estimate(), distinctUsers.standardError() * 100, users.size()));
                 writer.newLine();
+
+                for (Map.Entry<String, Long> entry : users) {
+                    writer.write("Username: " + entry.getKey() + ", Followers: " + entry.getValue());
+                    writer.newLine();
+                }
             }
-        }
 
-        System.out.println("Task b: Influential users written to 'selectInfluentialUsers.txt'");
+            System.out.println(task + ": Influential users written to '" + fileName + "'");
+        }
     }
-
 }
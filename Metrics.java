@@ -0,0 +1,281 @@
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Counters, latency histograms and running activities shared by the ingest and query paths, by
+// name and labels, e.g. rows.written{table="CovidData"}. A tool runs inside a MetricsReporter,
+// which prints progress while it runs and dumps everything to JSON and Prometheus text at the end.
+//
+// What the paths record:
+//   rows.read{source}    CSV records parsed (source="csv") and rows returned by scans of a table
+//   rows.written{table}  rows handed to a table: per put, per mutator batch or per bulk load
+//   rows.skipped         CSV records left out: no user name, or malformed
+//   rows.failed{table}   rows the table did not take
+//   put{table}           Table.put per row, or BufferedMutator.mutate per batch, which blocks
+//                        while the write buffer is full
+//   flush{table}         BufferedMutator.flush
+//   scanner.next         the next() calls that waited for an RPC, i.e. one per page of rows
+// Counters always count, at the cost of a LongAdder. Histograms only record while enabled, so the
+// paths pay one volatile read otherwise; a MetricsReporter turns them on.
+//
+// An activity is a unit of work in progress, a region scan or a table being loaded, with its row
+// count and a group of peers doing the same work. The reporter uses them to name what has stalled
+// or falls behind its peers while the job runs; the slowest ones that finished are kept for the dump.
+public class Metrics {
+
+    private static final int SLOWEST_KEPT = 10;
+
+    private static final ConcurrentMap<String, Counter> COUNTERS = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Histogram> HISTOGRAMS = new ConcurrentHashMap<>();
+    private static final Set<Activity> RUNNING = Collections.newSetFromMap(new ConcurrentHashMap<Activity, Boolean>());
+    private static final List<Activity> SLOWEST = new ArrayList<>();
+    private static volatile boolean enabled = false;
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    // Counter by name and label pairs, e.g. counter("rows.written", "table", "CovidData")
+    public static Counter counter(String name, String... labels) {
+        String rendered = labels(labels);
+        String key = key(name, rendered);
+        Counter counter = COUNTERS.get(key);
+        if (counter == null) {
+            Counter created = new Counter(name, rendered);
+            counter = COUNTERS.putIfAbsent(key, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    // Histogram by name and label pairs, e.g. histogram("flush", "table", "CovidData")
+    public static Histogram histogram(String name, String... labels) {
+        String rendered = labels(labels);
+        String key = key(name, rendered);
+        Histogram histogram = HISTOGRAMS.get(key);
+        if (histogram == null) {
+            Histogram created = new Histogram(name, rendered);
+            histogram = HISTOGRAMS.putIfAbsent(key, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+
+    // Start an activity among its peers, e.g. the regions of one scan; rows added to it are added to
+    // the progress counter as well
+    public static Activity begin(String group, String name, Counter progress) {
+        Activity activity = new Activity(group, name, progress);
+        RUNNING.add(activity);
+        return activity;
+    }
+
+    // Every counter, by name and then labels
+    public static List<Counter> counters() {
+        List<Counter> all = new ArrayList<>(COUNTERS.values());
+        Collections.sort(all, new Comparator<Counter>() {
+            @Override
+            public int compare(Counter a, Counter b) {
+                int byName = a.name.compareTo(b.name);
+                return byName != 0 ? byName : a.labels.compareTo(b.labels);
+            }
+        });
+        return all;
+    }
+
+    // Every histogram, by name and then labels
+    public static List<Histogram> histograms() {
+        List<Histogram> all = new ArrayList<>(HISTOGRAMS.values());
+        Collections.sort(all, new Comparator<Histogram>() {
+            @Override
+            public int compare(Histogram a, Histogram b) {
+                int byName = a.getName().compareTo(b.getName());
+                return byName != 0 ? byName : a.getLabels().compareTo(b.getLabels());
+            }
+        });
+        return all;
+    }
+
+    public static List<Activity> running() {
+        return new ArrayList<>(RUNNING);
+    }
+
+    // The activities that took longest, slowest first
+    public static List<Activity> slowest() {
+        synchronized (SLOWEST) {
+            return new ArrayList<>(SLOWEST);
+        }
+    }
+
+    // Clear every counter, histogram and finished activity, between the phases of a load test
+    public static void resetAll() {
+        for (Counter counter : COUNTERS.values()) {
+            counter.reset();
+        }
+        for (Histogram histogram : HISTOGRAMS.values()) {
+            histogram.reset();
+        }
+        synchronized (SLOWEST) {
+            SLOWEST.clear();
+        }
+    }
+
+    private static void finished(Activity activity) {
+        RUNNING.remove(activity);
+        synchronized (SLOWEST) {
+            int i = 0;
+            while (i < SLOWEST.size() && SLOWEST.get(i).getNanos() >= activity.getNanos()) {
+                i++;
+            }
+            if (i < SLOWEST_KEPT) {
+                SLOWEST.add(i, activity);
+                if (SLOWEST.size() > SLOWEST_KEPT) {
+                    SLOWEST.remove(SLOWEST_KEPT);
+                }
+            }
+        }
+    }
+
+    // Label pairs in Prometheus form: table="CovidData",source="csv"
+    static String labels(String... pairs) {
+        if (pairs.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels come in name and value pairs: " + Arrays.toString(pairs));
+        }
+        StringBuilder rendered = new StringBuilder();
+        for (int i = 0; i < pairs.length; i += 2) {
+            if (i > 0) {
+                rendered.append(',');
+            }
+            rendered.append(pairs[i]).append("=\"")
+                    .append(pairs[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+                    .append('"');
+        }
+        return rendered.toString();
+    }
+
+    static String key(String name, String labels) {
+        return labels.isEmpty() ? name : name + "{" + labels + "}";
+    }
+
+    public static class Counter {
+        private final String name;
+        private final String labels;
+        private final LongAdder count = new LongAdder();
+
+        Counter(String name, String labels) {
+            this.name = name;
+            this.labels = labels;
+        }
+
+        public void inc() {
+            count.increment();
+        }
+
+        public void add(long n) {
+            count.add(n);
+        }
+
+        public long get() {
+            return count.sum();
+        }
+
+        void reset() {
+            count.reset();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getLabels() {
+            return labels;
+        }
+
+        @Override
+        public String toString() {
+            return key(name, labels);
+        }
+    }
+
+    // Work in progress with a row count. Only the thread doing the work adds to it; it publishes
+    // its rows every so often, and the reporter reads them.
+    public static class Activity implements Closeable {
+        private final String group;
+        private final String description;
+        private final Counter progress;
+        private final long startNanos = System.nanoTime();
+        private final AtomicLong rows = new AtomicLong();
+        private volatile long lastProgressNanos = startNanos;
+        private volatile long endNanos = 0;
+
+        Activity(String group, String name, Counter progress) {
+            this.group = group;
+            this.description = name.isEmpty() ? group : group + " " + name;
+            this.progress = progress;
+        }
+
+        public void add(long n) {
+            rows.addAndGet(n);
+            if (progress != null) {
+                progress.add(n);
+            }
+            lastProgressNanos = System.nanoTime();
+        }
+
+        public String getGroup() {
+            return group;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        public long getRows() {
+            return rows.get();
+        }
+
+        // Time from the start to the end, or to now while it runs
+        public long getNanos() {
+            long end = endNanos;
+            return (end != 0 ? end : System.nanoTime()) - startNanos;
+        }
+
+        // Time since rows were last added, or since the start if none were
+        public long getIdleNanos() {
+            return System.nanoTime() - lastProgressNanos;
+        }
+
+        public double getRowsPerSecond() {
+            long nanos = getNanos();
+            return nanos > 0 ? rows.get() * 1e9 / nanos : 0;
+        }
+
+        @Override
+        public void close() {
+            if (endNanos == 0) {
+                endNanos = System.nanoTime();
+                finished(this);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %,d rows in %.1f s", description, getRows(), getNanos() / 1e9);
+        }
+    }
+}
@@ -0,0 +1,384 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.hadoop.conf.Configuration;
+
+// Reports the Metrics of a job while it runs and dumps them when it is done. Every interval it
+// prints one line to stderr with the counters that moved and their rate over the interval, and the
+// p50 and p99 of the histograms that recorded, followed by the activities with no progress for the
+// stall time and the ones running at less than half the median rate of the others, e.g. a slow
+// region among the region scans. When closed it prints the totals and writes <job>-metrics.json
+// (totals, latency percentiles, the rates of every interval and the slowest activities) and
+// <job>-metrics.prom (Prometheus text format, for a node exporter's textfile collector).
+//
+// Only the outermost reporter of a JVM reports, so a tool run from another (InsertData from the
+// load harness) adds to the outer one's numbers.
+//
+//   MetricsReporter.run(conf, "Member1", () -> ParallelScanner.run(conf, Table_Name, executor));
+//
+// run() and call() start the reporter and close it when the work is done, so the tools need no
+// reporter variable of their own.
+public class MetricsReporter implements Closeable {
+
+    // Configuration keys, settable with -D on the command line
+    public static final String ENABLED_KEY = "metrics.enabled";
+    public static final String INTERVAL_KEY = "metrics.report.interval.ms";
+    public static final String STALL_KEY = "metrics.stall.ms";
+    public static final String DIR_KEY = "metrics.dir";
+
+    private static final String PREFIX = "covid_";
+    private static final int MAX_INTERVALS = 100000;
+    private static final AtomicReference<MetricsReporter> ACTIVE = new AtomicReference<>();
+
+    private final String job;
+    private final File dir;
+    private final long intervalNanos;
+    private final long stallNanos;
+    private final Instant started = Instant.now();
+    private final long startNanos = System.nanoTime();
+    private final ScheduledExecutorService timer;
+
+    // State at the last report, and the JSON of every interval so far
+    private final Map<String, Long> lastCounts = new HashMap<>();
+    private final Map<String, Histogram.Snapshot> lastSnapshots = new HashMap<>();
+    private long lastNanos = startNanos;
+    private final List<String> intervals = new ArrayList<>();
+
+    private MetricsReporter(String job, File dir, long intervalMs, long stallMs) {
+        this.job = job;
+        this.dir = dir;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMs);
+        this.stallNanos = TimeUnit.MILLISECONDS.toNanos(stallMs);
+        if (intervalMs > 0) {
+            timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "metrics-reporter");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            timer.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    report(false);
+                }
+            }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        } else {
+            timer = null;
+        }
+    }
+
+    // Not reporting, when metrics are off or another reporter is running
+    private MetricsReporter() {
+        this.job = null;
+        this.dir = null;
+        this.intervalNanos = 0;
+        this.stallNanos = 0;
+        this.timer = null;
+    }
+
+    // Work of a tool, run under its reporter
+    public interface Task<E extends Exception> {
+        void run() throws E;
+    }
+
+    // Work of a tool that returns a result, e.g. its exit status
+    public interface Job<T, E extends Exception> {
+        T call() throws E;
+    }
+
+    // Run the task under a reporter for the job
+    public static <E extends Exception> void run(Configuration conf, String job, Task<E> task) throws E, IOException {
+        call(conf, job, () -> {
+            task.run();
+            return null;
+        });
+    }
+
+    // Run the work under a reporter for the job and return its result. The reporter is closed
+    // however the work ends; when both fail, the work's exception is thrown with the reporter's
+    // added as suppressed, as a try-with-resources would.
+    public static <T, E extends Exception> T call(Configuration conf, String job, Job<T, E> work) throws E, IOException {
+        MetricsReporter reporter = start(conf, job);
+        T result;
+        try {
+            result = work.call();
+        } catch (Throwable failure) {
+            try {
+                reporter.close();
+            } catch (IOException closeFailure) {
+                failure.addSuppressed(closeFailure);
+            }
+            throw failure;
+        }
+        reporter.close();
+        return result;
+    }
+
+    // Turn the histograms on and start reporting the job, unless metrics.enabled is false
+    public static MetricsReporter start(Configuration conf, String job) {
+        if (!conf.getBoolean(ENABLED_KEY, true) || ACTIVE.get() != null) {
+            return new MetricsReporter();
+        }
+        MetricsReporter reporter = new MetricsReporter(job, new File(conf.get(DIR_KEY, ".")),
+                conf.getLong(INTERVAL_KEY, 10000), conf.getLong(STALL_KEY, 10000));
+        if (!ACTIVE.compareAndSet(null, reporter)) {
+            reporter.stopTimer();
+            return new MetricsReporter();
+        }
+        Metrics.setEnabled(true);
+        return reporter;
+    }
+
+    // Print the totals and write the dump files
+    @Override
+    public void close() throws IOException {
+        if (job == null) {
+            return;
+        }
+        stopTimer();
+        try {
+            report(true);
+            dir.mkdirs();
+            File json = new File(dir, job + "-metrics.json");
+            try (PrintWriter out = new PrintWriter(new FileWriter(json))) {
+                writeJson(out);
+            }
+            File prometheus = new File(dir, job + "-metrics.prom");
+            try (PrintWriter out = new PrintWriter(new FileWriter(prometheus))) {
+                writePrometheus(out);
+            }
+            System.err.println("Metrics written to " + json + " and " + prometheus);
+        } finally {
+            ACTIVE.compareAndSet(this, null);
+        }
+    }
+
+    private void stopTimer() {
+        if (timer != null) {
+            timer.shutdownNow();
+            try {
+                timer.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // One progress line for the interval since the last one, or the totals at the end
+    private synchronized void report(boolean last) {
+        long now = System.nanoTime();
+        double seconds = Math.max(1e-9, (now - lastNanos) / 1e9);
+        lastNanos = now;
+
+        StringBuilder line = new StringBuilder(String.format(Locale.ROOT, "[%s %.1f s]", job, (now - startNanos) / 1e9));
+        StringBuilder rates = new StringBuilder();
+        for (Metrics.Counter counter : Metrics.counters()) {
+            String key = counter.toString();
+            long value = counter.get();
+            Long previous = lastCounts.put(key, value);
+            // A counter that went down was reset, by the load harness between its phases
+            long delta = previous == null || value < previous ? value : value - previous;
+            if (last) {
+                if (value > 0) {
+                    line.append(String.format(Locale.ROOT, " %s %,d", key, value));
+                }
+            } else if (delta > 0) {
+                line.append(String.format(Locale.ROOT, " %s %,d (%,.0f/s)", key, value, delta / seconds));
+                appendField(rates, key, String.format(Locale.ROOT, "%.1f", delta / seconds));
+            }
+        }
+
+        StringBuilder p99 = new StringBuilder();
+        for (Histogram histogram : Metrics.histograms()) {
+            String key = histogram.toString();
+            Histogram.Snapshot snapshot = histogram.snapshot();
+            Histogram.Snapshot previous = lastSnapshots.put(key, snapshot);
+            Histogram.Snapshot interval = last || previous == null ? snapshot : snapshot.since(previous);
+            if (interval.getCount() == 0) {
+                continue;
+            }
+            line.append(String.format(Locale.ROOT, " | %s p50 %s p99 %s of %,d", key, millis(interval.percentile(50)),
+                    millis(interval.percentile(99)), interval.getCount()));
+            if (!last) {
+                appendField(p99, key, String.format(Locale.ROOT, "%.3f", interval.percentile(99) / 1e6));
+            }
+        }
+        if (rates.length() == 0 && p99.length() == 0 && !last) {
+            line.append(" no progress");
+        }
+        System.err.println(line);
+
+        if (last) {
+            List<Metrics.Activity> slowest = Metrics.slowest();
+            for (Metrics.Activity activity : slowest.subList(0, Math.min(3, slowest.size()))) {
+                System.err.println("  slowest: " + activity);
+            }
+            return;
+        }
+        if (intervals.size() < MAX_INTERVALS) {
+            intervals.add(String.format(Locale.ROOT, "{\"seconds\": %.1f, \"rates\": {%s}, \"p99_ms\": {%s}}",
+                    (now - startNanos) / 1e9, rates, p99));
+        }
+        reportActivities();
+    }
+
+    // What has stalled, and what runs at less than half the median rate of its peers. Activities
+    // that started within the last interval are too young to tell.
+    private void reportActivities() {
+        Map<String, List<Metrics.Activity>> groups = new HashMap<>();
+        for (Metrics.Activity activity : Metrics.running()) {
+            if (activity.getIdleNanos() >= stallNanos) {
+                System.err.println(String.format(Locale.ROOT, "  stalled: %s, no progress for %.1f s", activity,
+                        activity.getIdleNanos() / 1e9));
+                continue;
+            }
+            List<Metrics.Activity> peers = groups.get(activity.getGroup());
+            if (peers == null) {
+                peers = new ArrayList<>();
+                groups.put(activity.getGroup(), peers);
+            }
+            peers.add(activity);
+        }
+        for (List<Metrics.Activity> peers : groups.values()) {
+            if (peers.size() < 2) {
+                continue;
+            }
+            List<Double> rates = new ArrayList<>();
+            for (Metrics.Activity activity : peers) {
+                rates.add(activity.getRowsPerSecond());
+            }
+            Collections.sort(rates);
+            double median = rates.get(rates.size() / 2);
+            for (Metrics.Activity activity : peers) {
+                if (activity.getNanos() >= intervalNanos && activity.getRowsPerSecond() < median / 2) {
+                    System.err.println(String.format(Locale.ROOT, "  slow: %s, %,.0f rows/s against a median of %,.0f",
+                            activity, activity.getRowsPerSecond(), median));
+                }
+            }
+        }
+    }
+
+    private void writeJson(PrintWriter out) {
+        out.println("{");
+        out.println("  \"job\": " + quote(job) + ",");
+        out.println("  \"started\": " + quote(started.toString()) + ",");
+        out.println(String.format(Locale.ROOT, "  \"seconds\": %.3f,", (System.nanoTime() - startNanos) / 1e9));
+
+        StringBuilder counters = new StringBuilder();
+        for (Metrics.Counter counter : Metrics.counters()) {
+            appendField(counters, counter.toString(), Long.toString(counter.get()));
+        }
+        out.println("  \"counters\": {" + counters + "},");
+
+        out.println("  \"histograms\": {");
+        List<Histogram> histograms = Metrics.histograms();
+        for (int i = 0; i < histograms.size(); i++) {
+            Histogram.Snapshot snapshot = histograms.get(i).snapshot();
+            out.print(String.format(Locale.ROOT, "    %s: {\"count\": %d, \"mean_ms\": %.3f, \"p50_ms\": %.3f, \"p90_ms\": %.3f,"
+                            + " \"p99_ms\": %.3f, \"p999_ms\": %.3f, \"max_ms\": %.3f}", quote(histograms.get(i).toString()),
+                    snapshot.getCount(), snapshot.getMean() / 1e6, snapshot.percentile(50) / 1e6,
+                    snapshot.percentile(90) / 1e6, snapshot.percentile(99) / 1e6, snapshot.percentile(99.9) / 1e6,
+                    snapshot.getMax() / 1e6));
+            out.println(i + 1 < histograms.size() ? "," : "");
+        }
+        out.println("  },");
+
+        out.println("  \"intervals\": [");
+        for (int i = 0; i < intervals.size(); i++) {
+            out.println("    " + intervals.get(i) + (i + 1 < intervals.size() ? "," : ""));
+        }
+        out.println("  ],");
+
+        out.println("  \"slowest\": [");
+        List<Metrics.Activity> slowest = Metrics.slowest();
+        for (int i = 0; i < slowest.size(); i++) {
+            Metrics.Activity activity = slowest.get(i);
+            out.println(String.format(Locale.ROOT, "    {\"activity\": %s, \"seconds\": %.3f, \"rows\": %d}%s",
+                    quote(activity.getDescription()), activity.getNanos() / 1e9, activity.getRows(),
+                    i + 1 < slowest.size() ? "," : ""));
+        }
+        out.println("  ]");
+        out.println("}");
+    }
+
+    // Counters as <name>_total, histograms as summaries in seconds
+    private void writePrometheus(PrintWriter out) {
+        out.println("# Metrics of " + job + ", started " + started);
+        String typed = null;
+        for (Metrics.Counter counter : Metrics.counters()) {
+            String name = PREFIX + sanitize(counter.getName()) + "_total";
+            if (!name.equals(typed)) {
+                out.println("# TYPE " + name + " counter");
+                typed = name;
+            }
+            out.println(name + braces(counter.getLabels()) + " " + counter.get());
+        }
+        for (Histogram histogram : Metrics.histograms()) {
+            String name = PREFIX + sanitize(histogram.getName()) + "_seconds";
+            if (!name.equals(typed)) {
+                out.println("# TYPE " + name + " summary");
+                typed = name;
+            }
+            Histogram.Snapshot snapshot = histogram.snapshot();
+            String labels = histogram.getLabels();
+            String separator = labels.isEmpty() ? "" : ",";
+            for (double quantile : new double[] {0.5, 0.9, 0.99, 0.999}) {
+                out.println(String.format(Locale.ROOT, "%s{%s%squantile=\"%s\"} %.9f", name, labels, separator, quantile,
+                        snapshot.percentile(quantile * 100) / 1e9));
+            }
+            out.println(String.format(Locale.ROOT, "%s_sum%s %.9f", name, braces(labels), snapshot.getSum() / 1e9));
+            out.println(name + "_count" + braces(labels) + " " + snapshot.getCount());
+        }
+    }
+
+    private static String sanitize(String name) {
+        return name.replaceAll("[^a-zA-Z0-9_]", "_");
+    }
+
+    private static String braces(String labels) {
+        return labels.isEmpty() ? "" : "{" + labels + "}";
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.1f ms", nanos / 1e6);
+    }
+
+    private static void appendField(StringBuilder object, String key, String value) {
+        if (object.length() > 0) {
+            object.append(", ");
+        }
+        object.append(quote(key)).append(": ").append(value);
+    }
+
+    private static String quote(String text) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
@@ -0,0 +1,151 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.RegionLocator;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.client.metrics.ScanMetrics;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Pair;
+
+// Runs the scan of a ScanExecutor as one sub-scan per region, in parallel on an AsyncClient.
+// Every task feeds its own partials of the registered aggregators (see Aggregator.newPartial),
+// so no state is shared between threads; once all tasks are done the partials are merged in
+// region order and the reports are written. Each task gets its own Table from the client's
+// shared Connection, since Table instances are not thread-safe.
+public class ParallelScanner {
+
+    public static final String THREADS_KEY = "scan.parallel.threads";
+
+    private final AsyncClient client;
+    private final Connection connection;
+    private final TableName tableName;
+
+    public ParallelScanner(AsyncClient client, TableName tableName) {
+        this.client = client;
+        this.connection = client.getConnection();
+        this.tableName = tableName;
+    }
+
+    // Run the executor's aggregators with a connection and client created from the configuration;
+    // scan.parallel.threads regions are scanned at a time
+    public static long run(Configuration conf, String tableName, ScanExecutor executor) throws IOException {
+        try (Connection connection = ConnectionFactory.createConnection(conf);
+             AsyncClient client = new AsyncClient(connection, conf.getInt(THREADS_KEY, 8),
+                     conf.getInt(AsyncClient.MAX_IN_FLIGHT_KEY, 10000), conf.getInt(AsyncClient.BATCH_SIZE_KEY, 500))) {
+            return new ParallelScanner(client, TableName.valueOf(tableName)).run(executor);
+        }
+    }
+
+    // Scan every region in parallel, merge the partials and write the reports. Returns the rows read.
+    public long run(ScanExecutor executor) throws IOException {
+        List<Aggregator> aggregators = executor.getAggregators();
+        if (aggregators.isEmpty()) {
+            return 0;
+        }
+
+        ScanTuning tuning = ScanTuning.fromConf(connection.getConfiguration());
+        TweetQuery.Plan plan;
+        Pair<byte[][], byte[][]> regions;
+        try (Table table = connection.getTable(tableName);
+             RegionLocator locator = connection.getRegionLocator(tableName)) {
+            plan = executor.plan(TweetLayout.forTable(table.getTableDescriptor()), tuning);
+            regions = locator.getStartEndKeys();
+        }
+
+        long start = System.currentTimeMillis();
+        List<RegionScan> tasks = new ArrayList<>();
+        List<CompletableFuture<Long>> futures = new ArrayList<>();
+        for (int i = 0; i < regions.getFirst().length; i++) {
+            RegionScan task = new RegionScan(executor, plan, tuning, regions.getFirst()[i], regions.getSecond()[i],
+                    String.format("region %d/%d from '%s'", i + 1, regions.getFirst().length,
+                            Bytes.toStringBinary(regions.getFirst()[i])));
+            tasks.add(task);
+            futures.add(client.call(tableName, task::call));
+        }
+
+        long rows = 0;
+        for (CompletableFuture<Long> future : futures) {
+            try {
+                rows += future.join();
+            } catch (CompletionException e) {
+                throw new IOException("Region scan of " + tableName + " failed", e.getCause());
+            }
+        }
+
+        // Merge in region order, so order-sensitive reports match a sequential scan
+        ScanMetrics metrics = new ScanMetrics();
+        int minCaching = Integer.MAX_VALUE, maxCaching = 0, reopens = 0;
+        for (RegionScan task : tasks) {
+            for (int i = 0; i < aggregators.size(); i++) {
+                aggregators.get(i).merge(task.partials.get(i));
+            }
+            ScanTuning.addTo(metrics, task.metrics);
+            minCaching = Math.min(minCaching, task.caching);
+            maxCaching = Math.max(maxCaching, task.caching);
+            reopens += task.reopens;
+        }
+        executor.setScanMetrics(metrics);
+        System.out.println(String.format("Scanned %d rows for %d reports in %d ms, %d regions in parallel, "
+                        + "caching %s after %d reopens", rows, aggregators.size(),
+                System.currentTimeMillis() - start, tasks.size(),
+                minCaching == maxCaching ? String.valueOf(minCaching) : minCaching + "-" + maxCaching, reopens));
+        System.out.println("ParallelScanner: " + ScanTuning.describe(metrics));
+
+        executor.finish();
+        return rows;
+    }
+
+    // Sub-scan of one region into fresh partials of the executor's aggregators
+    private class RegionScan {
+        final ScanExecutor executor;
+        final TweetQuery.Plan plan;
+        final ScanTuning tuning;
+        final Scan scan;
+        final String name;
+        final List<Aggregator> partials = new ArrayList<>();
+
+        // Set when the sub-scan is done
+        ScanMetrics metrics;
+        int caching;
+        int reopens;
+
+        RegionScan(ScanExecutor executor, TweetQuery.Plan plan, ScanTuning tuning, byte[] startKey, byte[] endKey,
+                   String name) throws IOException {
+            this.executor = executor;
+            this.name = name;
+            this.plan = plan;
+            this.tuning = tuning;
+            this.scan = new Scan(plan.getScan());
+            scan.withStartRow(startKey);
+            scan.withStopRow(endKey);  // Empty for the last region, meaning the end of the table
+            for (Aggregator aggregator : executor.getAggregators()) {
+                partials.add(aggregator.newPartial());
+            }
+        }
+
+        // Runs as an activity among the other regions of the scan, so a slow region shows while it runs
+        long call(Table table) throws IOException {
+            long rows;
+            ScanTuning.TunedScanner scanner = tuning.open(table, scan);
+            try (Metrics.Activity activity = Metrics.begin("scan " + tableName, name,
+                    Metrics.counter("rows.read", "source", tableName.getNameAsString()))) {
+                rows = executor.feed(scanner, plan, partials, activity);
+            } finally {
+                scanner.close();
+            }
+            // The scan metrics are complete once the scanner is closed
+            metrics = scanner.getScanMetrics();
+            caching = scanner.getCaching();
+            reopens = scanner.getReopens();
+            return rows;
+        }
+    }
+}
@@ -0,0 +1,373 @@
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.Put;
+
+// Multi-threaded ingest: the CSV is cut into equal byte ranges, N parser threads turn the
+// records starting in each range into batches of Puts and M writer threads drain a bounded
+// queue into HBase. Nothing reads the file ahead of the parsers to find record boundaries:
+// each parser looks for the first one in its range itself (see recordStart).
+// The queue is the only buffer between the two stages, so a slow region server blocks the
+// writers, the queue fills up and the parsers stall instead of piling rows up in memory.
+public class PipelinedIngest {
+
+    // Configuration keys, settable with -D on the InsertData command line
+    public static final String PARSER_THREADS_KEY = "insert.parser.threads";
+    public static final String WRITER_THREADS_KEY = "insert.writer.threads";
+    public static final String QUEUE_DEPTH_KEY = "insert.queue.depth";
+    public static final String CHUNKS_PER_PARSER_KEY = "insert.chunks.per.parser";
+
+    // Marks the end of the work for one writer thread
+    private static final List<Put> END_OF_INPUT = Collections.emptyList();
+
+    // Bytes a candidate record boundary may take to show two whole records
+    private static final int RESYNC_WINDOW = 1 << 20;
+
+    private final Configuration conf;
+    private final String tableName;
+    private final RowKeys rowKeys;
+    private final TweetLayout layout;
+    private final int parserThreads;
+    private final int writerThreads;
+    private final int batchSize;
+    private final BlockingQueue<List<Put>> queue;
+    private final int chunksPerParser;
+
+    private final AtomicLong recordsParsed = new AtomicLong();
+    private final AtomicLong recordsSkipped = new AtomicLong();
+    private final AtomicLong parseFailures = new AtomicLong();
+    private final AtomicReference<Throwable> writerFailure = new AtomicReference<>();
+
+    public PipelinedIngest(Configuration conf, String tableName, RowKeys rowKeys, TweetLayout layout) {
+        this.conf = conf;
+        this.tableName = tableName;
+        this.rowKeys = rowKeys;
+        this.layout = layout;
+        this.parserThreads = Math.max(1, conf.getInt(PARSER_THREADS_KEY, Runtime.getRuntime().availableProcessors()));
+        this.writerThreads = Math.max(1, conf.getInt(WRITER_THREADS_KEY, 2));
+        this.batchSize = Math.max(1, conf.getInt(BufferedIngest.BATCH_SIZE_KEY, BufferedIngest.DEFAULT_BATCH_SIZE));
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, conf.getInt(QUEUE_DEPTH_KEY, 64)));
+        this.chunksPerParser = Math.max(1, conf.getInt(CHUNKS_PER_PARSER_KEY, 4));
+    }
+
+    // Load the whole file and return the number of CSV records parsed
+    public long run(String csvFilePath) throws IOException {
+        String[] header = readHeader(csvFilePath);
+        List<long[]> chunks = splitIntoChunks(csvFilePath, parserThreads * chunksPerParser);
+        System.out.println("Pipelined ingest: " + chunks.size() + " chunks, " + parserThreads + " parsers, "
+                + writerThreads + " writers, queue depth " + queue.remainingCapacity());
+
+        ExecutorService parsers = Executors.newFixedThreadPool(parserThreads);
+        ExecutorService writers = Executors.newFixedThreadPool(writerThreads);
+
+        try (Connection connection = ConnectionFactory.createConnection(conf);
+             BufferedIngest ingest = new BufferedIngest(connection, tableName, conf);
+             SecondaryIndex.Writer index = SecondaryIndex.Writer.open(connection, tableName, conf);
+             Rollups.Writer rollups = Rollups.Writer.open(connection, tableName, conf)) {
+
+            List<Future<?>> writerFutures = new ArrayList<>();
+            for (int i = 0; i < writerThreads; i++) {
+                writerFutures.add(writers.submit(new Writer(ingest, index, rollups)));
+            }
+
+            List<Future<?>> parserFutures = new ArrayList<>();
+            for (long[] chunk : chunks) {
+                parserFutures.add(parsers.submit(new Parser(csvFilePath, header, chunk[0], chunk[1])));
+            }
+
+            try {
+                for (Future<?> future : parserFutures) {
+                    future.get();
+                }
+                for (int i = 0; i < writerThreads; i++) {
+                    if (!enqueue(END_OF_INPUT)) {
+                        break;  // A writer died; its failure is thrown below
+                    }
+                }
+                for (Future<?> future : writerFutures) {
+                    future.get();
+                }
+            } catch (Exception e) {
+                throw new IOException("Pipelined ingest failed", e);
+            }
+
+            if (writerFailure.get() != null) {
+                throw new IOException("Writer thread failed", writerFailure.get());
+            }
+
+            ingest.flush();
+            index.flush();
+            rollups.flush();
+            System.out.println("Parsed " + recordsParsed.get() + " records, skipped " + recordsSkipped.get()
+                    + ", chunks failed to parse: " + parseFailures.get());
+            ingest.printReport();
+            index.printReport();
+            rollups.printReport();
+
+            // The other chunks are loaded by now, but the run is not complete
+            if (parseFailures.get() > 0) {
+                throw new IOException(parseFailures.get() + " chunks of " + csvFilePath
+                        + " failed to parse; their rows were not loaded");
+            }
+        } finally {
+            parsers.shutdownNow();
+            writers.shutdownNow();
+        }
+
+        return recordsParsed.get();
+    }
+
+    // Block until the batch fits in the queue. Returns false, with the batch dropped, once a
+    // writer has died, so parsers never hang; run() then reports the writer's failure.
+    private boolean enqueue(List<Put> batch) throws InterruptedException {
+        while (!queue.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+            if (writerFailure.get() != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Parses the records starting in one byte range of the file and hands batches of Puts to the
+    // queue. The range is narrowed to the record boundaries at or after its two ends, which the
+    // parser of the next range finds the same way, so every record is parsed exactly once.
+    private class Parser implements Runnable {
+        private final String path;
+        private final String[] header;
+        private final long start;
+        private final long end;
+
+        Parser(String path, String[] header, long start, long end) {
+            this.path = path;
+            this.header = header;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public void run() {
+            List<Put> batch = new ArrayList<>(batchSize);
+            try (RandomAccessFile file = new RandomAccessFile(path, "r")) {
+                long from = recordStart(path, header.length, start);
+                long to = recordStart(path, header.length, end);
+                if (from >= to) {
+                    return;  // No record starts in this range
+                }
+                file.seek(from);
+                InputStream in = new RangeInputStream(Channels.newInputStream(file.getChannel()), to - from);
+                try (CSVParser csvParser = new CSVParser(new InputStreamReader(new BufferedInputStream(in, 1 << 16),
+                        StandardCharsets.UTF_8), CSVFormat.DEFAULT.withHeader(header).withTrim())) {
+
+                    for (CSVRecord csvRecord : csvParser) {
+                        recordsParsed.incrementAndGet();
+                        Put put = InsertData.buildPut(csvRecord, rowKeys, layout);
+                        if (put == null) {
+                            recordsSkipped.incrementAndGet();
+                            continue;
+                        }
+                        batch.add(put);
+                        if (batch.size() >= batchSize) {
+                            if (!enqueue(batch)) {
+                                return;  // A writer failed; the ingest is stopping
+                            }
+                            batch = new ArrayList<>(batchSize);
+                        }
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    enqueue(batch);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException | RuntimeException e) {
+                // A malformed chunk only loses its own rows; the rest of the file still loads, and
+                // run() fails once it has
+                parseFailures.incrementAndGet();
+                System.err.println("Failed to parse bytes " + start + "-" + end + ": " + e);
+            }
+        }
+    }
+
+    // Drains the queue into the shared BufferedMutator until it sees END_OF_INPUT
+    private class Writer implements Runnable {
+        private final BufferedIngest ingest;
+        private final SecondaryIndex.Writer index;
+        private final Rollups.Writer rollups;
+
+        Writer(BufferedIngest ingest, SecondaryIndex.Writer index, Rollups.Writer rollups) {
+            this.ingest = ingest;
+            this.index = index;
+            this.rollups = rollups;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    List<Put> batch = queue.take();
+                    if (batch == END_OF_INPUT) {
+                        return;
+                    }
+                    ingest.addAll(batch);
+                    index.addAll(batch);
+                    rollups.addAll(batch);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException | RuntimeException e) {
+                writerFailure.compareAndSet(null, e);
+            }
+        }
+    }
+
+    // Read the header record so every chunk can be parsed with the same column names
+    static String[] readHeader(String csvFilePath) throws IOException {
+        try (CSVParser csvParser = new CSVParser(new InputStreamReader(new FileInputStream(csvFilePath),
+                StandardCharsets.UTF_8), CSVFormat.DEFAULT.withTrim())) {
+            for (CSVRecord record : csvParser) {
+                String[] header = new String[record.size()];
+                for (int i = 0; i < header.length; i++) {
+                    header[i] = record.get(i);
+                }
+                return header;
+            }
+        }
+        throw new IOException("Empty CSV file: " + csvFilePath);
+    }
+
+    // Cut the data part of the file into equal [start, end) byte ranges. The ends fall anywhere,
+    // even inside a record; the parsers move them to record boundaries.
+    static List<long[]> splitIntoChunks(String csvFilePath, int chunkCount) throws IOException {
+        long dataStart = headerEnd(csvFilePath);
+        long length = new File(csvFilePath).length();
+        int count = (int) Math.max(1, Math.min(chunkCount, length - dataStart));
+
+        List<long[]> chunks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            chunks.add(new long[] {dataStart + (length - dataStart) * i / count,
+                    dataStart + (length - dataStart) * (i + 1) / count});
+        }
+        return chunks;
+    }
+
+    // Byte offset just past the header line; quotes are tracked since a header field may hold a newline
+    private static long headerEnd(String csvFilePath) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(csvFilePath), 1 << 16)) {
+            boolean inQuotes = false;
+            long position = 0;
+            int b;
+            while ((b = in.read()) != -1) {
+                position++;
+                if (b == '"') {
+                    inQuotes = !inQuotes;
+                } else if (b == '\n' && !inQuotes) {
+                    return position;
+                }
+            }
+            return position;
+        }
+    }
+
+    // The first record boundary at or after the offset, or the end of the file: the first
+    // position just past a newline from which the next two records parse with the header's
+    // number of fields. A newline inside a quoted field practically never passes, as what
+    // follows it is the tail of a record, and a stray quote only derails the record it is in.
+    // Parsers of neighbouring ranges run this on their shared end and get the same answer.
+    static long recordStart(String csvFilePath, int fields, long offset) throws IOException {
+        long length = new File(csvFilePath).length();
+        if (offset >= length) {
+            return length;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(csvFilePath, "r")) {
+            long position = offset - 1;  // The byte before the offset says whether it is a candidate
+            file.seek(position);
+            InputStream in = new BufferedInputStream(Channels.newInputStream(file.getChannel()), 1 << 16);
+            int b;
+            while ((b = in.read()) != -1) {
+                position++;
+                if (b == '\n' && (position >= length || startsRecords(csvFilePath, fields, position))) {
+                    return position;
+                }
+            }
+        }
+        return length;
+    }
+
+    private static boolean startsRecords(String csvFilePath, int fields, long position) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(csvFilePath, "r")) {
+            file.seek(position);
+            InputStream in = new RangeInputStream(Channels.newInputStream(file.getChannel()), RESYNC_WINDOW);
+            CSVParser csvParser = new CSVParser(new InputStreamReader(new BufferedInputStream(in, 1 << 16),
+                    StandardCharsets.UTF_8), CSVFormat.DEFAULT.withTrim());
+            Iterator<CSVRecord> records = csvParser.iterator();  // Closed with the file
+            for (int i = 0; i < 2 && records.hasNext(); i++) {
+                if (records.next().size() != fields) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (IllegalStateException e) {
+            return false;  // The records' iterator wraps a parse error, e.g. text after a closing quote
+        }
+    }
+
+    // Exposes at most 'remaining' bytes of the underlying stream
+    private static class RangeInputStream extends FilterInputStream {
+        private long remaining;
+
+        RangeInputStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b != -1) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = super.read(buf, off, (int) Math.min(len, remaining));
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+    }
+}
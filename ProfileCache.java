@@ -0,0 +1,379 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.util.Bytes;
+
+// Read-through cache of the user profile columns (user_name, user_verified, user_created,
+// user_description) of CovidData rows, in front of the Gets that fetch them over and over.
+//
+// Entries are kept in LRU order and evicted once there are more than profile.cache.max.entries
+// of them or they take more than profile.cache.max.bytes, and dropped when read after
+// profile.cache.ttl.ms. Each entry keeps its four values encoded in one heap buffer.
+//
+// Writes that go through either put() invalidate the row, unless every cell the Put writes is older
+// than the cached version of its own column, which leaves the latest value a Get returns
+// unchanged. A Put writing a profile column the entry does not hold always invalidates it. A load that
+// raced with a write is not cached, so a value read before the write cannot come back after it.
+// Writes by other clients are only seen once the TTL runs out.
+//
+// Metrics: cache.requests{cache="profile",result="hit|miss"}, cache.evictions{cache="profile",
+// reason="size|ttl|write"}; getStats() returns the same numbers for this cache alone.
+public class ProfileCache {
+
+    // Configuration keys, settable with -D on the command line
+    public static final String MAX_ENTRIES_KEY = "profile.cache.max.entries";
+    public static final String MAX_BYTES_KEY = "profile.cache.max.bytes";
+    public static final String TTL_KEY = "profile.cache.ttl.ms";
+
+    public static final TweetColumn[] PROFILE_COLUMNS = {
+            TweetColumn.USER_NAME, TweetColumn.USER_VERIFIED, TweetColumn.USER_CREATED, TweetColumn.USER_DESCRIPTION,
+    };
+
+    // Estimated heap overhead of one entry besides its value: key, map node, Entry and timestamps
+    private static final int ENTRY_OVERHEAD = 176;
+
+    private static final Metrics.Counter HITS = Metrics.counter("cache.requests", "cache", "profile", "result", "hit");
+    private static final Metrics.Counter MISSES = Metrics.counter("cache.requests", "cache", "profile", "result", "miss");
+    private static final Metrics.Counter SIZE_EVICTIONS = Metrics.counter("cache.evictions", "cache", "profile",
+            "reason", "size");
+    private static final Metrics.Counter TTL_EVICTIONS = Metrics.counter("cache.evictions", "cache", "profile",
+            "reason", "ttl");
+    private static final Metrics.Counter WRITE_EVICTIONS = Metrics.counter("cache.evictions", "cache", "profile",
+            "reason", "write");
+
+    // The profile columns of one row, decoded
+    public static class Profile {
+        private final byte[] row;
+        private final String userName;
+        private final Boolean verified;
+        private final Long created;
+        private final String description;
+        private final long timestamp;
+
+        Profile(byte[] row, String userName, Boolean verified, Long created, String description, long timestamp) {
+            this.row = row;
+            this.userName = userName;
+            this.verified = verified;
+            this.created = created;
+            this.description = description;
+            this.timestamp = timestamp;
+        }
+
+        public byte[] getRow() {
+            return row;
+        }
+
+        public String getUserName() {
+            return userName;
+        }
+
+        public Boolean isVerified() {
+            return verified;
+        }
+
+        public Long getCreated() {
+            return created;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        // Newest cell timestamp of the profile columns
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        @Override
+        public String toString() {
+            return userName + (Boolean.TRUE.equals(verified) ? " (verified)" : "")
+                    + (created == null ? "" : ", since " + TweetSchema.formatTimestamp(created))
+                    + ": " + description;
+        }
+    }
+
+    // A cached profile: the four stored values, length-prefixed, and the timestamp of each (-1
+    // for a column the row does not have)
+    private static class Entry {
+        final ByteBuffer values;
+        final long[] timestamps;
+        final long loadedAt;
+
+        Entry(ByteBuffer values, long[] timestamps, long loadedAt) {
+            this.values = values;
+            this.timestamps = timestamps;
+            this.loadedAt = loadedAt;
+        }
+
+        long newest() {
+            long newest = 0;
+            for (long timestamp : timestamps) {
+                newest = Math.max(newest, timestamp);
+            }
+            return newest;
+        }
+
+        int size() {
+            return values.capacity() + ENTRY_OVERHEAD;
+        }
+    }
+
+    private final Table table;
+    private final TweetLayout layout;
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long ttlNanos;
+
+    // Guarded by this
+    private final LinkedHashMap<ByteBuffer, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes = 0;
+    private long writes = 0;  // Invalidations so far, to spot loads that raced with one
+
+    private long hits, misses, evictions;
+
+    public ProfileCache(Table table, Configuration conf) throws IOException {
+        this.table = table;
+        this.layout = TweetLayout.forTable(table.getTableDescriptor());
+        this.maxEntries = Math.max(1, conf.getInt(MAX_ENTRIES_KEY, 100000));
+        this.maxBytes = conf.getLong(MAX_BYTES_KEY, 64L << 20);
+        this.ttlNanos = conf.getLong(TTL_KEY, 60000) * 1000000L;
+    }
+
+    // Profile of a row, from the cache or with one Get; null if the row has no profile columns
+    public Profile get(byte[] row) throws IOException {
+        Profile cached = lookup(row);
+        if (cached != null) {
+            return cached;
+        }
+        long writesBefore = writesSoFar();
+        Result result = table.get(profileGet(row));
+        return load(row, result, writesBefore);
+    }
+
+    // Profiles of many rows, keyed by Bytes.toStringBinary of the row key; the misses are
+    // fetched with one multi-Get
+    public Map<String, Profile> getAll(List<byte[]> rows) throws IOException {
+        Map<String, Profile> profiles = new LinkedHashMap<>();
+        List<Get> gets = new ArrayList<>();
+        for (byte[] row : rows) {
+            Profile cached = lookup(row);
+            if (cached != null) {
+                profiles.put(Bytes.toStringBinary(row), cached);
+            } else {
+                gets.add(profileGet(row));
+            }
+        }
+        if (!gets.isEmpty()) {
+            long writesBefore = writesSoFar();
+            Result[] results = table.get(gets);
+            for (int i = 0; i < results.length; i++) {
+                Profile loaded = load(gets.get(i).getRow(), results[i], writesBefore);
+                if (loaded != null) {
+                    profiles.put(Bytes.toStringBinary(loaded.row), loaded);
+                }
+            }
+        }
+        return profiles;
+    }
+
+    // Write through the cache: the Put goes to the table, then the cached row is dropped if the
+    // Put may have changed its latest profile values
+    public void put(Put put) throws IOException {
+        table.put(put);
+        invalidate(put);
+    }
+
+    // The same through an AsyncClient: the row is invalidated once the Put has been applied,
+    // before the returned future completes
+    public CompletableFuture<Void> put(AsyncClient client, Put put) {
+        return client.put(table.getName(), put).thenRun(() -> invalidate(put));
+    }
+
+    public void invalidate(Put put) {
+        // Newest cell the Put writes in each profile column, -1 for the columns it leaves alone
+        long[] newest = new long[PROFILE_COLUMNS.length];
+        boolean written = false;
+        for (int i = 0; i < PROFILE_COLUMNS.length; i++) {
+            newest[i] = -1;
+            for (Cell cell : put.get(layout.family(PROFILE_COLUMNS[i]), PROFILE_COLUMNS[i].qualifier())) {
+                newest[i] = Math.max(newest[i], cell.getTimestamp());
+                written = true;
+            }
+        }
+        if (!written) {
+            return;  // No profile column written
+        }
+        ByteBuffer key = ByteBuffer.wrap(put.getRow());
+        synchronized (this) {
+            writes++;
+            Entry entry = entries.get(key);
+            if (entry != null && changes(entry, newest)) {
+                remove(key, entry);
+                WRITE_EVICTIONS.inc();
+            }
+        }
+    }
+
+    // Whether cells with these timestamps can change the latest value of a cached column. Cells
+    // added without a timestamp carry LATEST_TIMESTAMP (Long.MAX_VALUE) and always do.
+    private static boolean changes(Entry entry, long[] newest) {
+        for (int i = 0; i < newest.length; i++) {
+            if (newest[i] >= 0 && (entry.timestamps[i] < 0 || newest[i] >= entry.timestamps[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized void invalidate(byte[] row) {
+        writes++;
+        ByteBuffer key = ByteBuffer.wrap(row);
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            remove(key, entry);
+            WRITE_EVICTIONS.inc();
+        }
+    }
+
+    public synchronized void clear() {
+        writes++;
+        entries.clear();
+        bytes = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    // Hits, misses and evictions of this cache, and what it holds
+    public synchronized String getStats() {
+        long requests = hits + misses;
+        return String.format("%,d hits, %,d misses (%.1f%% hit rate), %,d evictions, %,d entries, %,.0f KB",
+                hits, misses, requests == 0 ? 0.0 : 100.0 * hits / requests, evictions, entries.size(),
+                bytes / 1024.0);
+    }
+
+    private Get profileGet(byte[] row) {
+        Get get = new Get(row);
+        for (TweetColumn column : PROFILE_COLUMNS) {
+            get.addColumn(layout.family(column), column.qualifier());
+        }
+        return get;
+    }
+
+    private synchronized long writesSoFar() {
+        return writes;
+    }
+
+    private Profile lookup(byte[] row) {
+        ByteBuffer key = ByteBuffer.wrap(row);
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry != null && System.nanoTime() - entry.loadedAt > ttlNanos) {
+                remove(key, entry);
+                TTL_EVICTIONS.inc();
+                entry = null;
+            }
+            if (entry == null) {
+                misses++;
+            } else {
+                hits++;
+            }
+        }
+        if (entry == null) {
+            MISSES.inc();
+            return null;
+        }
+        HITS.inc();
+        return decode(row, entry);
+    }
+
+    // Decode a fetched row and cache it, unless a write came in while it was being fetched
+    private Profile load(byte[] row, Result result, long writesBefore) {
+        if (result == null || result.isEmpty()) {
+            return null;
+        }
+        byte[][] values = new byte[PROFILE_COLUMNS.length][];
+        long[] timestamps = new long[PROFILE_COLUMNS.length];
+        int length = 0;
+        for (int i = 0; i < PROFILE_COLUMNS.length; i++) {
+            Cell cell = result.getColumnLatestCell(layout.family(PROFILE_COLUMNS[i]), PROFILE_COLUMNS[i].qualifier());
+            timestamps[i] = -1;
+            if (cell != null) {
+                values[i] = CellUtil.cloneValue(cell);
+                timestamps[i] = cell.getTimestamp();
+                length += values[i].length;
+            }
+            length += Bytes.SIZEOF_INT;
+        }
+
+        ByteBuffer encoded = ByteBuffer.allocate(length);
+        for (byte[] value : values) {
+            encoded.putInt(value == null ? -1 : value.length);
+            if (value != null) {
+                encoded.put(value);
+            }
+        }
+        encoded.flip();
+        Entry entry = new Entry(encoded, timestamps, System.nanoTime());
+
+        synchronized (this) {
+            if (writes == writesBefore) {
+                ByteBuffer key = ByteBuffer.wrap(row);
+                Entry old = entries.put(key, entry);
+                if (old != null) {
+                    bytes -= old.size();
+                }
+                bytes += entry.size();
+                evict();
+            }
+        }
+        return decode(row, entry);
+    }
+
+    private Profile decode(byte[] row, Entry entry) {
+        ByteBuffer values = entry.values.duplicate();
+        byte[][] decoded = new byte[PROFILE_COLUMNS.length][];
+        for (int i = 0; i < decoded.length; i++) {
+            int length = values.getInt();
+            if (length >= 0) {
+                decoded[i] = new byte[length];
+                values.get(decoded[i]);
+            }
+        }
+        return new Profile(row, Bytes.toString(decoded[0]), TweetSchema.decodeBoolean(decoded[1]),
+                TweetSchema.decodeTimestamp(decoded[2]), Bytes.toString(decoded[3]), entry.newest());
+    }
+
+    // Drop least recently used entries until the cache is within its bounds; holds the lock
+    private void evict() {
+        Iterator<Map.Entry<ByteBuffer, Entry>> eldest = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || bytes > maxBytes) && eldest.hasNext()) {
+            bytes -= eldest.next().getValue().size();
+            eldest.remove();
+            evictions++;
+            SIZE_EVICTIONS.inc();
+        }
+    }
+
+    // Holds the lock
+    private void remove(ByteBuffer key, Entry entry) {
+        entries.remove(key);
+        bytes -= entry.size();
+        evictions++;
+    }
+}
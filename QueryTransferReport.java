@@ -0,0 +1,67 @@
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.client.metrics.ScanMetrics;
+
+// Runs every analytics query twice, once as the old whole-family scan filtered on the client and
+// once with column projection and predicate pushdown, and prints the bytes each one transferred
+public class QueryTransferReport {
+
+    public static String Table_Name = "CovidData";
+
+    public static void main(String[] args) throws IOException {
+        Configuration conf = HBaseConfiguration.create();
+        try (Connection connection = ConnectionFactory.createConnection(conf);
+             Table hTable = connection.getTable(TableName.valueOf(Table_Name))) {
+            report(hTable);
+        }
+    }
+
+    private static void report(Table hTable) throws IOException {
+        TweetLayout layout = TweetLayout.forTable(hTable.getTableDescriptor());
+
+        Map<String, TweetQuery> queries = new LinkedHashMap<>();
+        queries.put("Member1.queryTweetsByLocation", Member1.tweetsByLocationQuery());
+        queries.put("Member1.queryVerifiedTweetsByLocation", Member1.verifiedTweetsByLocationQuery());
+        queries.put("Member1.queryCovid19AndroidTweets", Member1.covid19AndroidTweetsQuery());
+        queries.put("Member2.compareVerifiedNonVerifiedTweets", Member2.compareVerifiedNonVerifiedTweetsQuery());
+        queries.put("Member2.selectInfluentialUsers", Member2.selectInfluentialUsersQuery());
+        queries.put("AccountDuration", AccountDuration.accountAgeQuery());
+
+        System.out.println("Table layout is " + layout
+                + (layout.isTyped() ? "" : " (not marked typed, typed predicates stay on the client)"));
+        System.out.println(String.format("%-42s %14s %14s %10s %10s %8s", "query", "bytes before", "bytes after",
+                "rows before", "rows after", "saved"));
+        for (Map.Entry<String, TweetQuery> entry : queries.entrySet()) {
+            long[] before = run(hTable, entry.getValue().plan(false, layout));
+            long[] after = run(hTable, entry.getValue().plan(true, layout));
+            double saved = before[0] > 0 ? 100.0 * (before[0] - after[0]) / before[0] : 0;
+            System.out.println(String.format("%-42s %14d %14d %10d %10d %7.1f%%", entry.getKey(),
+                    before[0], after[0], before[1], after[1], saved));
+        }
+    }
+
+    // Run a plan to completion and return {bytes in results, rows received}
+    private static long[] run(Table hTable, TweetQuery.Plan plan) throws IOException {
+        long rows = 0;
+        ResultScanner scanner = hTable.getScanner(plan.getScan());
+        try {
+            for (Result result : scanner) {
+                rows++;
+            }
+        } finally {
+            scanner.close();
+        }
+        ScanMetrics metrics = scanner.getScanMetrics();
+        return new long[] {metrics == null ? 0 : metrics.countOfBytesInResults.get(), rows};
+    }
+}
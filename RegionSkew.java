@@ -0,0 +1,88 @@
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.ClusterStatus;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.RegionLoad;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Admin;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.util.Bytes;
+
+// Per-region write skew for a table, taken from the write request counters the region servers
+// report to the master. The counters are cumulative, so a load is measured by taking a snapshot
+// before and after it and looking at the difference.
+public class RegionSkew {
+
+    public static String Table_Name = "CovidData";
+
+    // Write request count per region (keyed by region start key) for every region of the table
+    public static Map<String, Long> snapshot(Connection connection, String tableName) throws IOException {
+        Map<String, Long> counts = new TreeMap<>();
+        try (Admin admin = connection.getAdmin()) {
+            Map<String, String> startKeys = new HashMap<>();
+            List<HRegionInfo> regions = admin.getTableRegions(TableName.valueOf(tableName));
+            for (HRegionInfo region : regions) {
+                startKeys.put(region.getRegionNameAsString(), Bytes.toStringBinary(region.getStartKey()));
+                counts.put(Bytes.toStringBinary(region.getStartKey()), 0L);
+            }
+
+            ClusterStatus status = admin.getClusterStatus();
+            for (ServerName server : status.getServers()) {
+                for (RegionLoad load : status.getLoad(server).getRegionsLoad().values()) {
+                    String startKey = startKeys.get(load.getNameAsString());
+                    if (startKey != null) {
+                        counts.put(startKey, load.getWriteRequestsCount());
+                    }
+                }
+            }
+        }
+        return counts;
+    }
+
+    // Print writes per region between two snapshots, with max/mean and coefficient of variation
+    public static void printSkew(Map<String, Long> before, Map<String, Long> after) {
+        Map<String, Long> writes = new TreeMap<>();
+        long total = 0;
+        long max = 0;
+        for (Map.Entry<String, Long> entry : after.entrySet()) {
+            Long previous = before.get(entry.getKey());
+            long delta = entry.getValue() - (previous == null ? 0 : previous);
+            writes.put(entry.getKey(), delta);
+            total += delta;
+            max = Math.max(max, delta);
+        }
+
+        int regions = writes.size();
+        double mean = regions > 0 ? (double) total / regions : 0;
+        double variance = 0;
+        for (long delta : writes.values()) {
+            variance += (delta - mean) * (delta - mean);
+        }
+        double stddev = regions > 0 ? Math.sqrt(variance / regions) : 0;
+
+        System.out.println("Writes per region (start key: write requests):");
+        for (Map.Entry<String, Long> entry : writes.entrySet()) {
+            String startKey = entry.getKey().isEmpty() ? "<first>" : entry.getKey();
+            System.out.println("  " + startKey + ": " + entry.getValue());
+        }
+        System.out.println(String.format("Regions: %d, total writes: %d, max/mean: %.2f, coefficient of variation: %.2f",
+                regions, total, mean > 0 ? max / mean : 0, mean > 0 ? stddev / mean : 0));
+    }
+
+    public static void main(String[] args) throws IOException {
+        // Without a baseline this shows the write distribution since the regions were opened
+        Configuration conf = HBaseConfiguration.create();
+        String tableName = args.length > 0 ? args[0] : Table_Name;
+        try (Connection connection = ConnectionFactory.createConnection(conf)) {
+            printSkew(new HashMap<String, Long>(), snapshot(connection, tableName));
+        }
+    }
+}
@@ -0,0 +1,439 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Admin;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Increment;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.util.Bytes;
+
+// Counters behind the count reports, kept up to date at ingest in the table <data table>_rollup.
+// Every report is one row and every group one counter column in it:
+//
+//     locations           <user_location>             tweets (Member1 TweetsByLocation)
+//     verified_locations  <user_location>             tweets by verified users (Member1)
+//     verification        true | false                tweets (Member2 task a, Member3 task 1)
+//     account_created     <verified> <yyyy-MM-dd>     tweets (AccountDuration)
+//
+// A row counts towards a report when it satisfies that report's query, so the counters hold what
+// a full scan would count. Account age depends on the day the report is read, so it is kept per
+// creation day and bucketed when read, with the same calculateYearsBetween as the scan.
+//
+// The Writer adds up the rows of many Puts on the client and sends one Increment per report row,
+// which keeps the few hot counter rows from being locked once per tweet. Increments are not
+// idempotent: rows loaded twice, retried Increments or data writes that failed after their counts
+// were sent make the counters drift. The reconcile command recounts everything from the data
+// table and corrects the counters that differ. It reads the counters before the recount and adds
+// the difference as Increments, so the counts of an ingest that runs alongside are kept; only a
+// row written while the scan runs may be counted by both, or by neither if its Increment came
+// before the counters were read. Run it again once ingest has stopped for exact counters.
+//
+// Usage: Rollups [report]   write the count reports from the counters, one Get per report
+//        Rollups reconcile  recount from CovidData and fix the counters
+public class Rollups {
+
+    public static String Table_Name = "CovidData";
+
+    // Configuration keys, settable with -D on the InsertData command line
+    public static final String ENABLED_KEY = "insert.rollups";
+    public static final String FLUSH_ROWS_KEY = "rollup.flush.rows";
+
+    public static final byte[] FAMILY = Bytes.toBytes("c");
+
+    public enum Rollup {
+        LOCATIONS("locations", Member1.tweetsByLocationQuery()) {
+            @Override
+            String keyOf(RowAccessor row) {
+                return row.getString(TweetColumn.USER_LOCATION);
+            }
+        },
+        VERIFIED_LOCATIONS("verified_locations", Member1.verifiedTweetsByLocationQuery()) {
+            @Override
+            String keyOf(RowAccessor row) {
+                return row.getString(TweetColumn.USER_LOCATION);
+            }
+        },
+        VERIFICATION("verification", Member2.compareVerifiedNonVerifiedTweetsQuery()) {
+            @Override
+            String keyOf(RowAccessor row) {
+                return Boolean.toString(Boolean.TRUE.equals(row.getBoolean(TweetColumn.USER_VERIFIED)));
+            }
+        },
+        ACCOUNT_CREATED("account_created", AccountDuration.accountAgeQuery()) {
+            @Override
+            String keyOf(RowAccessor row) {
+                long created = row.getTimestamp(TweetColumn.USER_CREATED, Long.MIN_VALUE);
+                Boolean verified = row.getBoolean(TweetColumn.USER_VERIFIED);
+                if (created == Long.MIN_VALUE || verified == null) {
+                    return null;  // Not counted by AccountDuration either
+                }
+                return verified + " " + Instant.ofEpochMilli(created).atZone(ZoneOffset.UTC).toLocalDate();
+            }
+        };
+
+        final byte[] row;
+        final TweetQuery query;
+
+        Rollup(String row, TweetQuery query) {
+            this.row = Bytes.toBytes(row);
+            this.query = query;
+        }
+
+        // Counter a matching row adds to, or null if it is not counted
+        abstract String keyOf(RowAccessor row);
+    }
+
+    public static void main(String[] args) throws IOException {
+        Configuration conf = HBaseConfiguration.create();
+        if (args.length > 0 && args[0].equals("reconcile")) {
+            reconcile(conf, Table_Name);
+            return;
+        }
+
+        try (Connection connection = ConnectionFactory.createConnection(conf);
+             Table rollups = connection.getTable(TableName.valueOf(rollupTableName(Table_Name)))) {
+            writeReports(rollups);
+        }
+    }
+
+    // Write the count reports of Member1, Member2 and AccountDuration from the counters
+    public static void writeReports(Table rollups) throws IOException {
+        long start = System.currentTimeMillis();
+        Member1.LocationCounts locations =
+                new Member1.LocationCounts(Member1.tweetsByLocationQuery(), "TweetsByLocation.txt");
+        for (Map.Entry<String, Long> entry : read(rollups, Rollup.LOCATIONS).entrySet()) {
+            locations.addCount(entry.getKey(), entry.getValue().intValue());
+        }
+        locations.finish();
+
+        Member1.LocationCounts verifiedLocations =
+                new Member1.LocationCounts(Member1.verifiedTweetsByLocationQuery(), "VerifiedTweetsByLocation.txt");
+        for (Map.Entry<String, Long> entry : read(rollups, Rollup.VERIFIED_LOCATIONS).entrySet()) {
+            verifiedLocations.addCount(entry.getKey(), entry.getValue().intValue());
+        }
+        verifiedLocations.finish();
+
+        Member2.VerificationCounts verification =
+                new Member2.VerificationCounts("Task a", "compareVerifiedNonVerifiedTweets.txt");
+        for (Map.Entry<String, Long> entry : read(rollups, Rollup.VERIFICATION).entrySet()) {
+            verification.addCount(Boolean.parseBoolean(entry.getKey()), entry.getValue().intValue());
+        }
+        verification.finish();
+
+        AccountDuration.AgeBuckets ages = new AccountDuration.AgeBuckets();
+        for (Map.Entry<String, Long> entry : read(rollups, Rollup.ACCOUNT_CREATED).entrySet()) {
+            int space = entry.getKey().indexOf(' ');
+            ages.addCreated(Boolean.parseBoolean(entry.getKey().substring(0, space)),
+                    LocalDate.parse(entry.getKey().substring(space + 1)), entry.getValue().intValue());
+        }
+        ages.finish();
+
+        System.out.println("Reports read from " + rollups.getName() + " in "
+                + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    public static String rollupTableName(String dataTable) {
+        return dataTable + "_rollup";
+    }
+
+    // Create the rollup table next to the data table unless it exists
+    public static void createTable(Admin admin, String dataTable) throws IOException {
+        TableName name = TableName.valueOf(rollupTableName(dataTable));
+        if (admin.tableExists(name)) {
+            return;
+        }
+        HTableDescriptor descriptor = new HTableDescriptor(name);
+        descriptor.addFamily(new HColumnDescriptor(FAMILY));
+        admin.createTable(descriptor);
+        System.out.println("Rollup table " + name + " created.");
+    }
+
+    // Counters of one report
+    public static Map<String, Long> read(Table rollups, Rollup rollup) throws IOException {
+        Map<String, Long> counts = new HashMap<>();
+        NavigableMap<byte[], byte[]> columns = rollups.get(new Get(rollup.row).addFamily(FAMILY)).getFamilyMap(FAMILY);
+        if (columns != null) {
+            for (Map.Entry<byte[], byte[]> column : columns.entrySet()) {
+                counts.put(Bytes.toString(column.getKey()), Bytes.toLong(column.getValue()));
+            }
+        }
+        return counts;
+    }
+
+    // The cells of a data Put as a Result, so the report queries can be checked against it
+    static Result asResult(Put dataPut) {
+        List<Cell> cells = new ArrayList<>();
+        for (List<Cell> family : dataPut.getFamilyCellMap().values()) {
+            cells.addAll(family);
+        }
+        Collections.sort(cells, KeyValue.COMPARATOR);
+        return Result.create(cells);
+    }
+
+    // Increments for a single data Put, for the row-wise write path
+    public static List<Increment> incrementsFor(Put dataPut) {
+        Counts counts = new Counts();
+        counts.add(new RowAccessor().reset(asResult(dataPut)));
+        return counts.toIncrements();
+    }
+
+    // Recount every report from the data table and correct the counters that differ by the
+    // difference to what they held before the recount
+    public static void reconcile(Configuration conf, String dataTable) throws IOException {
+        try (Connection connection = ConnectionFactory.createConnection(conf)) {
+            try (Admin admin = connection.getAdmin()) {
+                createTable(admin, dataTable);
+            }
+            try (Table rollups = connection.getTable(TableName.valueOf(rollupTableName(dataTable)))) {
+                Map<Rollup, Map<String, Long>> before = new EnumMap<>(Rollup.class);
+                for (Rollup rollup : Rollup.values()) {
+                    before.put(rollup, read(rollups, rollup));
+                }
+
+                Counts fresh = new Counts();
+                ParallelScanner.run(conf, dataTable, new ScanExecutor().register(fresh));
+
+                for (Rollup rollup : Rollup.values()) {
+                    Map<String, Long> expected = fresh.get(rollup);
+                    Map<String, Long> stored = before.get(rollup);
+
+                    // Deltas rather than absolute values, so Increments that landed since the
+                    // counters were read are not overwritten
+                    Increment increment = new Increment(rollup.row);
+                    List<String> dropped = new ArrayList<>();
+                    for (Map.Entry<String, Long> entry : expected.entrySet()) {
+                        Long old = stored.get(entry.getKey());
+                        long delta = entry.getValue() - (old == null ? 0 : old);
+                        if (delta != 0) {
+                            increment.addColumn(FAMILY, Bytes.toBytes(entry.getKey()), delta);
+                        }
+                    }
+                    for (Map.Entry<String, Long> entry : stored.entrySet()) {
+                        if (!expected.containsKey(entry.getKey()) && entry.getValue() != 0) {
+                            increment.addColumn(FAMILY, Bytes.toBytes(entry.getKey()), -entry.getValue());
+                            dropped.add(entry.getKey());
+                        }
+                    }
+
+                    int corrected = increment.size(), removed = 0;
+                    if (corrected > 0) {
+                        rollups.increment(increment);
+                    }
+                    // Groups with no rows left go once they are at zero, unless an Increment came in since
+                    for (String key : dropped) {
+                        byte[] qualifier = Bytes.toBytes(key);
+                        if (rollups.checkAndDelete(rollup.row, FAMILY, qualifier, Bytes.toBytes(0L),
+                                new Delete(rollup.row).addColumns(FAMILY, qualifier))) {
+                            removed++;
+                        }
+                    }
+                    System.out.println("Rollup " + Bytes.toString(rollup.row) + ": " + expected.size()
+                            + " counters, " + corrected + " corrected, " + removed + " removed");
+                }
+            }
+        }
+    }
+
+    // Counts per report and group. Filled from Puts at ingest, or as an Aggregator by reconcile.
+    static class Counts implements Aggregator {
+        private final Map<Rollup, Map<String, Long>> counts = new EnumMap<>(Rollup.class);
+        private final TweetQuery query = new TweetQuery();
+
+        Counts() {
+            for (Rollup rollup : Rollup.values()) {
+                counts.put(rollup, new HashMap<String, Long>());
+                for (TweetColumn column : rollup.query.allColumns()) {
+                    query.select(column);
+                }
+            }
+        }
+
+        // Every column a report needs, without predicates; add() checks each report's query
+        @Override
+        public TweetQuery query() {
+            return query;
+        }
+
+        @Override
+        public void add(RowAccessor row) {
+            for (Rollup rollup : Rollup.values()) {
+                if (rollup.query.matches(row)) {
+                    String key = rollup.keyOf(row);
+                    if (key != null) {
+                        add(rollup, key, 1);
+                    }
+                }
+            }
+        }
+
+        void add(Rollup rollup, String key, long count) {
+            Map<String, Long> groups = counts.get(rollup);
+            Long current = groups.get(key);
+            groups.put(key, current == null ? count : current + count);
+        }
+
+        Map<String, Long> get(Rollup rollup) {
+            return counts.get(rollup);
+        }
+
+        boolean isEmpty() {
+            for (Map<String, Long> groups : counts.values()) {
+                if (!groups.isEmpty()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // One Increment per report row with a column per group
+        List<Increment> toIncrements() {
+            List<Increment> increments = new ArrayList<>();
+            for (Map.Entry<Rollup, Map<String, Long>> entry : counts.entrySet()) {
+                if (entry.getValue().isEmpty()) {
+                    continue;
+                }
+                Increment increment = new Increment(entry.getKey().row);
+                for (Map.Entry<String, Long> group : entry.getValue().entrySet()) {
+                    increment.addColumn(FAMILY, Bytes.toBytes(group.getKey()), group.getValue());
+                }
+                increments.add(increment);
+            }
+            return increments;
+        }
+
+        @Override
+        public Aggregator newPartial() {
+            return new Counts();
+        }
+
+        @Override
+        public void merge(Aggregator partial) {
+            for (Map.Entry<Rollup, Map<String, Long>> entry : ((Counts) partial).counts.entrySet()) {
+                for (Map.Entry<String, Long> group : entry.getValue().entrySet()) {
+                    add(entry.getKey(), group.getKey(), group.getValue());
+                }
+            }
+        }
+
+        // Nothing to write, reconcile() compares the counts with the stored counters
+        @Override
+        public void finish() {
+        }
+    }
+
+    // Adds the rows of data Puts to the counters, sending the pending counts as Increments every
+    // rollup.flush.rows rows and on flush(). Safe to share between writer threads.
+    // Does nothing when the rollups are turned off with insert.rollups=false.
+    public static class Writer implements Closeable {
+        private final Table table;
+        private final int flushRows;
+        private Counts pending = new Counts();
+        private int pendingRows = 0;
+        private long rowsCounted = 0, rowsFailed = 0, increments = 0, flushes = 0;
+
+        private Writer(Table table, int flushRows) {
+            this.table = table;
+            this.flushRows = Math.max(1, flushRows);
+        }
+
+        public static Writer open(Connection connection, String dataTable, Configuration conf) throws IOException {
+            if (!conf.getBoolean(ENABLED_KEY, true)) {
+                return new Writer(null, 1);
+            }
+            return new Writer(connection.getTable(TableName.valueOf(rollupTableName(dataTable))),
+                    conf.getInt(FLUSH_ROWS_KEY, 10000));
+        }
+
+        public void add(Put dataPut) throws IOException {
+            addAll(Collections.singletonList(dataPut));
+        }
+
+        public void addAll(List<Put> dataPuts) throws IOException {
+            if (table == null) {
+                return;
+            }
+            // Match the puts outside the lock, only the merge is serialized
+            Counts counts = new Counts();
+            RowAccessor row = new RowAccessor();
+            for (Put dataPut : dataPuts) {
+                counts.add(row.reset(asResult(dataPut)));
+            }
+            synchronized (this) {
+                pending.merge(counts);
+                pendingRows += dataPuts.size();
+                rowsCounted += dataPuts.size();
+                if (pendingRows >= flushRows) {
+                    flush();
+                }
+            }
+        }
+
+        public synchronized void flush() throws IOException {
+            if (table == null || pending.isEmpty()) {
+                return;
+            }
+            List<Increment> batch = pending.toIncrements();
+            int rows = pendingRows;
+            pending = new Counts();
+            pendingRows = 0;
+            try {
+                table.batch(batch, new Object[batch.size()]);
+            } catch (IOException e) {
+                rowsFailed += rows;
+                throw e;
+            } catch (InterruptedException e) {
+                rowsFailed += rows;
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while updating " + table.getName());
+            }
+            increments += batch.size();
+            flushes++;
+        }
+
+        // Data rows whose counts were in a flush that failed
+        public synchronized long getRowsFailed() {
+            return rowsFailed;
+        }
+
+        public synchronized void printReport() {
+            if (table != null) {
+                System.out.println("Rollups: " + rowsCounted + " rows counted, " + rowsFailed + " failed, "
+                        + increments + " increments in " + flushes + " flushes");
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (table != null) {
+                try {
+                    flush();
+                } finally {
+                    table.close();
+                }
+            }
+        }
+    }
+}
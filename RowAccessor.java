@@ -0,0 +1,130 @@
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+
+// Reusable view of one CovidData row for the scan loops. reset() walks the row's cells once and
+// remembers the latest cell of every TweetColumn by ordinal; the getters then read the values in
+// place in the cells' backing arrays, where Result.getValue() would binary-search the row and
+// copy the value on every call. Flags, counts and timestamps decode without allocating (see the
+// byte-range decoders in TweetSchema), emptiness is the value length, and only getString() and
+// getValue() create objects, for values a report actually keeps.
+//
+// One accessor per scanning thread: it holds the cells of the current row only until the next
+// reset().
+public class RowAccessor {
+
+    private static final TweetColumn[] COLUMNS = TweetColumn.values();
+
+    private final Cell[] cells = new Cell[COLUMNS.length];
+    private Result result;
+
+    // Point the accessor at a row
+    public RowAccessor reset(Result result) {
+        this.result = result;
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] = null;
+        }
+        Cell[] raw = result.rawCells();
+        if (raw == null) {
+            return this;
+        }
+        // Versions of a column are sorted newest first, so the first cell seen is the latest
+        for (Cell cell : raw) {
+            TweetColumn column = columnOf(cell);
+            if (column != null && cells[column.ordinal()] == null) {
+                cells[column.ordinal()] = cell;
+            }
+        }
+        return this;
+    }
+
+    // Qualifiers are unique across the families, so a column is found in whatever family the
+    // table's layout keeps it
+    private static TweetColumn columnOf(Cell cell) {
+        for (TweetColumn column : COLUMNS) {
+            if (CellUtil.matchingQualifier(cell, column.qualifier())) {
+                return column;
+            }
+        }
+        return null;
+    }
+
+    public Result getResult() {
+        return result;
+    }
+
+    public byte[] getRow() {
+        return result.getRow();
+    }
+
+    // Latest cell of the column, or null when missing
+    public Cell getCell(TweetColumn column) {
+        return cells[column.ordinal()];
+    }
+
+    public boolean has(TweetColumn column) {
+        return cells[column.ordinal()] != null;
+    }
+
+    // Missing or zero-length
+    public boolean isEmpty(TweetColumn column) {
+        Cell cell = cells[column.ordinal()];
+        return cell == null || cell.getValueLength() == 0;
+    }
+
+    // Copy of the value, or null when missing
+    public byte[] getValue(TweetColumn column) {
+        Cell cell = cells[column.ordinal()];
+        return cell == null ? null : CellUtil.cloneValue(cell);
+    }
+
+    // Value decoded as UTF-8, or null when missing
+    public String getString(TweetColumn column) {
+        Cell cell = cells[column.ordinal()];
+        return cell == null ? null : Bytes.toString(cell.getValueArray(), cell.getValueOffset(), cell.getValueLength());
+    }
+
+    // Flag in either layout, as TweetSchema.decodeBoolean; null when missing
+    public Boolean getBoolean(TweetColumn column) {
+        Cell cell = cells[column.ordinal()];
+        return cell == null ? null
+                : TweetSchema.decodeBoolean(cell.getValueArray(), cell.getValueOffset(), cell.getValueLength());
+    }
+
+    // Count in either layout, or the given value when missing or not a number
+    public long getLong(TweetColumn column, long missing) {
+        Cell cell = cells[column.ordinal()];
+        return cell == null ? missing
+                : TweetSchema.decodeLong(cell.getValueArray(), cell.getValueOffset(), cell.getValueLength(), missing);
+    }
+
+    // Timestamp in either layout as epoch millis, or the given value when missing or unparseable
+    public long getTimestamp(TweetColumn column, long missing) {
+        Cell cell = cells[column.ordinal()];
+        return cell == null ? missing
+                : TweetSchema.decodeTimestamp(cell.getValueArray(), cell.getValueOffset(), cell.getValueLength(), missing);
+    }
+
+    // True if the value contains the given bytes, e.g. the UTF-8 form of a substring
+    public boolean contains(TweetColumn column, byte[] part) {
+        Cell cell = cells[column.ordinal()];
+        if (cell == null) {
+            return false;
+        }
+        byte[] array = cell.getValueArray();
+        int last = cell.getValueOffset() + cell.getValueLength() - part.length;
+        for (int start = cell.getValueOffset(); start <= last; start++) {
+            if (Bytes.equals(array, start, part.length, part, 0, part.length)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Sketches.hash64 of the value bytes, without copying them; 0 when missing
+    public long hash64(TweetColumn column) {
+        Cell cell = cells[column.ordinal()];
+        return cell == null ? 0 : Sketches.hash64(cell.getValueArray(), cell.getValueOffset(), cell.getValueLength());
+    }
+}
@@ -0,0 +1,152 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Admin;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+// Moves a CovidData table from string row keys to the binary keys of RowKeys, in place and
+// online, keeping the salt bucket count:
+//   1. The table is marked binary, so writers started from then on write binary keys.
+//   2. Every string-keyed row is copied to its binary key, every version with its original
+//      timestamp, and deleted once the copies are written. The user and date come from the
+//      row's columns, since the string key cannot be split back into them; rows without a
+//      user_name keep their key.
+//   3. The secondary and term indexes are rebuilt, which points their entries at the new keys
+//      and sweeps out the ones left for the old keys. The rollup counters count rows, not keys,
+//      and stay as they are.
+// Writers that were running before step 1 go on writing string keys: restart them and run the
+// conversion again, which only touches the rows still keyed by string. Until it completes,
+// single-row reads (Versioning, UserTimeline) do not see the rows it has not reached. A salted
+// table keeps the split points of its string buckets ("01", "02", ...), which binary bucket bytes
+// do not line up with; split it again once the conversion is done.
+//
+// Usage: RowKeyConversion [-D<key>=<value>...]
+public class RowKeyConversion extends Configured implements Tool {
+
+    public static String Table_Name = "CovidData";
+
+    private static final long POLL_MS = 1000;
+
+    @Override
+    public int run(String[] args) throws IOException {
+        Configuration conf = HBaseConfiguration.create(getConf());
+        MetricsReporter.run(conf, "RowKeyConversion", () -> convert(conf, Table_Name));
+        return 0;
+    }
+
+    public static void convert(Configuration conf, String tableName) throws IOException {
+        long rowsConverted = 0, cellsCopied = 0, rowsLeft = 0;
+        long start = System.currentTimeMillis();
+        TableName name = TableName.valueOf(tableName);
+
+        try (Connection connection = ConnectionFactory.createConnection(conf);
+             Admin admin = connection.getAdmin()) {
+
+            // Step 1: mark the table, so new rows get binary keys
+            HTableDescriptor descriptor = admin.getTableDescriptor(name);
+            RowKeys rowKeys = RowKeys.forTable(descriptor);
+            if (!rowKeys.isBinary()) {
+                rowKeys = new RowKeys(rowKeys.getSaltBuckets(), true);
+                rowKeys.describe(descriptor);
+                admin.modifyTable(name, descriptor);
+                while (admin.getAlterStatus(name).getFirst() > 0) {
+                    sleep(POLL_MS);
+                }
+                System.out.println("Table " + tableName + " now has " + rowKeys
+                        + "; writers started from now on write binary keys.");
+            }
+            TweetLayout layout = TweetLayout.forTable(descriptor);
+
+            // Step 2: copy and delete the string-keyed rows, a batch at a time so the copies
+            // are written before their originals go
+            Scan scan = new Scan();
+            scan.setMaxVersions();
+            ScanTuning tuning = ScanTuning.fromConf(conf);
+            tuning.apply(scan);
+            int batch = conf.getInt(BufferedIngest.BATCH_SIZE_KEY, BufferedIngest.DEFAULT_BATCH_SIZE);
+
+            try (Table table = connection.getTable(name);
+                 BufferedIngest ingest = new BufferedIngest(connection, tableName, conf);
+                 ResultScanner scanner = tuning.open(table, scan)) {
+                List<Delete> originals = new ArrayList<>(batch);
+                for (Result result : scanner) {
+                    if (RowKeys.isBinaryKey(result.getRow())) {
+                        continue;  // Converted already, or written since step 1
+                    }
+                    String user_name = layout.getString(result, TweetColumn.USER_NAME);
+                    if (user_name == null || user_name.isEmpty()) {
+                        rowsLeft++;
+                        continue;
+                    }
+                    Long date = TweetSchema.decodeTimestamp(layout.getValue(result, TweetColumn.DATE));
+                    Put put = new Put(rowKeys.rowKey(user_name, date == null ? 0 : date));
+                    for (Cell cell : result.rawCells()) {
+                        put.addColumn(CellUtil.cloneFamily(cell), CellUtil.cloneQualifier(cell), cell.getTimestamp(),
+                                CellUtil.cloneValue(cell));
+                        cellsCopied++;
+                    }
+                    ingest.add(put);
+                    originals.add(new Delete(result.getRow()));
+                    rowsConverted++;
+
+                    if (originals.size() >= batch) {
+                        deleteOriginals(table, ingest, originals);
+                    }
+                }
+                deleteOriginals(table, ingest, originals);
+            }
+        }
+        System.out.println("Converted " + rowsConverted + " rows (" + cellsCopied + " cells), left " + rowsLeft
+                + " rows without a user_name in " + (System.currentTimeMillis() - start) + " ms");
+
+        // Step 3: the index entries name the old keys
+        SecondaryIndex.rebuild(conf, tableName);
+        TermIndex.rebuild(conf, tableName);
+    }
+
+    // Delete the original rows once their copies are written; a failed copy keeps them all, and
+    // the next run converts them again
+    private static void deleteOriginals(Table table, BufferedIngest ingest, List<Delete> originals)
+            throws IOException {
+        long failedBefore = ingest.getRowsFailed();
+        ingest.flush();
+        if (ingest.getRowsFailed() > failedBefore) {
+            throw new IOException((ingest.getRowsFailed() - failedBefore)
+                    + " rows failed to copy; their originals are kept, run the conversion again");
+        }
+        if (!originals.isEmpty()) {
+            table.delete(originals);
+            originals.clear();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static void main(String[] argv) throws Exception {
+        int ret = ToolRunner.run(new RowKeyConversion(), argv);
+        System.exit(ret);
+    }
+}
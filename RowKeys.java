@@ -0,0 +1,336 @@
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.util.Bytes;
+
+// Row key layout for CovidData, in one of two formats recorded on the table descriptor.
+//
+// string (tables created before the format was recorded): user_name + "_" + date with
+// whitespace replaced by underscores. When the table is created with salt buckets, the stored
+// key gets a two-character hex prefix derived from a hash of the logical key, so consecutive
+// tweets of a prolific account land in different regions.
+//
+// binary (new tables): a 4-byte hash of the user name, the UTF-8 name with 0x00 escaped as
+// 0x00 0xFF and closed by 0x00 0x01, then Long.MAX_VALUE - date in epoch millis (0 when the
+// date is missing). Every tweet of a user sits in one contiguous range, newest first, and the
+// name can no longer run into the date. The hash spreads users over the key space; with salt
+// buckets the stored key also starts with a bucket byte taken from that hash, so the buckets
+// split the table evenly while a user's tweets stay together (see UserTimeline).
+//
+// The analytics tools (Member1, Member2, Member3, AccountDuration) scan whole families and only
+// read columns, so neither the format nor salting changes their results; tools that address
+// single rows (Versioning) go through rowKey() to find the stored key. RowKeyConversion moves a
+// string-keyed table to binary keys.
+public class RowKeys {
+
+    // Table descriptor value and configuration key holding the number of salt buckets (0 = no salt)
+    public static final String SALT_BUCKETS_KEY = "covid.salt.buckets";
+    public static final int MAX_SALT_BUCKETS = 256;
+
+    // Table descriptor value and configuration key holding the key format (string when missing)
+    public static final String FORMAT_KEY = "covid.key.format";
+    public static final String STRING_FORMAT = "string";
+    public static final String BINARY_FORMAT = "binary";
+
+    private static final char SALT_SEPARATOR = '|';
+
+    // Binary format: hash, escaped name and its terminator, reverse timestamp
+    static final int HASH_LENGTH = Bytes.SIZEOF_INT;
+    private static final byte ESCAPE = 0x00;
+    private static final byte ESCAPED_ZERO = (byte) 0xFF;
+    private static final byte TERMINATOR = 0x01;
+
+    private final int saltBuckets;
+    private final boolean binary;
+
+    public RowKeys(int saltBuckets) {
+        this(saltBuckets, false);
+    }
+
+    public RowKeys(int saltBuckets, boolean binary) {
+        if (saltBuckets < 0 || saltBuckets > MAX_SALT_BUCKETS) {
+            throw new IllegalArgumentException("Salt buckets must be between 0 and " + MAX_SALT_BUCKETS);
+        }
+        this.saltBuckets = saltBuckets;
+        this.binary = binary;
+    }
+
+    // Key layout of an existing table, as recorded on its descriptor
+    public static RowKeys forTable(HTableDescriptor descriptor) {
+        String buckets = descriptor.getValue(SALT_BUCKETS_KEY);
+        return new RowKeys(buckets == null ? 0 : Integer.parseInt(buckets),
+                BINARY_FORMAT.equals(descriptor.getValue(FORMAT_KEY)));
+    }
+
+    // Key layout for a new table, from the configuration
+    public static RowKeys fromConf(Configuration conf) {
+        String format = conf.get(FORMAT_KEY, BINARY_FORMAT);
+        if (!BINARY_FORMAT.equals(format) && !STRING_FORMAT.equals(format)) {
+            throw new IllegalArgumentException("Unknown row key format " + format + " (expected "
+                    + BINARY_FORMAT + " or " + STRING_FORMAT + ")");
+        }
+        return new RowKeys(conf.getInt(SALT_BUCKETS_KEY, 0), BINARY_FORMAT.equals(format));
+    }
+
+    // Record the layout on the descriptor of a new table
+    public void describe(HTableDescriptor descriptor) {
+        descriptor.setValue(SALT_BUCKETS_KEY, Integer.toString(saltBuckets));
+        descriptor.setValue(FORMAT_KEY, binary ? BINARY_FORMAT : STRING_FORMAT);
+    }
+
+    public int getSaltBuckets() {
+        return saltBuckets;
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    // Logical key for a tweet, exactly as InsertData has always built it
+    public static String logicalKey(String user_name, String date) {
+        String row_key = user_name + "_" + date;
+        return row_key.replaceAll("\\s+", "_");  // Clean row key by replacing spaces with underscores
+    }
+
+    // Stored row key for a tweet
+    public byte[] rowKey(String user_name, String date) {
+        if (binary) {
+            byte[] millis = TweetSchema.encodeTimestamp(date);
+            return binaryKey(user_name, millis == null ? 0 : Bytes.toLong(millis));
+        }
+        return encode(logicalKey(user_name, date));
+    }
+
+    // Stored row key for a tweet at epoch millis; binary format only
+    public byte[] rowKey(String user_name, long millis) {
+        checkBinary();
+        return binaryKey(user_name, millis);
+    }
+
+    // Stored row key for a logical key; string format only, as the logical key cannot be split
+    // back into user and date
+    public byte[] encode(String logicalKey) {
+        if (binary) {
+            throw new IllegalStateException("Binary row keys are built from the user and date, not a logical key");
+        }
+        if (saltBuckets == 0) {
+            return Bytes.toBytes(logicalKey);
+        }
+        int bucket = (logicalKey.hashCode() & Integer.MAX_VALUE) % saltBuckets;
+        return Bytes.toBytes(String.format("%02x", bucket) + SALT_SEPARATOR + logicalKey);
+    }
+
+    // Logical key for a stored row key of either format
+    public String decode(byte[] rowKey) {
+        if (isBinaryKey(rowKey)) {
+            return logicalKey(userOf(rowKey), TweetSchema.formatTimestamp(timeOf(rowKey)));
+        }
+        String key = Bytes.toString(rowKey);
+        if (saltBuckets == 0) {
+            return key;
+        }
+        return key.substring(3);
+    }
+
+    // Every stored key of a user starts with this; binary format only
+    public byte[] userPrefix(String user_name) {
+        checkBinary();
+        byte[] name = Bytes.toBytes(user_name);
+        int hash = userHash(name);
+        int salt = saltBuckets > 0 ? 1 : 0;
+        byte[] prefix = new byte[salt + HASH_LENGTH + escapedLength(name) + 2];
+        if (salt > 0) {
+            prefix[0] = (byte) ((hash & Integer.MAX_VALUE) % saltBuckets);
+        }
+        Bytes.putInt(prefix, salt, hash);
+        int end = escape(name, prefix, salt + HASH_LENGTH);
+        prefix[end] = ESCAPE;
+        prefix[end + 1] = TERMINATOR;
+        return prefix;
+    }
+
+    // First key after every key of the user, so [userPrefix, userStop) is the user's range
+    public byte[] userStop(String user_name) {
+        byte[] stop = userPrefix(user_name);
+        stop[stop.length - 1]++;  // 0x00 0x02 sorts right after every 0x00 0x01 <timestamp>
+        return stop;
+    }
+
+    // User name of a binary key
+    public String userOf(byte[] rowKey) {
+        int start = (saltBuckets > 0 ? 1 : 0) + HASH_LENGTH;
+        int end = nameEnd(rowKey, start);
+        byte[] name = new byte[end - start];
+        int length = 0;
+        for (int i = start; i < end; i++) {
+            name[length++] = rowKey[i];
+            if (rowKey[i] == ESCAPE) {
+                i++;  // Skip the 0xFF after an escaped 0x00
+            }
+        }
+        return Bytes.toString(name, 0, length);
+    }
+
+    // Epoch millis of a binary key, 0 when the tweet had no date
+    public static long timeOf(byte[] rowKey) {
+        return Long.MAX_VALUE - Bytes.toLong(rowKey, rowKey.length - Bytes.SIZEOF_LONG);
+    }
+
+    // Timestamp part of a binary key; newer tweets sort first
+    public static byte[] reverseTime(long millis) {
+        return Bytes.toBytes(Long.MAX_VALUE - Math.max(0, millis));
+    }
+
+    // String keys are CSV text and never hold a 0x00 byte; every binary key closes the name with one
+    public static boolean isBinaryKey(byte[] rowKey) {
+        return Bytes.indexOf(rowKey, ESCAPE) >= 0;
+    }
+
+    private byte[] binaryKey(String user_name, long millis) {
+        return Bytes.add(userPrefix(user_name), reverseTime(millis));
+    }
+
+    private void checkBinary() {
+        if (!binary) {
+            throw new IllegalStateException("Table has string row keys; convert it with RowKeyConversion first");
+        }
+    }
+
+    // Murmur3 finalizer over the name's String hash: cheap, and spreads names that share a prefix
+    private static int userHash(byte[] name) {
+        int h = Bytes.hashCode(name);
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private static int escapedLength(byte[] name) {
+        int length = name.length;
+        for (byte b : name) {
+            if (b == ESCAPE) {
+                length++;
+            }
+        }
+        return length;
+    }
+
+    // Copy the name with every 0x00 doubled up as 0x00 0xFF; returns the end offset
+    private static int escape(byte[] name, byte[] target, int offset) {
+        for (byte b : name) {
+            target[offset++] = b;
+            if (b == ESCAPE) {
+                target[offset++] = ESCAPED_ZERO;
+            }
+        }
+        return offset;
+    }
+
+    // Offset of the 0x00 0x01 that closes the name
+    private static int nameEnd(byte[] rowKey, int start) {
+        for (int i = start; i < rowKey.length - 1; i++) {
+            if (rowKey[i] == ESCAPE) {
+                if (rowKey[i + 1] == TERMINATOR) {
+                    return i;
+                }
+                i++;
+            }
+        }
+        throw new IllegalArgumentException("Not a binary row key: " + Bytes.toStringBinary(rowKey));
+    }
+
+    // Split points for a table with the given number of regions. With salting the buckets are
+    // spread evenly across regions; without it, split points are quantiles of a uniform
+    // reservoir sample of row keys taken from the input file.
+    public byte[][] computeSplits(String csvFilePath, int regions, int sampleSize) throws IOException {
+        if (regions <= 1) {
+            return new byte[0][];
+        }
+        if (saltBuckets > 0 && regions <= saltBuckets) {
+            List<byte[]> splits = new ArrayList<>();
+            for (int i = 1; i < regions; i++) {
+                int bucket = (int) ((long) i * saltBuckets / regions);
+                splits.add(binary ? new byte[] {(byte) bucket} : Bytes.toBytes(String.format("%02x", bucket)));
+            }
+            return dedupe(splits);
+        }
+
+        List<byte[]> sample = sampleKeys(csvFilePath, sampleSize);
+        if (sample.isEmpty()) {
+            return new byte[0][];
+        }
+        sample.sort(Bytes.BYTES_COMPARATOR);
+        List<byte[]> splits = new ArrayList<>();
+        for (int i = 1; i < regions; i++) {
+            splits.add(sample.get((int) ((long) i * sample.size() / regions)));
+        }
+        return dedupe(splits);
+    }
+
+    // Reservoir sample of stored row keys from the CSV file
+    private List<byte[]> sampleKeys(String csvFilePath, int sampleSize) throws IOException {
+        List<byte[]> sample = new ArrayList<>(sampleSize);
+        Random random = new Random(42);
+        long seen = 0;
+
+        try (FileReader reader = new FileReader(csvFilePath);
+             CSVParser csvParser = new CSVParser(reader, CSVFormat.DEFAULT.withFirstRecordAsHeader().withTrim())) {
+            for (CSVRecord record : csvParser) {
+                String user_name = record.get("user_name");
+                if (user_name == null || user_name.isEmpty()) {
+                    continue;
+                }
+                byte[] key = rowKey(user_name, record.get("date"));
+                seen++;
+                if (sample.size() < sampleSize) {
+                    sample.add(key);
+                } else {
+                    long slot = (long) (random.nextDouble() * seen);
+                    if (slot < sampleSize) {
+                        sample.set((int) slot, key);
+                    }
+                }
+            }
+        }
+        return sample;
+    }
+
+    // Split points must be unique and strictly increasing
+    private static byte[][] dedupe(List<byte[]> splits) {
+        List<byte[]> unique = new ArrayList<>();
+        for (byte[] split : splits) {
+            if (split.length > 0 && (unique.isEmpty() || Bytes.compareTo(unique.get(unique.size() - 1), split) < 0)) {
+                unique.add(split);
+            }
+        }
+        return unique.toArray(new byte[unique.size()][]);
+    }
+
+    @Override
+    public String toString() {
+        return (binary ? BINARY_FORMAT : STRING_FORMAT) + " keys, "
+                + (saltBuckets == 0 ? "unsalted" : saltBuckets + " salt buckets");
+    }
+
+    public static void main(String[] args) throws IOException {
+        // Usage: RowKeys <csv file> <regions> [salt buckets] [string|binary]
+        RowKeys keys = new RowKeys(args.length > 2 ? Integer.parseInt(args[2]) : 0,
+                args.length > 3 && BINARY_FORMAT.equals(args[3]));
+        byte[][] splits = keys.computeSplits(args[0], Integer.parseInt(args[1]), 10000);
+        System.out.println("Split points (" + keys + "):");
+        for (byte[] split : splits) {
+            System.out.println(Bytes.toStringBinary(split));
+        }
+        System.out.println(splits.length + " split points");
+    }
+}
@@ -0,0 +1,176 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.client.metrics.ScanMetrics;
+
+// Feeds any number of aggregators from a single scan of the table. The scan reads the union of
+// the columns the registered queries need, and every row is checked against each aggregator's
+// predicates on the client before it is handed over, so N reports cost one table read instead
+// of N.
+//
+// The per-query predicates are not pushed down here: the filters of different reports would
+// have to be OR-ed, and a report without predicates (e.g. AccountDuration) needs every row
+// anyway. With a single aggregator registered the executor uses that query's own planned scan,
+// so running one report on its own still gets projection and pushdown.
+public class ScanExecutor {
+
+    // Histogram of the time next() waits for each RPC of the scan, i.e. per page of rows, recorded
+    // while Metrics is enabled. The other rows come out of the scanner's cache.
+    public static final String NEXT_LATENCY = "scanner.next";
+
+    // Rows are published to the activity of a scan in steps, not one by one
+    private static final int PROGRESS_STEP = 1024;
+
+    private final List<Aggregator> aggregators = new ArrayList<>();
+    private long minTime = 0;
+    private long maxTime = Long.MAX_VALUE;
+    private ScanMetrics scanMetrics;
+
+    public ScanExecutor register(Aggregator aggregator) {
+        aggregators.add(aggregator);
+        return this;
+    }
+
+    // Only read cells written in [minTime, maxTime), e.g. since the last incremental run
+    public ScanExecutor setTimeRange(long minTime, long maxTime) {
+        this.minTime = minTime;
+        this.maxTime = maxTime;
+        return this;
+    }
+
+    public List<Aggregator> getAggregators() {
+        return aggregators;
+    }
+
+    // RPCs, bytes, regions and rows of the last run, over all of its scans
+    public ScanMetrics getScanMetrics() {
+        return scanMetrics;
+    }
+
+    void setScanMetrics(ScanMetrics scanMetrics) {
+        this.scanMetrics = scanMetrics;
+    }
+
+    // Query reading every column any registered aggregator needs, without predicates
+    TweetQuery unionQuery() {
+        TweetQuery union = new TweetQuery();
+        for (Aggregator aggregator : aggregators) {
+            for (TweetColumn column : aggregator.query().allColumns()) {
+                union.select(column);
+            }
+        }
+        return union;
+    }
+
+    // Scan the table once, feed every aggregator, then let each one write its report.
+    // Returns the number of rows read.
+    public long run(Table table) throws IOException {
+        if (aggregators.isEmpty()) {
+            return 0;
+        }
+        ScanTuning tuning = ScanTuning.fromConf(table.getConfiguration());
+        TweetQuery.Plan plan = plan(TweetLayout.forTable(table.getTableDescriptor()), tuning);
+
+        long start = System.currentTimeMillis();
+        long rows;
+        String tableName = table.getName().getNameAsString();
+        ScanTuning.TunedScanner scanner = tuning.open(table, plan.getScan());
+        try (Metrics.Activity activity = Metrics.begin("scan " + tableName, "",
+                Metrics.counter("rows.read", "source", tableName))) {
+            rows = feed(scanner, plan, aggregators, activity);
+        } finally {
+            scanner.close();
+        }
+        scanMetrics = scanner.getScanMetrics();
+        System.out.println("Scanned " + rows + " rows for " + aggregators.size() + " reports in "
+                + (System.currentTimeMillis() - start) + " ms, caching " + scanner.getCaching() + " after "
+                + scanner.getReopens() + " reopens");
+        System.out.println("ScanExecutor: " + ScanTuning.describe(scanMetrics));
+
+        finish();
+        return rows;
+    }
+
+    // Scan covering every registered aggregator. With a single aggregator this is its own planned
+    // scan with pushdown, otherwise the union projection without filters. Caching, result size and
+    // block caching come from the scan profile.
+    TweetQuery.Plan plan(TweetLayout layout, ScanTuning tuning) throws IOException {
+        TweetQuery.Plan plan = aggregators.size() == 1
+                ? aggregators.get(0).query().plan(true, layout)
+                : unionQuery().plan(true, layout);
+
+        Scan scan = tuning.apply(plan.getScan());
+        if (minTime > 0 || maxTime != Long.MAX_VALUE) {
+            scan.setTimeRange(minTime, maxTime);
+        }
+        return plan;
+    }
+
+    // Hand every row of the scanner to the targets whose predicates it satisfies. The targets
+    // line up with the registered aggregators (the aggregators themselves or partials of them).
+    // The rows read are added to the activity as the scan goes.
+    long feed(ScanTuning.TunedScanner scanner, TweetQuery.Plan plan, List<Aggregator> targets,
+              Metrics.Activity activity) throws IOException {
+        boolean single = aggregators.size() == 1;
+        TweetQuery[] queries = new TweetQuery[aggregators.size()];
+        for (int i = 0; i < queries.length; i++) {
+            queries[i] = aggregators.get(i).query();
+        }
+
+        // One accessor for the whole scan: the cells of each row are indexed once and then
+        // shared by every predicate and aggregator
+        RowAccessor row = new RowAccessor();
+        PageTimer timer = Metrics.isEnabled() ? new PageTimer() : null;
+        long rows = 0;
+        for (Result result = next(scanner, timer); result != null; result = next(scanner, timer)) {
+            rows++;
+            if (rows % PROGRESS_STEP == 0) {
+                activity.add(PROGRESS_STEP);
+            }
+            row.reset(result);
+            if (single) {
+                // Masked check-only columns are missing here, only the leftover predicates apply
+                if (plan.matches(row)) {
+                    targets.get(0).add(row);
+                }
+                continue;
+            }
+            for (int i = 0; i < queries.length; i++) {
+                if (queries[i].matches(row)) {
+                    targets.get(i).add(row);
+                }
+            }
+        }
+        activity.add(rows % PROGRESS_STEP);
+        return rows;
+    }
+
+    private static Result next(ScanTuning.TunedScanner scanner, PageTimer timer) throws IOException {
+        return timer == null ? scanner.next() : timer.next(scanner);
+    }
+
+    private static class PageTimer {
+        private final Histogram latencies = Metrics.histogram(NEXT_LATENCY);
+
+        Result next(ScanTuning.TunedScanner scanner) throws IOException {
+            long rpcs = scanner.getRpcCount();
+            long start = System.nanoTime();
+            Result result = scanner.next();
+            if (scanner.getRpcCount() != rpcs) {
+                latencies.record(System.nanoTime() - start);
+            }
+            return result;
+        }
+    }
+
+    // Let every aggregator write its report
+    void finish() throws IOException {
+        for (Aggregator aggregator : aggregators) {
+            aggregator.finish();
+        }
+    }
+}
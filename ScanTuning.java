@@ -0,0 +1,318 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.client.metrics.ScanMetrics;
+import org.apache.hadoop.hbase.util.Bytes;
+
+// Settings of the full-table scans, from a profile in the configuration, and a scanner that adapts
+// them to the rows it sees. The profiles, with every value settable on its own with -D:
+//   analytics (default): block caching off, so a report pass does not evict what online readers
+//       have cached; 500 rows per RPC to start, at most 4 MB per RPC; adaptive
+//   online: block caching on, 100 rows per RPC, at most 2 MB per RPC; fixed
+//
+// The 1.x client fixes caching and the result size limit when a scanner opens. The adaptive
+// scanner watches the bytes per row and the time next() waits for each RPC in the scan metrics,
+// and when the rows per RPC should change by 2x or more it reopens the scan just after the last
+// row it returned with the new caching. Rows per RPC are sized to bring targetPageBytes, and
+// halved while RPCs take longer than targetPageMillis (a busy region server, or a page so large
+// the scanner lease is at risk). A reopen costs one extra RPC, and is done once the page in hand
+// is used up, at most every few pages.
+public class ScanTuning {
+
+    // Configuration keys, settable with -D on the command line
+    public static final String PROFILE_KEY = "scan.profile";
+    public static final String CACHING_KEY = "scan.caching";
+    public static final String MAX_RESULT_SIZE_KEY = "scan.max.result.size";
+    public static final String CACHE_BLOCKS_KEY = "scan.cache.blocks";
+    public static final String ADAPTIVE_KEY = "scan.adaptive";
+    public static final String TARGET_PAGE_BYTES_KEY = "scan.target.page.bytes";
+    public static final String TARGET_PAGE_MILLIS_KEY = "scan.target.page.ms";
+    public static final String MIN_CACHING_KEY = "scan.min.caching";
+    public static final String MAX_CACHING_KEY = "scan.max.caching";
+
+    public static final String ANALYTICS = "analytics";
+    public static final String ONLINE = "online";
+
+    private static final int PAGES_BETWEEN_REOPENS = 4;
+    private static final byte[] ZERO = {0};
+
+    private final String profile;
+    private final int caching;
+    private final long maxResultSize;
+    private final boolean cacheBlocks;
+    private final boolean adaptive;
+    private final long targetPageBytes;
+    private final long targetPageMillis;
+    private final int minCaching;
+    private final int maxCaching;
+
+    private ScanTuning(Configuration conf) {
+        profile = conf.get(PROFILE_KEY, ANALYTICS);
+        boolean analytics;
+        if (ANALYTICS.equals(profile)) {
+            analytics = true;
+        } else if (ONLINE.equals(profile)) {
+            analytics = false;
+        } else {
+            throw new IllegalArgumentException("Unknown scan profile " + profile + " (expected "
+                    + ANALYTICS + " or " + ONLINE + ")");
+        }
+        caching = Math.max(1, conf.getInt(CACHING_KEY, analytics ? 500 : 100));
+        maxResultSize = conf.getLong(MAX_RESULT_SIZE_KEY, analytics ? 4L << 20 : 2L << 20);
+        cacheBlocks = conf.getBoolean(CACHE_BLOCKS_KEY, !analytics);
+        adaptive = conf.getBoolean(ADAPTIVE_KEY, analytics);
+        targetPageBytes = conf.getLong(TARGET_PAGE_BYTES_KEY, 2L << 20);
+        targetPageMillis = conf.getLong(TARGET_PAGE_MILLIS_KEY, 500);
+        minCaching = Math.max(1, conf.getInt(MIN_CACHING_KEY, 100));
+        maxCaching = Math.max(minCaching, conf.getInt(MAX_CACHING_KEY, 10000));
+    }
+
+    public static ScanTuning fromConf(Configuration conf) {
+        return new ScanTuning(conf);
+    }
+
+    // Profile settings on a scan, with scan metrics on
+    public Scan apply(Scan scan) {
+        scan.setCaching(caching);
+        scan.setMaxResultSize(maxResultSize);
+        scan.setCacheBlocks(cacheBlocks);
+        scan.setScanMetricsEnabled(true);
+        return scan;
+    }
+
+    // Scanner over the scan as it is set up, adapting caching if the profile says so
+    public TunedScanner open(Table table, Scan scan) throws IOException {
+        return new TunedScanner(table, scan, this);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s profile: caching %d%s, max result size %d, block cache %s", profile, caching,
+                adaptive ? " (adaptive " + minCaching + "-" + maxCaching + ")" : "", maxResultSize,
+                cacheBlocks ? "on" : "off");
+    }
+
+    // Add the counters of one scan's metrics to another's
+    public static void addTo(ScanMetrics total, ScanMetrics metrics) {
+        if (metrics == null) {
+            return;
+        }
+        for (Map.Entry<String, Long> counter : metrics.getMetricsMap().entrySet()) {
+            total.addToCounter(counter.getKey(), counter.getValue());
+        }
+    }
+
+    // The numbers worth printing per query
+    public static String describe(ScanMetrics metrics) {
+        return String.format("%d RPCs (%d remote), %d bytes in results, %d regions, %d rows scanned,"
+                        + " %d filtered on server", metrics.countOfRPCcalls.get(), metrics.countOfRemoteRPCcalls.get(),
+                metrics.countOfBytesInResults.get(), metrics.countOfRegions.get(),
+                metrics.countOfRowsScanned.get(), metrics.countOfRowsFiltered.get());
+    }
+
+    // Scanner that reopens its scan with another caching when the rows call for it. The scan
+    // metrics cover every scan it opened.
+    public static class TunedScanner implements ResultScanner {
+        private final Table table;
+        private final Scan template;
+        private final ScanTuning tuning;
+        private final boolean adaptive;
+        private final ScanMetrics closedMetrics = new ScanMetrics();
+
+        private ResultScanner scanner;
+        private ScanMetrics metrics;
+        private int caching;
+        private int reopens = 0;
+        private Result last;
+
+        // Rows taken since the last RPC, and the rows and bytes of the pages before it
+        private int pageRows = 0;
+        private long rowsBeforePage = 0;
+        private double rowBytes = 0;
+        private int pagesSinceReopen = 0;
+        private double pageMillis = 0;
+        private int pendingCaching = 0;
+
+        TunedScanner(Table table, Scan scan, ScanTuning tuning) throws IOException {
+            this.table = table;
+            this.template = scan;
+            this.tuning = tuning;
+            this.caching = scan.getCaching() > 0 ? scan.getCaching() : tuning.caching;
+            // Reopening after the last row needs whole rows in key order
+            this.adaptive = tuning.adaptive && scan.isScanMetricsEnabled() && scan.getBatch() <= 0
+                    && !scan.isReversed() && !scan.getAllowPartialResults() && !scan.isSmall();
+            open(scan);
+        }
+
+        private void open(Scan scan) throws IOException {
+            scanner = table.getScanner(scan);
+            metrics = scanner.getScanMetrics();
+        }
+
+        @Override
+        public Result next() throws IOException {
+            if (!adaptive || metrics == null) {
+                return scanner.next();
+            }
+            if (pendingCaching > 0 && pageRows >= expectedPageRows() && last != null) {
+                reopen();
+            }
+
+            long rpcs = metrics.countOfRPCcalls.get();
+            long bytes = metrics.countOfBytesInResults.get();
+            long start = System.nanoTime();
+            Result result = scanner.next();
+            if (metrics.countOfRPCcalls.get() != rpcs) {
+                // This call waited for a page: every row before it came from the pages already counted
+                endPage(System.nanoTime() - start, bytes);
+            }
+            if (result != null) {
+                pageRows++;
+                last = result;
+            }
+            return result;
+        }
+
+        private void endPage(long nanos, long bytesBefore) {
+            rowsBeforePage += pageRows;
+            pageRows = 0;
+            pagesSinceReopen++;
+            double millis = nanos / 1e6;
+            pageMillis = pagesSinceReopen == 1 ? millis : 0.7 * pageMillis + 0.3 * millis;
+            if (rowsBeforePage == 0) {
+                return;
+            }
+            rowBytes = (double) (closedMetrics.countOfBytesInResults.get() + bytesBefore) / rowsBeforePage;
+            if (pagesSinceReopen < PAGES_BETWEEN_REOPENS) {
+                return;
+            }
+
+            long wanted = (long) (tuning.targetPageBytes / Math.max(1, rowBytes));
+            if (pageMillis > tuning.targetPageMillis) {
+                wanted = Math.min(wanted, caching / 2);
+            }
+            int next = (int) Math.max(tuning.minCaching, Math.min(tuning.maxCaching, wanted));
+            pendingCaching = next >= 2 * caching || 2 * next <= caching ? next : 0;
+        }
+
+        // Rows the server puts in a page: the caching, unless the result size limit comes first.
+        // Short pages at the end of a region make a reopen come early and fetch some rows twice.
+        private int expectedPageRows() {
+            if (tuning.maxResultSize <= 0 || rowBytes <= 0) {
+                return caching;
+            }
+            return (int) Math.max(1, Math.min(caching, tuning.maxResultSize / rowBytes));
+        }
+
+        // Continue just after the last row returned, with the new caching
+        private void reopen() throws IOException {
+            Scan scan = new Scan(template);
+            scan.withStartRow(Bytes.add(last.getRow(), ZERO));
+            scan.setCaching(pendingCaching);
+            scan.setScanMetricsEnabled(true);
+            close();
+            caching = pendingCaching;
+            pendingCaching = 0;
+            pagesSinceReopen = 0;
+            reopens++;
+            open(scan);
+        }
+
+        @Override
+        public Result[] next(int rows) throws IOException {
+            List<Result> results = new ArrayList<>(rows);
+            for (int i = 0; i < rows; i++) {
+                Result result = next();
+                if (result == null) {
+                    break;
+                }
+                results.add(result);
+            }
+            return results.toArray(new Result[results.size()]);
+        }
+
+        @Override
+        public void close() {
+            if (scanner == null) {
+                return;
+            }
+            scanner.close();
+            addTo(closedMetrics, metrics);
+            scanner = null;
+            metrics = null;
+        }
+
+        @Override
+        public boolean renewLease() {
+            return scanner != null && scanner.renewLease();
+        }
+
+        // Metrics of every scan opened so far; a reopen scans its region again, so it is not
+        // counted as a region
+        @Override
+        public ScanMetrics getScanMetrics() {
+            ScanMetrics total = new ScanMetrics();
+            addTo(total, closedMetrics);
+            addTo(total, metrics);
+            total.countOfRegions.addAndGet(-reopens);
+            return total;
+        }
+
+        // RPCs of every scan opened so far, cheap enough to read per row
+        public long getRpcCount() {
+            long rpcs = closedMetrics.countOfRPCcalls.get();
+            return metrics != null ? rpcs + metrics.countOfRPCcalls.get() : rpcs;
+        }
+
+        public int getCaching() {
+            return caching;
+        }
+
+        public int getReopens() {
+            return reopens;
+        }
+
+        @Override
+        public Iterator<Result> iterator() {
+            return new Iterator<Result>() {
+                private Result next = null;
+
+                @Override
+                public boolean hasNext() {
+                    if (next == null) {
+                        try {
+                            next = TunedScanner.this.next();
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                    return next != null;
+                }
+
+                @Override
+                public Result next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    Result result = next;
+                    next = null;
+                    return result;
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+}
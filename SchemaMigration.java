@@ -0,0 +1,107 @@
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Admin;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+
+// Rewrites a table loaded in the old all-string layout into the typed layout of TweetSchema.
+// Every version of every typed column is re-encoded in place with its original timestamp, so
+// the version history of the user columns is preserved. Readers accept both layouts, so the
+// migration runs online and can be restarted; once it completes the table is marked typed.
+public class SchemaMigration {
+
+    public static String Table_Name = "CovidData";
+
+    private static final TweetColumn[] TYPED_COLUMNS = {
+            TweetColumn.USER_VERIFIED,
+            TweetColumn.USER_CREATED,
+            TweetColumn.IS_RETWEET,
+            TweetColumn.USER_FOLLOWERS,
+            TweetColumn.USER_FRIENDS,
+            TweetColumn.USER_FAVOURITES,
+            TweetColumn.DATE,
+    };
+
+    public static void main(String[] args) throws IOException {
+        Configuration conf = HBaseConfiguration.create();
+        String tableName = args.length > 0 ? args[0] : Table_Name;
+        migrate(conf, tableName);
+    }
+
+    public static void migrate(Configuration conf, String tableName) throws IOException {
+        long rowsScanned = 0, cellsRewritten = 0, cellsUnparseable = 0;
+
+        try (Connection connection = ConnectionFactory.createConnection(conf);
+             Table table = connection.getTable(TableName.valueOf(tableName));
+             BufferedIngest ingest = new BufferedIngest(connection, tableName, conf)) {
+
+            // The families of the table's layout, and those of the next one while FamilyMigration
+            // copies the table over
+            TweetLayout layout = TweetLayout.forTable(table.getTableDescriptor());
+            Scan scan = new Scan();
+            for (TweetColumn column : TYPED_COLUMNS) {
+                scan.addColumn(layout.family(column), column.qualifier());
+                if (layout.isMigrating()) {
+                    scan.addColumn(layout.getNext().family(column), column.qualifier());
+                }
+            }
+            scan.setMaxVersions();  // Re-encode every stored version, not just the latest
+            ScanTuning tuning = ScanTuning.fromConf(conf);
+            tuning.apply(scan);
+            try (ResultScanner scanner = tuning.open(table, scan)) {
+                for (Result result : scanner) {
+                    rowsScanned++;
+                    Put put = null;
+                    for (Cell cell : result.rawCells()) {
+                        byte[] qualifier = CellUtil.cloneQualifier(cell);
+                        byte[] value = CellUtil.cloneValue(cell);
+                        if (!TweetSchema.isStringEncoded(qualifier, value)) {
+                            continue;  // Already typed
+                        }
+                        byte[] typed = TweetSchema.reencode(qualifier, value);
+                        if (typed == null) {
+                            cellsUnparseable++;  // Left as is; readers treat it like a missing value
+                            continue;
+                        }
+                        if (put == null) {
+                            put = new Put(result.getRow());
+                        }
+                        // Same timestamp, so the typed value replaces the string version instead of adding one
+                        put.addColumn(CellUtil.cloneFamily(cell), qualifier, cell.getTimestamp(), typed);
+                        cellsRewritten++;
+                    }
+                    if (put != null) {
+                        ingest.add(put);
+                    }
+                }
+            }
+            ingest.flush();
+
+            if (ingest.getRowsFailed() > 0) {
+                System.out.println(ingest.getRowsFailed() + " rows failed to migrate; run the migration again.");
+                return;
+            }
+
+            // Mark the table so server-side filters on typed values can be used against it
+            try (Admin admin = connection.getAdmin()) {
+                HTableDescriptor descriptor = admin.getTableDescriptor(TableName.valueOf(tableName));
+                descriptor.setValue(TweetSchema.ENCODING_KEY, TweetSchema.TYPED_ENCODING);
+                admin.modifyTable(TableName.valueOf(tableName), descriptor);
+            }
+        }
+
+        System.out.println("Rows scanned: " + rowsScanned + ", cells re-encoded: " + cellsRewritten
+                + ", unparseable cells left as strings: " + cellsUnparseable);
+    }
+}
@@ -0,0 +1,187 @@
+import java.io.IOException;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.io.compress.Compression;
+import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
+import org.apache.hadoop.hbase.regionserver.BloomType;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.CompressionTest;
+
+// Column family layout and settings of new CovidData tables, from a profile in the configuration.
+//
+// Layouts (schema.layout):
+//   hotcold (default): the columns the analytics reports read (Member1, Member2, Member3 and
+//       AccountDuration as AnalyticsRun registers them) in Hot, the rest in Cold, so a report
+//       scan only reads the blocks of one family. schema.hot.columns lists other hot columns.
+//   classic: Users, Tweets and Extra, as tables were created before
+//
+// Profiles (schema.profile), per role of a family; a family is hot if it holds a hot column:
+//   scan (default): FAST_DIFF encoding and row blooms for both. Hot is left uncompressed in 64 KB
+//       blocks, as every analytics scan decodes it; cold is GZ-compressed in 128 KB blocks, as it
+//       is read by row lookups only and is mostly free text.
+//   compact: FAST_DIFF, GZ and 128 KB blocks for both, for tables that are mostly stored
+//   plain: the HBase defaults (no encoding, no compression, 64 KB blocks, row blooms)
+// Every value is settable on its own with -D: schema.<hot|cold>.compression (none, gz, ...),
+// .encoding (none, prefix, diff, fast_diff), .block.size and .bloom (none, row, rowcol).
+//
+// GZ is the only codec with a pure-Java fallback in Hadoop; LZ4 and Snappy need the native
+// libraries on every region server. The codecs are checked before a table is created or changed.
+// FAST_DIFF suits the keys of this table well: every cell of a row repeats the row key and family,
+// and the qualifiers of a family share prefixes. Row blooms are the 1.x default and let a Get
+// skip the store files that do not hold its row; they are set here so the profile says so.
+public class SchemaProfile {
+
+    // Configuration keys, settable with -D on the command line
+    public static final String LAYOUT_KEY = "schema.layout";
+    public static final String PROFILE_KEY = "schema.profile";
+    public static final String HOT_COLUMNS_KEY = "schema.hot.columns";
+
+    public static final String HOT_COLD = "hotcold";
+    public static final String CLASSIC = "classic";
+
+    public static final String SCAN = "scan";
+    public static final String COMPACT = "compact";
+    public static final String PLAIN = "plain";
+
+    // Versions kept of the classic Users columns, for Versioning
+    static final int USER_VERSIONS = 4;
+
+    private final String profile;
+    private final Set<TweetColumn> hotColumns;
+    private final Role hot;
+    private final Role cold;
+
+    private SchemaProfile(Configuration conf) {
+        profile = conf.get(PROFILE_KEY, SCAN);
+        if (!SCAN.equals(profile) && !COMPACT.equals(profile) && !PLAIN.equals(profile)) {
+            throw new IllegalArgumentException("Unknown schema profile " + profile + " (expected "
+                    + SCAN + ", " + COMPACT + " or " + PLAIN + ")");
+        }
+        boolean plain = PLAIN.equals(profile);
+        boolean compact = COMPACT.equals(profile);
+        hotColumns = hotColumns(conf);
+        hot = new Role(conf, "hot", compact ? Compression.Algorithm.GZ : Compression.Algorithm.NONE,
+                plain ? DataBlockEncoding.NONE : DataBlockEncoding.FAST_DIFF,
+                compact ? 128 << 10 : 64 << 10);
+        cold = new Role(conf, "cold", plain ? Compression.Algorithm.NONE : Compression.Algorithm.GZ,
+                plain ? DataBlockEncoding.NONE : DataBlockEncoding.FAST_DIFF,
+                plain ? 64 << 10 : 128 << 10);
+    }
+
+    public static SchemaProfile fromConf(Configuration conf) {
+        return new SchemaProfile(conf);
+    }
+
+    // Layout of a new table; new tables are always typed
+    public static TweetLayout newLayout(Configuration conf) {
+        String layout = conf.get(LAYOUT_KEY, HOT_COLD);
+        if (HOT_COLD.equals(layout)) {
+            return TweetLayout.hotCold(hotColumns(conf), true);
+        }
+        if (CLASSIC.equals(layout)) {
+            return TweetLayout.classic(true);
+        }
+        throw new IllegalArgumentException("Unknown family layout " + layout + " (expected "
+                + HOT_COLD + " or " + CLASSIC + ")");
+    }
+
+    // Columns read by the analytics reports, selected or filtered on, plus any configured ones
+    public static Set<TweetColumn> hotColumns(Configuration conf) {
+        Set<TweetColumn> hot = EnumSet.noneOf(TweetColumn.class);
+        hot.addAll(AnalyticsRun.executor(conf).unionQuery().getColumns());
+        for (String qualifier : conf.getTrimmedStrings(HOT_COLUMNS_KEY)) {
+            hot.add(TweetColumn.forQualifier(qualifier));
+        }
+        return hot;
+    }
+
+    // Settings of one family of a layout
+    public HColumnDescriptor describe(byte[] family, TweetLayout layout) {
+        Collection<TweetColumn> columns = layout.columnsOf(family);
+        HColumnDescriptor descriptor = new HColumnDescriptor(family);
+        roleOf(columns).applyTo(descriptor);
+        TweetLayout classic = TweetLayout.classic(true);
+        for (TweetColumn column : columns) {
+            if (Bytes.equals(classic.family(column), TweetSchema.USERS)) {
+                descriptor.setMaxVersions(USER_VERSIONS);
+                break;
+            }
+        }
+        return descriptor;
+    }
+
+    // Apply the settings of the profile to an existing family, leaving its versions alone
+    public void applyTo(HColumnDescriptor descriptor, TweetLayout layout) {
+        roleOf(layout.columnsOf(descriptor.getName())).applyTo(descriptor);
+    }
+
+    // Fail with the reason if a codec of the profile cannot be used from this JVM
+    public void checkCodecs() throws IOException {
+        for (Role role : new Role[] {hot, cold}) {
+            try {
+                CompressionTest.testCompression(role.compression);
+            } catch (IOException | RuntimeException e) {
+                throw new IOException("Codec " + role.compression.getName() + " of the " + role.name
+                        + " families is not available (" + e.getMessage() + "); set " + role.key("compression")
+                        + "=gz, which has a pure-Java fallback, or none", e);
+            }
+        }
+    }
+
+    private Role roleOf(Collection<TweetColumn> columns) {
+        for (TweetColumn column : columns) {
+            if (hotColumns.contains(column)) {
+                return hot;
+            }
+        }
+        return cold;
+    }
+
+    @Override
+    public String toString() {
+        return "schema profile " + profile + " (hot " + hot + ", cold " + cold + ")";
+    }
+
+    // Settings of the hot or the cold families
+    private static class Role {
+        private final String name;
+        private final Compression.Algorithm compression;
+        private final DataBlockEncoding encoding;
+        private final int blockSize;
+        private final BloomType bloom;
+
+        Role(Configuration conf, String name, Compression.Algorithm compression, DataBlockEncoding encoding,
+             int blockSize) {
+            this.name = name;
+            String codec = conf.get(key("compression"));
+            this.compression = codec == null ? compression
+                    : Compression.getCompressionAlgorithmByName(codec.toLowerCase(Locale.ROOT));
+            String blockEncoding = conf.get(key("encoding"));
+            this.encoding = blockEncoding == null ? encoding
+                    : DataBlockEncoding.valueOf(blockEncoding.toUpperCase(Locale.ROOT));
+            this.blockSize = conf.getInt(key("block.size"), blockSize);
+            this.bloom = BloomType.valueOf(conf.get(key("bloom"), BloomType.ROW.name()).toUpperCase(Locale.ROOT));
+        }
+
+        String key(String setting) {
+            return "schema." + name + "." + setting;
+        }
+
+        void applyTo(HColumnDescriptor descriptor) {
+            descriptor.setCompressionType(compression);
+            descriptor.setDataBlockEncoding(encoding);
+            descriptor.setBlocksize(blockSize);
+            descriptor.setBloomFilterType(bloom);
+        }
+
+        @Override
+        public String toString() {
+            return compression.getName() + ", " + encoding + ", " + (blockSize >> 10) + " KB blocks, " + bloom + " bloom";
+        }
+    }
+}
@@ -0,0 +1,485 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Admin;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.filter.KeyOnlyFilter;
+import org.apache.hadoop.hbase.util.Bytes;
+
+// Secondary indexes on user_location, user_verified and source, kept in the table
+// <data table>_index. Every entry is an empty cell under the row key
+//
+//     <index id> 0x00 <normalized value> 0x00 <data row key>
+//
+// so all rows with a given value are one short range scan, and the data rows are then fetched
+// with batched Gets. Normalized values never contain 0x00, so the data row key is everything
+// after the second separator whatever bytes it holds.
+//
+// InsertData writes the entries next to the data rows. Nothing removes an entry when a row is
+// rewritten with a different value (e.g. a new user_verified version in the Users family), so
+// lookups re-check the value on the fetched row and drop entries that no longer match, deleting
+// them on the way unless index.repair.on.read is off. Entries are written apart from their data
+// rows and can land first, so an entry whose row is missing, or lacks the indexed column, is
+// only deleted once it is older than index.repair.grace.ms; until then the lookup just skips it.
+// The rebuild command writes entries for every existing row and sweeps out stale ones.
+//
+// Only writes that go through SecondaryIndex.Writer (or InsertData's async path, which writes
+// entriesFor(put) beside each row) add entries. A new user_location, user_verified or source
+// value put any other way - an AsyncClient or Table put, a Users-family rewrite - is not found
+// by lookups until the next rebuild; such callers should write entriesFor(put) to the index
+// table themselves. The same holds for TermIndex and its entriesFor.
+//
+// Usage: SecondaryIndex rebuild
+//        SecondaryIndex lookup location=<value> [verified=true|false] [source=<value>]
+public class SecondaryIndex {
+
+    public static String Table_Name = "CovidData";
+
+    // Configuration keys, settable with -D on the command line
+    public static final String ENABLED_KEY = "insert.index";
+    public static final String GET_BATCH_KEY = "index.get.batch";
+    public static final String REPAIR_ON_READ_KEY = "index.repair.on.read";
+    public static final String REPAIR_GRACE_KEY = "index.repair.grace.ms";
+
+    public static final byte[] FAMILY = Bytes.toBytes("i");
+    private static final byte[] QUALIFIER = new byte[0];
+    private static final byte SEPARATOR = 0;
+
+    // The indexed columns; low-cardinality indexes are never used to drive a lookup when a
+    // more selective condition is available
+    public enum Index {
+        LOCATION("loc", TweetColumn.USER_LOCATION, false),
+        VERIFIED("ver", TweetColumn.USER_VERIFIED, true),
+        SOURCE("src", TweetColumn.SOURCE, false);
+
+        final byte[] id;
+        final TweetColumn column;
+        final boolean lowCardinality;
+
+        Index(String id, TweetColumn column, boolean lowCardinality) {
+            this.id = Bytes.toBytes(id);
+            this.column = column;
+            this.lowCardinality = lowCardinality;
+        }
+
+        // Normalized form of a stored value, or null if the row is not indexed under this column
+        String normalize(byte[] stored) {
+            if (stored == null) {
+                return null;
+            }
+            if (this == VERIFIED) {
+                return String.valueOf(TweetSchema.decodeBoolean(stored));
+            }
+            return normalizeText(Bytes.toString(stored));
+        }
+
+        // Normalized form of a value given in a lookup
+        String normalizeQuery(String value) {
+            if (this == VERIFIED) {
+                return String.valueOf("true".equalsIgnoreCase(value.trim()));
+            }
+            return normalizeText(value);
+        }
+    }
+
+    private final Connection connection;
+    private final TableName dataTable;
+    private final TableName indexTable;
+    private final int getBatch;
+    private final boolean repairOnRead;
+    private final long repairGraceMs;
+
+    public SecondaryIndex(Connection connection, String dataTable, Configuration conf) {
+        this.connection = connection;
+        this.dataTable = TableName.valueOf(dataTable);
+        this.indexTable = TableName.valueOf(indexTableName(dataTable));
+        this.getBatch = Math.max(1, conf.getInt(GET_BATCH_KEY, 500));
+        this.repairOnRead = conf.getBoolean(REPAIR_ON_READ_KEY, true);
+        this.repairGraceMs = conf.getLong(REPAIR_GRACE_KEY, 60000);
+    }
+
+    public static void main(String[] args) throws IOException {
+        Configuration conf = HBaseConfiguration.create();
+        if (args.length > 0 && args[0].equals("rebuild")) {
+            rebuild(conf, Table_Name);
+            return;
+        }
+        if (args.length < 2 || !args[0].equals("lookup")) {
+            System.err.println("Usage: SecondaryIndex rebuild | lookup <location|verified|source>=<value>...");
+            return;
+        }
+
+        Map<Index, String> conditions = new LinkedHashMap<>();
+        for (int i = 1; i < args.length; i++) {
+            int eq = args[i].indexOf('=');
+            conditions.put(Index.valueOf(args[i].substring(0, eq).toUpperCase(Locale.ROOT)), args[i].substring(eq + 1));
+        }
+        try (Connection connection = ConnectionFactory.createConnection(conf)) {
+            long start = System.currentTimeMillis();
+            List<Result> rows = new SecondaryIndex(connection, Table_Name, conf)
+                    .lookup(conditions, TweetColumn.USER_NAME, TweetColumn.TEXT);
+            long elapsed = System.currentTimeMillis() - start;
+            TweetLayout layout;
+            try (Table data = connection.getTable(TableName.valueOf(Table_Name))) {
+                layout = TweetLayout.forTable(data.getTableDescriptor());
+            }
+            for (Result row : rows) {
+                System.out.println(layout.getString(row, TweetColumn.USER_NAME) + ": "
+                        + layout.getString(row, TweetColumn.TEXT));
+            }
+            System.out.println(rows.size() + " rows in " + elapsed + " ms");
+        }
+    }
+
+    public static String indexTableName(String dataTable) {
+        return dataTable + "_index";
+    }
+
+    // Create the index table next to the data table unless it exists
+    public static void createTable(Admin admin, String dataTable) throws IOException {
+        TableName name = TableName.valueOf(indexTableName(dataTable));
+        if (admin.tableExists(name)) {
+            return;
+        }
+        HTableDescriptor descriptor = new HTableDescriptor(name);
+        descriptor.addFamily(new HColumnDescriptor(FAMILY));
+        // One region per index to start with; the location index splits further as it grows
+        admin.createTable(descriptor, new byte[][] {Index.SOURCE.id, Index.VERIFIED.id});
+        System.out.println("Index table " + name + " created.");
+    }
+
+    // Lower-case, trimmed, inner whitespace collapsed; null for empty values, which are not indexed
+    static String normalizeText(String value) {
+        if (value == null) {
+            return null;
+        }
+        String normalized = value.replace('\0', ' ').trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+        return normalized.isEmpty() ? null : normalized;
+    }
+
+    // Entry keys are shared with TermIndex: <id> 0x00 <value> 0x00 <data row key>
+    static byte[] prefix(byte[] id, String normalized) {
+        return Bytes.add(id, new byte[] {SEPARATOR}, Bytes.add(Bytes.toBytes(normalized), new byte[] {SEPARATOR}));
+    }
+
+    static byte[] entryKey(byte[] id, String normalized, byte[] row) {
+        return Bytes.add(prefix(id, normalized), row);
+    }
+
+    // The empty cell making up one index entry
+    static Put entry(byte[] id, String normalized, byte[] row) {
+        Put entry = new Put(entryKey(id, normalized, row));
+        entry.addColumn(FAMILY, QUALIFIER, new byte[0]);
+        return entry;
+    }
+
+    // Data row key of an index entry
+    static byte[] rowOf(byte[] entryKey) {
+        return Arrays.copyOfRange(entryKey, valueEnd(entryKey) + 1, entryKey.length);
+    }
+
+    // Normalized value of an index entry
+    static String valueOf(byte[] entryKey) {
+        int first = Bytes.indexOf(entryKey, SEPARATOR);
+        return Bytes.toString(entryKey, first + 1, valueEnd(entryKey) - first - 1);
+    }
+
+    // Position of the separator after the value
+    private static int valueEnd(byte[] entryKey) {
+        int end = Bytes.indexOf(entryKey, SEPARATOR) + 1;
+        while (entryKey[end] != SEPARATOR) {
+            end++;
+        }
+        return end;
+    }
+
+    // Index entries for the values a data Put writes, whatever the families it writes them to
+    public static List<Put> entriesFor(Put dataPut) {
+        List<Put> entries = new ArrayList<>(Index.values().length);
+        for (Index index : Index.values()) {
+            addEntry(entries, index, TweetLayout.valueOf(dataPut, index.column), dataPut.getRow());
+        }
+        return entries;
+    }
+
+    // Index entries for the current values of a stored row
+    static List<Put> entriesFor(Result row, TweetLayout layout) {
+        List<Put> entries = new ArrayList<>(Index.values().length);
+        for (Index index : Index.values()) {
+            addEntry(entries, index, layout.getValue(row, index.column), row.getRow());
+        }
+        return entries;
+    }
+
+    private static void addEntry(List<Put> entries, Index index, byte[] value, byte[] row) {
+        String normalized = index.normalize(value);
+        if (normalized != null) {
+            entries.add(entry(index.id, normalized, row));
+        }
+    }
+
+    // Rows matching every condition, with the given columns (plus the indexed ones) fetched.
+    // One condition drives the lookup with a range scan of the index; the others, and the
+    // driving one itself, are checked on the fetched rows.
+    public List<Result> lookup(Map<Index, String> conditions, TweetColumn... columns) throws IOException {
+        if (conditions.isEmpty()) {
+            throw new IllegalArgumentException("A lookup needs at least one condition");
+        }
+        Map<Index, String> normalized = new LinkedHashMap<>();
+        Index driver = null;
+        for (Map.Entry<Index, String> condition : conditions.entrySet()) {
+            String value = condition.getKey().normalizeQuery(condition.getValue());
+            if (value == null) {
+                return new ArrayList<>();  // Empty values are not indexed
+            }
+            normalized.put(condition.getKey(), value);
+            if (driver == null || (driver.lowCardinality && !condition.getKey().lowCardinality)) {
+                driver = condition.getKey();
+            }
+        }
+
+        Set<TweetColumn> fetched = new LinkedHashSet<>(Arrays.asList(columns));
+        for (Index index : normalized.keySet()) {
+            fetched.add(index.column);
+        }
+
+        List<Result> matches = new ArrayList<>();
+        long cutoff = System.currentTimeMillis() - repairGraceMs;
+        try (Table index = connection.getTable(indexTable);
+             Table data = connection.getTable(dataTable);
+             ResultScanner entries = openEntries(index, driver.id, normalized.get(driver), getBatch)) {
+
+            // Entries stream off the scan a batch at a time, so only one batch of row keys is held
+            TweetLayout layout = TweetLayout.forTable(data.getTableDescriptor());
+            Result[] batch;
+            while ((batch = entries.next(getBatch)).length > 0) {
+                List<Get> gets = new ArrayList<>(batch.length);
+                for (Result entry : batch) {
+                    Get get = new Get(rowOf(entry.getRow()));
+                    for (TweetColumn column : fetched) {
+                        get.addColumn(layout.family(column), column.qualifier());
+                    }
+                    gets.add(get);
+                }
+
+                Result[] results = data.get(gets);
+                List<Delete> stale = new ArrayList<>();
+                for (int i = 0; i < results.length; i++) {
+                    Result result = results[i];
+                    String value = driver.normalize(layout.getValue(result, driver.column));
+                    if (!normalized.get(driver).equals(value)) {
+                        // A row rewritten with another value since the entry was written is stale
+                        // at once; a row deleted, or whose Put is not written yet, only once the
+                        // entry is older than the grace period
+                        if (value != null || batch[i].rawCells()[0].getTimestamp() < cutoff) {
+                            stale.add(new Delete(batch[i].getRow()));
+                        }
+                        continue;
+                    }
+                    if (matchesAll(result, normalized, layout)) {
+                        matches.add(result);
+                    }
+                }
+                if (repairOnRead && !stale.isEmpty()) {
+                    index.delete(stale);
+                }
+            }
+        }
+        return matches;
+    }
+
+    // Scan over the entries with the given value, in data row key order. The entries come back
+    // with their timestamps but without their (empty) values.
+    static ResultScanner openEntries(Table index, byte[] id, String value, int caching) throws IOException {
+        byte[] start = prefix(id, value);
+        byte[] stop = Arrays.copyOf(start, start.length);
+        stop[stop.length - 1]++;  // Just past <id> 0x00 <value> 0x00
+
+        Scan scan = new Scan().withStartRow(start).withStopRow(stop);
+        scan.addFamily(FAMILY);
+        scan.setFilter(new KeyOnlyFilter());
+        scan.setCaching(caching);
+        return index.getScanner(scan);
+    }
+
+    private static boolean matchesAll(Result result, Map<Index, String> normalized, TweetLayout layout) {
+        for (Map.Entry<Index, String> condition : normalized.entrySet()) {
+            Index index = condition.getKey();
+            if (!condition.getValue().equals(index.normalize(layout.getValue(result, index.column)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Write entries for every row of the data table, then delete entries whose row no longer
+    // has the indexed value
+    public static void rebuild(Configuration conf, String dataTable) throws IOException {
+        long rows = 0, entries = 0, checked = 0, removed = 0;
+        long start = System.currentTimeMillis();
+
+        try (Connection connection = ConnectionFactory.createConnection(conf)) {
+            try (Admin admin = connection.getAdmin()) {
+                createTable(admin, dataTable);
+            }
+
+            TweetLayout layout;
+            try (Table data = connection.getTable(TableName.valueOf(dataTable))) {
+                layout = TweetLayout.forTable(data.getTableDescriptor());
+            }
+            Scan scan = new Scan();
+            for (Index index : Index.values()) {
+                scan.addColumn(layout.family(index.column), index.column.qualifier());
+            }
+            ScanTuning tuning = ScanTuning.fromConf(conf);
+            tuning.apply(scan);
+
+            try (Table data = connection.getTable(TableName.valueOf(dataTable));
+                 BufferedIngest ingest = new BufferedIngest(connection, indexTableName(dataTable), conf);
+                 ResultScanner scanner = tuning.open(data, scan)) {
+                for (Result row : scanner) {
+                    List<Put> rowEntries = entriesFor(row, layout);
+                    ingest.addAll(rowEntries);
+                    entries += rowEntries.size();
+                    rows++;
+                }
+                ingest.flush();
+            }
+
+            // Sweep: check every entry against its row in batches
+            long[] swept = IndexSweep.run(connection, TableName.valueOf(indexTableName(dataTable)),
+                    TableName.valueOf(dataTable), layout, Math.max(1, conf.getInt(GET_BATCH_KEY, 500)),
+                    conf.getLong(REPAIR_GRACE_KEY, 60000), new IndexSweep.Check() {
+                        @Override
+                        public TweetColumn columnOf(byte[] entryKey) {
+                            return indexOf(entryKey).column;
+                        }
+
+                        @Override
+                        public boolean holds(byte[] entryKey, byte[] value) {
+                            return valueOf(entryKey).equals(indexOf(entryKey).normalize(value));
+                        }
+                    });
+            checked = swept[0];
+            removed = swept[1];
+        }
+
+        System.out.println("Indexed " + rows + " rows (" + entries + " entries), checked " + checked
+                + " entries, removed " + removed + " stale ones in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    private static Index indexOf(byte[] entryKey) {
+        for (Index index : Index.values()) {
+            if (Bytes.startsWith(entryKey, index.id) && entryKey[index.id.length] == SEPARATOR) {
+                return index;
+            }
+        }
+        throw new IllegalArgumentException("Not an index entry: " + Bytes.toStringBinary(entryKey));
+    }
+
+    // Writes the index entries of data Puts through a BufferedIngest on the index table, and their
+    // hashtag and text terms through another one on the term table (see TermIndex). Either part
+    // is skipped when turned off with insert.index=false or insert.terms=false.
+    public static class Writer implements Closeable {
+        private final BufferedIngest ingest;
+        private final BufferedIngest terms;
+
+        private Writer(BufferedIngest ingest, BufferedIngest terms) {
+            this.ingest = ingest;
+            this.terms = terms;
+        }
+
+        public static Writer open(Connection connection, String dataTable, Configuration conf) throws IOException {
+            BufferedIngest ingest = conf.getBoolean(ENABLED_KEY, true)
+                    ? new BufferedIngest(connection, indexTableName(dataTable), conf) : null;
+            BufferedIngest terms = conf.getBoolean(TermIndex.ENABLED_KEY, true)
+                    ? new BufferedIngest(connection, TermIndex.termTableName(dataTable), conf) : null;
+            return new Writer(ingest, terms);
+        }
+
+        public void add(Put dataPut) throws IOException {
+            if (ingest != null) {
+                ingest.addAll(entriesFor(dataPut));
+            }
+            if (terms != null) {
+                terms.addAll(TermIndex.entriesFor(dataPut));
+            }
+        }
+
+        public void addAll(List<Put> dataPuts) throws IOException {
+            if (ingest != null) {
+                List<Put> entries = new ArrayList<>(dataPuts.size() * Index.values().length);
+                for (Put dataPut : dataPuts) {
+                    entries.addAll(entriesFor(dataPut));
+                }
+                ingest.addAll(entries);
+            }
+            if (terms != null) {
+                List<Put> entries = new ArrayList<>();
+                for (Put dataPut : dataPuts) {
+                    entries.addAll(TermIndex.entriesFor(dataPut));
+                }
+                terms.addAll(entries);
+            }
+        }
+
+        public void flush() throws IOException {
+            if (ingest != null) {
+                ingest.flush();
+            }
+            if (terms != null) {
+                terms.flush();
+            }
+        }
+
+        // Entries of both tables that failed to write
+        public long getRowsFailed() {
+            return (ingest == null ? 0 : ingest.getRowsFailed()) + (terms == null ? 0 : terms.getRowsFailed());
+        }
+
+        public void printReport() {
+            if (ingest != null) {
+                System.out.print("Index entries: ");
+                ingest.printReport();
+            }
+            if (terms != null) {
+                System.out.print("Term entries: ");
+                terms.printReport();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (ingest != null) {
+                    ingest.close();
+                }
+            } finally {
+                if (terms != null) {
+                    terms.close();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+import org.apache.hadoop.conf.Configuration;
+
+// Settings of the approximate analytics mode, where the reports that grow with the number of
+// distinct locations or users are computed in fixed memory instead:
+//
+//  - HyperLogLog for distinct counts. With 2^p registers of one byte the standard error is
+//    1.04 / sqrt(2^p); sketch.hll.error picks the smallest p that reaches it (default 1%, p = 14,
+//    16KB per sketch). About 95% of estimates fall within twice the standard error.
+//  - Count-Min sketch for frequencies, ceil(e / epsilon) x ceil(ln(1 / delta)) longs. A count is
+//    never underestimated and is overestimated by more than epsilon * (total count) only with
+//    probability delta (defaults 0.001 and 0.01: 2719 x 5 counters, 106KB).
+//  - Top-K: the sketch plus the K keys with the highest estimates (sketch.top.k, default 100).
+//
+// All of them merge, so every region scan fills its own and the ParallelScanner combines them.
+// Turn the mode on with analytics.approximate=true or --approximate on the report command lines.
+public class Sketches {
+
+    public static final String APPROXIMATE_KEY = "analytics.approximate";
+    public static final String HLL_ERROR_KEY = "sketch.hll.error";
+    public static final String CMS_EPSILON_KEY = "sketch.cms.epsilon";
+    public static final String CMS_DELTA_KEY = "sketch.cms.delta";
+    public static final String TOP_K_KEY = "sketch.top.k";
+
+    public static boolean isApproximate(Configuration conf) {
+        return conf.getBoolean(APPROXIMATE_KEY, false);
+    }
+
+    // Turn on the approximate mode if the command line asks for it
+    public static void parseArgs(Configuration conf, String[] args) {
+        for (String arg : args) {
+            if (arg.equals("--approximate")) {
+                conf.setBoolean(APPROXIMATE_KEY, true);
+            }
+        }
+    }
+
+    public static HyperLogLog hyperLogLog(Configuration conf) {
+        return new HyperLogLog(HyperLogLog.precisionFor(conf.getDouble(HLL_ERROR_KEY, 0.01)));
+    }
+
+    public static int topK(Configuration conf) {
+        return Math.max(1, conf.getInt(TOP_K_KEY, 100));
+    }
+
+    public static TopK topKSketch(Configuration conf) {
+        return new TopK(topK(conf), new CountMinSketch(conf.getDouble(CMS_EPSILON_KEY, 0.001),
+                conf.getDouble(CMS_DELTA_KEY, 0.01)));
+    }
+
+    // 64-bit hash of a byte string: FNV-1a, then the MurmurHash3 finalizer so every bit of the
+    // result depends on every input byte
+    static long hash64(byte[] data) {
+        return hash64(data, 0, data.length);
+    }
+
+    static long hash64(byte[] data, int offset, int length) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = offset; i < offset + length; i++) {
+            hash ^= data[i] & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
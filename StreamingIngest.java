@@ -0,0 +1,483 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.Put;
+
+// Long-running ingest of CSV data that keeps arriving: every *.csv file in a directory, a single
+// growing file, or stdin ("-"). Files are polled for appended bytes; only complete records (up
+// to a newline outside quotes) are taken, so a record that is still being written waits for the
+// next poll.
+//
+// Records are written in micro-batches, closed after stream.batch.rows records or once the oldest
+// record has waited stream.batch.ms. A batch is flushed to the data table and its index and rollup
+// writers, and only then are the file offsets after its last record saved to the offsets file.
+// After a crash the uncommitted batch is read again. Row keys come from the record, so replayed
+// rows overwrite themselves instead of appearing twice; the rollup counters, which are
+// Increments, can count them twice (see Rollups reconcile). Stdin cannot be read again, so it
+// has no offsets.
+//
+// Lag is measured from the poll that read a record to the commit of its batch, and the backlog
+// is the bytes of the files not read yet.
+//
+// Usage: InsertData [-D<key>=<value>...] stream <directory | file | ->
+public class StreamingIngest {
+
+    // Configuration keys, settable with -D on the InsertData command line
+    public static final String BATCH_ROWS_KEY = "stream.batch.rows";
+    public static final String BATCH_MS_KEY = "stream.batch.ms";
+    public static final String POLL_MS_KEY = "stream.poll.ms";
+    public static final String OFFSETS_FILE_KEY = "stream.offsets.file";
+    public static final String IDLE_EXIT_MS_KEY = "stream.idle.exit.ms";
+
+    private final Configuration conf;
+    private final String tableName;
+    private final RowKeys rowKeys;
+    private final TweetLayout layout;
+    private final int batchRows;
+    private final long batchMs;
+    private final long pollMs;
+    private final long idleExitMs;
+    private final Path offsetsFile;
+    private final Properties offsets = new Properties();
+    private final Map<String, Tail> tails = new LinkedHashMap<>();
+    private volatile boolean running = true;
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    // Totals for the final report
+    private long batches = 0, recordsWritten = 0, recordsSkipped = 0, maxLagMs = 0, totalLagMs = 0;
+
+    public StreamingIngest(Configuration conf, String tableName, RowKeys rowKeys, TweetLayout layout) {
+        this.conf = conf;
+        this.tableName = tableName;
+        this.rowKeys = rowKeys;
+        this.layout = layout;
+        this.batchRows = Math.max(1, conf.getInt(BATCH_ROWS_KEY, 1000));
+        this.batchMs = Math.max(1, conf.getLong(BATCH_MS_KEY, 1000));
+        this.pollMs = Math.max(1, conf.getLong(POLL_MS_KEY, 200));
+        this.idleExitMs = conf.getLong(IDLE_EXIT_MS_KEY, 0);
+        this.offsetsFile = Paths.get(conf.get(OFFSETS_FILE_KEY, "stream.offsets"));
+    }
+
+    // Ask a running stream to commit its last batch and return, and wait for it up to the timeout,
+    // e.g. from a shutdown hook on Ctrl-C
+    public void stop(long timeoutMs) {
+        running = false;
+        try {
+            stopped.await(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Ingest until the input ends (stdin), the stream is idle for stream.idle.exit.ms or stop()
+    // is called. Returns the number of records written.
+    public long run(String source) throws IOException {
+        boolean stdin = source.equals("-");
+        if (!stdin && Files.exists(offsetsFile)) {
+            try (InputStream in = new FileInputStream(offsetsFile.toFile())) {
+                offsets.load(in);
+            }
+        }
+        if (stdin) {
+            tails.put(source, new StdinTail());
+        }
+        System.out.println("Streaming " + (stdin ? "stdin" : source) + " into " + tableName + ", batches of "
+                + batchRows + " rows or " + batchMs + " ms" + (stdin ? "" : ", offsets in " + offsetsFile));
+
+        List<Record> batch = new ArrayList<>();
+        long lastData = System.currentTimeMillis();
+        try (Connection connection = ConnectionFactory.createConnection(conf);
+             BufferedIngest ingest = new BufferedIngest(connection, tableName, conf);
+             SecondaryIndex.Writer index = SecondaryIndex.Writer.open(connection, tableName, conf);
+             Rollups.Writer rollups = Rollups.Writer.open(connection, tableName, conf)) {
+
+            boolean ended = false;
+            while (running && !ended) {
+                if (!stdin) {
+                    discover(new File(source));
+                }
+                long now = System.currentTimeMillis();
+                boolean readAny = false;
+                ended = stdin;
+                for (Tail tail : tails.values()) {
+                    List<Record> records = tail.poll(now);
+                    readAny |= !records.isEmpty();
+                    ended &= tail.ended;
+                    for (Record record : records) {
+                        batch.add(record);
+                        if (batch.size() >= batchRows) {
+                            commit(batch, ingest, index, rollups);
+                            batch.clear();
+                        }
+                    }
+                }
+
+                now = System.currentTimeMillis();
+                if (readAny) {
+                    lastData = now;
+                }
+                if (!batch.isEmpty() && now - batch.get(0).readAt >= batchMs) {
+                    commit(batch, ingest, index, rollups);
+                    batch.clear();
+                }
+                if (idleExitMs > 0 && now - lastData >= idleExitMs) {
+                    break;
+                }
+                if (!readAny && !ended) {
+                    sleep(batch.isEmpty() ? pollMs : Math.min(pollMs, batch.get(0).readAt + batchMs - now));
+                }
+            }
+
+            if (!batch.isEmpty()) {
+                commit(batch, ingest, index, rollups);
+            }
+            ingest.printReport();
+            index.printReport();
+            rollups.printReport();
+        } finally {
+            for (Tail tail : tails.values()) {
+                tail.close();
+            }
+            stopped.countDown();
+        }
+
+        System.out.println(String.format("Streamed %d records in %d batches, skipped %d, lag avg %.0f ms, max %d ms",
+                recordsWritten + recordsSkipped, batches, recordsSkipped,
+                recordsWritten + recordsSkipped > 0 ? (double) totalLagMs / (recordsWritten + recordsSkipped) : 0,
+                maxLagMs));
+        return recordsWritten;
+    }
+
+    // Start tailing the .csv files of a directory that are not followed yet, or the file itself
+    private void discover(File source) throws IOException {
+        File[] files = source.isDirectory() ? source.listFiles((dir, name) -> name.endsWith(".csv")) : new File[] {source};
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            String name = file.getAbsolutePath();
+            if (!tails.containsKey(name) && file.isFile()) {
+                tails.put(name, new FileTail(file, Long.parseLong(offsets.getProperty(name, "0"))));
+            }
+        }
+    }
+
+    // Write a batch, flush it, then save the offsets after its last record in every file
+    private void commit(List<Record> batch, BufferedIngest ingest, SecondaryIndex.Writer index,
+                        Rollups.Writer rollups) throws IOException {
+        long start = System.currentTimeMillis();
+        List<Put> puts = new ArrayList<>(batch.size());
+        for (Record record : batch) {
+            Put put = record.toPut(rowKeys, layout);
+            if (put != null) {
+                puts.add(put);
+            }
+        }
+
+        // A failed flush throws, but failed rows of a BufferedMutator are only counted, so all
+        // three are compared with what they had failed before the batch
+        long failedBefore = ingest.getRowsFailed();
+        long indexFailedBefore = index.getRowsFailed();
+        long rollupsFailedBefore = rollups.getRowsFailed();
+        ingest.addAll(puts);
+        index.addAll(puts);
+        rollups.addAll(puts);
+        ingest.flush();
+        index.flush();
+        rollups.flush();
+        long failed = ingest.getRowsFailed() - failedBefore;
+        long indexFailed = index.getRowsFailed() - indexFailedBefore;
+        long rollupsFailed = rollups.getRowsFailed() - rollupsFailedBefore;
+        if (failed > 0 || indexFailed > 0 || rollupsFailed > 0) {
+            // Leave the offsets where they are, so the batch is read again after a restart
+            throw new IOException("Batch failed to write " + failed + " rows, " + indexFailed + " index entries and "
+                    + rollupsFailed + " rows of counts, offsets not committed");
+        }
+
+        Map<Tail, Long> ends = new LinkedHashMap<>();
+        for (Record record : batch) {
+            ends.put(record.tail, record.end);
+        }
+        boolean saveOffsets = false;
+        for (Map.Entry<Tail, Long> end : ends.entrySet()) {
+            if (end.getKey() instanceof FileTail) {
+                offsets.setProperty(end.getKey().name, Long.toString(end.getValue()));
+                saveOffsets = true;
+            }
+        }
+        if (saveOffsets) {
+            saveOffsets();
+        }
+
+        long committed = System.currentTimeMillis();
+        long batchMaxLag = 0, batchTotalLag = 0;
+        for (Record record : batch) {
+            long lag = committed - record.readAt;
+            batchMaxLag = Math.max(batchMaxLag, lag);
+            batchTotalLag += lag;
+        }
+        long backlog = 0;
+        for (Tail tail : tails.values()) {
+            backlog += tail.backlog();
+        }
+        batches++;
+        recordsWritten += puts.size();
+        recordsSkipped += batch.size() - puts.size();
+        maxLagMs = Math.max(maxLagMs, batchMaxLag);
+        totalLagMs += batchTotalLag;
+        System.out.println(String.format("Batch %d: %d records, flushed in %d ms, lag avg %d ms, max %d ms, "
+                        + "backlog %d bytes", batches, batch.size(), committed - start,
+                batchTotalLag / batch.size(), batchMaxLag, backlog));
+    }
+
+    // Write the offsets next to the old file and move it over, so a crash never leaves half a file
+    private void saveOffsets() throws IOException {
+        Path temp = offsetsFile.resolveSibling(offsetsFile.getFileName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp.toFile())) {
+            offsets.store(out, "Committed read offsets of StreamingIngest");
+            out.getFD().sync();
+        }
+        Files.move(temp, offsetsFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(Math.max(1, millis));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // One complete CSV record and where it ends in its input
+    private static class Record {
+        final Tail tail;
+        final String text;
+        final long end;
+        final long readAt;
+
+        Record(Tail tail, String text, long end, long readAt) {
+            this.tail = tail;
+            this.text = text;
+            this.end = end;
+            this.readAt = readAt;
+        }
+
+        Put toPut(RowKeys rowKeys, TweetLayout layout) throws IOException {
+            try (CSVParser parser = CSVParser.parse(text, CSVFormat.DEFAULT.withHeader(tail.header).withTrim())) {
+                for (CSVRecord csvRecord : parser) {
+                    return InsertData.buildPut(csvRecord, rowKeys, layout);
+                }
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                System.err.println("Skipping malformed record in " + tail.name + " before offset " + end + ": " + e);
+                InsertData.SKIPPED_ROWS.inc();
+            }
+            return null;
+        }
+    }
+
+    // An input that grows at the end. Bytes are cut into records on newlines outside quotes; the
+    // first record is the header.
+    private abstract static class Tail {
+        final String name;
+        String[] header;
+        long offset;  // Input position after the last complete record
+        boolean ended = false;
+
+        private final ByteArrayOutputStream partial = new ByteArrayOutputStream();
+        private boolean inQuotes = false;
+
+        Tail(String name, long offset) {
+            this.name = name;
+            this.offset = offset;
+        }
+
+        // Bytes appended since the last call, empty if there are none yet
+        abstract byte[] readNew() throws IOException;
+
+        // Bytes appended but not read yet
+        abstract long backlog();
+
+        abstract void close() throws IOException;
+
+        // Complete records appended since the last call
+        List<Record> poll(long now) throws IOException {
+            List<Record> records = new ArrayList<>();
+            byte[] bytes = readNew();
+            for (byte b : bytes) {
+                partial.write(b);
+                if (b == '"') {
+                    inQuotes = !inQuotes;
+                } else if (b == '\n' && !inQuotes) {
+                    completeRecord(records, now);
+                }
+            }
+            if (ended && partial.size() > 0) {
+                completeRecord(records, now);  // Last line without a newline
+            }
+            return records;
+        }
+
+        private void completeRecord(List<Record> records, long now) throws IOException {
+            offset += partial.size();
+            String text = new String(partial.toByteArray(), StandardCharsets.UTF_8);
+            partial.reset();
+            if (text.trim().isEmpty()) {
+                return;
+            }
+            if (header == null) {
+                header = parseHeader(text);
+            } else {
+                records.add(new Record(this, text, offset, now));
+            }
+        }
+
+        private static String[] parseHeader(String text) throws IOException {
+            try (CSVParser parser = CSVParser.parse(text, CSVFormat.DEFAULT.withTrim())) {
+                CSVRecord record = parser.getRecords().get(0);
+                String[] header = new String[record.size()];
+                for (int i = 0; i < header.length; i++) {
+                    header[i] = record.get(i);
+                }
+                return header;
+            }
+        }
+    }
+
+    // A file read from its committed offset. The header is read from the start of the file when
+    // resuming in the middle; a file that got shorter is read again from the start.
+    private static class FileTail extends Tail {
+        private final File file;
+        private RandomAccessFile in;
+        private long position;
+
+        FileTail(File file, long offset) throws IOException {
+            super(file.getAbsolutePath(), offset);
+            this.file = file;
+            this.position = offset;
+            if (offset > 0) {
+                header = PipelinedIngest.readHeader(file.getPath());
+            }
+        }
+
+        @Override
+        byte[] readNew() throws IOException {
+            long length = file.length();
+            if (length < position) {
+                System.err.println(name + " was truncated, reading it again from the start");
+                position = 0;
+                offset = 0;
+                header = null;
+            }
+            if (length == position) {
+                return new byte[0];
+            }
+            if (in == null) {
+                in = new RandomAccessFile(file, "r");
+            }
+            byte[] bytes = new byte[(int) Math.min(length - position, 1 << 20)];
+            in.seek(position);
+            in.readFully(bytes);
+            position += bytes.length;
+            return bytes;
+        }
+
+        @Override
+        long backlog() {
+            return Math.max(0, file.length() - position);
+        }
+
+        @Override
+        void close() throws IOException {
+            if (in != null) {
+                in.close();
+            }
+        }
+    }
+
+    // Standard input, read by a background thread so polling never blocks
+    private static class StdinTail extends Tail {
+        private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(64);
+        private static final byte[] END = new byte[0];
+
+        StdinTail() {
+            super("-", 0);
+            Thread reader = new Thread(() -> {
+                byte[] buffer = new byte[1 << 16];
+                try {
+                    int n;
+                    while ((n = System.in.read(buffer)) != -1) {
+                        chunks.put(Arrays.copyOf(buffer, n));
+                    }
+                } catch (IOException e) {
+                    System.err.println("Failed to read stdin: " + e);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                try {
+                    chunks.put(END);
+                } catch (InterruptedException e) {
+                    // Shutting down
+                }
+            }, "stdin-reader");
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        @Override
+        byte[] readNew() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] chunk;
+            try {
+                chunk = chunks.poll(10, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return new byte[0];
+            }
+            while (chunk != null) {
+                if (chunk == END) {
+                    ended = true;
+                    break;
+                }
+                bytes.write(chunk, 0, chunk.length);
+                chunk = chunks.poll();
+            }
+            return bytes.toByteArray();
+        }
+
+        @Override
+        long backlog() {
+            return 0;  // Unknown for a pipe
+        }
+
+        @Override
+        void close() {
+        }
+    }
+}
@@ -0,0 +1,433 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Admin;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.util.Bytes;
+
+// Inverted index over hashtags and tweet text, kept in the table <data table>_terms with the
+// same entry layout as SecondaryIndex:
+//
+//     <field id> 0x00 <term> 0x00 <data row key>
+//
+// The entries of one term form its posting list, already sorted by row key, so AND and OR
+// queries are merges of sorted lists and cost time proportional to the postings read rather
+// than to the size of the table. The lists are merged as they are scanned, so a search holds
+// one batch of rows at a time however common its terms are.
+//
+// hashtags is stored the way the CSV has it, as a Python list literal like ['COVID19', 'India'];
+// it is parsed into its elements, so COVID19 no longer matches COVID19Vaccine. Hashtags are
+// case-insensitive on Twitter and are indexed lower-cased. Text is lower-cased, URLs are
+// dropped and the rest is split into runs of letters and digits.
+//
+// Usage: TermIndex rebuild
+//        TermIndex search <all|any> <tag|word>:<term>...
+public class TermIndex {
+
+    public static String Table_Name = "CovidData";
+
+    // Configuration key, settable with -D on the InsertData command line
+    public static final String ENABLED_KEY = "insert.terms";
+
+    private static final Pattern URL = Pattern.compile("https?://\\S+");
+    private static final Pattern NON_WORD = Pattern.compile("[^\\p{L}\\p{N}_]+");
+
+    public enum Field {
+        HASHTAG("tag", TweetColumn.HASHTAGS),
+        TEXT("txt", TweetColumn.TEXT);
+
+        final byte[] id;
+        final TweetColumn column;
+
+        Field(String id, TweetColumn column) {
+            this.id = Bytes.toBytes(id);
+            this.column = column;
+        }
+
+        // Terms of a stored value
+        Set<String> terms(byte[] stored) {
+            if (stored == null) {
+                return Collections.emptySet();
+            }
+            return this == HASHTAG ? hashtags(Bytes.toString(stored)) : words(Bytes.toString(stored));
+        }
+    }
+
+    // One term of a query
+    public static class Term {
+        final Field field;
+        final String value;
+
+        Term(Field field, String value) {
+            this.field = field;
+            this.value = value;
+        }
+
+        @Override
+        public String toString() {
+            return (field == Field.HASHTAG ? "#" : "") + value;
+        }
+    }
+
+    public static Term tag(String hashtag) {
+        String value = hashtag.startsWith("#") ? hashtag.substring(1) : hashtag;
+        return new Term(Field.HASHTAG, value.trim().toLowerCase(Locale.ROOT));
+    }
+
+    public static Term word(String word) {
+        return new Term(Field.TEXT, word.trim().toLowerCase(Locale.ROOT));
+    }
+
+    private final Connection connection;
+    private final TableName dataTable;
+    private final TableName termTable;
+    private final int getBatch;
+
+    public TermIndex(Connection connection, String dataTable, Configuration conf) {
+        this.connection = connection;
+        this.dataTable = TableName.valueOf(dataTable);
+        this.termTable = TableName.valueOf(termTableName(dataTable));
+        this.getBatch = Math.max(1, conf.getInt(SecondaryIndex.GET_BATCH_KEY, 500));
+    }
+
+    public static void main(String[] args) throws IOException {
+        Configuration conf = HBaseConfiguration.create();
+        if (args.length > 0 && args[0].equals("rebuild")) {
+            rebuild(conf, Table_Name);
+            return;
+        }
+        if (args.length < 3 || !args[0].equals("search")) {
+            System.err.println("Usage: TermIndex rebuild | search <all|any> <tag|word>:<term>...");
+            return;
+        }
+
+        List<Term> terms = new ArrayList<>();
+        for (int i = 2; i < args.length; i++) {
+            int colon = args[i].indexOf(':');
+            String value = args[i].substring(colon + 1);
+            terms.add(args[i].startsWith("tag:") ? tag(value) : word(value));
+        }
+        try (Connection connection = ConnectionFactory.createConnection(conf)) {
+            long start = System.currentTimeMillis();
+            List<Result> rows = new TermIndex(connection, Table_Name, conf)
+                    .search(args[1].equals("all"), terms, TweetColumn.USER_NAME, TweetColumn.TEXT);
+            long elapsed = System.currentTimeMillis() - start;
+            TweetLayout layout;
+            try (Table data = connection.getTable(TableName.valueOf(Table_Name))) {
+                layout = TweetLayout.forTable(data.getTableDescriptor());
+            }
+            for (Result row : rows) {
+                System.out.println(layout.getString(row, TweetColumn.USER_NAME) + ": "
+                        + layout.getString(row, TweetColumn.TEXT));
+            }
+            System.out.println(rows.size() + " rows in " + elapsed + " ms");
+        }
+    }
+
+    public static String termTableName(String dataTable) {
+        return dataTable + "_terms";
+    }
+
+    // Create the term table next to the data table unless it exists
+    public static void createTable(Admin admin, String dataTable) throws IOException {
+        TableName name = TableName.valueOf(termTableName(dataTable));
+        if (admin.tableExists(name)) {
+            return;
+        }
+        HTableDescriptor descriptor = new HTableDescriptor(name);
+        descriptor.addFamily(new HColumnDescriptor(SecondaryIndex.FAMILY));
+        admin.createTable(descriptor, new byte[][] {Field.TEXT.id});
+        System.out.println("Term table " + name + " created.");
+    }
+
+    // Elements of a stored hashtag list such as ['COVID19', 'India'], lower-cased
+    static Set<String> hashtags(String stored) {
+        Set<String> tags = new LinkedHashSet<>();
+        if (stored == null) {
+            return tags;
+        }
+        String list = stored.trim();
+        if (list.startsWith("[") && list.endsWith("]")) {
+            list = list.substring(1, list.length() - 1);
+        }
+        for (String element : list.split(",")) {
+            String tag = element.trim();
+            if (tag.length() >= 2 && (tag.charAt(0) == '\'' || tag.charAt(0) == '"')
+                    && tag.charAt(tag.length() - 1) == tag.charAt(0)) {
+                tag = tag.substring(1, tag.length() - 1);
+            }
+            if (tag.startsWith("#")) {
+                tag = tag.substring(1);
+            }
+            if (!tag.isEmpty()) {
+                tags.add(tag.toLowerCase(Locale.ROOT).replace('\0', ' '));
+            }
+        }
+        return tags;
+    }
+
+    // Words of a tweet: lower-cased runs of letters and digits of at least two characters, URLs left out
+    static Set<String> words(String text) {
+        Set<String> words = new LinkedHashSet<>();
+        if (text == null) {
+            return words;
+        }
+        for (String word : NON_WORD.split(URL.matcher(text).replaceAll(" ").toLowerCase(Locale.ROOT))) {
+            if (word.length() >= 2) {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+
+    // Term entries for the hashtags and text a data Put writes, whatever the families it writes them to
+    public static List<Put> entriesFor(Put dataPut) {
+        List<Put> entries = new ArrayList<>();
+        for (Field field : Field.values()) {
+            addEntries(entries, field, TweetLayout.valueOf(dataPut, field.column), dataPut.getRow());
+        }
+        return entries;
+    }
+
+    // Term entries for the current values of a stored row
+    static List<Put> entriesFor(Result row, TweetLayout layout) {
+        List<Put> entries = new ArrayList<>();
+        for (Field field : Field.values()) {
+            addEntries(entries, field, layout.getValue(row, field.column), row.getRow());
+        }
+        return entries;
+    }
+
+    private static void addEntries(List<Put> entries, Field field, byte[] value, byte[] row) {
+        for (String term : field.terms(value)) {
+            entries.add(SecondaryIndex.entry(field.id, term, row));
+        }
+    }
+
+    // Cursor over the posting list of one term, read off its scan as the merge goes
+    private static class Postings implements Closeable {
+        private final ResultScanner scanner;
+        private byte[] row;
+
+        Postings(Table terms, Term term, int caching) throws IOException {
+            this.scanner = SecondaryIndex.openEntries(terms, term.field.id, term.value, caching);
+            advance();
+        }
+
+        // Current row key, null once the list is used up
+        byte[] row() {
+            return row;
+        }
+
+        void advance() throws IOException {
+            Result entry = scanner.next();
+            row = entry == null ? null : SecondaryIndex.rowOf(entry.getRow());
+        }
+
+        // Move to the first row at or after the target
+        void skipTo(byte[] target) throws IOException {
+            while (row != null && Bytes.compareTo(row, target) < 0) {
+                advance();
+            }
+        }
+
+        @Override
+        public void close() {
+            scanner.close();
+        }
+    }
+
+    // Next row in every list, moving all of them past it; null when one of them runs out
+    private static byte[] nextInAll(List<Postings> lists) throws IOException {
+        byte[] target = lists.get(0).row();
+        int agreed = 0;  // Lists in a row positioned on the target
+        for (int i = 0; target != null && agreed < lists.size(); i = (i + 1) % lists.size()) {
+            Postings list = lists.get(i);
+            list.skipTo(target);
+            if (list.row() == null) {
+                return null;
+            }
+            if (Bytes.equals(list.row(), target)) {
+                agreed++;
+            } else {
+                target = list.row();
+                agreed = 1;
+            }
+        }
+        if (target != null) {
+            for (Postings list : lists) {
+                list.advance();
+            }
+        }
+        return target;
+    }
+
+    // Next row in any of the lists, moving those that hold it past it; null when all have run out
+    private static byte[] nextInAny(List<Postings> lists) throws IOException {
+        byte[] least = null;
+        for (Postings list : lists) {
+            if (list.row() != null && (least == null || Bytes.compareTo(list.row(), least) < 0)) {
+                least = list.row();
+            }
+        }
+        if (least != null) {
+            for (Postings list : lists) {
+                if (list.row() != null && Bytes.equals(list.row(), least)) {
+                    list.advance();
+                }
+            }
+        }
+        return least;
+    }
+
+    // Rows containing all (or any) of the terms, with the given columns fetched. The posting
+    // lists are merged straight off their scans and the merged rows fetched a batch at a time,
+    // so no list is ever held whole. The terms are re-checked on the fetched rows, so entries
+    // of rows that have since changed are dropped.
+    public List<Result> search(boolean all, List<Term> terms, TweetColumn... columns) throws IOException {
+        if (terms.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Set<TweetColumn> fetched = new LinkedHashSet<>(Arrays.asList(columns));
+        for (Term term : terms) {
+            fetched.add(term.field.column);
+        }
+
+        List<Result> matches = new ArrayList<>();
+        List<Postings> lists = new ArrayList<>();
+        try (Table index = connection.getTable(termTable);
+             Table data = connection.getTable(dataTable)) {
+            TweetLayout layout = TweetLayout.forTable(data.getTableDescriptor());
+            for (Term term : terms) {
+                lists.add(new Postings(index, term, getBatch));
+            }
+
+            List<Get> gets = new ArrayList<>(getBatch);
+            byte[] row;
+            while ((row = all ? nextInAll(lists) : nextInAny(lists)) != null) {
+                Get get = new Get(row);
+                for (TweetColumn column : fetched) {
+                    get.addColumn(layout.family(column), column.qualifier());
+                }
+                gets.add(get);
+                if (gets.size() >= getBatch) {
+                    addMatches(data.get(gets), all, terms, layout, matches);
+                    gets.clear();
+                }
+            }
+            if (!gets.isEmpty()) {
+                addMatches(data.get(gets), all, terms, layout, matches);
+            }
+        } finally {
+            for (Postings list : lists) {
+                list.close();
+            }
+        }
+        return matches;
+    }
+
+    private static void addMatches(Result[] results, boolean all, List<Term> terms, TweetLayout layout,
+                                   List<Result> matches) {
+        for (Result result : results) {
+            if (!result.isEmpty() && matches(result, all, terms, layout)) {
+                matches.add(result);
+            }
+        }
+    }
+
+    private static boolean matches(Result result, boolean all, List<Term> terms, TweetLayout layout) {
+        for (Term term : terms) {
+            boolean found = term.field.terms(layout.getValue(result, term.field.column)).contains(term.value);
+            if (found != all) {
+                return found;  // First miss decides an AND, first hit decides an OR
+            }
+        }
+        return all;
+    }
+
+    // Write entries for every row of the data table, then delete entries whose row no longer
+    // contains the term
+    public static void rebuild(Configuration conf, String dataTable) throws IOException {
+        long rows = 0, entries = 0, checked = 0, removed = 0;
+        long start = System.currentTimeMillis();
+
+        try (Connection connection = ConnectionFactory.createConnection(conf)) {
+            try (Admin admin = connection.getAdmin()) {
+                createTable(admin, dataTable);
+            }
+
+            TweetLayout layout;
+            try (Table data = connection.getTable(TableName.valueOf(dataTable))) {
+                layout = TweetLayout.forTable(data.getTableDescriptor());
+            }
+            Scan scan = new Scan();
+            for (Field field : Field.values()) {
+                scan.addColumn(layout.family(field.column), field.column.qualifier());
+            }
+            ScanTuning tuning = ScanTuning.fromConf(conf);
+            tuning.apply(scan);
+
+            try (Table data = connection.getTable(TableName.valueOf(dataTable));
+                 BufferedIngest ingest = new BufferedIngest(connection, termTableName(dataTable), conf);
+                 ResultScanner scanner = tuning.open(data, scan)) {
+                for (Result row : scanner) {
+                    List<Put> rowEntries = entriesFor(row, layout);
+                    ingest.addAll(rowEntries);
+                    entries += rowEntries.size();
+                    rows++;
+                }
+                ingest.flush();
+            }
+
+            // Sweep: check every entry against its row in batches
+            long[] swept = IndexSweep.run(connection, TableName.valueOf(termTableName(dataTable)),
+                    TableName.valueOf(dataTable), layout,
+                    Math.max(1, conf.getInt(SecondaryIndex.GET_BATCH_KEY, 500)),
+                    conf.getLong(SecondaryIndex.REPAIR_GRACE_KEY, 60000), new IndexSweep.Check() {
+                        @Override
+                        public TweetColumn columnOf(byte[] entryKey) {
+                            return fieldOf(entryKey).column;
+                        }
+
+                        @Override
+                        public boolean holds(byte[] entryKey, byte[] value) {
+                            return fieldOf(entryKey).terms(value).contains(SecondaryIndex.valueOf(entryKey));
+                        }
+                    });
+            checked = swept[0];
+            removed = swept[1];
+        }
+
+        System.out.println("Indexed terms of " + rows + " rows (" + entries + " entries), checked " + checked
+                + " entries, removed " + removed + " stale ones in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    private static Field fieldOf(byte[] entryKey) {
+        for (Field field : Field.values()) {
+            if (Bytes.startsWith(entryKey, field.id) && entryKey[field.id.length] == 0) {
+                return field;
+            }
+        }
+        throw new IllegalArgumentException("Not a term entry: " + Bytes.toStringBinary(entryKey));
+    }
+}
@@ -0,0 +1,94 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// The K most frequent keys, from a Count-Min sketch and the K keys with the highest estimates
+// seen so far. A key that is not a candidate replaces the weakest one once its estimate is
+// higher; k is small, so the weakest is found by a pass over the candidates. Estimates carry
+// the sketch's error (see CountMinSketch), and a key only makes it in while it is being added,
+// so a key whose count grows evenly across the input can be missed.
+public class TopK {
+
+    private final int k;
+    private final CountMinSketch sketch;
+    private final Map<String, Long> candidates = new HashMap<>();
+
+    public TopK(int k, CountMinSketch sketch) {
+        this.k = k;
+        this.sketch = sketch;
+    }
+
+    // Empty top-K with the same settings, for a partial
+    public TopK emptyCopy() {
+        return new TopK(k, sketch.emptyCopy());
+    }
+
+    public void add(String key, long count) {
+        offer(key, sketch.add(key, count));
+    }
+
+    private void offer(String key, long estimate) {
+        if (candidates.containsKey(key) || candidates.size() < k) {
+            candidates.put(key, estimate);
+            return;
+        }
+        String weakest = null;
+        long weakestEstimate = Long.MAX_VALUE;
+        for (Map.Entry<String, Long> candidate : candidates.entrySet()) {
+            if (candidate.getValue() < weakestEstimate) {
+                weakest = candidate.getKey();
+                weakestEstimate = candidate.getValue();
+            }
+        }
+        if (estimate > weakestEstimate) {
+            candidates.remove(weakest);
+            candidates.put(key, estimate);
+        }
+    }
+
+    // Combine the sketches, then keep the best of both candidate sets by their merged estimates
+    public void merge(TopK other) {
+        sketch.merge(other.sketch);
+        Set<String> keys = new LinkedHashSet<>(candidates.keySet());
+        keys.addAll(other.candidates.keySet());
+        candidates.clear();
+        for (String key : keys) {
+            offer(key, sketch.estimate(key));
+        }
+    }
+
+    // Candidates and their estimates, highest first
+    public List<Map.Entry<String, Long>> top() {
+        List<Map.Entry<String, Long>> top = new ArrayList<>(candidates.entrySet());
+        top.sort((e1, e2) -> e2.getValue().compareTo(e1.getValue()));
+        return top;
+    }
+
+    public CountMinSketch getSketch() {
+        return sketch;
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(k);
+        sketch.write(out);
+        out.writeInt(candidates.size());
+        for (Map.Entry<String, Long> candidate : candidates.entrySet()) {
+            IncrementalRun.writeString(out, candidate.getKey());
+            out.writeLong(candidate.getValue());
+        }
+    }
+
+    public static TopK read(DataInput in) throws IOException {
+        TopK topK = new TopK(in.readInt(), CountMinSketch.read(in));
+        for (int i = in.readInt(); i > 0; i--) {
+            topK.candidates.put(IncrementalRun.readString(in), in.readLong());
+        }
+        return topK;
+    }
+}
@@ -0,0 +1,45 @@
+import org.apache.hadoop.hbase.util.Bytes;
+
+// The thirteen CovidData columns by qualifier, so queries can name a column once instead of
+// repeating Bytes.toBytes("user_location") at every use. Qualifiers are unique across the
+// families; which family a column is stored in depends on the table (see TweetLayout).
+public enum TweetColumn {
+
+    USER_NAME(TweetSchema.USER_NAME),
+    USER_VERIFIED(TweetSchema.USER_VERIFIED),
+    USER_CREATED(TweetSchema.USER_CREATED),
+    USER_DESCRIPTION(TweetSchema.USER_DESCRIPTION),
+    TEXT(TweetSchema.TEXT),
+    HASHTAGS(TweetSchema.HASHTAGS),
+    IS_RETWEET(TweetSchema.IS_RETWEET),
+    USER_FOLLOWERS(TweetSchema.USER_FOLLOWERS),
+    USER_FRIENDS(TweetSchema.USER_FRIENDS),
+    USER_FAVOURITES(TweetSchema.USER_FAVOURITES),
+    SOURCE(TweetSchema.SOURCE),
+    USER_LOCATION(TweetSchema.USER_LOCATION),
+    DATE(TweetSchema.DATE);
+
+    private final byte[] qualifier;
+
+    TweetColumn(byte[] qualifier) {
+        this.qualifier = qualifier;
+    }
+
+    public byte[] qualifier() {
+        return qualifier;
+    }
+
+    public static TweetColumn forQualifier(String qualifier) {
+        for (TweetColumn column : values()) {
+            if (Bytes.toString(column.qualifier).equals(qualifier)) {
+                return column;
+            }
+        }
+        throw new IllegalArgumentException("Unknown column " + qualifier);
+    }
+
+    @Override
+    public String toString() {
+        return Bytes.toString(qualifier);
+    }
+}
@@ -0,0 +1,229 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+
+// Which family each CovidData column is stored in, and whether the values are typed (see
+// TweetSchema): what a client needs to know about a table to plan a scan or build a row. Like the
+// salt buckets, the layout is recorded on the table descriptor, so every client derives it from
+// the table itself:
+//   classic: Users (user_name, user_verified, user_created, user_description), Tweets (text,
+//       hashtags, is_retweet) and Extra (the rest), the layout of every table before the value was
+//       recorded
+//   hot/cold: the columns the analytics reports read in Hot, the others in Cold (see SchemaProfile)
+// The value lists every family with its qualifiers: Hot:user_name,text;Cold:date,...
+//
+// While FamilyMigration moves a table to another layout, the new one is recorded as the next
+// layout. Readers keep to the current families, and writers write both, so rows loaded while the
+// old ones are copied are not lost when the table switches over.
+public class TweetLayout {
+
+    // Table descriptor values holding the current layout and the one being migrated to
+    public static final String FAMILIES_KEY = "covid.families";
+    public static final String NEXT_FAMILIES_KEY = "covid.families.next";
+
+    public static final byte[] HOT = Bytes.toBytes("Hot");
+    public static final byte[] COLD = Bytes.toBytes("Cold");
+
+    private static final TweetColumn[] COLUMNS = TweetColumn.values();
+
+    private final byte[][] families;  // By column ordinal
+    private final byte[][] nextFamilies;  // Null unless migrating
+    private final boolean typed;
+
+    private TweetLayout(byte[][] families, byte[][] nextFamilies, boolean typed) {
+        this.families = families;
+        this.nextFamilies = nextFamilies;
+        this.typed = typed;
+    }
+
+    public static TweetLayout classic(boolean typed) {
+        byte[][] families = new byte[COLUMNS.length][];
+        for (TweetColumn column : COLUMNS) {
+            switch (column) {
+                case USER_NAME:
+                case USER_VERIFIED:
+                case USER_CREATED:
+                case USER_DESCRIPTION:
+                    families[column.ordinal()] = TweetSchema.USERS;
+                    break;
+                case TEXT:
+                case HASHTAGS:
+                case IS_RETWEET:
+                    families[column.ordinal()] = TweetSchema.TWEETS;
+                    break;
+                default:
+                    families[column.ordinal()] = TweetSchema.EXTRA;
+            }
+        }
+        return new TweetLayout(families, null, typed);
+    }
+
+    // The given columns in Hot, the others in Cold
+    public static TweetLayout hotCold(Collection<TweetColumn> hot, boolean typed) {
+        byte[][] families = new byte[COLUMNS.length][];
+        for (TweetColumn column : COLUMNS) {
+            families[column.ordinal()] = hot.contains(column) ? HOT : COLD;
+        }
+        return new TweetLayout(families, null, typed);
+    }
+
+    // Layout of an existing table, as recorded on its descriptor
+    public static TweetLayout forTable(HTableDescriptor descriptor) {
+        boolean typed = TweetSchema.isTyped(descriptor);
+        String current = descriptor.getValue(FAMILIES_KEY);
+        String next = descriptor.getValue(NEXT_FAMILIES_KEY);
+        byte[][] families = current == null ? classic(typed).families : parse(current);
+        return new TweetLayout(families, next == null ? null : parse(next), typed);
+    }
+
+    public boolean isTyped() {
+        return typed;
+    }
+
+    public byte[] family(TweetColumn column) {
+        return families[column.ordinal()];
+    }
+
+    // The families in the order of their first column
+    public List<byte[]> getFamilies() {
+        return distinct(families);
+    }
+
+    public List<TweetColumn> columnsOf(byte[] family) {
+        List<TweetColumn> columns = new ArrayList<>();
+        for (TweetColumn column : COLUMNS) {
+            if (Bytes.equals(families[column.ordinal()], family)) {
+                columns.add(column);
+            }
+        }
+        return columns;
+    }
+
+    public boolean isMigrating() {
+        return nextFamilies != null;
+    }
+
+    // The layout the table is being migrated to, or null
+    public TweetLayout getNext() {
+        return nextFamilies == null ? null : new TweetLayout(nextFamilies, null, typed);
+    }
+
+    // This layout on its way to another one
+    public TweetLayout migratingTo(TweetLayout next) {
+        return new TweetLayout(families, next.families, typed);
+    }
+
+    // Add a value to a row in every family the column is written to, unless it is null
+    public void add(Put put, TweetColumn column, byte[] value) {
+        if (value == null) {
+            return;
+        }
+        byte[] family = families[column.ordinal()];
+        put.addColumn(family, column.qualifier(), value);
+        if (nextFamilies != null && !Bytes.equals(nextFamilies[column.ordinal()], family)) {
+            put.addColumn(nextFamilies[column.ordinal()], column.qualifier(), value);
+        }
+    }
+
+    public byte[] getValue(Result result, TweetColumn column) {
+        return result.getValue(families[column.ordinal()], column.qualifier());
+    }
+
+    public String getString(Result result, TweetColumn column) {
+        return Bytes.toString(getValue(result, column));
+    }
+
+    // Value a Put writes to a column, in whichever family it writes it, or null. Index writers
+    // use it, so they need not know the layout the Put was built for.
+    public static byte[] valueOf(Put put, TweetColumn column) {
+        for (List<Cell> cells : put.getFamilyCellMap().values()) {
+            for (int i = cells.size() - 1; i >= 0; i--) {
+                Cell cell = cells.get(i);
+                if (CellUtil.matchingQualifier(cell, column.qualifier())) {
+                    return CellUtil.cloneValue(cell);
+                }
+            }
+        }
+        return null;
+    }
+
+    // Descriptor value of the current families
+    public String encode() {
+        return encode(families);
+    }
+
+    // Same families for every column; the encoding of the values does not count
+    public boolean sameFamilies(TweetLayout other) {
+        for (TweetColumn column : COLUMNS) {
+            if (!Bytes.equals(families[column.ordinal()], other.families[column.ordinal()])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return encode().replace(";", "; ") + (typed ? ", typed" : "")
+                + (nextFamilies != null ? ", migrating to " + encode(nextFamilies) : "");
+    }
+
+    private static String encode(byte[][] families) {
+        StringBuilder encoded = new StringBuilder();
+        for (byte[] family : distinct(families)) {
+            if (encoded.length() > 0) {
+                encoded.append(';');
+            }
+            encoded.append(Bytes.toString(family)).append(':');
+            boolean first = true;
+            for (TweetColumn column : COLUMNS) {
+                if (Bytes.equals(families[column.ordinal()], family)) {
+                    encoded.append(first ? "" : ",").append(Bytes.toString(column.qualifier()));
+                    first = false;
+                }
+            }
+        }
+        return encoded.toString();
+    }
+
+    private static byte[][] parse(String encoded) {
+        byte[][] families = new byte[COLUMNS.length][];
+        for (String group : encoded.split(";")) {
+            int colon = group.indexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("Bad family layout " + encoded);
+            }
+            byte[] family = Bytes.toBytes(group.substring(0, colon));
+            for (String qualifier : group.substring(colon + 1).split(",")) {
+                families[TweetColumn.forQualifier(qualifier).ordinal()] = family;
+            }
+        }
+        for (TweetColumn column : COLUMNS) {
+            if (families[column.ordinal()] == null) {
+                throw new IllegalArgumentException("Family layout " + encoded + " has no family for " + column);
+            }
+        }
+        return families;
+    }
+
+    private static List<byte[]> distinct(byte[][] families) {
+        List<byte[]> distinct = new ArrayList<>();
+        for (byte[] family : families) {
+            boolean seen = false;
+            for (byte[] other : distinct) {
+                seen |= Bytes.equals(other, family);
+            }
+            if (!seen) {
+                distinct.add(family);
+            }
+        }
+        return distinct;
+    }
+}
@@ -0,0 +1,318 @@
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.metrics.ScanMetrics;
+import org.apache.hadoop.hbase.filter.BinaryComparator;
+import org.apache.hadoop.hbase.filter.ByteArrayComparable;
+import org.apache.hadoop.hbase.filter.CompareFilter.CompareOp;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.filter.QualifierFilter;
+import org.apache.hadoop.hbase.filter.RegexStringComparator;
+import org.apache.hadoop.hbase.filter.SingleColumnValueFilter;
+import org.apache.hadoop.hbase.util.Bytes;
+
+// Declarative description of an analytics scan: the columns the caller reads plus predicates
+// rows have to satisfy. plan() compiles it into a Scan that asks only for the needed qualifiers
+// and evaluates the predicates on the region servers with SingleColumnValueFilters, so only
+// matching rows and the selected cells travel over the network.
+//
+// Columns that are only needed to evaluate a pushed-down predicate (e.g. Tweets:text for a
+// "text is not empty" check) are read by the server but masked out of the results by a
+// QualifierFilter placed after the value filters in the filter list.
+//
+// Predicates on typed values (flags, counts) can only be pushed down once the table is in the
+// typed layout (see TweetSchema); on other tables they are evaluated on the client instead. The
+// families come from the table's TweetLayout.
+public class TweetQuery {
+
+    private final Set<TweetColumn> columns = new LinkedHashSet<>();
+    private final List<Predicate> predicates = new ArrayList<>();
+
+    // Columns the caller wants returned
+    public TweetQuery select(TweetColumn... selected) {
+        for (TweetColumn column : selected) {
+            columns.add(column);
+        }
+        return this;
+    }
+
+    // Add a predicate; all predicates must hold for a row to match
+    public TweetQuery where(Predicate predicate) {
+        predicates.add(predicate);
+        return this;
+    }
+
+    public Set<TweetColumn> getColumns() {
+        return columns;
+    }
+
+    public List<Predicate> getPredicates() {
+        return predicates;
+    }
+
+    // Compile the query. With pushdown off this reproduces the old whole-family scan with every
+    // predicate checked on the client, which is useful as a baseline.
+    public Plan plan(boolean pushdown, TweetLayout layout) {
+        Scan scan = new Scan();
+        List<Predicate> clientPredicates = new ArrayList<>();
+
+        if (!pushdown) {
+            Set<String> families = new LinkedHashSet<>();
+            for (TweetColumn column : allColumns()) {
+                if (families.add(Bytes.toString(layout.family(column)))) {
+                    scan.addFamily(layout.family(column));
+                }
+            }
+            clientPredicates.addAll(predicates);
+            return new Plan(scan, clientPredicates);
+        }
+
+        FilterList valueFilters = new FilterList(FilterList.Operator.MUST_PASS_ALL);
+        Set<TweetColumn> returned = new LinkedHashSet<>(columns);
+        Set<TweetColumn> checkOnly = new LinkedHashSet<>();
+
+        for (Predicate predicate : predicates) {
+            Filter filter = predicate.toFilter(layout);
+            if (filter == null) {
+                clientPredicates.add(predicate);
+                returned.add(predicate.column);
+            } else {
+                valueFilters.addFilter(filter);
+                checkOnly.add(predicate.column);
+            }
+        }
+        checkOnly.removeAll(returned);
+
+        for (TweetColumn column : returned) {
+            scan.addColumn(layout.family(column), column.qualifier());
+        }
+        for (TweetColumn column : checkOnly) {
+            scan.addColumn(layout.family(column), column.qualifier());
+            // Runs after the value filters have seen the cell, then drops it from the result
+            valueFilters.addFilter(new QualifierFilter(CompareOp.NOT_EQUAL, new BinaryComparator(column.qualifier())));
+        }
+        if (!valueFilters.getFilters().isEmpty()) {
+            scan.setFilter(valueFilters);
+        }
+        return new Plan(scan, clientPredicates);
+    }
+
+    // Evaluate every predicate on the client; the result has to contain the predicate columns
+    public boolean matches(Result result) {
+        return matches(new RowAccessor().reset(result));
+    }
+
+    public boolean matches(RowAccessor row) {
+        return matchesAll(predicates, row);
+    }
+
+    // Selected columns plus the columns the predicates read
+    Set<TweetColumn> allColumns() {
+        Set<TweetColumn> all = new LinkedHashSet<>(columns);
+        for (Predicate predicate : predicates) {
+            all.add(predicate.column);
+        }
+        return all;
+    }
+
+    // Compiled form of a query
+    public static class Plan {
+        private final Scan scan;
+        private final List<Predicate> clientPredicates;
+
+        Plan(Scan scan, List<Predicate> clientPredicates) {
+            this.scan = scan;
+            this.clientPredicates = clientPredicates;
+            scan.setScanMetricsEnabled(true);
+        }
+
+        public Scan getScan() {
+            return scan;
+        }
+
+        // True if every predicate runs on the server, so the scan alone selects the matching rows
+        public boolean isFullyPushedDown() {
+            return clientPredicates.isEmpty();
+        }
+
+        // Evaluate the predicates that could not be pushed to the server
+        public boolean matches(Result result) {
+            return matches(new RowAccessor().reset(result));
+        }
+
+        public boolean matches(RowAccessor row) {
+            return matchesAll(clientPredicates, row);
+        }
+
+        // Print what the plan's scan moved over the network; call after its scanner has been closed
+        public void printTransfer(String name, ResultScanner scanner) {
+            ScanMetrics metrics = scanner.getScanMetrics();
+            if (metrics == null) {
+                return;
+            }
+            System.out.println(String.format("%s: %d bytes in results, %d RPCs, %d regions, %d rows filtered on server",
+                    name, metrics.countOfBytesInResults.get(), metrics.countOfRPCcalls.get(),
+                    metrics.countOfRegions.get(), metrics.countOfRowsFiltered.get()));
+        }
+    }
+
+    // A condition on one column
+    public abstract static class Predicate {
+        final TweetColumn column;
+
+        Predicate(TweetColumn column) {
+            this.column = column;
+        }
+
+        public TweetColumn getColumn() {
+            return column;
+        }
+
+        // Client-side check of the stored value (null when the column is missing)
+        public abstract boolean matches(byte[] value);
+
+        // The same check on a row read in place. Predicates that can decide from the raw bytes
+        // override this; the others get a copy of the value.
+        public boolean matches(RowAccessor row) {
+            return matches(row.getValue(column));
+        }
+
+        // Server-side equivalent, or null if it cannot be evaluated there for this table
+        abstract Filter toFilter(TweetLayout layout);
+    }
+
+    // Column present and not empty
+    public static Predicate notEmpty(TweetColumn column) {
+        return new Predicate(column) {
+            @Override
+            public boolean matches(byte[] value) {
+                return value != null && value.length > 0;
+            }
+
+            @Override
+            public boolean matches(RowAccessor row) {
+                return !row.isEmpty(column);
+            }
+
+            @Override
+            Filter toFilter(TweetLayout layout) {
+                return valueFilter(column, layout, CompareOp.NOT_EQUAL, new BinaryComparator(new byte[0]));
+            }
+        };
+    }
+
+    // Flag column set to true
+    public static Predicate isTrue(TweetColumn column) {
+        return new Predicate(column) {
+            @Override
+            public boolean matches(byte[] value) {
+                return Boolean.TRUE.equals(TweetSchema.decodeBoolean(value));
+            }
+
+            @Override
+            public boolean matches(RowAccessor row) {
+                return Boolean.TRUE.equals(row.getBoolean(column));
+            }
+
+            @Override
+            Filter toFilter(TweetLayout layout) {
+                return layout.isTyped() ? valueFilter(column, layout, CompareOp.EQUAL, new BinaryComparator(Bytes.toBytes(true))) : null;
+            }
+        };
+    }
+
+    // Count column strictly greater than the bound
+    public static Predicate greaterThan(TweetColumn column, final long bound) {
+        return new Predicate(column) {
+            @Override
+            public boolean matches(byte[] value) {
+                Long decoded = TweetSchema.decodeLong(value);
+                return decoded != null && decoded > bound;
+            }
+
+            @Override
+            public boolean matches(RowAccessor row) {
+                // A missing or unparseable count is MIN_VALUE, which is never greater
+                return row.getLong(column, Long.MIN_VALUE) > bound;
+            }
+
+            @Override
+            Filter toFilter(TweetLayout layout) {
+                // Big-endian longs sort like numbers as long as both sides are non-negative
+                if (!layout.isTyped() || bound < 0) {
+                    return null;
+                }
+                return valueFilter(column, layout, CompareOp.GREATER, new BinaryComparator(Bytes.toBytes(bound)));
+            }
+        };
+    }
+
+    // String column containing the given text (case-sensitive, like String.contains)
+    public static Predicate contains(TweetColumn column, final String text) {
+        final byte[] encoded = Bytes.toBytes(text);
+        return new Predicate(column) {
+            @Override
+            public boolean matches(byte[] value) {
+                return value != null && Bytes.toString(value).contains(text);
+            }
+
+            // UTF-8 is self-synchronizing, so a substring is a byte substring
+            @Override
+            public boolean matches(RowAccessor row) {
+                return row.contains(column, encoded);
+            }
+
+            @Override
+            Filter toFilter(TweetLayout layout) {
+                // A quoted literal makes the regex comparator a case-sensitive substring match
+                return valueFilter(column, layout, CompareOp.EQUAL, new RegexStringComparator(Pattern.quote(text)));
+            }
+        };
+    }
+
+    // Hashtag list column holding the given tag as a whole element, ignoring case and a leading #.
+    // hashtags is stored as a Python list literal like ['COVID19', 'India'], so unlike contains()
+    // this does not match COVID19Vaccine for COVID19.
+    public static Predicate hasHashtag(TweetColumn column, String tag) {
+        final String wanted = TermIndex.tag(tag).value;
+        return new Predicate(column) {
+            @Override
+            public boolean matches(byte[] value) {
+                return value != null && TermIndex.hashtags(Bytes.toString(value)).contains(wanted);
+            }
+
+            @Override
+            Filter toFilter(TweetLayout layout) {
+                // The tag between the quotes of one list element
+                String element = "['\"]#?" + Pattern.quote(wanted) + "['\"]";
+                return valueFilter(column, layout, CompareOp.EQUAL,
+                        new RegexStringComparator(element, Pattern.CASE_INSENSITIVE | Pattern.DOTALL));
+            }
+        };
+    }
+
+    // Indexed, so the per-row check does not create an iterator
+    private static boolean matchesAll(List<Predicate> predicates, RowAccessor row) {
+        for (int i = 0; i < predicates.size(); i++) {
+            if (!predicates.get(i).matches(row)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Filter valueFilter(TweetColumn column, TweetLayout layout, CompareOp op,
+                                      ByteArrayComparable comparator) {
+        SingleColumnValueFilter filter = new SingleColumnValueFilter(layout.family(column), column.qualifier(), op,
+                comparator);
+        filter.setFilterIfMissing(true);  // Rows without the column never match
+        return filter;
+    }
+}
@@ -0,0 +1,250 @@
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+
+// Column layout and value encoding for CovidData.
+//
+// Counts (user_followers, user_friends, user_favourites) are stored as 8-byte longs, flags
+// (user_verified, is_retweet) as a single Bytes.toBytes(boolean) byte, and timestamps (date,
+// user_created) as 8-byte epoch millis in UTC. Everything else stays a UTF-8 string.
+//
+// Tables loaded before the typed layout hold the same columns as strings. The decoders accept
+// both forms, so the query tools work on old, new and half-migrated tables alike: a typed long
+// is 8 bytes and never consists only of ASCII digits for any realistic count, a typed flag is
+// 1 byte while "True"/"False" are 4-5, and a typed timestamp is 8 bytes while the string form
+// is 19. Unparseable input values are not written at all, which the readers already treat
+// the same way as a missing column.
+public class TweetSchema {
+
+    // Table descriptor value recording that every row has been written in the typed layout
+    public static final String ENCODING_KEY = "covid.encoding";
+    public static final String TYPED_ENCODING = "typed";
+
+    // Column families of the classic layout (see TweetLayout for where a table keeps each column)
+    public static final byte[] USERS = Bytes.toBytes("Users");
+    public static final byte[] TWEETS = Bytes.toBytes("Tweets");
+    public static final byte[] EXTRA = Bytes.toBytes("Extra");
+
+    // Users family in the classic layout
+    public static final byte[] USER_NAME = Bytes.toBytes("user_name");
+    public static final byte[] USER_VERIFIED = Bytes.toBytes("user_verified");
+    public static final byte[] USER_CREATED = Bytes.toBytes("user_created");
+    public static final byte[] USER_DESCRIPTION = Bytes.toBytes("user_description");
+
+    // Tweets family in the classic layout
+    public static final byte[] TEXT = Bytes.toBytes("text");
+    public static final byte[] HASHTAGS = Bytes.toBytes("hashtags");
+    public static final byte[] IS_RETWEET = Bytes.toBytes("is_retweet");
+
+    // Extra family in the classic layout
+    public static final byte[] USER_FOLLOWERS = Bytes.toBytes("user_followers");
+    public static final byte[] USER_FRIENDS = Bytes.toBytes("user_friends");
+    public static final byte[] USER_FAVOURITES = Bytes.toBytes("user_favourites");
+    public static final byte[] SOURCE = Bytes.toBytes("source");
+    public static final byte[] USER_LOCATION = Bytes.toBytes("user_location");
+    public static final byte[] DATE = Bytes.toBytes("date");
+
+    // Lower case of a true string-layout flag
+    private static final byte[] TRUE_TEXT = Bytes.toBytes("true");
+
+    // Format of the date and user_created columns in the CSV and in string-format tables
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    // True if every row of the table is known to be in the typed layout
+    public static boolean isTyped(HTableDescriptor descriptor) {
+        return TYPED_ENCODING.equals(descriptor.getValue(ENCODING_KEY));
+    }
+
+    // Encode a count, or return null if the text is not a number
+    public static byte[] encodeLong(String value) {
+        Long parsed = parseLong(value);
+        return parsed == null ? null : Bytes.toBytes(parsed);
+    }
+
+    // Encode a True/False flag, or return null if the text is neither
+    public static byte[] encodeBoolean(String value) {
+        if ("TRUE".equalsIgnoreCase(value)) {
+            return Bytes.toBytes(true);
+        }
+        if ("FALSE".equalsIgnoreCase(value)) {
+            return Bytes.toBytes(false);
+        }
+        return null;
+    }
+
+    // Encode a "yyyy-MM-dd HH:mm:ss" timestamp as epoch millis, or return null if it does not parse
+    public static byte[] encodeTimestamp(String value) {
+        Long millis = parseTimestamp(value);
+        return millis == null ? null : Bytes.toBytes(millis);
+    }
+
+    // Decode a count in either layout; null when missing or not a number
+    public static Long decodeLong(byte[] value) {
+        if (value == null) {
+            return null;
+        }
+        if (value.length == Bytes.SIZEOF_LONG && !isAsciiNumber(value, 0, value.length)) {
+            return Bytes.toLong(value);
+        }
+        return parseLong(Bytes.toString(value));
+    }
+
+    // Decode a flag in either layout; null when missing, false for anything but true/"TRUE"
+    public static Boolean decodeBoolean(byte[] value) {
+        if (value == null) {
+            return null;
+        }
+        if (value.length == 1) {
+            return value[0] != 0;
+        }
+        return "TRUE".equalsIgnoreCase(Bytes.toString(value));
+    }
+
+    // Decode a timestamp in either layout to epoch millis; null when missing or unparseable
+    public static Long decodeTimestamp(byte[] value) {
+        if (value == null) {
+            return null;
+        }
+        if (value.length == Bytes.SIZEOF_LONG) {
+            return Bytes.toLong(value);
+        }
+        return parseTimestamp(Bytes.toString(value));
+    }
+
+    // Byte-range forms of the decoders, for values read in place (see RowAccessor). Counts that
+    // are plain digits and typed values decode without allocating; other string-layout values
+    // go through the String decoders.
+    public static Boolean decodeBoolean(byte[] array, int offset, int length) {
+        if (length == 1) {
+            return array[offset] != 0;
+        }
+        // "TRUE" in any case; no other character folds to one of its letters
+        if (length != 4) {
+            return false;
+        }
+        for (int i = 0; i < 4; i++) {
+            if ((array[offset + i] | 0x20) != TRUE_TEXT[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static long decodeLong(byte[] array, int offset, int length, long missing) {
+        if (length == Bytes.SIZEOF_LONG && !isAsciiNumber(array, offset, length)) {
+            return Bytes.toLong(array, offset);
+        }
+        // Digits only, up to 18 of them so the value cannot overflow
+        if (length > 0 && length <= 18 && isAsciiDigits(array, offset, length)) {
+            long value = 0;
+            for (int i = offset; i < offset + length; i++) {
+                value = value * 10 + (array[i] - '0');
+            }
+            return value;
+        }
+        Long parsed = parseLong(Bytes.toString(array, offset, length));
+        return parsed == null ? missing : parsed;
+    }
+
+    public static long decodeTimestamp(byte[] array, int offset, int length, long missing) {
+        if (length == Bytes.SIZEOF_LONG) {
+            return Bytes.toLong(array, offset);
+        }
+        Long parsed = parseTimestamp(Bytes.toString(array, offset, length));
+        return parsed == null ? missing : parsed;
+    }
+
+    public static Long getLong(Result result, byte[] family, byte[] qualifier) {
+        return decodeLong(result.getValue(family, qualifier));
+    }
+
+    public static Boolean getBoolean(Result result, byte[] family, byte[] qualifier) {
+        return decodeBoolean(result.getValue(family, qualifier));
+    }
+
+    public static Long getTimestamp(Result result, byte[] family, byte[] qualifier) {
+        return decodeTimestamp(result.getValue(family, qualifier));
+    }
+
+    public static String getString(Result result, byte[] family, byte[] qualifier) {
+        return Bytes.toString(result.getValue(family, qualifier));
+    }
+
+    // True if the stored value is in the string layout of a typed column
+    public static boolean isStringEncoded(byte[] qualifier, byte[] value) {
+        if (Bytes.equals(qualifier, USER_VERIFIED) || Bytes.equals(qualifier, IS_RETWEET)) {
+            return value.length != 1;
+        }
+        if (Bytes.equals(qualifier, USER_FOLLOWERS) || Bytes.equals(qualifier, USER_FRIENDS)
+                || Bytes.equals(qualifier, USER_FAVOURITES)) {
+            return value.length != Bytes.SIZEOF_LONG || isAsciiNumber(value, 0, value.length);
+        }
+        if (Bytes.equals(qualifier, DATE) || Bytes.equals(qualifier, USER_CREATED)) {
+            return value.length != Bytes.SIZEOF_LONG;
+        }
+        return false;
+    }
+
+    // Re-encode a string-layout value of a typed column; null if it cannot be converted
+    public static byte[] reencode(byte[] qualifier, byte[] value) {
+        String text = Bytes.toString(value);
+        if (Bytes.equals(qualifier, USER_VERIFIED) || Bytes.equals(qualifier, IS_RETWEET)) {
+            return encodeBoolean(text);
+        }
+        if (Bytes.equals(qualifier, DATE) || Bytes.equals(qualifier, USER_CREATED)) {
+            return encodeTimestamp(text);
+        }
+        return encodeLong(text);
+    }
+
+    // Format epoch millis the way the CSV writes timestamps
+    public static String formatTimestamp(long millis) {
+        return DATE_FORMAT.format(LocalDateTime.ofEpochSecond(millis / 1000, 0, ZoneOffset.UTC));
+    }
+
+    private static Long parseLong(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static Long parseTimestamp(String value) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        try {
+            return LocalDateTime.parse(value.trim(), DATE_FORMAT).toInstant(ZoneOffset.UTC).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    // Digits with an optional leading sign, as a count in the string layout is written. An
+    // 8-byte value like this is text: a binary long starting with '-' or '+' would be beyond 3e18.
+    private static boolean isAsciiNumber(byte[] array, int offset, int length) {
+        if (length > 1 && (array[offset] == '-' || array[offset] == '+')) {
+            return isAsciiDigits(array, offset + 1, length - 1);
+        }
+        return isAsciiDigits(array, offset, length);
+    }
+
+    private static boolean isAsciiDigits(byte[] array, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            byte b = array[i];
+            if (b < '0' || b > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,127 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.filter.PageFilter;
+import org.apache.hadoop.hbase.filter.PrefixFilter;
+import org.apache.hadoop.hbase.util.Bytes;
+
+// Newest-first tweets of one user, read from the binary row keys of RowKeys. The user's rows
+// are one contiguous range sorted by reverse timestamp, so a time window is a single short
+// scan from <prefix><reverse to> to <prefix><reverse from>: it touches only that user's rows,
+// a PrefixFilter ends it on the region server as soon as the keys leave the user, and a
+// PageFilter together with the client-side limit stops it after the newest N rows.
+//
+// String-keyed tables interleave users with shared name prefixes and sort each user oldest
+// first; RowKeyConversion converts them.
+//
+// Usage: UserTimeline <user name> [limit] [from yyyy-MM-dd HH:mm:ss] [to yyyy-MM-dd HH:mm:ss]
+public class UserTimeline {
+
+    public static String Table_Name = "CovidData";
+
+    // Rows fetched per RPC, at most; a timeline read rarely needs more than one
+    private static final int MAX_CACHING = 1000;
+
+    private final Connection connection;
+    private final TableName dataTable;
+
+    public UserTimeline(Connection connection, String dataTable) {
+        this.connection = connection;
+        this.dataTable = TableName.valueOf(dataTable);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: UserTimeline <user name> [limit] [from] [to]");
+            return;
+        }
+        Configuration conf = HBaseConfiguration.create();
+        int limit = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        long from = args.length > 2 ? parseTime(args[2]) : 0;
+        long to = args.length > 3 ? parseTime(args[3]) : Long.MAX_VALUE;
+
+        try (Connection connection = ConnectionFactory.createConnection(conf)) {
+            long start = System.currentTimeMillis();
+            List<Result> rows = new UserTimeline(connection, Table_Name)
+                    .between(args[0], from, to, limit, TweetColumn.DATE, TweetColumn.TEXT);
+            long elapsed = System.currentTimeMillis() - start;
+            TweetLayout layout;
+            try (Table data = connection.getTable(TableName.valueOf(Table_Name))) {
+                layout = TweetLayout.forTable(data.getTableDescriptor());
+            }
+            for (Result row : rows) {
+                System.out.println(TweetSchema.formatTimestamp(RowKeys.timeOf(row.getRow())) + "  "
+                        + layout.getString(row, TweetColumn.TEXT));
+            }
+            System.out.println(rows.size() + " tweets of " + args[0] + " in " + elapsed + " ms");
+        }
+    }
+
+    private static long parseTime(String value) {
+        byte[] millis = TweetSchema.encodeTimestamp(value);
+        if (millis == null) {
+            throw new IllegalArgumentException("Not a yyyy-MM-dd HH:mm:ss timestamp: " + value);
+        }
+        return Bytes.toLong(millis);
+    }
+
+    // The newest tweets of a user, newest first
+    public List<Result> latest(String user_name, int limit, TweetColumn... columns) throws IOException {
+        return between(user_name, 0, Long.MAX_VALUE, limit, columns);
+    }
+
+    // Tweets of a user dated from..to (epoch millis, both inclusive), newest first, at most
+    // limit of them. Tweets without a date count as dated 0.
+    public List<Result> between(String user_name, long from, long to, int limit, TweetColumn... columns)
+            throws IOException {
+        List<Result> tweets = new ArrayList<>();
+        if (limit <= 0 || from > to) {
+            return tweets;
+        }
+        try (Table data = connection.getTable(dataTable)) {
+            RowKeys rowKeys = RowKeys.forTable(data.getTableDescriptor());
+            TweetLayout layout = TweetLayout.forTable(data.getTableDescriptor());
+            Scan scan = scan(rowKeys, layout, user_name, from, to, limit, columns);
+
+            try (ResultScanner scanner = data.getScanner(scan)) {
+                for (Result result : scanner) {
+                    tweets.add(result);
+                    if (tweets.size() >= limit) {
+                        break;  // The PageFilter limits each region, not the scan
+                    }
+                }
+            }
+        }
+        return tweets;
+    }
+
+    // Range scan over the user's rows in the window, projected onto the columns
+    static Scan scan(RowKeys rowKeys, TweetLayout layout, String user_name, long from, long to, int limit,
+                     TweetColumn... columns) {
+        byte[] prefix = rowKeys.userPrefix(user_name);
+        byte[] start = Bytes.add(prefix, RowKeys.reverseTime(to));
+        // Keys past the reverse of from, up to the end of the user's range when from is 0
+        byte[] stop = from <= 0 ? rowKeys.userStop(user_name)
+                : Bytes.add(prefix, Bytes.toBytes(Long.MAX_VALUE - from + 1));
+
+        Scan scan = new Scan().withStartRow(start).withStopRow(stop);
+        for (TweetColumn column : columns) {
+            scan.addColumn(layout.family(column), column.qualifier());
+        }
+        scan.setFilter(new FilterList(FilterList.Operator.MUST_PASS_ALL,
+                new PrefixFilter(prefix), new PageFilter(limit)));
+        scan.setCaching(Math.min(limit, MAX_CACHING));
+        return scan;
+    }
+}
@@ -0,0 +1,70 @@
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.util.ByteRange;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.SimpleMutableByteRange;
+
+// Counts per distinct value of a column, keyed by the raw value bytes. A value that is already
+// in the map is looked up through a reused probe range and only bumps its counter, so counting
+// a row allocates nothing; the bytes are copied once per distinct value, and decoded to Strings
+// only when the counts are read out.
+public class ValueCounts {
+
+    private final Map<ByteRange, int[]> counts = new HashMap<>();
+    private final SimpleMutableByteRange probe = new SimpleMutableByteRange();
+    private int missing = 0;  // Rows without the column, read out under the null key
+
+    // Count the row's value of the column
+    public void add(RowAccessor row, TweetColumn column, int count) {
+        Cell cell = row.getCell(column);
+        if (cell == null) {
+            missing += count;
+            return;
+        }
+        add(cell.getValueArray(), cell.getValueOffset(), cell.getValueLength(), count);
+    }
+
+    // Count a value given as a String, e.g. from a saved state; null counts as missing
+    public void add(String value, int count) {
+        if (value == null) {
+            missing += count;
+            return;
+        }
+        byte[] bytes = Bytes.toBytes(value);
+        add(bytes, 0, bytes.length, count);
+    }
+
+    private void add(byte[] array, int offset, int length, int count) {
+        probe.set(array, offset, length);
+        int[] counter = counts.get(probe);
+        if (counter == null) {
+            counts.put(new SimpleMutableByteRange(Bytes.copy(array, offset, length)), new int[] {count});
+        } else {
+            counter[0] += count;
+        }
+    }
+
+    public void addAll(ValueCounts other) {
+        for (Map.Entry<ByteRange, int[]> entry : other.counts.entrySet()) {
+            ByteRange value = entry.getKey();
+            add(value.getBytes(), value.getOffset(), value.getLength(), entry.getValue()[0]);
+        }
+        missing += other.missing;
+    }
+
+    // The counts by decoded value
+    public Map<String, Integer> toMap() {
+        Map<String, Integer> map = new HashMap<>();
+        for (Map.Entry<ByteRange, int[]> entry : counts.entrySet()) {
+            ByteRange value = entry.getKey();
+            map.merge(Bytes.toString(value.getBytes(), value.getOffset(), value.getLength()),
+                    entry.getValue()[0], Integer::sum);
+        }
+        if (missing > 0) {
+            map.put(null, missing);
+        }
+        return map;
+    }
+}
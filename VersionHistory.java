@@ -0,0 +1,395 @@
+import java.io.Closeable;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.util.Bytes;
+
+// Version history of the versioned user columns (user_description and the other Users columns,
+// which keep SchemaProfile.USER_VERSIONS versions) for many rows at once.
+//
+//   history: every kept version of a column for a list of rows, newest first
+//   asOf:    the values the rows had at a point in time, through a Get time range [0, t + 1)
+//   diff:    the changes between consecutive versions, or between the values at two times
+//   scan:    every version of a column over a key range, a bounded number of cells at a time
+//
+// Lookups go out as multi-Gets of history.get.batch rows. The client groups each batch by region
+// server and sends one multi request per server, so thousands of rows take a handful of RPCs
+// instead of one per row. The scan sets a batch on the Scan, so a row with many versions arrives
+// in pieces and only the current piece is held in memory.
+//
+// Usage: VersionHistory lookup <csv file> [rows] [as-of yyyy-MM-dd HH:mm:ss]
+//        VersionHistory scan [start row] [stop row]
+public class VersionHistory {
+
+    public static String Table_Name = "CovidData";
+
+    // Configuration keys, settable with -D on the command line
+    public static final String GET_BATCH_KEY = "history.get.batch";
+    public static final String SCAN_BATCH_KEY = "history.scan.batch";
+
+    // One stored version of a column
+    public static class Version {
+        private final byte[] row;
+        private final TweetColumn column;
+        private final long timestamp;
+        private final byte[] value;
+
+        Version(byte[] row, TweetColumn column, long timestamp, byte[] value) {
+            this.row = row;
+            this.column = column;
+            this.timestamp = timestamp;
+            this.value = value;
+        }
+
+        public byte[] getRow() {
+            return row;
+        }
+
+        public TweetColumn getColumn() {
+            return column;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public byte[] getValue() {
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            return column + "@" + timestamp + "=" + Bytes.toStringBinary(value);
+        }
+    }
+
+    // A column whose value differs between two versions or two points in time; before or after
+    // is null when the column did not exist then
+    public static class Change {
+        private final TweetColumn column;
+        private final Version before;
+        private final Version after;
+
+        Change(TweetColumn column, Version before, Version after) {
+            this.column = column;
+            this.before = before;
+            this.after = after;
+        }
+
+        public TweetColumn getColumn() {
+            return column;
+        }
+
+        public Version getBefore() {
+            return before;
+        }
+
+        public Version getAfter() {
+            return after;
+        }
+
+        @Override
+        public String toString() {
+            return column + ": " + (before == null ? "(none)" : Bytes.toString(before.value)) + " -> "
+                    + (after == null ? "(none)" : Bytes.toString(after.value))
+                    + (after == null ? "" : " at " + after.timestamp);
+        }
+    }
+
+    private final Connection connection;
+    private final TableName dataTable;
+    private final int getBatch;
+    private final int scanBatch;
+
+    public VersionHistory(Connection connection, String dataTable, Configuration conf) {
+        this.connection = connection;
+        this.dataTable = TableName.valueOf(dataTable);
+        this.getBatch = Math.max(1, conf.getInt(GET_BATCH_KEY, 500));
+        this.scanBatch = Math.max(1, conf.getInt(SCAN_BATCH_KEY, 1000));
+    }
+
+    public static void main(String[] args) throws IOException {
+        Configuration conf = HBaseConfiguration.create();
+        if (args.length > 1 && args[0].equals("lookup")) {
+            lookup(conf, args);
+        } else if (args.length > 0 && args[0].equals("scan")) {
+            scan(conf, args);
+        } else {
+            System.err.println("Usage: VersionHistory lookup <csv file> [rows] [as-of] | scan [start row] [stop row]");
+        }
+    }
+
+    // Description history of the first rows of a CSV file, in bulk, and optionally their values then
+    private static void lookup(Configuration conf, String[] args) throws IOException {
+        int limit = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        try (Connection connection = ConnectionFactory.createConnection(conf)) {
+            RowKeys rowKeys;
+            try (Table data = connection.getTable(TableName.valueOf(Table_Name))) {
+                rowKeys = RowKeys.forTable(data.getTableDescriptor());
+            }
+            List<byte[]> rows = new ArrayList<>();
+            try (FileReader reader = new FileReader(args[1]);
+                 CSVParser csvParser = new CSVParser(reader, CSVFormat.DEFAULT.withFirstRecordAsHeader().withTrim())) {
+                for (CSVRecord record : csvParser) {
+                    if (rows.size() >= limit) {
+                        break;
+                    }
+                    if (!record.get("user_name").isEmpty()) {
+                        rows.add(rowKeys.rowKey(record.get("user_name"), record.get("date")));
+                    }
+                }
+            }
+
+            VersionHistory history = new VersionHistory(connection, Table_Name, conf);
+            long start = System.currentTimeMillis();
+            Map<String, List<Version>> versions = history.history(rows, TweetColumn.USER_DESCRIPTION, Integer.MAX_VALUE);
+            long elapsed = System.currentTimeMillis() - start;
+            int total = 0, changes = 0;
+            for (List<Version> row : versions.values()) {
+                total += row.size();
+                changes += diff(row).size();
+            }
+            System.out.println(versions.size() + " rows, " + total + " versions, " + changes + " changes in "
+                    + elapsed + " ms (" + ((rows.size() + history.getBatch - 1) / history.getBatch) + " multi-Gets)");
+
+            if (args.length > 3) {
+                long asOf = Bytes.toLong(TweetSchema.encodeTimestamp(args[3]));
+                start = System.currentTimeMillis();
+                Map<String, Result> then = history.asOf(rows, asOf, TweetColumn.USER_DESCRIPTION);
+                System.out.println(then.size() + " rows had a description at " + args[3] + " ("
+                        + (System.currentTimeMillis() - start) + " ms)");
+            }
+        }
+    }
+
+    // Every change of user_description over a key range, streamed
+    private static void scan(Configuration conf, String[] args) throws IOException {
+        byte[] startRow = args.length > 1 ? Bytes.toBytesBinary(args[1]) : new byte[0];
+        byte[] stopRow = args.length > 2 ? Bytes.toBytesBinary(args[2]) : new byte[0];
+        long versions = 0, changes = 0;
+        long start = System.currentTimeMillis();
+        try (Connection connection = ConnectionFactory.createConnection(conf);
+             VersionScanner scanner = new VersionHistory(connection, Table_Name, conf)
+                     .scan(startRow, stopRow, 0, Long.MAX_VALUE, TweetColumn.USER_DESCRIPTION)) {
+            Version newer = null;
+            while (scanner.hasNext()) {
+                Version version = scanner.next();
+                versions++;
+                // Versions of a row arrive newest first, so compare each with the one before it
+                if (newer != null && Bytes.equals(newer.row, version.row) && !Bytes.equals(newer.value, version.value)) {
+                    changes++;
+                }
+                newer = version;
+            }
+        }
+        System.out.println(versions + " versions, " + changes + " changes in "
+                + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    // Up to maxVersions versions of the column for every row that has it, newest first, keyed
+    // by Bytes.toStringBinary of the row key in the order of the rows
+    public Map<String, List<Version>> history(List<byte[]> rows, TweetColumn column, int maxVersions)
+            throws IOException {
+        Map<String, List<Version>> history = new LinkedHashMap<>();
+        try (Table data = connection.getTable(dataTable)) {
+            TweetLayout layout = TweetLayout.forTable(data.getTableDescriptor());
+            for (int from = 0; from < rows.size(); from += getBatch) {
+                List<Get> gets = new ArrayList<>();
+                for (byte[] row : rows.subList(from, Math.min(rows.size(), from + getBatch))) {
+                    Get get = new Get(row);
+                    get.addColumn(layout.family(column), column.qualifier());
+                    get.setMaxVersions(maxVersions);
+                    gets.add(get);
+                }
+                for (Result result : data.get(gets)) {
+                    List<Version> versions = versions(result, layout, column);
+                    if (!versions.isEmpty()) {
+                        history.put(Bytes.toStringBinary(result.getRow()), versions);
+                    }
+                }
+            }
+        }
+        return history;
+    }
+
+    // The latest value of each column written at or before the timestamp, for every row that
+    // had one, keyed like history()
+    public Map<String, Result> asOf(List<byte[]> rows, long timestamp, TweetColumn... columns) throws IOException {
+        Map<String, Result> values = new LinkedHashMap<>();
+        try (Table data = connection.getTable(dataTable)) {
+            TweetLayout layout = TweetLayout.forTable(data.getTableDescriptor());
+            for (int from = 0; from < rows.size(); from += getBatch) {
+                List<Get> gets = new ArrayList<>();
+                for (byte[] row : rows.subList(from, Math.min(rows.size(), from + getBatch))) {
+                    Get get = new Get(row);
+                    for (TweetColumn column : columns) {
+                        get.addColumn(layout.family(column), column.qualifier());
+                    }
+                    get.setTimeRange(0, timestamp == Long.MAX_VALUE ? timestamp : timestamp + 1);
+                    gets.add(get);
+                }
+                for (Result result : data.get(gets)) {
+                    if (!result.isEmpty()) {
+                        values.put(Bytes.toStringBinary(result.getRow()), result);
+                    }
+                }
+            }
+        }
+        return values;
+    }
+
+    // Columns of the rows whose value at the one time differs from their value at the other
+    public Map<String, List<Change>> diff(List<byte[]> rows, long before, long after, TweetColumn... columns)
+            throws IOException {
+        Map<String, Result> then = asOf(rows, before, columns);
+        Map<String, Result> now = asOf(rows, after, columns);
+        TweetLayout layout;
+        try (Table data = connection.getTable(dataTable)) {
+            layout = TweetLayout.forTable(data.getTableDescriptor());
+        }
+
+        Map<String, List<Change>> diffs = new LinkedHashMap<>();
+        for (byte[] row : rows) {
+            String key = Bytes.toStringBinary(row);
+            List<Change> changes = new ArrayList<>();
+            for (TweetColumn column : columns) {
+                Version was = latest(then.get(key), layout, column);
+                Version is = latest(now.get(key), layout, column);
+                if (was == null ? is != null : is == null || !Bytes.equals(was.value, is.value)) {
+                    changes.add(new Change(column, was, is));
+                }
+            }
+            if (!changes.isEmpty()) {
+                diffs.put(key, changes);
+            }
+        }
+        return diffs;
+    }
+
+    // Changes between consecutive versions of one row's column, oldest first; versions as
+    // history() returns them, newest first
+    public static List<Change> diff(List<Version> versions) {
+        List<Change> changes = new ArrayList<>();
+        for (int i = versions.size() - 1; i > 0; i--) {
+            Version before = versions.get(i);
+            Version after = versions.get(i - 1);
+            if (!Bytes.equals(before.value, after.value)) {
+                changes.add(new Change(after.column, before, after));
+            }
+        }
+        return changes;
+    }
+
+    // Every version of the columns written in [minTime, maxTime) over [startRow, stopRow), row by
+    // row and newest first within a column. Close the scanner when done.
+    public VersionScanner scan(byte[] startRow, byte[] stopRow, long minTime, long maxTime, TweetColumn... columns)
+            throws IOException {
+        Table data = connection.getTable(dataTable);
+        try {
+            TweetLayout layout = TweetLayout.forTable(data.getTableDescriptor());
+            Scan scan = new Scan().withStartRow(startRow).withStopRow(stopRow);
+            for (TweetColumn column : columns) {
+                scan.addColumn(layout.family(column), column.qualifier());
+            }
+            scan.setMaxVersions();
+            scan.setTimeRange(minTime, maxTime);
+            scan.setBatch(scanBatch);  // At most this many cells per Result, however many versions a row has
+            scan.setCaching(Math.max(1, scanBatch / 4));
+            scan.setCacheBlocks(false);
+            return new VersionScanner(data, data.getScanner(scan));
+        } catch (IOException | RuntimeException e) {
+            data.close();
+            throw e;
+        }
+    }
+
+    // Versions of a column in a Get or Scan result, newest first, without the deprecated KeyValue API
+    public static List<Version> versions(Result result, TweetLayout layout, TweetColumn column) {
+        List<Version> versions = new ArrayList<>();
+        for (Cell cell : result.getColumnCells(layout.family(column), column.qualifier())) {
+            versions.add(new Version(result.getRow(), column, cell.getTimestamp(), CellUtil.cloneValue(cell)));
+        }
+        return versions;
+    }
+
+    private static Version latest(Result result, TweetLayout layout, TweetColumn column) {
+        if (result == null) {
+            return null;
+        }
+        Cell cell = result.getColumnLatestCell(layout.family(column), column.qualifier());
+        return cell == null ? null : new Version(result.getRow(), column, cell.getTimestamp(), CellUtil.cloneValue(cell));
+    }
+
+    // Iterator over the versions of a scan, holding one Result at a time
+    public static class VersionScanner implements Iterator<Version>, Closeable {
+        private final Table table;
+        private final ResultScanner scanner;
+        private Cell[] cells = new Cell[0];
+        private byte[] row;
+        private int next = 0;
+
+        VersionScanner(Table table, ResultScanner scanner) {
+            this.table = table;
+            this.scanner = scanner;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next >= cells.length) {
+                Result result;
+                try {
+                    result = scanner.next();
+                } catch (IOException e) {
+                    throw new IllegalStateException("Version scan failed", e);
+                }
+                if (result == null) {
+                    return false;
+                }
+                cells = result.isEmpty() ? new Cell[0] : result.rawCells();
+                row = result.getRow();
+                next = 0;
+            }
+            return true;
+        }
+
+        @Override
+        public Version next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Cell cell = cells[next++];
+            TweetColumn column = TweetColumn.forQualifier(Bytes.toString(CellUtil.cloneQualifier(cell)));
+            return new Version(row, column, cell.getTimestamp(), CellUtil.cloneValue(cell));
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                scanner.close();
+            } finally {
+                table.close();
+            }
+        }
+    }
+}
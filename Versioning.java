@@ -1,55 +1,79 @@
 import java.util.List;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HBaseConfiguration;
-import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.client.Get;
-import org.apache.hadoop.hbase.client.HTable;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Table;
 import org.apache.hadoop.hbase.util.Bytes;
 
 public class Versioning {
 
     public static String Table_Name = "CovidData";
 
-    @SuppressWarnings("deprecation")
     public static void main(String[] argv) throws Exception {
         Configuration conf = HBaseConfiguration.create();
-        @SuppressWarnings({ "resource" })
-        HTable hTable = new HTable(conf, Table_Name);
-        
-        String row_key = "APN_NEWS_2020-07-25_12:25:35";  
+        TableName name = TableName.valueOf(Table_Name);
+        try (AsyncClient client = AsyncClient.create(conf);
+             Table hTable = client.getConnection().getTable(name)) {
+            run(conf, client, name, hTable);
+        }
+    }
+
+    private static void run(Configuration conf, AsyncClient client, TableName name, Table hTable) throws Exception {
+        // The tweet behind the logical key APN_NEWS_2020-07-25_12:25:35, mapped onto the stored key
+        // in the table's format (salted tables prefix it with a bucket, binary keys encode both parts)
+        byte[] row = RowKeys.forTable(hTable.getTableDescriptor()).rowKey("APN NEWS", "2020-07-25 12:25:35");
+        // And find the family user_description is kept in
+        TweetLayout layout = TweetLayout.forTable(hTable.getTableDescriptor());
+        // Profile reads and writes both go through the cache, which drops a row once a write to it
+        // is applied, so the cache stays current
+        ProfileCache profiles = new ProfileCache(hTable, conf);
         
         
         // Insert multiple descriptions for the same user
-        insertUserDescription(hTable, row_key, "User description version 1");
-        insertUserDescription(hTable, row_key, "User description version 2");
-        insertUserDescription(hTable, row_key, "User description version 3");
+        // Each write is waited for, so the versions get their timestamps in order
+        insertUserDescription(client, profiles, layout, row, "User description version 1");
+        System.out.println("Cached profile: " + profiles.get(row));
+        insertUserDescription(client, profiles, layout, row, "User description version 2");
+        insertUserDescription(client, profiles, layout, row, "User description version 3");
 
         // Retrieve and display the different versions of the user description
-        getUserDescriptionVersions(hTable, row_key);
+        getUserDescriptionVersions(client, name, layout, row);
+
+        // The latest description: fetched once after the last write, then served from memory
+        System.out.println("Cached profile: " + profiles.get(row));
+        System.out.println("Cached profile: " + profiles.get(row));
+        System.out.println("Profile cache: " + profiles.getStats());
     }
 
     // Method to insert a user description for a specific user
-    private static void insertUserDescription(HTable hTable, String row_key, String user_description) throws Exception {
-        Put put = new Put(Bytes.toBytes(row_key));
-        put.add(Bytes.toBytes("Users"), Bytes.toBytes("user_description"), Bytes.toBytes(user_description));
-        hTable.put(put);
+    private static void insertUserDescription(AsyncClient client, ProfileCache profiles,
+                                              TweetLayout layout, byte[] row_key, String user_description) throws Exception {
+        Put put = new Put(row_key);
+        layout.add(put, TweetColumn.USER_DESCRIPTION, Bytes.toBytes(user_description));
+        profiles.put(client, put).join();  // Drops the cached profile of the row once written
         System.out.println("Inserted user description: " + user_description);
     }
 
     // Method to retrieve and display different versions of the user description
-    private static void getUserDescriptionVersions(HTable hTable, String row_key) throws Exception {
-        Get get = new Get(Bytes.toBytes(row_key));
+    private static void getUserDescriptionVersions(AsyncClient client, TableName name, TweetLayout layout,
+                                                   byte[] row_key) throws Exception {
+        Get get = new Get(row_key);
         get.setMaxVersions(4);  // Retrieve up to 4 versions
 
-        Result result = hTable.get(get);
-        List<KeyValue> allVersions = result.getColumn(Bytes.toBytes("Users"), Bytes.toBytes("user_description"));
+        Result result = client.get(name, get).join();
+        List<VersionHistory.Version> allVersions = VersionHistory.versions(result, layout, TweetColumn.USER_DESCRIPTION);
 
-        // Display each version of the user description
+        // Display each version of the user description, then what changed between them
+        // (VersionHistory does the same for many rows at once)
         System.out.println("Retrieved versions for user_description:");
-        for (KeyValue kv : allVersions) {
-            System.out.println(new String(kv.getValue()));
+        for (VersionHistory.Version version : allVersions) {
+            System.out.println(version.getTimestamp() + ": " + Bytes.toString(version.getValue()));
+        }
+        for (VersionHistory.Change change : VersionHistory.diff(allVersions)) {
+            System.out.println(change);
         }
     }
 }
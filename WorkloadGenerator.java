@@ -0,0 +1,245 @@
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.SplittableRandom;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+
+// Writes any number of synthetic tweets in the layout of top_covid19_tweets.csv, for load tests
+// at sizes the 100-row sample cannot show. The distributions follow the sample:
+//  - tweets per user are Zipf-distributed, so a few accounts post a large share of the rows, and
+//    all rows of a user carry the same profile (name, location, counts, creation date, source)
+//  - followers, friends and favourites are log-normal, around 1,000 followers with a long tail
+//  - about 12% of users are verified, mostly the ones with many followers
+//  - a fifth of the users have no location; the others draw from a Zipf-weighted list of common
+//    places or, one in four, from a long tail that grows with the row count
+//  - a third of the tweets have no hashtags, the rest one to three Zipf-weighted ones, mostly
+//    spellings of COVID19
+//  - the sources and their shares are the sample's
+// Tweets are one second apart, newest first, so no two rows of a user share a row key.
+// The same row count and seed always give the same file.
+//
+// Usage: WorkloadGenerator <rows> <output csv> [seed]
+public class WorkloadGenerator {
+
+    public static final String[] HEADER = {
+            "user_name", "user_location", "user_description", "user_created", "user_followers",
+            "user_friends", "user_favourites", "user_verified", "date", "text", "hashtags", "source",
+            "is_retweet"};
+
+    private static final double TWEETS_PER_USER = 5;
+    private static final double USER_SKEW = 0.9;
+    private static final double PLACE_SKEW = 1.1;
+    private static final double HASHTAG_SKEW = 1.3;
+
+    private static final String[] FIRST_NAMES = {
+            "Aarav", "Priya", "John", "Maria", "Wei", "Fatima", "James", "Ananya", "Carlos", "Olivia",
+            "Mohammed", "Sofia", "Rahul", "Emma", "Chinedu", "Yuki", "David", "Aisha", "Lucas", "Meera",
+            "Tom", "Grace", "Arjun", "Laura", "Kwame", "Sarah", "Vikram", "Ana", "Daniel", "Divya"};
+    private static final String[] LAST_NAMES = {
+            "Sharma", "Smith", "Kumar", "Garcia", "Chen", "Khan", "Johnson", "Patel", "Silva", "Brown",
+            "Okafor", "Tanaka", "Williams", "Reddy", "Martin", "Ali", "Jones", "Singh", "Lopez", "Nair",
+            "Basile", "Mensah", "Iyer", "Rossi", "Taylor", "Das", "Moreau", "Costa", "Wilson", "Rao"};
+
+    // Most common first, as in the sample
+    private static final String[] PLACES = {
+            "India", "New Delhi, India", "United States", "Mumbai, India", "London, England",
+            "Chennai, India", "USA", "New York, NY", "Bengaluru, India", "Lagos, Nigeria",
+            "United Kingdom", "San Francisco", "Washington, DC", "Los Angeles, CA", "Toronto, Ontario",
+            "Nairobi, Kenya", "Hyderabad, India", "Canada", "Australia", "Johannesburg, South Africa",
+            "California, USA", "Kolkata, India", "Sydney, New South Wales", "Texas, USA", "Pune, India",
+            "Manila, Philippines", "Global", "Karachi, Pakistan", "Dubai, United Arab Emirates",
+            "Ireland", "Chicago, IL", "Florida, USA", "Kathmandu, Nepal", "Singapore", "Atlanta, GA",
+            "Accra, Ghana", "Worldwide", "Earth", "Pewee Valley, KY", "astroworld"};
+    private static final String[] REGIONS = {
+            "India", "USA", "UK", "Nigeria", "Canada", "Australia", "Kenya", "Philippines", "Pakistan",
+            "South Africa"};
+
+    private static final String[] HASHTAGS = {
+            "COVID19", "Covid19", "coronavirus", "covid19", "COVID", "India", "pandemic", "Lockdown",
+            "TamilNadu", "CoronaVirusUpdates", "StaySafe", "WearAMask", "SocialDistancing", "vaccine",
+            "COVID_19", "Corona", "Recruiting", "covidPositive", "healthcare", "news"};
+
+    // Sources and their shares in the sample
+    private static final String[] SOURCES = {
+            "Twitter Web App", "Twitter for Android", "Twitter for iPhone", "TweetCaster for Android",
+            "TweetDeck", "Twitter for iPad", "Hootsuite Inc.", "Buffer", "Instagram", "IFTTT"};
+    private static final double[] SOURCE_SHARES = {0.29, 0.28, 0.20, 0.07, 0.06, 0.03, 0.02, 0.02, 0.02, 0.01};
+
+    private static final String[] WORDS = {
+            "the", "cases", "today", "new", "of", "in", "to", "and", "lockdown", "hospital", "people",
+            "testing", "positive", "recovered", "health", "stay", "home", "mask", "government", "report",
+            "deaths", "vaccine", "trial", "schools", "reopen", "update", "district", "patients", "doctors",
+            "please", "safe", "week", "numbers", "rise", "state", "city", "workers", "support", "daily",
+            "data", "our", "community", "frontline", "thank", "you", "more", "than", "confirmed", "total"};
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final long NEWEST_TWEET = LocalDateTime.of(2020, 8, 30, 9, 39, 52).toEpochSecond(ZoneOffset.UTC);
+    private static final long FIRST_ACCOUNT = LocalDateTime.of(2006, 7, 15, 0, 0).toEpochSecond(ZoneOffset.UTC);
+    private static final long LAST_ACCOUNT = LocalDateTime.of(2020, 7, 24, 0, 0).toEpochSecond(ZoneOffset.UTC);
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: WorkloadGenerator <rows> <output csv> [seed]");
+            System.exit(1);
+        }
+        long rows = Long.parseLong(args[0]);
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+
+        long start = System.currentTimeMillis();
+        generate(args[1], rows, seed);
+        System.out.println("Wrote " + rows + " rows to " + args[1] + " in "
+                + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    public static void generate(String path, long rows, long seed) throws IOException {
+        long users = Math.max(1, (long) (rows / TWEETS_PER_USER));
+        long tailPlaces = Math.max(1, users / 10);
+        SplittableRandom random = new SplittableRandom(seed);
+
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(path),
+                StandardCharsets.UTF_8), 1 << 16);
+             CSVPrinter printer = new CSVPrinter(writer, CSVFormat.DEFAULT.withHeader(HEADER))) {
+            StringBuilder text = new StringBuilder();
+            StringBuilder hashtags = new StringBuilder();
+            for (long i = 0; i < rows; i++) {
+                long user = zipf(random, users, USER_SKEW);
+                // The profile comes from the user's own generator, so it is the same in every row
+                SplittableRandom profile = new SplittableRandom(seed * 0x9E3779B97F4A7C15L + user);
+
+                String name = FIRST_NAMES[profile.nextInt(FIRST_NAMES.length)] + " "
+                        + LAST_NAMES[profile.nextInt(LAST_NAMES.length)] + " " + user;
+                String location = location(profile, tailPlaces);
+                String description = sentence(profile, profile.nextInt(100) < 15 ? 0 : 4 + profile.nextInt(20));
+                long created = FIRST_ACCOUNT + (long) (profile.nextDouble() * (LAST_ACCOUNT - FIRST_ACCOUNT));
+                long followers = logNormal(profile, 1000, 2.2);
+                long friends = logNormal(profile, 500, 1.3);
+                long favourites = logNormal(profile, 3000, 2.0);
+                // Logistic in log(followers), centred so about 12% of all users are verified
+                double verifiedChance = 1 / (1 + Math.exp(-(Math.log(followers + 1) - Math.log(30000))));
+                boolean verified = profile.nextDouble() < verifiedChance;
+                String source = SOURCES[pick(profile, SOURCE_SHARES)];
+
+                hashtags(random, hashtags);
+                text.setLength(0);
+                text.append(sentence(random, 8 + random.nextInt(14)));
+                if (hashtags.length() > 0) {
+                    appendTagsToText(hashtags, text);
+                }
+                text.append(" https://t.co/").append(Long.toString(random.nextLong() & Long.MAX_VALUE, 36));
+
+                printer.printRecord(name, location, description, format(created), followers, friends,
+                        favourites, verified ? "True" : "False", format(NEWEST_TWEET - i), text,
+                        hashtags, source, "False");
+                if ((i + 1) % 1000000 == 0) {
+                    System.out.println("Generated " + (i + 1) + " rows");
+                }
+            }
+        }
+    }
+
+    // Rank in [0, n) with P(k) proportional to 1 / (k + 1)^s, by inverting the continuous
+    // power law on [1, n + 1); close to the discrete Zipf law and O(1) per draw for any n
+    static long zipf(SplittableRandom random, long n, double s) {
+        double u = random.nextDouble();
+        double x;
+        if (Math.abs(s - 1) < 1e-9) {
+            x = Math.pow(n + 1, u);
+        } else {
+            double a = 1 - s;
+            x = Math.pow((Math.pow(n + 1, a) - 1) * u + 1, 1 / a);
+        }
+        return Math.min(n - 1, Math.max(0, (long) x - 1));
+    }
+
+    private static String location(SplittableRandom random, long tailPlaces) {
+        int draw = random.nextInt(100);
+        if (draw < 20) {
+            return "";
+        }
+        if (draw < 80) {
+            return PLACES[(int) zipf(random, PLACES.length, PLACE_SKEW)];
+        }
+        long place = random.nextLong(tailPlaces);
+        return "Town " + place + ", " + REGIONS[(int) (place % REGIONS.length)];
+    }
+
+    // Python list literal as in the sample, e.g. ['TamilNadu', 'COVID19'], or empty
+    private static void hashtags(SplittableRandom random, StringBuilder out) {
+        out.setLength(0);
+        int draw = random.nextInt(100);
+        int count = draw < 32 ? 0 : draw < 80 ? 1 : draw < 95 ? 2 : 3;
+        if (count == 0) {
+            return;
+        }
+        int[] picked = new int[count];
+        out.append('[');
+        for (int i = 0; i < count; i++) {
+            int tag;
+            boolean repeated;
+            do {
+                tag = (int) zipf(random, HASHTAGS.length, HASHTAG_SKEW);
+                repeated = false;
+                for (int j = 0; j < i; j++) {
+                    repeated |= picked[j] == tag;
+                }
+            } while (repeated);
+            picked[i] = tag;
+            if (i > 0) {
+                out.append(", ");
+            }
+            out.append('\'').append(HASHTAGS[tag]).append('\'');
+        }
+        out.append(']');
+    }
+
+    // The tags of the list literal as #tags at the end of the text
+    private static void appendTagsToText(StringBuilder hashtags, StringBuilder text) {
+        for (String tag : hashtags.substring(1, hashtags.length() - 1).split(", ")) {
+            text.append(" #").append(tag, 1, tag.length() - 1);
+        }
+    }
+
+    private static String sentence(SplittableRandom random, int words) {
+        StringBuilder sentence = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                sentence.append(' ');
+            }
+            sentence.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return sentence.toString();
+    }
+
+    private static long logNormal(SplittableRandom random, double median, double sigma) {
+        return Math.round(median * Math.exp(sigma * gaussian(random)));
+    }
+
+    // Box-Muller, as SplittableRandom has no nextGaussian()
+    private static double gaussian(SplittableRandom random) {
+        double u = 1 - random.nextDouble();
+        return Math.sqrt(-2 * Math.log(u)) * Math.cos(2 * Math.PI * random.nextDouble());
+    }
+
+    private static int pick(SplittableRandom random, double[] shares) {
+        double draw = random.nextDouble();
+        for (int i = 0; i < shares.length - 1; i++) {
+            draw -= shares[i];
+            if (draw < 0) {
+                return i;
+            }
+        }
+        return shares.length - 1;
+    }
+
+    private static String format(long epochSecond) {
+        return LocalDateTime.ofEpochSecond(epochSecond, 0, ZoneOffset.UTC).format(DATE_FORMAT);
+    }
+}
@@ -0,0 +1,109 @@
+package covid.benchmarks;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.invoke.MethodHandle;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.apache.hadoop.hbase.client.Put;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// The per-row work of InsertData before anything reaches HBase: CSV parsing, the row key
+// (logicalKey's replaceAll("\\s+", "_") plus salting, or the binary key) and the Put with the
+// thirteen columns.
+// Every operation handles one record of the sample, cycling through it, except parseCsvSample.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class IngestBenchmark {
+
+    private static final MethodHandle NEW_ROW_KEYS = Repo.constructor("RowKeys", int.class);
+    private static final MethodHandle NEW_FORMAT_ROW_KEYS = Repo.constructor("RowKeys", int.class, boolean.class);
+    private static final MethodHandle LOGICAL_KEY = Repo.method("RowKeys", "logicalKey", String.class, String.class);
+    private static final MethodHandle ROW_KEY = Repo.method("RowKeys", "rowKey", String.class, String.class);
+    private static final MethodHandle CLASSIC_LAYOUT = Repo.method("TweetLayout", "classic", boolean.class);
+    private static final MethodHandle BUILD_PUT = Repo.method("InsertData", "buildPut",
+            CSVRecord.class, Repo.type("RowKeys"), Repo.type("TweetLayout"));
+
+    private String text;
+    private List<CSVRecord> records;
+    private Object rowKeys;
+    private Object saltedRowKeys;
+    private Object binaryRowKeys;
+    private Object layout;
+    private int next = 0;
+
+    @Setup
+    public void setup() throws Throwable {
+        text = Tweets.text();
+        records = Tweets.records();
+        rowKeys = (Object) NEW_ROW_KEYS.invokeExact(0);
+        saltedRowKeys = (Object) NEW_ROW_KEYS.invokeExact(16);
+        binaryRowKeys = (Object) NEW_FORMAT_ROW_KEYS.invokeExact(0, true);
+        layout = (Object) CLASSIC_LAYOUT.invokeExact(true);
+    }
+
+    private CSVRecord nextRecord() {
+        CSVRecord record = records.get(next);
+        next = next + 1 == records.size() ? 0 : next + 1;
+        return record;
+    }
+
+    // The whole sample file, read the way InsertData reads it; one operation is the whole file
+    @Benchmark
+    public int parseCsvSample() throws IOException {
+        int fields = 0;
+        try (CSVParser parser = new CSVParser(new StringReader(text), Tweets.FORMAT)) {
+            for (CSVRecord record : parser) {
+                fields += record.size();
+            }
+        }
+        return fields;
+    }
+
+    @Benchmark
+    public String logicalKey() throws Throwable {
+        CSVRecord record = nextRecord();
+        return (String) LOGICAL_KEY.invokeExact(record.get("user_name"), record.get("date"));
+    }
+
+    @Benchmark
+    public byte[] rowKey() throws Throwable {
+        CSVRecord record = nextRecord();
+        return (byte[]) ROW_KEY.invokeExact(rowKeys, record.get("user_name"), record.get("date"));
+    }
+
+    @Benchmark
+    public byte[] saltedRowKey() throws Throwable {
+        CSVRecord record = nextRecord();
+        return (byte[]) ROW_KEY.invokeExact(saltedRowKeys, record.get("user_name"), record.get("date"));
+    }
+
+    // Hash, escaped name and reverse timestamp; parses the date, which the string key only copies
+    @Benchmark
+    public byte[] binaryRowKey() throws Throwable {
+        CSVRecord record = nextRecord();
+        return (byte[]) ROW_KEY.invokeExact(binaryRowKeys, record.get("user_name"), record.get("date"));
+    }
+
+    // Thirteen columns, with the typed encodings of flags, counts and timestamps
+    @Benchmark
+    public Put buildPut() throws Throwable {
+        return (Put) BUILD_PUT.invokeExact(nextRecord(), rowKeys, layout);
+    }
+}
@@ -0,0 +1,196 @@
+package covid.benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.csv.CSVRecord;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// The per-row work of the analytics scans on the client: decoding the fields of a Result,
+// counting tweets per location and bucketing account ages. Each pair compares the older way
+// (Result.getValue, a HashMap<String, Integer>, SimpleDateFormat) with the current code. The
+// rows are the sample records as InsertData writes them, one per operation.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class QueryBenchmark {
+
+    private static final byte[] USERS = Bytes.toBytes("Users");
+    private static final byte[] TWEETS = Bytes.toBytes("Tweets");
+    private static final byte[] EXTRA = Bytes.toBytes("Extra");
+    private static final byte[] USER_NAME = Bytes.toBytes("user_name");
+    private static final byte[] USER_VERIFIED = Bytes.toBytes("user_verified");
+    private static final byte[] USER_CREATED = Bytes.toBytes("user_created");
+    private static final byte[] TEXT = Bytes.toBytes("text");
+    private static final byte[] USER_FOLLOWERS = Bytes.toBytes("user_followers");
+    private static final byte[] USER_LOCATION = Bytes.toBytes("user_location");
+
+    private static final Object COLUMN_USER_NAME = Repo.constant("TweetColumn", "USER_NAME");
+    private static final Object COLUMN_USER_VERIFIED = Repo.constant("TweetColumn", "USER_VERIFIED");
+    private static final Object COLUMN_USER_CREATED = Repo.constant("TweetColumn", "USER_CREATED");
+    private static final Object COLUMN_TEXT = Repo.constant("TweetColumn", "TEXT");
+    private static final Object COLUMN_USER_FOLLOWERS = Repo.constant("TweetColumn", "USER_FOLLOWERS");
+    private static final Object COLUMN_USER_LOCATION = Repo.constant("TweetColumn", "USER_LOCATION");
+
+    private static final Class<?> ROW_ACCESSOR = Repo.type("RowAccessor");
+    private static final Class<?> TWEET_COLUMN = Repo.type("TweetColumn");
+
+    private static final MethodHandle NEW_ROW_KEYS = Repo.constructor("RowKeys", int.class);
+    private static final MethodHandle CLASSIC_LAYOUT = Repo.method("TweetLayout", "classic", boolean.class);
+    private static final MethodHandle BUILD_PUT = Repo.method("InsertData", "buildPut",
+            CSVRecord.class, Repo.type("RowKeys"), Repo.type("TweetLayout"));
+
+    private static final MethodHandle GET_BOOLEAN = Repo.method("TweetSchema", "getBoolean",
+            Result.class, byte[].class, byte[].class);
+    private static final MethodHandle GET_LONG = Repo.method("TweetSchema", "getLong",
+            Result.class, byte[].class, byte[].class);
+    private static final MethodHandle GET_TIMESTAMP = Repo.method("TweetSchema", "getTimestamp",
+            Result.class, byte[].class, byte[].class);
+
+    private static final MethodHandle NEW_ROW_ACCESSOR = Repo.constructor("RowAccessor");
+    private static final MethodHandle RESET = Repo.method("RowAccessor", "reset", Result.class);
+    private static final MethodHandle IS_EMPTY = Repo.method("RowAccessor", "isEmpty", TWEET_COLUMN);
+    private static final MethodHandle ROW_STRING = Repo.method("RowAccessor", "getString", TWEET_COLUMN);
+    private static final MethodHandle ROW_BOOLEAN = Repo.method("RowAccessor", "getBoolean", TWEET_COLUMN);
+    private static final MethodHandle ROW_LONG = Repo.method("RowAccessor", "getLong", TWEET_COLUMN, long.class);
+    private static final MethodHandle ROW_TIMESTAMP = Repo.method("RowAccessor", "getTimestamp", TWEET_COLUMN, long.class);
+
+    private static final MethodHandle LOCATIONS_QUERY = Repo.method("Member1", "tweetsByLocationQuery");
+    private static final MethodHandle NEW_LOCATION_COUNTS = Repo.constructor("Member1$LocationCounts",
+            Repo.type("TweetQuery"), String.class);
+    private static final MethodHandle LOCATION_COUNTS_ADD = Repo.method("Member1$LocationCounts", "add", ROW_ACCESSOR);
+
+    private static final MethodHandle YEARS_BETWEEN = Repo.method("AccountDuration", "calculateYearsBetween",
+            long.class, long.class);
+    private static final MethodHandle NEW_AGE_BUCKETS = Repo.constructor("AccountDuration$AgeBuckets");
+    private static final MethodHandle AGE_BUCKETS_ADD = Repo.method("AccountDuration$AgeBuckets", "add", ROW_ACCESSOR);
+
+    private final List<Result> results = new ArrayList<>();
+    private final List<String> createdTexts = new ArrayList<>();
+    private int next = 0;
+
+    private Object row;
+    private Object locationCounts;
+    private Object ageBuckets;
+    private final Map<String, Integer> locationCountMap = new HashMap<>();
+    private SimpleDateFormat dateFormat;
+    private final long now = System.currentTimeMillis();
+
+    @Setup
+    public void setup() throws Throwable {
+        Object rowKeys = (Object) NEW_ROW_KEYS.invokeExact(0);
+        Object layout = (Object) CLASSIC_LAYOUT.invokeExact(true);  // The families read below
+        for (CSVRecord record : Tweets.records()) {
+            Put put = (Put) BUILD_PUT.invokeExact(record, rowKeys, layout);
+            if (put == null) {
+                continue;
+            }
+            List<Cell> cells = new ArrayList<>();
+            for (List<Cell> family : put.getFamilyCellMap().values()) {
+                cells.addAll(family);
+            }
+            Collections.sort(cells, KeyValue.COMPARATOR);
+            results.add(Result.create(cells));
+            createdTexts.add(record.get("user_created"));
+        }
+        row = (Object) NEW_ROW_ACCESSOR.invokeExact();
+        locationCounts = (Object) NEW_LOCATION_COUNTS.invokeExact((Object) LOCATIONS_QUERY.invokeExact(), "unused.txt");
+        ageBuckets = (Object) NEW_AGE_BUCKETS.invokeExact();
+        dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    }
+
+    private int nextIndex() {
+        int index = next;
+        next = next + 1 == results.size() ? 0 : next + 1;
+        return index;
+    }
+
+    // The columns the reports read, with a copy per value
+    @Benchmark
+    public void decodeWithGetValue(Blackhole blackhole) throws Throwable {
+        Result result = results.get(nextIndex());
+        byte[] text = result.getValue(TWEETS, TEXT);
+        blackhole.consume(text != null && text.length > 0);
+        blackhole.consume(Bytes.toString(result.getValue(EXTRA, USER_LOCATION)));
+        blackhole.consume(Bytes.toString(result.getValue(USERS, USER_NAME)));
+        blackhole.consume((Boolean) GET_BOOLEAN.invokeExact(result, USERS, USER_VERIFIED));
+        blackhole.consume((Long) GET_LONG.invokeExact(result, EXTRA, USER_FOLLOWERS));
+        blackhole.consume((Long) GET_TIMESTAMP.invokeExact(result, USERS, USER_CREATED));
+    }
+
+    // The same columns read in place
+    @Benchmark
+    public void decodeWithRowAccessor(Blackhole blackhole) throws Throwable {
+        Object accessor = (Object) RESET.invokeExact(row, results.get(nextIndex()));
+        blackhole.consume((boolean) IS_EMPTY.invokeExact(accessor, COLUMN_TEXT));
+        blackhole.consume((String) ROW_STRING.invokeExact(accessor, COLUMN_USER_LOCATION));
+        blackhole.consume((String) ROW_STRING.invokeExact(accessor, COLUMN_USER_NAME));
+        blackhole.consume((Boolean) ROW_BOOLEAN.invokeExact(accessor, COLUMN_USER_VERIFIED));
+        blackhole.consume((long) ROW_LONG.invokeExact(accessor, COLUMN_USER_FOLLOWERS, -1L));
+        blackhole.consume((long) ROW_TIMESTAMP.invokeExact(accessor, COLUMN_USER_CREATED, -1L));
+    }
+
+    // Tweets per location in a HashMap<String, Integer>, as LocationCounts used to count
+    @Benchmark
+    public int locationCountsHashMap() {
+        String location = Bytes.toString(results.get(nextIndex()).getValue(EXTRA, USER_LOCATION));
+        int count = locationCountMap.getOrDefault(location, 0) + 1;
+        locationCountMap.put(location, count);
+        return count;
+    }
+
+    @Benchmark
+    public void locationCountsAggregator() throws Throwable {
+        Object accessor = (Object) RESET.invokeExact(row, results.get(nextIndex()));
+        LOCATION_COUNTS_ADD.invokeExact(locationCounts, accessor);
+    }
+
+    // Account age from the CSV text through SimpleDateFormat, as before the typed layout
+    @Benchmark
+    public long accountAgeSimpleDateFormat() throws ParseException, Throwable {
+        long created = dateFormat.parse(createdTexts.get(nextIndex())).getTime();
+        return (long) YEARS_BETWEEN.invokeExact(created, now);
+    }
+
+    // Account age from the typed timestamp with java.time
+    @Benchmark
+    public long accountAgeTyped() throws Throwable {
+        Object accessor = (Object) RESET.invokeExact(row, results.get(nextIndex()));
+        long created = (long) ROW_TIMESTAMP.invokeExact(accessor, COLUMN_USER_CREATED, -1L);
+        return (long) YEARS_BETWEEN.invokeExact(created, now);
+    }
+
+    // What AgeBuckets does per row, which only counts the creation day
+    @Benchmark
+    public void accountAgeBuckets() throws Throwable {
+        Object accessor = (Object) RESET.invokeExact(row, results.get(nextIndex()));
+        AGE_BUCKETS_ADD.invokeExact(ageBuckets, accessor);
+    }
+}
@@ -0,0 +1,84 @@
+package covid.benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+
+// Access to the application classes, which live in the default package and so cannot be
+// imported from a named one (and JMH needs a named package for its generated code). Methods are
+// bound once as MethodHandles with every application type erased to Object; held in static
+// final fields and called with invokeExact, the JIT inlines them like direct calls.
+final class Repo {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private Repo() {
+    }
+
+    static Class<?> type(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Application class not on the classpath: " + name, e);
+        }
+    }
+
+    // Static or instance method, including package-private ones; an instance method takes the
+    // receiver as its first argument
+    static MethodHandle method(String className, String name, Class<?>... parameterTypes) {
+        try {
+            Method method = findMethod(type(className), name, parameterTypes);
+            method.setAccessible(true);
+            return erase(LOOKUP.unreflect(method));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot bind " + className + "." + name, e);
+        }
+    }
+
+    static MethodHandle constructor(String className, Class<?>... parameterTypes) {
+        try {
+            Constructor<?> constructor = type(className).getDeclaredConstructor(parameterTypes);
+            constructor.setAccessible(true);
+            return erase(LOOKUP.unreflectConstructor(constructor));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot bind the constructor of " + className, e);
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static Object constant(String enumName, String constantName) {
+        return Enum.valueOf((Class<Enum>) type(enumName), constantName);
+    }
+
+    private static Method findMethod(Class<?> type, String name, Class<?>[] parameterTypes)
+            throws NoSuchMethodException {
+        for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            try {
+                return c.getDeclaredMethod(name, parameterTypes);
+            } catch (NoSuchMethodException e) {
+                // Try the superclass
+            }
+        }
+        return type.getMethod(name, parameterTypes);
+    }
+
+    // Replace the application types in the handle's signature by Object
+    private static MethodHandle erase(MethodHandle handle) {
+        MethodType type = handle.type();
+        for (int i = 0; i < type.parameterCount(); i++) {
+            if (isApplicationType(type.parameterType(i))) {
+                type = type.changeParameterType(i, Object.class);
+            }
+        }
+        if (isApplicationType(type.returnType())) {
+            type = type.changeReturnType(Object.class);
+        }
+        return handle.asType(type);
+    }
+
+    private static boolean isApplicationType(Class<?> type) {
+        return !type.isPrimitive() && !type.isArray() && type.getName().indexOf('.') < 0;
+    }
+}
@@ -0,0 +1,52 @@
+package covid.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+
+// The sample data for the benchmarks: top_covid19_tweets.csv from the repository, or the file
+// named by -Dbench.csv
+final class Tweets {
+
+    // The format InsertData reads the CSV with
+    static final CSVFormat FORMAT = CSVFormat.DEFAULT.withFirstRecordAsHeader().withTrim();
+
+    private Tweets() {
+    }
+
+    static String text() throws IOException {
+        return new String(Files.readAllBytes(file().toPath()), StandardCharsets.UTF_8);
+    }
+
+    static List<CSVRecord> records() throws IOException {
+        try (CSVParser parser = new CSVParser(new StringReader(text()), FORMAT)) {
+            List<CSVRecord> records = parser.getRecords();
+            if (records.isEmpty()) {
+                throw new IOException("No records in " + file());
+            }
+            return records;
+        }
+    }
+
+    // Run from the repository root or from benchmarks/
+    private static File file() throws IOException {
+        String configured = System.getProperty("bench.csv");
+        if (configured != null) {
+            return new File(configured);
+        }
+        for (String candidate : new String[] {"top_covid19_tweets.csv", "../top_covid19_tweets.csv"}) {
+            File file = new File(candidate);
+            if (file.isFile()) {
+                return file;
+            }
+        }
+        throw new IOException("top_covid19_tweets.csv not found, run from the repository root or set -Dbench.csv");
+    }
+}
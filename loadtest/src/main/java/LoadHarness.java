@@ -0,0 +1,250 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.metrics.ScanMetrics;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+// Load test of the ingest and the analytics at scale, against an HBase mini-cluster in this JVM.
+// For every row count it generates a CSV with WorkloadGenerator (kept, and reused by later runs
+// with the same seed), loads it into fresh tables with InsertData, then runs Member1, Member2,
+// Member3, AccountDuration and the single scan of AnalyticsRun over it. Per phase it records:
+//  - rows/sec over the wall time of the phase
+//  - p50, p99 and max latency from the Metrics histograms: BufferedMutator.mutate() per batch for
+//    the ingest, which blocks while the write buffer is full, and the wait for each scan RPC for
+//    the reports
+//  - the heap at its peak (the sum of the heap pools' peaks) and in use after a full GC, and the
+//    collections during the phase. The region server shares the heap, so this is client and
+//    server together.
+//  - for the reports, the RPCs and bytes of the scan from its ScanMetrics
+// Every phase is printed and appended to results.csv in the working directory. Progress is
+// reported while the phases run and the metrics of the last phase are dumped at the end, see
+// MetricsReporter.
+//
+// Usage: LoadHarness [-D<key>=<value>...] [--rows 100000,1000000,10000000] [--mode buffered]
+//                    [--seed 42]
+// The -D settings apply to InsertData and the reports alike, e.g. -Danalytics.approximate=true
+// or -Dinsert.presplit.regions=8. 10^7 rows need about 3 GB for the CSV and a heap of 8 GB.
+public class LoadHarness extends Configured implements Tool {
+
+    private static final String RESULTS_FILE = "results.csv";
+
+    private String mode = "buffered";
+    private long seed = 42;
+    private final List<Long> scales = new ArrayList<>();
+
+    private HBaseTestingUtility util;
+    private Configuration conf;
+    private ScanMetrics scanMetrics;
+
+    public static void main(String[] args) throws Exception {
+        System.exit(ToolRunner.run(HBaseConfiguration.create(), new LoadHarness(), args));
+    }
+
+    @Override
+    public int run(String[] args) throws Exception {
+        String rows = "100000,1000000,10000000";
+        for (int i = 0; i < args.length; i++) {
+            if ("--rows".equals(args[i]) && i + 1 < args.length) {
+                rows = args[++i];
+            } else if ("--mode".equals(args[i]) && i + 1 < args.length) {
+                mode = args[++i];
+            } else if ("--seed".equals(args[i]) && i + 1 < args.length) {
+                seed = Long.parseLong(args[++i]);
+            } else {
+                System.err.println("Usage: LoadHarness [-D<key>=<value>...] [--rows 100000,1000000,10000000]"
+                        + " [--mode rowwise|buffered|pipelined|bulkload] [--seed 42]");
+                return 1;
+            }
+        }
+        for (String scale : rows.split(",")) {
+            scales.add(Long.parseLong(scale.trim()));
+        }
+
+        // The mini-cluster logs every region operation at INFO, which buries the results
+        Logger.getRootLogger().setLevel(Level.WARN);
+        Metrics.setEnabled(true);
+
+        util = new HBaseTestingUtility(getConf());
+        util.startMiniCluster(1);
+        conf = util.getConfiguration();
+        try {
+            MetricsReporter.run(conf, "LoadHarness", () -> {
+                for (long scale : scales) {
+                    runScale(scale);
+                }
+            });
+        } finally {
+            util.shutdownMiniCluster();
+        }
+        return 0;
+    }
+
+    private void runScale(final long rows) throws Exception {
+        final String csv = new File("tweets-" + rows + "-" + seed + ".csv").getAbsolutePath();
+        if (!new File(csv).isFile()) {
+            long start = System.currentTimeMillis();
+            WorkloadGenerator.generate(csv, rows, seed);
+            System.out.println("Generated " + csv + " in " + (System.currentTimeMillis() - start) + " ms");
+        }
+
+        // Every scale starts from empty tables
+        for (TableName table : util.getHBaseAdmin().listTableNames()) {
+            util.deleteTable(table);
+        }
+
+        System.out.println();
+        System.out.println(String.format("%,d rows, %s ingest", rows, mode));
+        System.out.println(String.format("%-16s %9s %11s %10s %10s %10s %10s %10s %5s %8s %7s %8s",
+                "phase", "seconds", "rows/sec", "p50 us", "p99 us", "max us", "peak MB", "live MB", "GCs", "GC ms",
+                "RPCs", "read MB"));
+
+        Histogram put = Metrics.histogram("put", "table", InsertData.Table_Name);
+        Histogram next = Metrics.histogram(ScanExecutor.NEXT_LATENCY);
+        measure(rows, "InsertData", put, new Phase() {
+            @Override
+            public long run() throws Exception {
+                InsertData insert = new InsertData();
+                insert.setConf(conf);
+                int exit = insert.run(new String[]{mode, csv});
+                if (exit != 0) {
+                    throw new IOException("InsertData " + mode + " failed with exit code " + exit);
+                }
+                return rows;
+            }
+        });
+        measure(rows, "Member1", next, new Phase() {
+            @Override
+            public long run() throws Exception {
+                ScanExecutor executor = new ScanExecutor();
+                Member1.register(executor, conf);
+                return scan(executor);
+            }
+        });
+        measure(rows, "Member2", next, new Phase() {
+            @Override
+            public long run() throws Exception {
+                ScanExecutor executor = new ScanExecutor();
+                Member2.register(executor, conf);
+                return scan(executor);
+            }
+        });
+        measure(rows, "Member3", next, new Phase() {
+            @Override
+            public long run() throws Exception {
+                ScanExecutor executor = new ScanExecutor();
+                Member3.register(executor, conf);
+                return scan(executor);
+            }
+        });
+        measure(rows, "AccountDuration", next, new Phase() {
+            @Override
+            public long run() throws Exception {
+                ScanExecutor executor = new ScanExecutor().register(new AccountDuration.AgeBuckets());
+                return scan(executor);
+            }
+        });
+        measure(rows, "AnalyticsRun", next, new Phase() {
+            @Override
+            public long run() throws Exception {
+                ScanExecutor executor = new ScanExecutor();
+                Member1.register(executor, conf);
+                Member2.register(executor, conf);
+                Member3.register(executor, conf);
+                executor.register(new AccountDuration.AgeBuckets());
+                return scan(executor);
+            }
+        });
+    }
+
+    private long scan(ScanExecutor executor) throws IOException {
+        long rows = ParallelScanner.run(conf, InsertData.Table_Name, executor);
+        scanMetrics = executor.getScanMetrics();
+        return rows;
+    }
+
+    private interface Phase {
+        // Rows handled by the phase
+        long run() throws Exception;
+    }
+
+    private void measure(long scale, String name, Histogram latency, Phase phase) throws Exception {
+        // Start every phase from a collected heap and empty histograms
+        System.gc();
+        List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                pool.resetPeakUsage();
+                heapPools.add(pool);
+            }
+        }
+        Metrics.resetAll();
+        scanMetrics = null;
+        long gcCountBefore = gcCount(), gcMillisBefore = gcMillis();
+
+        long start = System.nanoTime();
+        long rows = phase.run();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long gcs = gcCount() - gcCountBefore, gcMillis = gcMillis() - gcMillisBefore;
+        Histogram.Snapshot latencies = latency.snapshot();
+        long peak = 0;
+        for (MemoryPoolMXBean pool : heapPools) {
+            peak += pool.getPeakUsage().getUsed();
+        }
+        System.gc();
+        long live = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+
+        long rpcs = scanMetrics != null ? scanMetrics.countOfRPCcalls.get() : 0;
+        long bytesRead = scanMetrics != null ? scanMetrics.countOfBytesInResults.get() : 0;
+
+        double rowsPerSecond = seconds > 0 ? rows / seconds : 0;
+        System.out.println(String.format("%-16s %9.2f %11.0f %10.1f %10.1f %10.1f %10d %10d %5d %8d %7d %8d",
+                name, seconds, rowsPerSecond, latencies.percentile(50) / 1e3, latencies.percentile(99) / 1e3,
+                latencies.getMax() / 1e3, peak >> 20, live >> 20, gcs, gcMillis, rpcs, bytesRead >> 20));
+
+        File results = new File(RESULTS_FILE);
+        boolean header = !results.exists();
+        try (PrintWriter out = new PrintWriter(new FileWriter(results, true))) {
+            if (header) {
+                out.println("scale,mode,phase,rows,seconds,rows_per_sec,latency,latency_count,p50_us,p99_us,"
+                        + "max_us,heap_peak_mb,heap_live_mb,gc_count,gc_ms,scan_rpcs,scan_bytes");
+            }
+            out.println(String.format("%d,%s,%s,%d,%.3f,%.0f,%s,%d,%.1f,%.1f,%.1f,%d,%d,%d,%d,%d,%d",
+                    scale, mode, name, rows, seconds, rowsPerSecond, latency.getName(), latencies.getCount(),
+                    latencies.percentile(50) / 1e3, latencies.percentile(99) / 1e3, latencies.getMax() / 1e3,
+                    peak >> 20, live >> 20, gcs, gcMillis, rpcs, bytesRead));
+        }
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return millis;
+    }
+}